@@ -20,8 +20,8 @@ package org.drftpd;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
-import javax.net.SocketFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
 
@@ -84,7 +84,8 @@ public class ActiveConnection extends Connection {
 			sslsock.setSoTimeout(oldTimeout);
 			_sock = sslsock;
 		} else {
-			_sock = SocketFactory.getDefault().createSocket();
+			// channel backed so the slave can send files with transferTo()
+			_sock = SocketChannel.open().socket();
 			if (bufferSize > 0) {
 				_sock.setReceiveBufferSize(bufferSize);
 			}
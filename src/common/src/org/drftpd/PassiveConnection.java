@@ -22,13 +22,13 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 
-import javax.net.ServerSocketFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
 
 
 import org.apache.log4j.Logger;
 import org.drftpd.slave.Connection;
+import org.drftpd.util.ChannelServerSocketFactory;
 import org.drftpd.util.PortRange;
 
 /**
@@ -57,7 +57,7 @@ public class PassiveConnection extends Connection {
 		if (ctx != null) {
 			_serverSocket = portRange.getPort(ctx.getServerSocketFactory(),bindIP);
 		} else {
-			_serverSocket = portRange.getPort(ServerSocketFactory.getDefault(),bindIP);
+			_serverSocket = portRange.getPort(ChannelServerSocketFactory.getDefault(),bindIP);
 		}
 		_serverSocket.setSoTimeout(TIMEOUT);
 	}
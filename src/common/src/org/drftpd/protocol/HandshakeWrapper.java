@@ -24,10 +24,12 @@ import java.io.Serializable;
  * @author fr0w
  * @version $Id: HandshakeWrapper.java 1945 2009-07-25 18:32:01Z djb61 $
  */
-@SuppressWarnings("serial")
 public class HandshakeWrapper implements Serializable {
+	private static final long serialVersionUID = -7628871864421559526L;
+
 	private boolean _status;
 	private Exception _exception;
+	private int _wireVersion;
 
 	/**
 	 * @return true if *all* plugins were found on the slave-side
@@ -67,7 +69,24 @@ public class HandshakeWrapper implements Serializable {
 		_exception = e;
 	}
 	
+	/**
+	 * @return the highest binary wire format version supported by the slave,
+	 * 0 if it only speaks java serialization.
+	 */
+	public int getWireVersion() {
+		return _wireVersion;
+	}
+
+	/**
+	 * Sets the highest binary wire format version supported by the slave.
+	 * @param wireVersion
+	 * @see #getWireVersion()
+	 */
+	public void setWireVersion(int wireVersion) {
+		_wireVersion = wireVersion;
+	}
+
 	public String toString() {
-		return getClass().getName() + "[pluginStatus="+pluginStatus()+"]";
+		return getClass().getName() + "[pluginStatus="+pluginStatus()+",wireVersion="+getWireVersion()+"]";
 	}
 }
@@ -0,0 +1,236 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.protocol;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes objects to an ObjectOutputStream from its own thread so senders never
+ * block on the socket or on each other.<br>
+ * Every message has a priority, pending messages are always written highest
+ * priority first and the stream is flushed as soon as a non bulk message was
+ * written, so a reply never waits behind a burst of bulk messages that was
+ * queued before it.
+ * The number of pending bulk messages is bounded, senders of bulk messages
+ * block until the writer caught up.
+ * @version $Id$
+ */
+public abstract class PrioritizedObjectWriter implements Runnable {
+
+	private static final Logger logger = Logger.getLogger(PrioritizedObjectWriter.class);
+
+	/**
+	 * Latency sensitive messages, transfer setup and keepalives.
+	 */
+	public static final int PRIORITY_CONTROL = 0;
+
+	/**
+	 * Regular requests and replies.
+	 */
+	public static final int PRIORITY_NORMAL = 1;
+
+	/**
+	 * Large or numerous messages, remerge data.
+	 */
+	public static final int PRIORITY_BULK = 2;
+
+	/**
+	 * Maximum number of messages written between two stream resets.
+	 */
+	private static final int RESET_INTERVAL = 64;
+
+	private final ObjectOutputStream _out;
+
+	private final ArrayList<LinkedList<Object>> _queues;
+
+	private final int _bulkLimit;
+
+	private final String _name;
+
+	private boolean _closed;
+
+	private IOException _error;
+
+	/**
+	 * Priority of the last polled message, only used by the writer thread.
+	 */
+	private int _lastPriority;
+
+	/**
+	 * @param out the stream to write to, no other thread may write to it once
+	 * the writer has been started.
+	 * @param name used to name the writer thread.
+	 * @param bulkLimit maximum number of pending bulk messages.
+	 */
+	public PrioritizedObjectWriter(ObjectOutputStream out, String name, int bulkLimit) {
+		_out = out;
+		_name = name;
+		_bulkLimit = bulkLimit;
+		_queues = new ArrayList<LinkedList<Object>>();
+		for (int i = PRIORITY_CONTROL; i <= PRIORITY_BULK; i++) {
+			_queues.add(new LinkedList<Object>());
+		}
+	}
+
+	/**
+	 * Starts the thread writing the queued messages.
+	 */
+	public void start() {
+		Thread t = new Thread(this, _name);
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Queues a message.
+	 * @throws IOException if the writer was closed or failed writing a previous message.
+	 */
+	public synchronized void write(Object message, int priority) throws IOException {
+		if (priority < PRIORITY_CONTROL || priority > PRIORITY_BULK) {
+			throw new IllegalArgumentException("Unknown priority " + priority);
+		}
+		while (priority == PRIORITY_BULK && !_closed
+				&& _queues.get(PRIORITY_BULK).size() >= _bulkLimit) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting to queue " + message);
+			}
+		}
+		checkOpen();
+		_queues.get(priority).add(message);
+		notifyAll();
+	}
+
+	/**
+	 * Stops the writer, messages that were not written yet are dropped.
+	 */
+	public synchronized void close() {
+		_closed = true;
+		for (LinkedList<Object> queue : _queues) {
+			queue.clear();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * @return the number of messages waiting to be written.
+	 */
+	public synchronized int getPending() {
+		int pending = 0;
+		for (LinkedList<Object> queue : _queues) {
+			pending += queue.size();
+		}
+		return pending;
+	}
+
+	private void checkOpen() throws IOException {
+		if (_error != null) {
+			throw new IOException("Writer failed: " + _error.getMessage(), _error);
+		}
+		if (_closed) {
+			throw new IOException("Writer is closed");
+		}
+	}
+
+	/**
+	 * @return the next message to write, null if none is pending and block is false.
+	 * @throws IOException if the writer was closed.
+	 */
+	private synchronized Object poll(boolean block) throws IOException {
+		while (true) {
+			checkOpen();
+			for (int i = PRIORITY_CONTROL; i <= PRIORITY_BULK; i++) {
+				LinkedList<Object> queue = _queues.get(i);
+				if (!queue.isEmpty()) {
+					if (i == PRIORITY_BULK) {
+						// wake up senders waiting for room
+						notifyAll();
+					}
+					_lastPriority = i;
+					return queue.removeFirst();
+				}
+			}
+			if (!block) {
+				return null;
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+
+	public void run() {
+		try {
+			int written = 0;
+			while (true) {
+				Object message = poll(false);
+				if (message == null) {
+					if (written > 0) {
+						_out.reset();
+						written = 0;
+					}
+					_out.flush();
+					message = poll(true);
+				}
+				writeMessage(_out, message);
+				if (++written >= RESET_INTERVAL) {
+					_out.reset();
+					written = 0;
+				}
+				if (_lastPriority != PRIORITY_BULK) {
+					_out.flush();
+				}
+			}
+		} catch (IOException e) {
+			synchronized (this) {
+				if (_closed) {
+					return;
+				}
+				_error = e;
+				for (LinkedList<Object> queue : _queues) {
+					queue.clear();
+				}
+				notifyAll();
+			}
+			logger.debug("Error writing to " + _name, e);
+			writeFailed(e);
+		}
+	}
+
+	/**
+	 * Writes a single message to the stream, called from the writer thread.
+	 * Override to change how messages are encoded.
+	 */
+	protected void writeMessage(ObjectOutputStream out, Object message) throws IOException {
+		out.writeObject(message);
+	}
+
+	/**
+	 * Called from the writer thread when writing to the stream failed,
+	 * pending and later messages are dropped.
+	 */
+	protected abstract void writeFailed(IOException e);
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class PrioritizedObjectWriterTest extends TestCase {
+
+	private static class TestWriter extends PrioritizedObjectWriter {
+		private IOException _failure;
+
+		public TestWriter(ObjectOutputStream out) {
+			super(out, "TestWriter", 2);
+		}
+
+		protected void writeFailed(IOException e) {
+			_failure = e;
+		}
+	}
+
+	public void testPriorityOrder() throws Exception {
+		PipedInputStream pipe = new PipedInputStream(65536);
+		ObjectOutputStream out = new ObjectOutputStream(new PipedOutputStream(pipe));
+		out.flush();
+		ObjectInputStream in = new ObjectInputStream(pipe);
+		TestWriter writer = new TestWriter(out);
+		// queued before the writer runs, so the order only depends on the priorities
+		writer.write("bulk1", PrioritizedObjectWriter.PRIORITY_BULK);
+		writer.write("normal", PrioritizedObjectWriter.PRIORITY_NORMAL);
+		writer.write("bulk2", PrioritizedObjectWriter.PRIORITY_BULK);
+		writer.write("control", PrioritizedObjectWriter.PRIORITY_CONTROL);
+		assertEquals(4, writer.getPending());
+		writer.start();
+		assertEquals("control", in.readObject());
+		assertEquals("normal", in.readObject());
+		assertEquals("bulk1", in.readObject());
+		assertEquals("bulk2", in.readObject());
+		writer.close();
+		assertNull(writer._failure);
+	}
+
+	public void testBulkReplyFollowsBulkData() throws Exception {
+		PipedInputStream pipe = new PipedInputStream(65536);
+		ObjectOutputStream out = new ObjectOutputStream(new PipedOutputStream(pipe));
+		out.flush();
+		ObjectInputStream in = new ObjectInputStream(pipe);
+		final TestWriter writer = new TestWriter(out);
+		writer.start();
+		// remerge data sent by another thread while a control reply goes out
+		Thread remerge = new Thread() {
+			public void run() {
+				try {
+					for (int i = 0; i < 20; i++) {
+						writer.write("remerge" + i, PrioritizedObjectWriter.PRIORITY_BULK);
+					}
+				} catch (IOException e) {
+				}
+			}
+		};
+		remerge.start();
+		writer.write("control", PrioritizedObjectWriter.PRIORITY_CONTROL);
+		remerge.join();
+		// the reply ending the remerge
+		writer.write("remerge done", PrioritizedObjectWriter.PRIORITY_BULK);
+
+		int remergeData = 0;
+		boolean control = false;
+		for (int i = 0; i < 22; i++) {
+			Object message = in.readObject();
+			if (message.equals("control")) {
+				control = true;
+			} else if (message.equals("remerge done")) {
+				assertEquals(20, remergeData);
+			} else {
+				assertEquals("remerge" + remergeData, message);
+				remergeData++;
+			}
+		}
+		assertTrue(control);
+		writer.close();
+		assertNull(writer._failure);
+	}
+
+	public void testClosedWriterRejectsMessages() throws Exception {
+		TestWriter writer = new TestWriter(new ObjectOutputStream(new ByteArrayOutputStream()));
+		writer.close();
+		try {
+			writer.write("message", PrioritizedObjectWriter.PRIORITY_NORMAL);
+			fail("Closed writer accepted a message");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.util;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+
+import javax.net.ServerSocketFactory;
+
+/**
+ * Creates plain server sockets backed by a {@link ServerSocketChannel}.<br>
+ * Sockets accepted from them behave like regular sockets but also return
+ * their channel from {@link java.net.Socket#getChannel()}, which lets the
+ * slave send files with {@link java.nio.channels.FileChannel#transferTo}.
+ * @version $Id$
+ */
+public class ChannelServerSocketFactory extends ServerSocketFactory {
+
+	private static final ChannelServerSocketFactory _factory = new ChannelServerSocketFactory();
+
+	public static ServerSocketFactory getDefault() {
+		return _factory;
+	}
+
+	@Override
+	public ServerSocket createServerSocket() throws IOException {
+		return ServerSocketChannel.open().socket();
+	}
+
+	@Override
+	public ServerSocket createServerSocket(int port) throws IOException {
+		return createServerSocket(port, 0, null);
+	}
+
+	@Override
+	public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+		return createServerSocket(port, backlog, null);
+	}
+
+	@Override
+	public ServerSocket createServerSocket(int port, int backlog,
+			InetAddress bindAddr) throws IOException {
+		ServerSocket ss = createServerSocket();
+		try {
+			ss.bind(new InetSocketAddress(bindAddr, port), backlog);
+		} catch (IOException e) {
+			ss.close();
+			throw e;
+		}
+		return ss;
+	}
+}
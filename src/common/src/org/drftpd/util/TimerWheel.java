@@ -0,0 +1,113 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel tracking a large number of coarse deadlines.<br>
+ * Scheduling is constant time and expiring only looks at the slots of the
+ * ticks that went by, whatever the number of scheduled items.
+ * Deadlines are rounded up to the next tick. This class is not thread safe.
+ * @version $Id$
+ */
+public class TimerWheel<T> {
+
+	private final long _tickMillis;
+
+	private final List<LinkedList<Entry<T>>> _slots;
+
+	/**
+	 * Last tick whose slot was expired.
+	 */
+	private long _currentTick;
+
+	private int _size;
+
+	public TimerWheel(long tickMillis, int slots, long now) {
+		if (tickMillis <= 0 || slots <= 0) {
+			throw new IllegalArgumentException("tickMillis and slots must be positive");
+		}
+		_tickMillis = tickMillis;
+		_slots = new ArrayList<LinkedList<Entry<T>>>(slots);
+		for (int i = 0; i < slots; i++) {
+			_slots.add(new LinkedList<Entry<T>>());
+		}
+		_currentTick = now / tickMillis;
+	}
+
+	/**
+	 * Schedules the item to be returned by the first call to
+	 * {@link #expire(long)} made at or after the deadline.
+	 */
+	public void schedule(T item, long deadline) {
+		long tick = (deadline + _tickMillis - 1) / _tickMillis;
+		if (tick <= _currentTick) {
+			tick = _currentTick + 1;
+		}
+		_slots.get((int) (tick % _slots.size())).add(new Entry<T>(item, deadline));
+		_size++;
+	}
+
+	/**
+	 * Removes and returns the items whose deadline passed.
+	 */
+	public List<T> expire(long now) {
+		ArrayList<T> expired = new ArrayList<T>();
+		long nowTick = now / _tickMillis;
+		if (nowTick <= _currentTick) {
+			return expired;
+		}
+		// past a full turn every slot is looked at once
+		long ticks = Math.min(nowTick - _currentTick, _slots.size());
+		for (long tick = nowTick - ticks + 1; tick <= nowTick; tick++) {
+			Iterator<Entry<T>> iter = _slots.get((int) (tick % _slots.size())).iterator();
+			while (iter.hasNext()) {
+				Entry<T> entry = iter.next();
+				if (entry._deadline <= now) {
+					iter.remove();
+					_size--;
+					expired.add(entry._item);
+				}
+			}
+		}
+		_currentTick = nowTick;
+		return expired;
+	}
+
+	/**
+	 * @return the number of scheduled items.
+	 */
+	public int size() {
+		return _size;
+	}
+
+	private static class Entry<T> {
+		private final T _item;
+
+		private final long _deadline;
+
+		private Entry(T item, long deadline) {
+			_item = item;
+			_deadline = deadline;
+		}
+	}
+}
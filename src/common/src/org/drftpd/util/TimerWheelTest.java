@@ -0,0 +1,68 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class TimerWheelTest extends TestCase {
+
+	public void testExpire() {
+		TimerWheel<String> wheel = new TimerWheel<String>(1000, 8, 0);
+		wheel.schedule("a", 1500);
+		wheel.schedule("b", 2000);
+		wheel.schedule("c", 3500);
+		assertEquals(3, wheel.size());
+		assertTrue(wheel.expire(999).isEmpty());
+		assertTrue(wheel.expire(1999).isEmpty());
+		assertEquals(Arrays.asList("a", "b"), wheel.expire(2000));
+		assertEquals(Collections.singletonList("c"), wheel.expire(4000));
+		assertEquals(0, wheel.size());
+	}
+
+	public void testLaterRounds() {
+		TimerWheel<String> wheel = new TimerWheel<String>(1000, 4, 0);
+		wheel.schedule("late", 10000);
+		for (long now = 1000; now < 10000; now += 1000) {
+			assertTrue(wheel.expire(now).isEmpty());
+		}
+		assertEquals(Collections.singletonList("late"), wheel.expire(10000));
+	}
+
+	public void testPastDeadline() {
+		TimerWheel<String> wheel = new TimerWheel<String>(1000, 4, 5000);
+		wheel.schedule("past", 1000);
+		assertEquals(Collections.singletonList("past"), wheel.expire(6000));
+	}
+
+	public void testLongPause() {
+		TimerWheel<String> wheel = new TimerWheel<String>(1000, 4, 0);
+		wheel.schedule("a", 1000);
+		wheel.schedule("b", 3000);
+		wheel.schedule("c", 60000);
+		assertEquals(new HashSet<String>(Arrays.asList("a", "b")),
+				new HashSet<String>(wheel.expire(30000)));
+		assertEquals(1, wheel.size());
+	}
+}
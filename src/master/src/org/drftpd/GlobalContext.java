@@ -292,6 +292,7 @@ public class GlobalContext {
 				} catch (InterruptedException e) {
 				}
 			}
+			VirtualFileSystem.getVirtualFileSystem().shutdown();
 			logger.info("Shutdown complete, exiting");
 			WrapperManager.stop(0);
 		}
@@ -336,6 +337,8 @@ public class GlobalContext {
 	public void init() {
 		_config = new ConfigManager();
 		_config.reload();
+		eventService.setThreads(Integer.parseInt(getConfig().getMainProperties()
+				.getProperty("event.threads", "4")));
 
 		CommitManager.getCommitManager().start();
 		_timeManager = new TimeManager();
@@ -29,6 +29,7 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.drftpd.GlobalContext;
@@ -36,6 +37,7 @@ import org.drftpd.dynamicdata.Key;
 import org.drftpd.dynamicdata.KeyedMap;
 import org.drftpd.master.config.ConfigInterface;
 import org.drftpd.permissions.PathPermission;
+import org.drftpd.permissions.PathPermissionIndex;
 import org.drftpd.permissions.Permission;
 import org.drftpd.usermanager.User;
 import org.drftpd.util.CommonPluginUtils;
@@ -66,6 +68,7 @@ public class ConfigManager implements ConfigInterface {
 
 	private HashMap<String, ConfigContainer> _directivesMap;
 	private KeyedMap<Key<?>, Object> _keyedMap;
+	private ConcurrentHashMap<String, PathPermissionIndex> _pathPermIndexes;
 	private Properties _mainCfg;
 	
 	private VFSPermissions _vfsPerms;
@@ -211,6 +214,7 @@ public class ConfigManager implements ConfigInterface {
 		
 		_keyedMap.setObject(PATHPERMS, new Hashtable<String, ArrayList<PathPermission>>());
 		_keyedMap.setObject(PERMS, new Hashtable<String, Permission>());
+		_pathPermIndexes = new ConcurrentHashMap<String, PathPermissionIndex>();
 	}
 	
 	private Hashtable<String, ArrayList<PathPermission>> getPathPermsMap() {
@@ -324,6 +328,7 @@ public class ConfigManager implements ConfigInterface {
 		}
 		
 		list.add(perm);
+		_pathPermIndexes.remove(directive);
 	}
 
 
@@ -334,14 +339,19 @@ public class ConfigManager implements ConfigInterface {
 
 	public boolean checkPathPermission(String directive, User user, 
 			DirectoryHandle path, boolean defaults) {
-		ArrayList<PathPermission> perms = getPathPermsMap().get(directive);
-		
-		if (perms != null && !perms.isEmpty()) {
-			for (PathPermission perm : perms) {
-				if (perm.checkPath(path)) {
-					return perm.check(user);
-				}
+		PathPermissionIndex index = _pathPermIndexes.get(directive);
+		if (index == null) {
+			ArrayList<PathPermission> perms = getPathPermsMap().get(directive);
+			if (perms == null) {
+				return defaults;
 			}
+			index = new PathPermissionIndex(perms);
+			_pathPermIndexes.put(directive, index);
+		}
+		
+		PathPermission perm = index.getMatch(path);
+		if (perm != null) {
+			return perm.check(user);
 		}
 		
 		return defaults;
@@ -18,37 +18,193 @@
 package org.drftpd.event;
 
 import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.log4j.Logger;
+import org.bushe.swing.event.ProxySubscriber;
 import org.bushe.swing.event.ThreadSafeEventService;
 
 /**
+ * Event service delivering the events published with publishAsync() on a
+ * pool of threads.<br>
+ * Every subscriber receives the asynchronous events in the order they were
+ * published, one at a time, but different subscribers handle them
+ * concurrently so a slow subscriber only delays its own events.
  * @author djb61
  * @version $Id: AsyncThreadSafeEventService.java 1945 2009-07-25 18:32:01Z djb61 $
  */
 public final class AsyncThreadSafeEventService extends ThreadSafeEventService {
+	private static final Logger logger = Logger.getLogger(AsyncThreadSafeEventService.class);
+
+	private static final int DEFAULT_THREADS = 4;
+
+	/**
+	 * Number of events a subscriber handles before giving its thread to
+	 * another subscriber.
+	 */
+	private static final int LANE_BURST = 32;
 
 	private LinkedBlockingQueue<QueuedAsyncEvent> _eventQueue = new LinkedBlockingQueue<QueuedAsyncEvent>();
 
+	private ThreadPoolExecutor _pool;
+
+	/**
+	 * Lanes of the subscribers having events waiting, by subscriber.
+	 */
+	private final IdentityHashMap<Object, SubscriberLane> _lanes = new IdentityHashMap<Object, SubscriberLane>();
+
+	private final AtomicInteger _pending = new AtomicInteger();
+
+	private final Map<String, SubscriberStatistics> _statistics = new TreeMap<String, SubscriberStatistics>();
+
 	public AsyncThreadSafeEventService() {
 		super();
+		_pool = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new EventThreadFactory());
+		_pool.allowCoreThreadTimeOut(true);
 		new Thread(new EventHandler()).start();
 	}
 
+	/**
+	 * Sets the number of threads delivering the asynchronous events.
+	 */
+	public void setThreads(int threads) {
+		threads = Math.max(threads, 1);
+		if (threads > _pool.getMaximumPoolSize()) {
+			_pool.setMaximumPoolSize(threads);
+			_pool.setCorePoolSize(threads);
+		} else {
+			_pool.setCorePoolSize(threads);
+			_pool.setMaximumPoolSize(threads);
+		}
+	}
+
+	public int getThreads() {
+		return _pool.getMaximumPoolSize();
+	}
+
 	public void publishAsync(Object event) {
+		_pending.incrementAndGet();
 		_eventQueue.add(new QueuedAsyncEvent(event));
 	}
 
 	public void publishAsync(Type genericType, Object event) {
+		_pending.incrementAndGet();
 		_eventQueue.add(new QueuedAsyncEvent(genericType,event));
 	}
 
 	public void publishAsync(String topicName, Object eventObj) {
+		_pending.incrementAndGet();
 		_eventQueue.add(new QueuedAsyncEvent(topicName,eventObj));
 	}
 
+	/**
+	 * @return the number of asynchronous events not yet handled by all their
+	 * subscribers.
+	 */
 	public int getQueueSize() {
-		return _eventQueue.size();
+		return _pending.get();
+	}
+
+	/**
+	 * @return a snapshot of the delivery statistics, by subscriber class.
+	 */
+	public List<SubscriberStatistics> getStatistics() {
+		synchronized (_statistics) {
+			return new ArrayList<SubscriberStatistics>(_statistics.values());
+		}
+	}
+
+	private SubscriberStatistics getStatistics(Object subscriber) {
+		String name = subscriber.getClass().getName();
+		synchronized (_statistics) {
+			SubscriberStatistics stats = _statistics.get(name);
+			if (stats == null) {
+				stats = new SubscriberStatistics(name);
+				_statistics.put(name, stats);
+			}
+			return stats;
+		}
+	}
+
+	/**
+	 * @return the object events are delivered to, the annotated object for
+	 * subscribers created from annotations.
+	 */
+	private static Object getRealSubscriber(Object subscriber) {
+		if (subscriber instanceof ProxySubscriber) {
+			Object proxied = ((ProxySubscriber) subscriber).getProxiedSubscriber();
+			if (proxied != null) {
+				return proxied;
+			}
+		}
+		return subscriber;
+	}
+
+	/**
+	 * Hands the event to the lane of every subscriber.
+	 */
+	private void dispatch(QueuedAsyncEvent queuedEvent) {
+		List<?> subscribers;
+		if (queuedEvent.getTopic() != null) {
+			subscribers = getSubscribers(queuedEvent.getTopic());
+		} else if (queuedEvent.getGenericType() != null) {
+			subscribers = getSubscribers(queuedEvent.getGenericType());
+		} else {
+			subscribers = getSubscribers(queuedEvent.getEvent().getClass());
+		}
+		if (subscribers == null || subscribers.isEmpty()) {
+			_pending.decrementAndGet();
+			return;
+		}
+		queuedEvent.setRemaining(subscribers.size());
+		for (Object subscriber : subscribers) {
+			Object key = getRealSubscriber(subscriber);
+			SubscriberLane lane;
+			boolean schedule = false;
+			synchronized (_lanes) {
+				lane = _lanes.get(key);
+				if (lane == null) {
+					lane = new SubscriberLane(key);
+					_lanes.put(key, lane);
+					schedule = true;
+				}
+				lane._events.add(new LaneEvent(queuedEvent, subscriber));
+				lane._stats._queued.incrementAndGet();
+			}
+			if (schedule) {
+				_pool.execute(lane);
+			}
+		}
+	}
+
+	/**
+	 * Delivers the event to a single subscriber, using the exception handling
+	 * of the event service.
+	 */
+	private void deliver(LaneEvent laneEvent) {
+		QueuedAsyncEvent queuedEvent = laneEvent._event;
+		List<Object> subscriber = new ArrayList<Object>(1);
+		subscriber.add(laneEvent._subscriber);
+		if (queuedEvent.getTopic() != null) {
+			publish(null, queuedEvent.getTopic(), queuedEvent.getEvent(),
+					subscriber, Collections.EMPTY_LIST, null);
+		} else {
+			publish(queuedEvent.getEvent(), null, null, subscriber,
+					Collections.EMPTY_LIST, null);
+		}
 	}
 
 	private static class QueuedAsyncEvent {
@@ -56,6 +212,7 @@ public final class AsyncThreadSafeEventService extends ThreadSafeEventService {
 		private Object _event;
 		private String _topic;
 		private Type _genericType;
+		private AtomicInteger _remaining;
 
 		private QueuedAsyncEvent(Object event) {
 			_event = event;
@@ -82,24 +239,152 @@ public final class AsyncThreadSafeEventService extends ThreadSafeEventService {
 		private Type getGenericType() {
 			return _genericType;
 		}
+
+		private void setRemaining(int subscribers) {
+			_remaining = new AtomicInteger(subscribers);
+		}
+
+		/**
+		 * @return true if all the subscribers handled the event.
+		 */
+		private boolean delivered() {
+			return _remaining.decrementAndGet() == 0;
+		}
+	}
+
+	private static class LaneEvent {
+		private final QueuedAsyncEvent _event;
+
+		private final Object _subscriber;
+
+		private LaneEvent(QueuedAsyncEvent event, Object subscriber) {
+			_event = event;
+			_subscriber = subscriber;
+		}
+	}
+
+	/**
+	 * Events waiting for one subscriber, it runs on the pool while it has
+	 * events and is then dropped.
+	 */
+	private class SubscriberLane implements Runnable {
+		private final Object _key;
+
+		private final ArrayDeque<LaneEvent> _events = new ArrayDeque<LaneEvent>();
+
+		private final SubscriberStatistics _stats;
+
+		private SubscriberLane(Object key) {
+			_key = key;
+			_stats = getStatistics(key);
+		}
+
+		public void run() {
+			for (int i = 0; i < LANE_BURST; i++) {
+				LaneEvent laneEvent;
+				synchronized (_lanes) {
+					laneEvent = _events.poll();
+					if (laneEvent == null) {
+						_lanes.remove(_key);
+						return;
+					}
+				}
+				long start = System.nanoTime();
+				try {
+					deliver(laneEvent);
+				} catch (Throwable t) {
+					logger.error("Exception delivering " + laneEvent._event.getEvent() + " to " + _key, t);
+				}
+				_stats.handled(System.nanoTime() - start);
+				if (laneEvent._event.delivered()) {
+					_pending.decrementAndGet();
+				}
+			}
+			// let the other subscribers run
+			_pool.execute(this);
+		}
+	}
+
+	/**
+	 * Delivery statistics of the subscribers of a class.
+	 */
+	public static class SubscriberStatistics {
+		private final String _name;
+
+		private final AtomicInteger _queued = new AtomicInteger();
+
+		private final AtomicLong _handled = new AtomicLong();
+
+		private final AtomicLong _time = new AtomicLong();
+
+		private final AtomicLong _maxTime = new AtomicLong();
+
+		private SubscriberStatistics(String name) {
+			_name = name;
+		}
+
+		private void handled(long time) {
+			_queued.decrementAndGet();
+			_handled.incrementAndGet();
+			_time.addAndGet(time);
+			long max = _maxTime.get();
+			while (time > max && !_maxTime.compareAndSet(max, time)) {
+				max = _maxTime.get();
+			}
+		}
+
+		public String getName() {
+			return _name;
+		}
+
+		/**
+		 * @return the number of events waiting to be handled.
+		 */
+		public int getQueued() {
+			return _queued.get();
+		}
+
+		public long getHandled() {
+			return _handled.get();
+		}
+
+		/**
+		 * @return the average time spent handling an event, in milliseconds.
+		 */
+		public double getAverageTime() {
+			long handled = _handled.get();
+			return handled == 0 ? 0 : _time.get() / (double) handled / 1000000d;
+		}
+
+		/**
+		 * @return the longest time spent handling an event, in milliseconds.
+		 */
+		public double getMaxTime() {
+			return _maxTime.get() / 1000000d;
+		}
+	}
+
+	private static class EventThreadFactory implements ThreadFactory {
+		private final AtomicInteger _count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "AsyncEventHandler - " + _count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
 	}
 
 	private class EventHandler implements Runnable {
 
 		public void run() {
-			Thread.currentThread().setName("AsyncEventHandler");
+			Thread.currentThread().setName("AsyncEventDispatcher");
 			while (true) {
 				try {
-					QueuedAsyncEvent queuedEvent = _eventQueue.take();
-					if (queuedEvent.getTopic() != null) {
-						publish(queuedEvent.getTopic(),queuedEvent.getEvent());
-					} else if (queuedEvent.getGenericType() != null) {
-						publish(queuedEvent.getGenericType(),queuedEvent.getEvent());
-					} else {
-						publish(queuedEvent.getEvent());
-					}
+					dispatch(_eventQueue.take());
 				} catch (InterruptedException e) {
 					// Do nothing just loop and try again
+				} catch (RuntimeException e) {
+					logger.error("Exception dispatching an event", e);
 				}
 			}
 		}
@@ -19,6 +19,7 @@ package org.drftpd.master;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
@@ -30,6 +31,7 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -115,7 +117,7 @@ public class BaseFtpConnection extends Session implements Runnable {
 	/**
 	 * Should this thread stop insted of continue looping?
 	 */
-	protected boolean _stopRequest = false;
+	protected volatile boolean _stopRequest = false;
 
 	protected String _stopRequestMessage;
 
@@ -125,10 +127,22 @@ public class BaseFtpConnection extends Session implements Runnable {
 
 	private ThreadPoolExecutor _pool;
 
-	private boolean _authDone = false;
-
 	private AtomicInteger _commandCount = new AtomicInteger(0);
 
+	/**
+	 * Number of commands queued or running.
+	 */
+	private AtomicInteger _executing = new AtomicInteger(0);
+
+	/**
+	 * Engine serving this connection, null if it has its own thread.
+	 */
+	private SelectorConnectionEngine _engine;
+
+	private SelectorConnectionEngine.Handle _handle;
+
+	private long _id;
+
 	protected BaseFtpConnection() {
 	}
 
@@ -164,10 +178,23 @@ public class BaseFtpConnection extends Session implements Runnable {
 	}
 
 	/*
-	 * Returns thread id number
+	 * Returns thread id number, or the connection number when the connection
+	 * has no thread of its own
 	 */
 	public long getThreadID() {
-		return _thread.getId();
+		return _id;
+	}
+
+	/**
+	 * Hands this connection to the selector engine, before it is started.
+	 */
+	void setEngine(SelectorConnectionEngine engine, SelectorConnectionEngine.Handle handle, long id) {
+		_engine = engine;
+		_handle = handle;
+		_id = id;
+		_pool = engine.getPool();
+		// the output now has to take the channel out of the selector
+		setControlSocket(_controlSocket);
 	}
 	
 	/**
@@ -245,7 +272,7 @@ public class BaseFtpConnection extends Session implements Runnable {
 	 * Returns true if client is executing a command.
 	 */
 	public boolean isExecuting() {
-		return _pool.getActiveCount() > 0;
+		return _executing.get() > 0;
 	}
 
 	public boolean isSecure() {
@@ -260,38 +287,14 @@ public class BaseFtpConnection extends Session implements Runnable {
 	 * Server one FTP connection.
 	 */
 	public void run() {
-		_commandManager = GlobalContext.getConnectionManager().getCommandManager();
-		setCommands(GlobalContext.getConnectionManager().getCommands());
-		_lastActive = System.currentTimeMillis();
-		setCurrentDirectory(getGlobalContext().getRoot());
 		_thread = Thread.currentThread();
-		GlobalContext.getConnectionManager().dumpThreadPool();
-		
-		_lastActive = System.currentTimeMillis();
-		if (!GlobalContext.getConfig().getHideIps()) {
-			logger.info("Handling new request from "
-					+ getClientAddress().getHostAddress());
-			_thread.setName("FtpConn thread " + _thread.getId() + " from "
-					+ getClientAddress().getHostAddress());
-		} else {
-			logger.info("Handling new request from <iphidden>");
-			_thread.setName("FtpConn thread " + _thread.getId()
-					+ " from <iphidden>");
-		}
-		
+		_id = _thread.getId();
 		_pool = new ThreadPoolExecutor(1, Integer.MAX_VALUE,
                 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
-                new CommandThreadFactory(_thread.getName()));
+                new CommandThreadFactory(getThreadName()));
 
 		try {
-			_controlSocket.setSoTimeout(1000);
-
-			if (GlobalContext.getGlobalContext().isShutdown()) {
-				stop(GlobalContext.getGlobalContext().getShutdownMessage());
-			} else {
-				FtpReply response = new FtpReply(220, GlobalContext.getConfig().getLoginPrompt());
-				_out.print(response);
-			}
+			open();
 
 			while (!_stopRequest) {
 				_out.flush();
@@ -311,19 +314,11 @@ public class BaseFtpConnection extends Session implements Runnable {
 						stop("Socket unexpectedly closed");
 						break;
 					}
-					int idleTime;
-					try {
-						idleTime = getUser().getIdleTime();
-						if (idleTime > 0) {
-							_pool.setKeepAliveTime(idleTime, TimeUnit.SECONDS);
-						}
-					} catch (NoSuchUserException e) {
-						idleTime = 60;
-						// user not logged in yet
+					int idleTime = getIdleTime();
+					if (idleTime > 0 && isAuthenticated()) {
+						_pool.setKeepAliveTime(idleTime, TimeUnit.SECONDS);
 					}
-					if (idleTime > 0
-							&& ((System.currentTimeMillis() - _lastActive) / 1000 >= idleTime)
-							&& !isExecuting()) {
+					if (isIdleTimedOut()) {
 						stop("IdleTimeout");
 						break;
 					}
@@ -339,72 +334,215 @@ public class BaseFtpConnection extends Session implements Runnable {
 					break;
 				}
 
-				if (commandLine.equals("")) {
-					continue;
-				}
+				dispatch(commandLine);
+			}
 
-				_request = new FtpRequest(commandLine);
+			printGoodbye();
+		} catch (Exception ex) {
+			logFailure(ex);
+		} finally {
+			cleanup();
 
-				if (!_request.getCommand().equals("PASS")) {
-					debuglogger.debug("<< " + _request.getCommandLine());
-				}
+			Thread t = Thread.currentThread();
+			t.setName(ConnectionThreadFactory.getIdleThreadName(t.getId()));
+		}
+	}
 
-				// execute command
-				_pool.execute(new CommandThread(_request, this));
-				if (_request.getCommand().equalsIgnoreCase("AUTH")) {
-					while(!_authDone && !_stopRequest) {
-						Thread.sleep(100);
-					}
-				}
-				poolStatus();
-				_lastActive = System.currentTimeMillis();
+	/**
+	 * Sets up the session and greets the client.
+	 * @return false if the connection has to be closed right away.
+	 */
+	boolean open() throws IOException {
+		_commandManager = GlobalContext.getConnectionManager().getCommandManager();
+		setCommands(GlobalContext.getConnectionManager().getCommands());
+		_lastActive = System.currentTimeMillis();
+		setCurrentDirectory(getGlobalContext().getRoot());
+		GlobalContext.getConnectionManager().dumpThreadPool();
+
+		if (!GlobalContext.getConfig().getHideIps()) {
+			logger.info("Handling new request from "
+					+ getClientAddress().getHostAddress());
+		} else {
+			logger.info("Handling new request from <iphidden>");
+		}
+		if (_thread != null) {
+			_thread.setName(getThreadName());
+		}
+
+		_controlSocket.setSoTimeout(1000);
+
+		if (GlobalContext.getGlobalContext().isShutdown()) {
+			stop(GlobalContext.getGlobalContext().getShutdownMessage());
+		} else {
+			FtpReply response = new FtpReply(220, GlobalContext.getConfig().getLoginPrompt());
+			_out.print(response);
+			_out.flush();
+		}
+		return !_stopRequest;
+	}
+
+	private String getThreadName() {
+		String name = _thread != null ? "FtpConn thread " + _thread.getId() : "FtpConn " + _id;
+		if (!GlobalContext.getConfig().getHideIps()) {
+			return name + " from " + getClientAddress().getHostAddress();
+		}
+		return name + " from <iphidden>";
+	}
+
+	/**
+	 * Reads and dispatches the commands the client sent, used by the selector
+	 * engine once data is available on the control channel.
+	 * @return false if the connection has to be closed.
+	 */
+	boolean serveCommands() throws IOException {
+		do {
+			if (_stopRequest) {
+				return false;
 			}
+			_out.flush();
 
-			if (_stopRequestMessage != null) {
-				_out.print(new FtpReply(421, _stopRequestMessage));
-			} else {
-				_out.println("421 Connection closing");
+			String commandLine = null;
+			try {
+				commandLine = _in.readLine();
+			} catch (InterruptedIOException ex) {
+				// incomplete line, wait for the rest on the selector
+				return !_stopRequest;
 			}
 
-			_out.flush();
-		} catch (SocketException ex) {
+			if (_stopRequest || commandLine == null) {
+				return false;
+			}
+
+			dispatch(commandLine);
+		} while (_in.ready());
+		_out.flush();
+		return !_stopRequest;
+	}
+
+	/**
+	 * Runs the command of a line read from the client.
+	 */
+	private void dispatch(String commandLine) {
+		if (commandLine.equals("")) {
+			return;
+		}
+
+		_request = new FtpRequest(commandLine);
+
+		if (!_request.getCommand().equals("PASS")) {
+			debuglogger.debug("<< " + _request.getCommandLine());
+		}
+
+		// execute command
+		CommandThread command = new CommandThread(_request, this);
+		_executing.incrementAndGet();
+		if (_request.getCommand().equalsIgnoreCase("AUTH")) {
+			// nothing else can be read from the socket until the handshake is over
+			command.run();
+		} else {
+			try {
+				_pool.execute(command);
+			} catch (RejectedExecutionException e) {
+				_executing.decrementAndGet();
+				throw e;
+			}
+		}
+		poolStatus();
+		_lastActive = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the idle time allowed before the connection is closed, in
+	 * seconds, 0 for no limit.
+	 */
+	private int getIdleTime() {
+		try {
+			return getUser().getIdleTime();
+		} catch (NoSuchUserException e) {
+			// user not logged in yet
+			return 60;
+		}
+	}
+
+	/**
+	 * @return true if the client stayed idle longer than allowed.
+	 */
+	boolean isIdleTimedOut() {
+		int idleTime = getIdleTime();
+		return idleTime > 0
+				&& ((System.currentTimeMillis() - _lastActive) / 1000 >= idleTime)
+				&& !isExecuting();
+	}
+
+	/**
+	 * @return the time at which the connection will have been idle too
+	 * long, Long.MAX_VALUE if there is no limit.
+	 */
+	long getIdleDeadline() {
+		int idleTime = getIdleTime();
+		if (idleTime <= 0) {
+			return Long.MAX_VALUE;
+		}
+		return _lastActive + idleTime * 1000L;
+	}
+
+	boolean isStopRequested() {
+		return _stopRequest;
+	}
+
+	void printGoodbye() {
+		if (_stopRequestMessage != null) {
+			_out.print(new FtpReply(421, _stopRequestMessage));
+		} else {
+			_out.println("421 Connection closing");
+		}
+
+		_out.flush();
+	}
+
+	void logFailure(Exception ex) {
+		if (ex instanceof SocketException) {
 			logger.log(Level.INFO, ex.getMessage() + ", closing for user "
 					+ ((_user == null) ? "<not logged in>" : _user), ex);
-		} catch (Exception ex) {
+		} else {
 			logger.log(Level.INFO, "Exception, closing", ex);
-		} finally {
-			shutdownSocket();
+		}
+	}
 
-			if (isAuthenticated()) {
-				try {
-					getUser().updateLastAccessTime();
-				} catch (NoSuchUserException e) {
-					logger.error("User does not exist, yet user is authenticated, this is a bug");
-				}
-				
-				GlobalContext.getEventService().publishAsync(new ConnectionEvent(getUserNull(), "LOGOUT"));
+	/**
+	 * Releases everything held by the connection once it is closed.
+	 */
+	void cleanup() {
+		shutdownSocket();
+
+		if (isAuthenticated()) {
+			try {
+				getUser().updateLastAccessTime();
+			} catch (NoSuchUserException e) {
+				logger.error("User does not exist, yet user is authenticated, this is a bug");
 			}
 			
-			if (isExecuting()) {
-				super.abortCommand();
-			}
-			// Reset just the transfer if one is active, a full reset of the TransferState instance is
-			// not required as this object will not be reused. Leaving the rest of the state untouched
-			// will allow any active command threads to terminate gracefully.
-			getTransferState().resetTransfer();
+			GlobalContext.getEventService().publishAsync(new ConnectionEvent(getUserNull(), "LOGOUT"));
+		}
+		
+		if (isExecuting()) {
+			super.abortCommand();
+		}
+		// Reset just the transfer if one is active, a full reset of the TransferState instance is
+		// not required as this object will not be reused. Leaving the rest of the state untouched
+		// will allow any active command threads to terminate gracefully.
+		getTransferState().resetTransfer();
+		if (_engine == null) {
 			_pool.shutdown();
-			GlobalContext.getConnectionManager().remove(this);
-			GlobalContext.getConnectionManager().dumpThreadPool();
-			
-			Thread t = Thread.currentThread();
-			t.setName(ConnectionThreadFactory.getIdleThreadName(t.getId()));
 		}
+		GlobalContext.getConnectionManager().remove(this);
+		GlobalContext.getConnectionManager().dumpThreadPool();
 	}
 
 	public void setAuthenticated(boolean authenticated) {
 		_authenticated = authenticated;
 
-		if (isAuthenticated()) {
+		if (isAuthenticated() && _thread != null) {
 			try {
 				// If hideips is on, hide ip but not user/group
 				if (GlobalContext.getConfig().getHideIps()) {
@@ -429,9 +567,13 @@ public class BaseFtpConnection extends Session implements Runnable {
 			_in = new BufferedReader(new InputStreamReader(_controlSocket
 					.getInputStream(), "ISO-8859-1"));
 
+			OutputStream out = _controlSocket.getOutputStream();
+			if (_handle != null) {
+				out = new EngineOutputStream(out);
+			}
 			_out = new PrintWriter(new OutputStreamWriter(
-					new AddAsciiOutputStream(new BufferedOutputStream(
-							_controlSocket.getOutputStream())), "ISO-8859-1"));
+					new AddAsciiOutputStream(new BufferedOutputStream(out)),
+					"ISO-8859-1"));
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -458,6 +600,9 @@ public class BaseFtpConnection extends Session implements Runnable {
 	public void stop() {
 		getTransferState().abort("Your connection is being shutdown");
 		_stopRequest = true;
+		if (_handle != null) {
+			_handle.wakeup();
+		}
 	}
 
 	public void stop(String message) {
@@ -535,10 +680,6 @@ public class BaseFtpConnection extends Session implements Runnable {
 		_out.flush();
 	}
 
-	public void authDone() {
-		_authDone = true;
-	}
-
 	public void poolStatus() {
 		//logger.debug("pool size: "+_pool.getPoolSize());
 		//logger.debug("active threads: "+_pool.getActiveCount());
@@ -599,6 +740,14 @@ public class BaseFtpConnection extends Session implements Runnable {
 		}
 
 		public void run() {
+			try {
+				execute();
+			} finally {
+				_executing.decrementAndGet();
+			}
+		}
+
+		private void execute() {
 			if (_commandCount.get() > 0 && !_ftpRequest.getCommand().equalsIgnoreCase("ABOR")) {
 				return;
 			}
@@ -629,6 +778,46 @@ public class BaseFtpConnection extends Session implements Runnable {
 		}
 	}
 
+	/**
+	 * Takes the control channel out of the selector while output is written.
+	 */
+	class EngineOutputStream extends FilterOutputStream {
+
+		private EngineOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			_handle.acquire();
+			try {
+				out.write(b);
+			} finally {
+				_handle.release();
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			_handle.acquire();
+			try {
+				out.write(b, off, len);
+			} finally {
+				_handle.release();
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			_handle.acquire();
+			try {
+				out.flush();
+			} finally {
+				_handle.release();
+			}
+		}
+	}
+
 	static class CommandThreadFactory implements ThreadFactory {
 
 		String _parentName;
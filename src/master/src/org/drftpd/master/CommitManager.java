@@ -19,10 +19,24 @@
 package org.drftpd.master;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.drftpd.GlobalContext;
@@ -32,7 +46,11 @@ import org.drftpd.util.CommonPluginUtils;
 /**
  * This classes handle all XML commits.
  * The main purpose of having this is to avoiding serializing the same object tons of times,
- * even if it data was not changed. 
+ * even if it data was not changed.<br>
+ * Queued objects are kept in a set keyed by identity and ordered by the time they were
+ * first queued, so queueing, lookups and removals are constant time. Due objects are
+ * handed in batches to a pool of writer threads, an object is never written by two
+ * threads at the same time.
  * @author zubov
  * @version $Id: CommitManager.java 2040 2010-04-05 16:44:35Z djb61 $
  */
@@ -42,19 +60,41 @@ public class CommitManager {
 
 	private static CommitManager _instance;
 
-	private ConcurrentLinkedQueue<CommitableWrapper> _commitQueue;
+	/**
+	 * Weight given to the last drain round when updating the write rate.
+	 */
+	private static final double RATE_WEIGHT = 0.3;
+
+	/**
+	 * Queued objects, guarded by itself. Iteration order is the queueing order.
+	 */
+	private final LinkedHashMap<CommitableKey, CommitableWrapper> _commitQueue;
+
+	/**
+	 * Objects currently being written, guarded by _commitQueue.
+	 */
+	private final Set<Commitable> _inFlight;
+
 	private boolean _isStarted;
-	private AtomicInteger _queueSize;
 	private volatile boolean _drainQueue;
 	private volatile boolean _flushQueue;
 	private Thread _commitThread;
+	private ExecutorService _writers;
+	private int _writerCount = 1;
+
+	private final AtomicLong _writes = new AtomicLong();
+	private final AtomicLong _failedWrites = new AtomicLong();
+	private final AtomicLong _writeTime = new AtomicLong();
+	private final AtomicLong _maxWriteTime = new AtomicLong();
+	private final AtomicLong _bytesWritten = new AtomicLong();
+	private volatile double _writeRate;
 
 	/**
 	 * Private constructor in order to make this class a Singleton.
 	 */
 	private CommitManager() {
-		_commitQueue = new ConcurrentLinkedQueue<CommitableWrapper>();
-		_queueSize = new AtomicInteger();
+		_commitQueue = new LinkedHashMap<CommitableKey, CommitableWrapper>();
+		_inFlight = Collections.newSetFromMap(new IdentityHashMap<Commitable, Boolean>());
 	}
 
 	/**
@@ -68,7 +108,7 @@ public class CommitManager {
 	}
 
 	/**
-	 * Starts the {@link CommitHandler}.
+	 * Starts the {@link CommitHandler} and its writer threads.
 	 * @throws IllegalStateException if the thread has already started.
 	 */
 	public void start() {
@@ -77,32 +117,43 @@ public class CommitManager {
 		}
 		
 		_isStarted = true;
+		_writerCount = getWriterCount();
+		_writers = new ThreadPoolExecutor(_writerCount, _writerCount, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new CommitWriterFactory());
 		_commitThread = new Thread(new CommitHandler());
 		_commitThread.start();
 	}
 
 	/**
 	 * Adds a {@link Commitable} object to the commit queue.
-	 * If the object is already present on the queue, this call is just ignored.
+	 * If the object is already present on the queue, this call is just ignored.<br>
+	 * An object that is currently being written is queued again, so changes made
+	 * during the write are not lost.
 	 * @param object
 	 */
 	public void add(Commitable object) {
-		if (contains(object)) {
+		int now;
+		synchronized (_commitQueue) {
+			CommitableKey key = new CommitableKey(object);
+			if (_commitQueue.containsKey(key)) {
+				return;
+				// object already queued to write
+			}
+			_commitQueue.put(key, new CommitableWrapper(object));
+			now = _commitQueue.size();
+		}
+		if (_commitThread == null) {
+			// nothing to wake up yet
 			return;
-			// object already queued to write
 		}
-		_commitQueue.offer(new CommitableWrapper(object));
 		int pause = Integer.parseInt(GlobalContext.getConfig().getMainProperties().getProperty("remerge.pause.threshold", "250"));
-		int now = _queueSize.incrementAndGet();
 
 		if (now >= pause && !_flushQueue) {
 			_flushQueue = true;
 		}
 		
 		if (_flushQueue) {
-			if (_commitThread != null) {
-				_commitThread.interrupt();
-			}
+			_commitThread.interrupt();
 		}
 	}
 
@@ -112,15 +163,9 @@ public class CommitManager {
 	 */
 	public boolean remove(Commitable object) {
 		if (object == null) return false;
-		for (Iterator<CommitableWrapper> iter = _commitQueue.iterator(); iter.hasNext();) {
-			CommitableWrapper cw = iter.next();
-			if (cw != null && cw.equals(object)) {
-				iter.remove();
-				_queueSize.decrementAndGet();
-				return true;
-			}
+		synchronized (_commitQueue) {
+			return _commitQueue.remove(new CommitableKey(object)) != null;
 		}
-		return false;
 	}
 	
 	/**
@@ -129,31 +174,48 @@ public class CommitManager {
 	 */
 	public boolean contains(Commitable object) {
 		if (object == null) return false;
-		for (CommitableWrapper cw : _commitQueue) {
-			if (cw != null && cw.equals(object)) {
-				return true;
-			}
+		synchronized (_commitQueue) {
+			return _commitQueue.containsKey(new CommitableKey(object));
 		}
-		return false;
 	}
 
 	/**
 	 * 
-	 * @return the number of outstanding objects to commit.
+	 * @return the number of outstanding objects to commit, including those being written.
 	 */
 	public int getQueueSize() {
-		return _queueSize.get();
+		synchronized (_commitQueue) {
+			return _commitQueue.size() + _inFlight.size();
+		}
 	}
 
 	/**
 	 * Forces the immediate write of a (@link Commitable) if present in the commit queue.
+	 * If the object is being written by a writer thread this call waits for that write
+	 * to complete first.
 	 * @param object
 	 */
 	public void flushImmediate(Commitable object) {
-		if (contains(object)) {
-			ClassLoader prevCL = Thread.currentThread().getContextClassLoader();
-			Thread.currentThread().setContextClassLoader(CommonPluginUtils.getClassLoaderForObject(this));
+		if (object == null) return;
+		synchronized (_commitQueue) {
+			while (_inFlight.contains(object)) {
+				try {
+					_commitQueue.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			if (_commitQueue.remove(new CommitableKey(object)) == null) {
+				return;
+			}
+			_inFlight.add(object);
+		}
+		ClassLoader prevCL = Thread.currentThread().getContextClassLoader();
+		Thread.currentThread().setContextClassLoader(CommonPluginUtils.getClassLoaderForObject(this));
+		try {
 			writeCommitable(object);
+		} finally {
 			Thread.currentThread().setContextClassLoader(prevCL);
 		}
 	}
@@ -170,6 +232,89 @@ public class CommitManager {
 		}
 	}
 
+	/**
+	 * Accounts bytes written to disk by a {@link Commitable}, called by the
+	 * implementations that know how much data they wrote.
+	 * @param bytes
+	 */
+	public void addBytesWritten(long bytes) {
+		_bytesWritten.addAndGet(bytes);
+	}
+
+	/**
+	 * @return the number of successful writes since startup.
+	 */
+	public long getWrites() {
+		return _writes.get();
+	}
+
+	/**
+	 * @return the number of failed writes since startup.
+	 */
+	public long getFailedWrites() {
+		return _failedWrites.get();
+	}
+
+	/**
+	 * @return the number of bytes written since startup.
+	 */
+	public long getBytesWritten() {
+		return _bytesWritten.get();
+	}
+
+	/**
+	 * @return the average time in milliseconds taken by a single write.
+	 */
+	public double getAverageWriteTime() {
+		long writes = _writes.get() + _failedWrites.get();
+		if (writes == 0) {
+			return 0;
+		}
+		return _writeTime.get() / 1000000d / writes;
+	}
+
+	/**
+	 * @return the longest time in milliseconds taken by a single write.
+	 */
+	public double getMaxWriteTime() {
+		return _maxWriteTime.get() / 1000000d;
+	}
+
+	/**
+	 * @return the measured number of objects the writers manage to commit per second
+	 * while busy, 0 if nothing was measured yet.
+	 */
+	public double getWriteRate() {
+		return _writeRate;
+	}
+
+	/**
+	 * @return the estimated time in milliseconds needed to write every outstanding object
+	 * at the measured write rate, or -1 if the rate is not known yet.
+	 */
+	public long getEstimatedDrainTime() {
+		double rate = _writeRate;
+		if (rate <= 0) {
+			return -1;
+		}
+		return (long) (getQueueSize() * 1000d / rate);
+	}
+
+	/**
+	 * @return the number of writer threads.
+	 */
+	public int getWriterCount() {
+		if (_isStarted) {
+			return _writerCount;
+		}
+		Properties cfg = GlobalContext.getConfig().getMainProperties();
+		try {
+			return Math.max(1, Integer.parseInt(PropertyHelper.getProperty(cfg, "disk.commit.threads", "2")));
+		} catch (NumberFormatException e) {
+		}
+		return 2;
+	}
+
 	private long getCommitDelay() {
 		Properties cfg = GlobalContext.getConfig().getMainProperties();
 		try {
@@ -178,21 +323,53 @@ public class CommitManager {
 		}
 		return 10000;
 	}
-	
+
+	private int getBatchSize() {
+		Properties cfg = GlobalContext.getConfig().getMainProperties();
+		try {
+			return Math.max(1, Integer.parseInt(PropertyHelper.getProperty(cfg, "disk.commit.batch", "100")));
+		} catch (NumberFormatException e) {
+		}
+		return 100;
+	}
+
+	/**
+	 * Takes every due object out of the queue and marks them as being written.
+	 * Objects are ordered by age so the scan stops at the first one that is not due.
+	 */
+	private List<Commitable> takeDue(long time) {
+		List<Commitable> due = new ArrayList<Commitable>();
+		boolean all = _drainQueue;
+		synchronized (_commitQueue) {
+			for (Iterator<CommitableWrapper> iter = _commitQueue.values().iterator(); iter.hasNext();) {
+				CommitableWrapper cw = iter.next();
+				if (!all && cw.getTime() >= time) {
+					break;
+				}
+				if (_inFlight.contains(cw.getCommitable())) {
+					// queued again while being flushed, picked up next round
+					continue;
+				}
+				iter.remove();
+				_inFlight.add(cw.getCommitable());
+				due.add(cw.getCommitable());
+			}
+		}
+		return due;
+	}
+
 	private void processAllLoop() {
 		while (true) {
 			long delay = getCommitDelay();
-			long time = System.currentTimeMillis() - delay;
-			for (Iterator<CommitableWrapper> iter = _commitQueue.iterator(); iter.hasNext();) {
-				CommitableWrapper cw = iter.next();
-				if (cw.getTime() < time || _drainQueue) {
-					if (writeCommitable(cw.getCommitable())) {
-						iter.remove();
-						_queueSize.decrementAndGet();
-					}
-				}
+			List<Commitable> due = takeDue(System.currentTimeMillis() - delay);
+			if (!due.isEmpty()) {
+				writeBatches(due);
+			}
+
+			if (_flushQueue && !due.isEmpty()) {
+				// the queue is above the pause threshold, keep going
+				continue;
 			}
-			
 			try {
 				Thread.sleep(delay);
 			} catch (InterruptedException e) {
@@ -200,25 +377,80 @@ public class CommitManager {
 		}
 	}
 
+	/**
+	 * Splits the objects between the writer threads and waits for all of them to be written.
+	 */
+	private void writeBatches(List<Commitable> due) {
+		int batchSize = Math.min(getBatchSize(), (due.size() + _writerCount - 1) / _writerCount);
+		List<Future<Object>> batches = new ArrayList<Future<Object>>();
+		long start = System.nanoTime();
+		long writes = _writes.get();
+		for (int i = 0; i < due.size(); i += batchSize) {
+			batches.add(_writers.submit(new CommitBatch(due.subList(i, Math.min(i + batchSize, due.size())))));
+		}
+		for (Future<Object> batch : batches) {
+			while (true) {
+				try {
+					batch.get();
+					break;
+				} catch (InterruptedException e) {
+					// woken up by add() or enableQueueDrain(), the batch still has to complete
+				} catch (ExecutionException e) {
+					logger.error("Error writing objects to disk", e.getCause());
+					break;
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		if (elapsed > 0) {
+			double rate = (_writes.get() - writes) * 1000000000d / elapsed;
+			_writeRate = _writeRate == 0 ? rate : _writeRate * (1 - RATE_WEIGHT) + rate * RATE_WEIGHT;
+		}
+	}
+
+	/**
+	 * Writes an object that was marked as being written and releases it.
+	 */
 	private boolean writeCommitable(Commitable item) {
+		long start = System.nanoTime();
+		boolean written = false;
 		try {
 			item.writeToDisk();
-			if (remove(item)) {
-				int resume = Integer.parseInt(GlobalContext.getConfig().getMainProperties().getProperty("remerge.resume.threshold", "50"));
-				int now = _queueSize.get();
-				if (now <= resume && _flushQueue) {
-					_flushQueue = false;
-				}
-			}
-			return true;
+			written = true;
 		} catch (IOException e) {
 			logger.error("Error writing object to disk - "
 					+ item.descriptiveName(), e);
 		} catch (Exception e) {
 			logger.error("Error writing object to disk - "
 					+ item.descriptiveName(), e);
+		} finally {
+			long elapsed = System.nanoTime() - start;
+			_writeTime.addAndGet(elapsed);
+			long max;
+			while ((max = _maxWriteTime.get()) < elapsed && !_maxWriteTime.compareAndSet(max, elapsed)) {
+			}
+			int now;
+			synchronized (_commitQueue) {
+				_inFlight.remove(item);
+				CommitableKey key = new CommitableKey(item);
+				if (!written && !_commitQueue.containsKey(key)) {
+					// keep it queued so the write is retried
+					_commitQueue.put(key, new CommitableWrapper(item));
+				}
+				now = _commitQueue.size() + _inFlight.size();
+				_commitQueue.notifyAll();
+			}
+			if (written) {
+				_writes.incrementAndGet();
+				int resume = Integer.parseInt(GlobalContext.getConfig().getMainProperties().getProperty("remerge.resume.threshold", "50"));
+				if (now <= resume && _flushQueue) {
+					_flushQueue = false;
+				}
+			} else {
+				_failedWrites.incrementAndGet();
+			}
 		}
-		return false;
+		return written;
 	}
 
 	private class CommitHandler implements Runnable {
@@ -233,6 +465,56 @@ public class CommitManager {
 		}
 	}
 
+	/**
+	 * Writes a batch of objects on one of the writer threads.
+	 */
+	private class CommitBatch implements Callable<Object> {
+		private List<Commitable> _batch;
+
+		private CommitBatch(List<Commitable> batch) {
+			_batch = batch;
+		}
+
+		public Object call() {
+			for (Commitable item : _batch) {
+				writeCommitable(item);
+			}
+			return null;
+		}
+	}
+
+	private class CommitWriterFactory implements ThreadFactory {
+		private AtomicInteger _count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "CommitWriter-" + _count.incrementAndGet());
+			t.setContextClassLoader(CommonPluginUtils.getClassLoaderForObject(CommitManager.this));
+			return t;
+		}
+	}
+
+	/**
+	 * Identity based key, Commitable implementations compare by mutable
+	 * properties such as their path which cannot be used for hashing.
+	 */
+	private static class CommitableKey {
+		private Commitable _object;
+
+		private CommitableKey(Commitable object) {
+			_object = object;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof CommitableKey && ((CommitableKey) obj)._object == _object;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(_object);
+		}
+	}
+
 	/**
 	 * Creates a wrapping object for the Commitable object and current time.
 	 */
@@ -252,17 +534,5 @@ public class CommitManager {
 		public long getTime() {
 			return _time;
 		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (obj == this) return true;
-			if (obj == null) return false;
-			return (obj instanceof Commitable) && _object.equals(obj);
-		}
-
-		@Override
-		public int hashCode() {
-			return _object.hashCode();
-		}
 	}
 }
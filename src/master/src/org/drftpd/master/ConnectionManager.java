@@ -35,6 +35,8 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import javax.net.ServerSocketFactory;
+
 import org.apache.log4j.Logger;
 import org.bushe.swing.event.annotation.AnnotationProcessor;
 import org.bushe.swing.event.annotation.EventSubscriber;
@@ -45,6 +47,7 @@ import org.drftpd.commands.UserManagement;
 import org.drftpd.event.ReloadEvent;
 import org.drftpd.usermanager.NoSuchUserException;
 import org.drftpd.usermanager.User;
+import org.drftpd.util.ChannelServerSocketFactory;
 import org.tanukisoftware.wrapper.WrapperManager;
 
 /**
@@ -66,6 +69,12 @@ public class ConnectionManager {
 	private List<BaseFtpConnection> _conns = new Vector<BaseFtpConnection>();
 
 	private ThreadPoolExecutor _pool;
+
+	/**
+	 * Serves the connections when connection.engine is set to selector,
+	 * otherwise every connection gets a thread of its own.
+	 */
+	private SelectorConnectionEngine _engine;
 	
 	private static String _bindIP;
 
@@ -113,6 +122,9 @@ public class ConnectionManager {
 			String bindip = null;
 			ServerSocket server = null;
 			boolean useIP;
+			// the selector engine needs sockets with a channel
+			ServerSocketFactory serverSocketFactory = isSelectorEngine(cfg)
+					? ChannelServerSocketFactory.getDefault() : ServerSocketFactory.getDefault();
 
 			try {
 				bindip = PropertyHelper.getProperty(cfg, "master.ip");
@@ -125,7 +137,7 @@ public class ConnectionManager {
 			}
 
 			if (useIP) {
-				server = new ServerSocket();
+				server = serverSocketFactory.createServerSocket();
 				server.bind(new InetSocketAddress(bindip, Integer
 						.parseInt(PropertyHelper
 								.getProperty(cfg, "master.port"))));
@@ -133,7 +145,7 @@ public class ConnectionManager {
 				logger.info("Listening on " + server.getInetAddress() + ":"
 						+ server.getLocalPort());
 			} else {
-				server = new ServerSocket(Integer.parseInt(PropertyHelper
+				server = serverSocketFactory.createServerSocket(Integer.parseInt(PropertyHelper
 						.getProperty(cfg, "master.port")));
 				logger.info("Listening on port " + server.getLocalPort());
 			}
@@ -154,7 +166,17 @@ public class ConnectionManager {
 		}
 	}
 
-	public void createThreadPool() {
+	private static boolean isSelectorEngine(Properties cfg) {
+		return cfg.getProperty("connection.engine", "thread").trim().equalsIgnoreCase("selector");
+	}
+
+	public void createThreadPool() throws IOException {
+		if (isSelectorEngine(GlobalContext.getConfig().getMainProperties())) {
+			_engine = new SelectorConnectionEngine(Runtime.getRuntime().availableProcessors());
+			_pool = _engine.getPool();
+			logger.info("Serving control connections with the selector engine");
+			return;
+		}
 		int maxUserConnected = GlobalContext.getConfig().getMaxUsersTotal();
 		int maxAliveThreads = maxUserConnected + GlobalContext.getConfig().getMaxUsersExempt();
 		int minAliveThreads = (int) Math.round(maxAliveThreads * 0.25);
@@ -171,6 +193,22 @@ public class ConnectionManager {
 		logger.debug("Current # of threads: " + _pool.getPoolSize());
 	}
 
+	/**
+	 * @return the engine serving the connections, null if every connection
+	 * has a thread of its own.
+	 */
+	public SelectorConnectionEngine getEngine() {
+		return _engine;
+	}
+
+	/**
+	 * @return the number of threads currently serving connections or
+	 * running their commands.
+	 */
+	public int getThreadCount() {
+		return _pool.getPoolSize();
+	}
+
 	public FtpReply canLogin(BaseFtpConnection baseconn, User user) {
 		int count = GlobalContext.getConfig().getMaxUsersTotal();
 
@@ -294,7 +332,11 @@ public class ConnectionManager {
 		BaseFtpConnection conn = new BaseFtpConnection(sock);
 		_conns.add(conn);
 		try {
-			_pool.execute(conn);
+			if (_engine != null) {
+				_engine.add(conn);
+			} else {
+				_pool.execute(conn);
+			}
 		} catch (RejectedExecutionException e) {
 			conn.printOutput(new FtpReply(421, "Connection closing"));
 			conn.shutdownSocket();
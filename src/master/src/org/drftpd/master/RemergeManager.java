@@ -0,0 +1,97 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.drftpd.GlobalContext;
+
+/**
+ * Pool of threads applying the remerge messages of all slaves.<br>
+ * Every slave keeps the ordering of its own messages in a
+ * {@link RemergeQueue}, which only hands messages to the pool once they can
+ * run, so slaves remerging at the same time share the threads.
+ * The size of the pool is set by remerge.threads in master.conf.
+ * @version $Id$
+ */
+public class RemergeManager {
+
+	private static RemergeManager _instance;
+
+	private final ThreadPoolExecutor _pool;
+
+	private RemergeManager(int threads) {
+		_pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new RemergeThreadFactory());
+		_pool.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return the unique RemergeManager instance, creating it if it does not
+	 * exist yet.
+	 */
+	public static synchronized RemergeManager getRemergeManager() {
+		if (_instance == null) {
+			int threads = 4;
+			if (GlobalContext.getConfig() != null) {
+				threads = Integer.parseInt(GlobalContext.getConfig().getMainProperties()
+						.getProperty("remerge.threads", "4").trim());
+			}
+			_instance = new RemergeManager(Math.max(threads, 1));
+		}
+		return _instance;
+	}
+
+	public Executor getExecutor() {
+		return _pool;
+	}
+
+	public int getThreadCount() {
+		return _pool.getMaximumPoolSize();
+	}
+
+	/**
+	 * @return the number of directories being merged right now.
+	 */
+	public int getActiveCount() {
+		return _pool.getActiveCount();
+	}
+
+	/**
+	 * @return the number of directories ready to be merged, waiting for a
+	 * thread.
+	 */
+	public int getWaitingCount() {
+		return _pool.getQueue().size();
+	}
+
+	private static class RemergeThreadFactory implements ThreadFactory {
+		private final AtomicInteger _count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "RemergeThread - " + _count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,279 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+import org.drftpd.vfs.DirectoryHandle;
+import org.drftpd.vfs.VirtualFileSystem;
+
+/**
+ * Remerge messages of one slave, applied in parallel where it is safe.<br>
+ * A directory is merged once every earlier message of the same branch
+ * (the directory itself, its ancestors and its descendants) was applied.
+ * Slaves send a directory after its subdirectories, so those always exist
+ * by the time the directory is merged, while unrelated subtrees are merged
+ * at the same time. The message marking the end of the remerge waits for
+ * every earlier message.
+ * @version $Id$
+ */
+public class RemergeQueue {
+	private static final Logger logger = Logger.getLogger(RemergeQueue.class);
+
+	private final RemoteSlave _rslave;
+
+	private final Executor _executor;
+
+	/**
+	 * Messages waiting or being merged, in arrival order.
+	 */
+	private final LinkedList<Node> _outstanding = new LinkedList<Node>();
+
+	/**
+	 * Bumped by {@link #clear()}, merges of an older generation are ignored
+	 * when they end.
+	 */
+	private int _generation;
+
+	private int _running;
+
+	private long _merged;
+
+	private long _mergedFiles;
+
+	private long _mergeTime;
+
+	private long _startTime;
+
+	private long _endTime;
+
+	private boolean _finished;
+
+	public RemergeQueue(RemoteSlave rslave, Executor executor) {
+		_rslave = rslave;
+		_executor = executor;
+	}
+
+	public void put(RemergeMessage message) {
+		Node node;
+		synchronized (this) {
+			if (_startTime == 0 || _finished) {
+				// a new remerge starts
+				_finished = false;
+				_merged = 0;
+				_mergedFiles = 0;
+				_mergeTime = 0;
+				_startTime = System.currentTimeMillis();
+			}
+			node = new Node(message, _generation);
+			for (Node earlier : _outstanding) {
+				if (node.dependsOn(earlier)) {
+					earlier._dependents.add(node);
+					node._blockers++;
+				}
+			}
+			_outstanding.add(node);
+			if (node._blockers > 0) {
+				return;
+			}
+		}
+		execute(node);
+	}
+
+	/**
+	 * Drops all the outstanding messages, merges already running finish but
+	 * nothing waiting on them is started.
+	 */
+	public synchronized void clear() {
+		_generation++;
+		_outstanding.clear();
+		_running = 0;
+		_startTime = 0;
+	}
+
+	/**
+	 * @return the number of messages not merged yet.
+	 */
+	public synchronized int size() {
+		return _outstanding.size();
+	}
+
+	/**
+	 * @return the number of directories being merged right now.
+	 */
+	public synchronized int getRunning() {
+		return _running;
+	}
+
+	/**
+	 * @return the number of directories merged since the remerge started.
+	 */
+	public synchronized long getMerged() {
+		return _merged;
+	}
+
+	/**
+	 * @return the number of files and directories listed in the merged
+	 * directories.
+	 */
+	public synchronized long getMergedFiles() {
+		return _mergedFiles;
+	}
+
+	/**
+	 * @return the average number of directories merged per second since the
+	 * remerge started.
+	 */
+	public synchronized double getMergeRate() {
+		long elapsed = (_finished ? _endTime : System.currentTimeMillis()) - _startTime;
+		if (_merged == 0 || elapsed <= 0) {
+			return 0;
+		}
+		return _merged * 1000d / elapsed;
+	}
+
+	/**
+	 * @return the average time spent merging a directory, in milliseconds.
+	 */
+	public synchronized double getAverageMergeTime() {
+		return _merged == 0 ? 0 : (double) _mergeTime / _merged;
+	}
+
+	private void execute(Node node) {
+		synchronized (this) {
+			_running++;
+		}
+		try {
+			_executor.execute(node);
+		} catch (RejectedExecutionException e) {
+			logger.error("Unable to schedule remerge of " + node, e);
+			synchronized (this) {
+				_running--;
+			}
+		}
+	}
+
+	private void done(Node node, long time) {
+		List<Node> ready = new ArrayList<Node>();
+		synchronized (this) {
+			if (node._generation != _generation) {
+				return;
+			}
+			_running--;
+			_outstanding.remove(node);
+			if (node._message.isCompleted()) {
+				_finished = true;
+				_endTime = System.currentTimeMillis();
+			} else {
+				_merged++;
+				_mergedFiles += node._message.getFiles().size();
+				_mergeTime += time;
+			}
+			for (Node dependent : node._dependents) {
+				if (--dependent._blockers == 0) {
+					ready.add(dependent);
+				}
+			}
+		}
+		for (Node dependent : ready) {
+			execute(dependent);
+		}
+	}
+
+	/**
+	 * Merges a directory, or ends the remerge for the completion message.
+	 */
+	protected void apply(RemergeMessage message) throws IOException {
+		if (message.isCompleted()) {
+			logger.info("REMERGE: queue finished for " + _rslave.getName());
+			_rslave.makeAvailableAfterRemerge();
+			return;
+		}
+		DirectoryHandle dir = new DirectoryHandle(message.getDirectory());
+		dir.remerge(message.getFiles(), message.getRslave(), message.getLastModified());
+	}
+
+	private class Node implements Runnable {
+		private final RemergeMessage _message;
+
+		private final int _generation;
+
+		private final List<Node> _dependents = new ArrayList<Node>();
+
+		private int _blockers;
+
+		private Node(RemergeMessage message, int generation) {
+			_message = message;
+			_generation = generation;
+		}
+
+		/**
+		 * @return true if this message has to wait until the earlier one
+		 * is merged.
+		 */
+		private boolean dependsOn(Node earlier) {
+			if (_message.isCompleted() || earlier._message.isCompleted()) {
+				return true;
+			}
+			String path = _message.getDirectory();
+			String earlierPath = earlier._message.getDirectory();
+			return isSameBranch(path, earlierPath);
+		}
+
+		public void run() {
+			long start = System.currentTimeMillis();
+			try {
+				apply(_message);
+			} catch (IOException e) {
+				logger.error("IOException during remerge", e);
+				_rslave.setOffline("IOException during remerge");
+			} catch (RuntimeException e) {
+				logger.error("Exception during remerge of " + this, e);
+			} finally {
+				done(this, System.currentTimeMillis() - start);
+			}
+		}
+
+		public String toString() {
+			return _message.isCompleted() ? "end of remerge" : _message.getDirectory();
+		}
+	}
+
+	/**
+	 * @return true if one path is the other or one of its ancestors.
+	 */
+	static boolean isSameBranch(String path1, String path2) {
+		if (path1.length() > path2.length()) {
+			String tmp = path1;
+			path1 = path2;
+			path2 = tmp;
+		}
+		if (!path2.startsWith(path1)) {
+			return false;
+		}
+		return path1.length() == path2.length()
+				|| path1.endsWith(VirtualFileSystem.separator)
+				|| path2.startsWith(VirtualFileSystem.separator, path1.length());
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.drftpd.slave.LightRemoteInode;
+import org.drftpd.slave.async.AsyncResponseRemerge;
+import org.drftpd.tests.DummyRemoteSlave;
+
+/**
+ * @version $Id$
+ */
+public class RemergeQueueTest extends TestCase {
+
+	private ExecutorService _executor;
+
+	private RemoteSlave _rslave;
+
+	protected void setUp() {
+		_executor = Executors.newFixedThreadPool(4);
+		_rslave = new DummyRemoteSlave("test");
+	}
+
+	protected void tearDown() {
+		_executor.shutdownNow();
+	}
+
+	private RemergeMessage message(String path) {
+		return new RemergeMessage(new AsyncResponseRemerge(path,
+				new ArrayList<LightRemoteInode>(), 0L), _rslave);
+	}
+
+	public void testSameBranch() {
+		assertTrue(RemergeQueue.isSameBranch("/", "/a/b"));
+		assertTrue(RemergeQueue.isSameBranch("/a/b", "/a"));
+		assertTrue(RemergeQueue.isSameBranch("/a", "/a"));
+		assertFalse(RemergeQueue.isSameBranch("/a", "/ab"));
+		assertFalse(RemergeQueue.isSameBranch("/a/b", "/a/c"));
+	}
+
+	public void testOrdering() throws Exception {
+		final List<String> merged = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch finished = new CountDownLatch(1);
+		final CountDownLatch slowStarted = new CountDownLatch(1);
+		final CountDownLatch releaseSlow = new CountDownLatch(1);
+		RemergeQueue queue = new RemergeQueue(_rslave, _executor) {
+			protected void apply(RemergeMessage message) throws IOException {
+				if (message.isCompleted()) {
+					merged.add("end");
+					finished.countDown();
+					return;
+				}
+				if (message.getDirectory().equals("/a/x")) {
+					slowStarted.countDown();
+					try {
+						releaseSlow.await();
+					} catch (InterruptedException e) {
+						throw new IOException(e.getMessage());
+					}
+				}
+				merged.add(message.getDirectory());
+			}
+		};
+		// sent by the slave deepest first
+		queue.put(message("/a/x"));
+		queue.put(message("/b/y"));
+		queue.put(message("/b"));
+		queue.put(message("/a"));
+		queue.put(message("/"));
+		queue.put(new RemergeMessage(_rslave));
+		assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+		// the /b subtree does not wait for /a/x
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!merged.contains("/b") && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, merged.size());
+		assertEquals(4, queue.size());
+		releaseSlow.countDown();
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		assertEquals("/b/y", merged.get(0));
+		assertEquals("/b", merged.get(1));
+		assertEquals("/a/x", merged.get(2));
+		assertEquals("/a", merged.get(3));
+		assertEquals("/", merged.get(4));
+		assertEquals("end", merged.get(5));
+		assertEquals(5, queue.getMerged());
+	}
+}
@@ -34,15 +34,19 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
@@ -56,16 +60,19 @@ import org.drftpd.exceptions.DuplicateElementException;
 import org.drftpd.exceptions.FatalException;
 import org.drftpd.exceptions.SlaveUnavailableException;
 import org.drftpd.io.SafeFileOutputStream;
+import org.drftpd.protocol.PrioritizedObjectWriter;
 import org.drftpd.protocol.ProtocolException;
 import org.drftpd.slave.ConnectInfo;
 import org.drftpd.slave.DiskStatus;
 import org.drftpd.slave.RemoteIOException;
+import org.drftpd.slave.SlaveCommandExecutor;
 import org.drftpd.slave.SlaveStatus;
 import org.drftpd.slave.Transfer;
 import org.drftpd.slave.TransferIndex;
 import org.drftpd.slave.TransferStatus;
 import org.drftpd.slave.async.AsyncCommand;
 import org.drftpd.slave.async.AsyncCommandArgument;
+import org.drftpd.slave.async.AsyncMessageCodec;
 import org.drftpd.slave.async.AsyncResponse;
 import org.drftpd.slave.async.AsyncResponseChecksum;
 import org.drftpd.slave.async.AsyncResponseDiskStatus;
@@ -76,6 +83,7 @@ import org.drftpd.slave.async.AsyncResponseSSLCheck;
 import org.drftpd.slave.async.AsyncResponseTransfer;
 import org.drftpd.slave.async.AsyncResponseTransferStatus;
 import org.drftpd.slave.async.AsyncResponseSiteBotMessage;
+import org.drftpd.slave.async.AsyncResponseSlaveLoad;
 import org.drftpd.stats.ExtendedTimedStats;
 import org.drftpd.usermanager.Entity;
 import org.drftpd.util.HostMask;
@@ -120,6 +128,14 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 
 	private transient DiskStatus _status;
 
+	private transient AsyncResponseSlaveLoad _load;
+
+	private transient TransferLoad _transferLoad;
+
+	private transient volatile Long _bytesSent;
+
+	private transient volatile Long _bytesReceived;
+
 	private HostMaskCollection _ipMasks;
 
 	private Properties _keysAndValues;
@@ -130,7 +146,7 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 
 	private transient LinkedBlockingDeque<String> _indexPool;
 
-	private transient ConcurrentHashMap<String, AsyncResponse> _indexWithCommands;
+	private transient ConcurrentHashMap<String, SlaveResponseFuture> _pendingResponses;
 
 	private transient ObjectInputStream _sin;
 
@@ -138,19 +154,19 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 
 	private transient ObjectOutputStream _sout;
 
+	private transient PrioritizedObjectWriter _writer;
+
+	private transient AsyncMessageCodec _responseCodec;
+
 	private transient ConcurrentHashMap<TransferIndex, RemoteTransfer> _transfers;
 
 	private transient AtomicBoolean _remergePaused;
 	
 	private transient boolean _initRemergeCompleted;
 
-	private transient Object _commandMonitor;
-
-	private transient LinkedBlockingQueue<RemergeMessage> _remergeQueue;
-
-	private transient RemergeThread _remergeThread;
+	private transient RemergeQueue _remergeQueue;
 	
-	private ArrayList<FileHandle> newFiles = new ArrayList<FileHandle>();
+	private List<FileHandle> newFiles = Collections.synchronizedList(new ArrayList<FileHandle>());
 
 	public RemoteSlave(String name) {
 		_name = name;
@@ -159,12 +175,18 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		_ipMasks = new HostMaskCollection();
 		_renameQueue = new LinkedList<QueuedOperation>();
 		_remergePaused = new AtomicBoolean();
-		_remergeQueue = new LinkedBlockingQueue<RemergeMessage>();
-		_commandMonitor = new Object();
+		_remergeQueue = new RemergeQueue(this, RemergeManager.getRemergeManager().getExecutor());
+		_transferLoad = new TransferLoad();
 	}
 	
 	public static final Key<Boolean> SSL = new Key<Boolean>(RemoteSlave.class, "ssl");
 
+	/**
+	 * Commands a user or a transfer is waiting on, sent ahead of queued commands.
+	 */
+	private static final Set<String> CONTROL_COMMANDS = new HashSet<String>(Arrays.asList(
+			"listen", "connect", "abort", "ping", "remergePause", "remergeResume"));
+
 	public boolean CRCRemerge() {
 		return GlobalContext.getConfig().getMainProperties().getProperty("crc.remerge.mode", "true").equals("true");
 	}
@@ -234,6 +256,8 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 
 	public void setProperty(String name, String value) {
 		_keysAndValues.setProperty(name, value);
+		_bytesSent = null;
+		_bytesReceived = null;
 		commit();
 	}
 
@@ -254,6 +278,8 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 	 */
 	public void setProperties(Properties keysAndValues) {
 		_keysAndValues = keysAndValues;
+		_bytesSent = null;
+		_bytesReceived = null;
 	}
 
 	public void commit() {
@@ -357,11 +383,28 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 	}
 
 	public long getSentBytes() {
-		return Long.parseLong(getProperty("bytesSent", "0"));
+		Long bytes = _bytesSent;
+		if (bytes == null) {
+			bytes = Long.parseLong(getProperty("bytesSent", "0"));
+			_bytesSent = bytes;
+		}
+		return bytes;
 	}
 
 	public long getReceivedBytes() {
-		return Long.parseLong(getProperty("bytesReceived", "0"));
+		Long bytes = _bytesReceived;
+		if (bytes == null) {
+			bytes = Long.parseLong(getProperty("bytesReceived", "0"));
+			_bytesReceived = bytes;
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the load model the slave selection reads, see {@link TransferLoad}.
+	 */
+	public TransferLoad getTransferLoad() {
+		return _transferLoad;
 	}
 
 	/**
@@ -714,10 +757,10 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 			_indexPool.push(key);
 		}
 
-		if (_indexWithCommands == null) {
-			_indexWithCommands = new ConcurrentHashMap<String, AsyncResponse>();
+		if (_pendingResponses == null) {
+			_pendingResponses = new ConcurrentHashMap<String, SlaveResponseFuture>();
 		} else {
-			_indexWithCommands.clear();
+			_pendingResponses.clear();
 		}
 		
 		if (_transfers == null) {
@@ -731,11 +774,31 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		_initRemergeCompleted = false;
 		setRemerging(true);
 		
+		int wireVersion = 0;
 		try {
-			GlobalContext.getGlobalContext().getSlaveManager().getProtocolCentral().handshakeWithSlave(this);
+			wireVersion = GlobalContext.getGlobalContext().getSlaveManager().getProtocolCentral().handshakeWithSlave(this);
 		} catch (ProtocolException e) {
 			setOffline(e);
 		}
+
+		// the handshake is done, from now on only the writer thread uses the stream
+		final AsyncMessageCodec commandCodec = wireVersion > 0 ? new AsyncMessageCodec() : null;
+		_responseCodec = wireVersion > 0 ? new AsyncMessageCodec() : null;
+		_writer = new PrioritizedObjectWriter(out, "RemoteSlaveWriter - " + getName(), 256) {
+			protected void writeMessage(ObjectOutputStream out, Object message) throws IOException {
+				if (commandCodec == null) {
+					out.writeObject(message);
+				} else {
+					commandCodec.write(out, message);
+				}
+			}
+
+			protected void writeFailed(IOException e) {
+				logger.error("IOException writing AsyncCommand", e);
+				setOffline("IOException writing AsyncCommand");
+			}
+		};
+		_writer.start();
 		
 		class InitiateRemergeThread implements Runnable {
 
@@ -771,6 +834,12 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 				if (index == null) {
 					logger.error("Too many commands sent, need to wait for the slave to process commands");
 				} else {
+					SlaveResponseFuture future = new SlaveResponseFuture(index);
+					_pendingResponses.put(index, future);
+					if (!isOnline()) {
+						// went offline after the pending replies were failed
+						future.fail(new SlaveUnavailableException("Slave went offline while fetching an index"));
+					}
 					return index;
 				}
 			} catch (InterruptedException e1) {
@@ -804,33 +873,46 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		return fetchResponse(index, getActualTimeout());
 	}
 
+	/**
+	 * @return the handle on the reply to the command sent with that index,
+	 * it is completed by the slave reader thread as soon as the reply arrives.
+	 * The index is only released once the reply was fetched through
+	 * {@link #fetchResponse(String, int)}.
+	 * @throws IllegalStateException if no command is pending for the index.
+	 */
+	public SlaveResponseFuture getResponseFuture(String index) {
+		SlaveResponseFuture future = _pendingResponses.get(index);
+		if (future == null) {
+			throw new IllegalStateException("No command pending for index " + index);
+		}
+		return future;
+	}
+
 	/**
 	 * returns an AsyncResponse for that index and throws any exceptions thrown
 	 * on the Slave side
 	 */
 	public AsyncResponse fetchResponse(String index, int wait) throws SlaveUnavailableException, RemoteIOException {
-		long total = System.currentTimeMillis();
+		SlaveResponseFuture future = getResponseFuture(index);
+		AsyncResponse rar = null;
 
-		while (isOnline() && !_indexWithCommands.containsKey(index)) {
+		while (rar == null) {
 			try {
-				synchronized(_commandMonitor) {
-					_commandMonitor.wait(1000);
+				if (wait == 0) {
+					rar = future.get();
+				} else {
+					rar = future.get(wait, TimeUnit.MILLISECONDS);
 				}
-
-				// will wait a maximum of 1000 milliseconds before waking up
 			} catch (InterruptedException e) {
-			}
-
-			if ((wait != 0) && ((System.currentTimeMillis() - total) >= wait)) {
+			} catch (TimeoutException e) {
 				setOffline("Slave has taken too long while waiting for reply " + index);
+				throw new SlaveUnavailableException("Slave went offline while processing command");
+			} catch (ExecutionException e) {
+				throw (SlaveUnavailableException) e.getCause();
 			}
 		}
 
-		if (!isOnline()) {
-			throw new SlaveUnavailableException("Slave went offline while processing command");
-		}
-
-		AsyncResponse rar = _indexWithCommands.remove(index);
+		_pendingResponses.remove(index);
 		_indexPool.push(index);
 
 		if (rar instanceof AsyncResponseException) {
@@ -853,6 +935,23 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		return getProperty("pasv_addr", _socket.getInetAddress().getHostAddress());
 	}
 
+	/**
+	 * @return the last load the slave reported for its command lanes, null if
+	 * it never reported being saturated since it connected.
+	 */
+	public AsyncResponseSlaveLoad getSlaveLoad() {
+		return _load;
+	}
+
+	/**
+	 * @return true if the slave reported it cannot keep up with the commands sent
+	 * to the given lane, see {@link org.drftpd.slave.SlaveCommandExecutor}.
+	 */
+	public boolean isSaturated(String lane) {
+		AsyncResponseSlaveLoad load = _load;
+		return load != null && load.isSaturated(lane);
+	}
+
 	public int getPort() {
 		return _socket.getPort();
 	}
@@ -863,8 +962,16 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 
 	public long getCheckSumForPath(String path) throws IOException,
 			SlaveUnavailableException {
+		return getCheckSumForPath(path, false);
+	}
+
+	/**
+	 * @param force make the slave read the file even if it has its checksum cached.
+	 */
+	public long getCheckSumForPath(String path, boolean force) throws IOException,
+			SlaveUnavailableException {
 		try {
-			return fetchChecksumFromIndex(SlaveManager.getBasicIssuer().issueChecksumToSlave(this, path));
+			return fetchChecksumFromIndex(SlaveManager.getBasicIssuer().issueChecksumToSlave(this, path, force));
 		} catch (RemoteIOException e) {
 			throw e.getCause();
 		}
@@ -911,27 +1018,32 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 				}
 
 				if (isOnline() && !_initRemergeCompleted) {
-					int queueSize = CommitManager.getCommitManager().getQueueSize();
+					Properties cfg = GlobalContext.getConfig().getMainProperties();
+					long drainTime = CommitManager.getCommitManager().getEstimatedDrainTime();
 					if (_remergePaused.get()) {
 						// Do we need to resume?
-						if (_remergeQueue.size() <= Integer.parseInt(GlobalContext.getConfig().getMainProperties().getProperty("remerge.resume.threshold", "50"))) {
+						if (_remergeQueue.size() <= Integer.parseInt(cfg.getProperty("remerge.resume.threshold", "50"))
+								&& drainTime <= Long.parseLong(cfg.getProperty("remerge.resume.drain", "1000"))) {
 							_socket.setSoTimeout(_prevSocketTimeout); // Restore old time out
 							SlaveManager.getBasicIssuer().issueRemergeResumeToSlave(this);
 							_remergePaused.set(false);
-							logger.debug("Issued remerge resume to slave, current commit queue is " + _remergeQueue.size());
-							String message = ("Issued remerge resume to slave, current commit queue is " + _remergeQueue.size());
+							String message = ("Issued remerge resume to slave, current remerge queue is " + _remergeQueue.size()
+									+ ", commit backlog drains in " + drainTime + "ms");
+							logger.debug(message);
 							GlobalContext.getEventService().publishAsync(new SlaveEvent("MSGSLAVE", message, this));
 						}
 					} else {
 						// Do we need to pause?
-						if (_remergeQueue.size() > Integer.parseInt(GlobalContext.getConfig().getMainProperties().getProperty("remerge.pause.threshold", "250"))) {
+						if (_remergeQueue.size() > Integer.parseInt(cfg.getProperty("remerge.pause.threshold", "250"))
+								|| drainTime > Long.parseLong(cfg.getProperty("remerge.pause.drain", "5000"))) {
 							SlaveManager.getBasicIssuer().issueRemergePauseToSlave(this);
 							_prevSocketTimeout = _socket.getSoTimeout();
 							// Set lower timeout so it reacts faster when queueSize goes back down
 							_socket.setSoTimeout(100);
 							_remergePaused.set(true);
-							logger.debug("Issued remerge pause to slave, current commit queue is " + _remergeQueue.size());
-							String message = ("Issued remerge pause to slave, current commit queue is " + _remergeQueue.size());
+							String message = ("Issued remerge pause to slave, current remerge queue is " + _remergeQueue.size()
+									+ ", commit backlog drains in " + drainTime + "ms");
+							logger.debug(message);
 							GlobalContext.getEventService().publishAsync(new SlaveEvent("MSGSLAVE", message, this));
 						}
 					}
@@ -975,18 +1087,24 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 					if (ats.isFinished()) {
 						removeTransfer(ats.getTransferIndex());
 					}
+				} else if (ar.getIndex().equals("SlaveLoad")) {
+					_load = (AsyncResponseSlaveLoad) ar;
+					_transferLoad.setDiskQueue(_load.getActive(SlaveCommandExecutor.IO)
+							+ _load.getQueued(SlaveCommandExecutor.IO));
+					logger.debug("Slave reported its load: " + _load);
+				} else if (ar.getIndex().equals("SiteBotMessage")) {
+					String message = ((AsyncResponseSiteBotMessage) ar).getMessage();
+					GlobalContext.getEventService().publishAsync(new SlaveEvent("MSGSLAVE", message, this));
 				} else {
-					_indexWithCommands.put(ar.getIndex(), ar);
-					if (pingIndex != null
-							&& pingIndex.equals(ar.getIndex())) {
-						fetchResponse(pingIndex);
-						pingIndex = null;
-					} else if (ar.getIndex().equals("SiteBotMessage")) {
-						String message = ((AsyncResponseSiteBotMessage) ar).getMessage();
-						GlobalContext.getEventService().publishAsync(new SlaveEvent("MSGSLAVE", message, this));
+					SlaveResponseFuture future = _pendingResponses.get(ar.getIndex());
+					if (future == null) {
+						logger.debug("Received a reply no command is waiting for: " + ar);
 					} else {
-						synchronized (_commandMonitor) {
-							_commandMonitor.notifyAll();
+						future.complete(ar);
+						if (pingIndex != null
+								&& pingIndex.equals(ar.getIndex())) {
+							fetchResponse(pingIndex);
+							pingIndex = null;
 						}
 					}
 				}
@@ -1011,6 +1129,7 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 			}
 			throw new IllegalStateException("there is a bug in code");
 		}
+		transfer.unloadTransfer();
 		if (transfer.getTransferDirection() == Transfer.TRANSFER_RECEIVING_UPLOAD) {
 			updateDownloadedBytes(transfer.getTransfered());
 		} else if (transfer.getTransferDirection() == Transfer.TRANSFER_SENDING_DOWNLOAD) {
@@ -1038,12 +1157,23 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 		}
 		_sin = null;
 		_sout = null;
-		if (_indexWithCommands != null)
-			_indexWithCommands.clear();
+		if (_writer != null) {
+			_writer.close();
+			_writer = null;
+		}
+		if (_pendingResponses != null) {
+			// wake up every thread waiting for a reply, the indexes are
+			// given back to the pool on the next connect
+			for (SlaveResponseFuture future : _pendingResponses.values()) {
+				future.fail(new SlaveUnavailableException("Slave went offline while processing command"));
+			}
+		}
 		if (_transfers != null)
 			_transfers.clear();
+		_transferLoad.clear();
 		_maxPath = 0;
 		_status = null;
+		_load = null;
 
 		if (_isAvailable) {
 			GlobalContext.getEventService().publishAsync(
@@ -1077,12 +1207,13 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 			SocketTimeoutException {
 		Object obj;
 		ObjectInputStream in = _sin;
+		AsyncMessageCodec codec = _responseCodec;
 		if (!isOnline()) {
 			throw new SlaveUnavailableException("Slave is unavailable");
 		}
 		while (true) {
 			try {
-				obj = in.readObject();
+				obj = codec == null ? in.readObject() : codec.read(in);
 			} catch (ClassNotFoundException e) {
 				logger.error("ClassNotFound reading AsyncResponse", e);
 				setOffline("ClassNotFound reading AsyncResponse");
@@ -1114,26 +1245,25 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 	}
 
 	/**
-	 * Will not set a slave offline, it is the job of the calling thread to
-	 * decide to do this
+	 * Queues the command to be sent to the slave, latency sensitive commands
+	 * are sent ahead of the others. Does not block on the socket, if writing
+	 * fails the slave is set offline by the writer thread.
 	 */
-	public synchronized void sendCommand(AsyncCommandArgument rac)
+	public void sendCommand(AsyncCommandArgument rac)
 			throws SlaveUnavailableException {
 		if (rac == null) {
 			throw new NullPointerException();
 		}
 
-		ObjectOutputStream out = _sout;
-		if (!isOnline()) {
+		PrioritizedObjectWriter writer = _writer;
+		if (!isOnline() || writer == null) {
 			throw new SlaveUnavailableException();
 		}
 
 		try {
-			out.writeObject(rac);
-			out.flush();
-			out.reset();
+			writer.write(rac, CONTROL_COMMANDS.contains(rac.getName())
+					? PrioritizedObjectWriter.PRIORITY_CONTROL : PrioritizedObjectWriter.PRIORITY_NORMAL);
 		} catch (IOException e) {
-			logger.error("error in sendCommand()", e);
 			throw new SlaveUnavailableException("error sending command (exception already handled)", e);
 		}
 		_lastCommandSent = System.currentTimeMillis();
@@ -1228,6 +1358,8 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 			if (getProperty(key) == null)
 				throw new KeyNotFoundException();
 			String value = (String) _keysAndValues.remove(key);
+			_bytesSent = null;
+			_bytesReceived = null;
 			commit();
 			return value;
 		}
@@ -1278,6 +1410,8 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 				out.close();
 			}
 		}
+		CommitManager.getCommitManager().addBytesWritten(
+				getGlobalContext().getSlaveManager().getSlaveFile(this.getName()).length());
 	}
 
 	public ObjectOutputStream getOutputStream() {
@@ -1290,53 +1424,15 @@ public class RemoteSlave extends ExtendedTimedStats implements Runnable, Compara
 
 	private void putRemergeQueue(RemergeMessage message) {
 		logger.debug("REMERGE: putting message into queue");
-		try {
-			_remergeQueue.put(message);
-		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
-		}
-		if (_remergeThread == null || !_remergeThread.isAlive()) {
-			_remergeThread = new RemergeThread(getName());
-			_remergeThread.start();
-		}
+		_remergeQueue.put(message);
 	}
 
-	private class RemergeThread extends Thread {
-
-		public RemergeThread(String slaveName) {
-			super("RemergeThread - " + slaveName);
-		}
-
-		public void run() {
-
-			while (true) {
-				RemergeMessage msg;
-				try {
-					logger.info("REMERGE SIZE: " + _remergeQueue.size());
-					msg = _remergeQueue.take();
-				} catch (InterruptedException e) {
-					logger.debug("REMERGE QUE: fault in node from queue with exception " + e.getMessage());
-					continue;
-				}
-
-				if (msg.isCompleted()) {
-					logger.info("REMERGE: queue finished");
-					msg.getRslave().makeAvailableAfterRemerge();
-					break;
-				}
-
-				DirectoryHandle dir = new DirectoryHandle(msg.getDirectory());
-
-				try {
-					dir.remerge(msg.getFiles(), msg.getRslave(), msg.getLastModified());
-				} catch (IOException e) {
-					logger.error("IOException during remerge", e);
-					msg.getRslave().setOffline("IOException during remerge");
-					break;
-				}
-			}
-		}
-	}	
+	/**
+	 * @return the remerge messages of this slave and their progress.
+	 */
+	public RemergeQueue getRemergeQueue() {
+		return _remergeQueue;
+	}
 	
 	public int doRemergequeue() {
 		return _remergeQueue.size();
@@ -51,6 +51,13 @@ public class RemoteTransfer {
 	
 	private TransferPointer _pointer;
 
+	/**
+	 * True while the transfer counts in the {@link TransferLoad} of the slave.
+	 */
+	private boolean _loaded = false;
+
+	private long _loadedSpeed = 0L;
+
 	public RemoteTransfer(ConnectInfo ci, RemoteSlave rslave)
 			throws SlaveUnavailableException {
 		_transferIndex = ci.getTransferIndex();
@@ -62,6 +69,13 @@ public class RemoteTransfer {
 	public void updateTransferStatus(TransferStatus ts) {
 		_status = ts;
 
+		synchronized (this) {
+			if (_loaded) {
+				_rslave.getTransferLoad().speedChanged(_transferDirection, _loadedSpeed, ts.getXferSpeed());
+				_loadedSpeed = ts.getXferSpeed();
+			}
+		}
+
 		if (_status.isFinished()) {
 			synchronized (this) {
 				if (_pointer != null && _transferDirection != Transfer.TRANSFER_UNKNOWN) {
@@ -72,6 +86,24 @@ public class RemoteTransfer {
 		}
 	}
 
+	private synchronized void loadTransfer(char direction) {
+		_transferDirection = direction;
+		if (!_loaded) {
+			_loaded = true;
+			_rslave.getTransferLoad().transferStarted(direction);
+		}
+	}
+
+	/**
+	 * Removes the transfer from the load of the slave, called once it ended.
+	 */
+	synchronized void unloadTransfer() {
+		if (_loaded) {
+			_loaded = false;
+			_rslave.getTransferLoad().transferFinished(_transferDirection, _loadedSpeed);
+		}
+	}
+
 	public char getTransferDirection() {
 		return _transferDirection;
 	}
@@ -159,7 +191,7 @@ public class RemoteTransfer {
 		String index = SlaveManager.getBasicIssuer().issueReceiveToSlave(
 				_rslave, path, type, position,	inetAddress, getTransferIndex(), minSpeed, maxSpeed);
 		
-		_transferDirection = Transfer.TRANSFER_RECEIVING_UPLOAD;
+		loadTransfer(Transfer.TRANSFER_RECEIVING_UPLOAD);
 		try {
 			_rslave.fetchResponse(index);
 		} catch (RemoteIOException e) {
@@ -173,7 +205,7 @@ public class RemoteTransfer {
 		_path = path;
 		String index = SlaveManager.getBasicIssuer().issueSendToSlave(
 				_rslave, path, type, position, inetAddress, getTransferIndex(), minSpeed, maxSpeed);
-		_transferDirection = Transfer.TRANSFER_SENDING_DOWNLOAD;
+		loadTransfer(Transfer.TRANSFER_SENDING_DOWNLOAD);
 		try {
 			_rslave.fetchResponse(index);
 		} catch (RemoteIOException e) {
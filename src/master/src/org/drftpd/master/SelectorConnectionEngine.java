@@ -0,0 +1,400 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.drftpd.util.TimerWheel;
+
+/**
+ * Serves the control connections of all clients with a shared pool of
+ * threads.<br>
+ * A connection only gets a thread from the pool while the client sent
+ * something or while output is written to it, in between its channel waits
+ * on a single {@link Selector}. Idle timeouts of the waiting connections are
+ * tracked on a {@link TimerWheel} instead of waking up every connection.
+ * The commands themselves run on the same pool.
+ * @version $Id$
+ */
+public class SelectorConnectionEngine implements Runnable {
+	private static final Logger logger = Logger.getLogger(SelectorConnectionEngine.class);
+
+	/**
+	 * Resolution of the idle timeouts.
+	 */
+	private static final long TICK = 1000L;
+
+	private final Selector _selector;
+
+	private final ThreadPoolExecutor _pool;
+
+	private final ConcurrentLinkedQueue<Handle> _parkQueue = new ConcurrentLinkedQueue<Handle>();
+
+	private final ConcurrentLinkedQueue<Handle> _unparkQueue = new ConcurrentLinkedQueue<Handle>();
+
+	private final TimerWheel<Handle> _idleWheel;
+
+	private final AtomicInteger _connections = new AtomicInteger();
+
+	private final AtomicInteger _parked = new AtomicInteger();
+
+	private final AtomicLong _accepted = new AtomicLong();
+
+	private final AtomicLong _wakeups = new AtomicLong();
+
+	private final AtomicLong _nextId = new AtomicLong();
+
+	public SelectorConnectionEngine(int minThreads) throws IOException {
+		_selector = Selector.open();
+		_pool = new ThreadPoolExecutor(minThreads, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new EngineThreadFactory());
+		_idleWheel = new TimerWheel<Handle>(TICK, 64, System.currentTimeMillis());
+		Thread selectorThread = new Thread(this, "FtpConnection Selector");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+	}
+
+	/**
+	 * @return the pool serving the connections and running their commands.
+	 */
+	public ThreadPoolExecutor getPool() {
+		return _pool;
+	}
+
+	/**
+	 * Starts serving a connection whose socket was accepted from a
+	 * {@link java.nio.channels.ServerSocketChannel}.
+	 * @throws RejectedExecutionException if the pool is shut down.
+	 */
+	public void add(BaseFtpConnection conn) {
+		SocketChannel channel = conn.getControlSocket().getChannel();
+		if (channel == null) {
+			throw new IllegalArgumentException("Control socket has no channel");
+		}
+		Handle handle = new Handle(conn, channel);
+		conn.setEngine(this, handle, _nextId.incrementAndGet());
+		handle._holders = 1;
+		_pool.execute(new Reader(handle, true));
+		_connections.incrementAndGet();
+		_accepted.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of open connections.
+	 */
+	public int getConnectionCount() {
+		return _connections.get();
+	}
+
+	/**
+	 * @return the number of connections waiting on the selector.
+	 */
+	public int getParkedCount() {
+		return _parked.get();
+	}
+
+	/**
+	 * @return the number of connections served since startup.
+	 */
+	public long getAcceptedCount() {
+		return _accepted.get();
+	}
+
+	/**
+	 * @return how many times a waiting connection was handed to the pool.
+	 */
+	public long getWakeupCount() {
+		return _wakeups.get();
+	}
+
+	public void run() {
+		ArrayList<Handle> unparked = new ArrayList<Handle>();
+		while (true) {
+			try {
+				_selector.select(TICK);
+				for (SelectionKey key : _selector.selectedKeys()) {
+					key.cancel();
+					Handle handle = (Handle) key.attachment();
+					handle._key = null;
+					unparked.add(handle);
+				}
+				_selector.selectedKeys().clear();
+				Handle handle;
+				while ((handle = _unparkQueue.poll()) != null) {
+					if (handle._key != null) {
+						handle._key.cancel();
+						handle._key = null;
+						unparked.add(handle);
+					}
+				}
+				if (!unparked.isEmpty()) {
+					// the channels are only deregistered by the next selection,
+					// they can't be put back in blocking mode before that
+					_selector.selectNow();
+					for (Handle h : unparked) {
+						unpark(h);
+					}
+					unparked.clear();
+				}
+				while ((handle = _parkQueue.poll()) != null) {
+					park(handle);
+				}
+				for (Handle h : _idleWheel.expire(System.currentTimeMillis())) {
+					checkIdle(h);
+				}
+			} catch (IOException e) {
+				logger.error("Error selecting control connections", e);
+			} catch (RuntimeException e) {
+				logger.error("Error selecting control connections", e);
+			}
+		}
+	}
+
+	/**
+	 * Registers a connection nobody is using any more with the selector.
+	 */
+	private void park(Handle handle) {
+		boolean serve = false;
+		synchronized (handle) {
+			if (handle._holders > 0 || handle._closed || handle._key != null) {
+				return;
+			}
+			if (handle._conn.isStopRequested()) {
+				serve = true;
+			} else {
+				try {
+					handle._channel.configureBlocking(false);
+					handle._key = handle._channel.register(_selector, SelectionKey.OP_READ, handle);
+					handle._registered = true;
+					_parked.incrementAndGet();
+				} catch (IOException e) {
+					logger.debug("Unable to register control connection", e);
+					serve = true;
+				}
+			}
+			if (serve) {
+				handle._holders = 1;
+			}
+		}
+		if (serve) {
+			// let a thread close it
+			serve(handle);
+			return;
+		}
+		if (!handle._idleScheduled) {
+			long deadline = handle._conn.getIdleDeadline();
+			if (deadline != Long.MAX_VALUE) {
+				handle._idleScheduled = true;
+				_idleWheel.schedule(handle, deadline);
+			}
+		}
+	}
+
+	/**
+	 * Puts a deregistered connection back in blocking mode and hands it to a
+	 * thread if no writer is waiting for it.
+	 */
+	private void unpark(Handle handle) {
+		boolean serve;
+		synchronized (handle) {
+			try {
+				handle._channel.configureBlocking(true);
+			} catch (IOException e) {
+				logger.debug("Unable to put control connection in blocking mode", e);
+			}
+			handle._registered = false;
+			_parked.decrementAndGet();
+			handle.notifyAll();
+			serve = handle._holders == 0;
+			if (serve) {
+				handle._holders = 1;
+			}
+		}
+		if (serve) {
+			_wakeups.incrementAndGet();
+			serve(handle);
+		}
+	}
+
+	private void serve(Handle handle) {
+		try {
+			_pool.execute(new Reader(handle, false));
+		} catch (RejectedExecutionException e) {
+			logger.error("Unable to serve control connection " + handle._conn, e);
+		}
+	}
+
+	private void checkIdle(Handle handle) {
+		handle._idleScheduled = false;
+		if (handle._key == null) {
+			// in use, scheduled again once it waits
+			return;
+		}
+		if (handle._conn.isIdleTimedOut()) {
+			handle._conn.stop("IdleTimeout");
+		} else {
+			long deadline = handle._conn.getIdleDeadline();
+			if (deadline != Long.MAX_VALUE) {
+				handle._idleScheduled = true;
+				_idleWheel.schedule(handle, deadline);
+			}
+		}
+	}
+
+	/**
+	 * State of a connection served by the engine.<br>
+	 * Threads using the connection hold it, the last one to release it hands
+	 * it back to the selector.
+	 */
+	class Handle {
+		private final BaseFtpConnection _conn;
+
+		private final SocketChannel _channel;
+
+		/**
+		 * Only used by the selector thread.
+		 */
+		private SelectionKey _key;
+
+		private boolean _idleScheduled;
+
+		private int _holders;
+
+		private boolean _registered;
+
+		private boolean _closed;
+
+		private Handle(BaseFtpConnection conn, SocketChannel channel) {
+			_conn = conn;
+			_channel = channel;
+		}
+
+		/**
+		 * Takes the connection out of the selector if needed, the channel is
+		 * in blocking mode once this returns.
+		 */
+		void acquire() throws InterruptedIOException {
+			synchronized (this) {
+				_holders++;
+				if (_registered) {
+					_unparkQueue.add(this);
+					_selector.wakeup();
+					while (_registered && !_closed) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							_holders--;
+							Thread.currentThread().interrupt();
+							throw new InterruptedIOException();
+						}
+					}
+				}
+			}
+		}
+
+		void release() {
+			synchronized (this) {
+				if (--_holders == 0 && !_closed) {
+					_parkQueue.add(this);
+					_selector.wakeup();
+				}
+			}
+		}
+
+		/**
+		 * Hands a waiting connection to a thread, used when it has to be
+		 * stopped.
+		 */
+		void wakeup() {
+			synchronized (this) {
+				if (_registered) {
+					_unparkQueue.add(this);
+					_selector.wakeup();
+				}
+			}
+		}
+
+		private void closed() {
+			synchronized (this) {
+				_closed = true;
+				notifyAll();
+			}
+			_connections.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Reads the commands a client sent, and greets it the first time.
+	 */
+	private class Reader implements Runnable {
+		private final Handle _handle;
+
+		private final boolean _open;
+
+		private Reader(Handle handle, boolean open) {
+			_handle = handle;
+			_open = open;
+		}
+
+		public void run() {
+			BaseFtpConnection conn = _handle._conn;
+			boolean keep = false;
+			try {
+				keep = _open ? conn.open() : conn.serveCommands();
+				if (!keep) {
+					conn.printGoodbye();
+				}
+			} catch (Exception e) {
+				conn.logFailure(e);
+			} finally {
+				if (keep) {
+					_handle.release();
+				} else {
+					try {
+						conn.cleanup();
+					} finally {
+						_handle.closed();
+					}
+				}
+			}
+		}
+	}
+
+	private static class EngineThreadFactory implements ThreadFactory {
+		public Thread newThread(Runnable r) {
+			Thread t = Executors.defaultThreadFactory().newThread(r);
+			t.setName("FtpConnection Handler-" + t.getId());
+			return t;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.drftpd.master;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.drftpd.exceptions.SlaveUnavailableException;
+import org.drftpd.slave.async.AsyncResponse;
+
+/**
+ * Handle on the reply to a command sent to a slave.<br>
+ * It is completed by the {@link RemoteSlave} reader thread as soon as the
+ * reply arrives, or failed when the slave goes offline, waking up only the
+ * threads waiting on this particular reply.
+ * @version $Id$
+ */
+public class SlaveResponseFuture implements Future<AsyncResponse> {
+
+	private final String _index;
+
+	private AsyncResponse _response;
+
+	private SlaveUnavailableException _failure;
+
+	private boolean _done;
+
+	private List<Runnable> _listeners;
+
+	public SlaveResponseFuture(String index) {
+		_index = index;
+	}
+
+	public String getIndex() {
+		return _index;
+	}
+
+	/**
+	 * Completes the future with the reply of the slave.
+	 * @return false if the future was already completed.
+	 */
+	public boolean complete(AsyncResponse response) {
+		List<Runnable> listeners;
+		synchronized (this) {
+			if (_done) {
+				return false;
+			}
+			_response = response;
+			_done = true;
+			listeners = _listeners;
+			_listeners = null;
+			notifyAll();
+		}
+		runListeners(listeners);
+		return true;
+	}
+
+	/**
+	 * Fails the future, waiting threads get the given exception.
+	 * @return false if the future was already completed.
+	 */
+	public boolean fail(SlaveUnavailableException failure) {
+		List<Runnable> listeners;
+		synchronized (this) {
+			if (_done) {
+				return false;
+			}
+			_failure = failure;
+			_done = true;
+			listeners = _listeners;
+			_listeners = null;
+			notifyAll();
+		}
+		runListeners(listeners);
+		return true;
+	}
+
+	/**
+	 * Runs the listener once the future is done, right away if it already is.
+	 * Listeners run on the thread completing the future, the slave reader
+	 * thread in most cases, so they must not block.
+	 */
+	public void addListener(Runnable listener) {
+		synchronized (this) {
+			if (!_done) {
+				if (_listeners == null) {
+					_listeners = new ArrayList<Runnable>();
+				}
+				_listeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+
+	private void runListeners(List<Runnable> listeners) {
+		if (listeners != null) {
+			for (Runnable listener : listeners) {
+				listener.run();
+			}
+		}
+	}
+
+	/**
+	 * Replies cannot be cancelled, the slave processes the command anyway.
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	public boolean isCancelled() {
+		return false;
+	}
+
+	public synchronized boolean isDone() {
+		return _done;
+	}
+
+	public synchronized AsyncResponse get() throws InterruptedException, ExecutionException {
+		while (!_done) {
+			wait();
+		}
+		return getResult();
+	}
+
+	public synchronized AsyncResponse get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!_done) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				throw new TimeoutException("No reply for " + _index);
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return getResult();
+	}
+
+	private AsyncResponse getResult() throws ExecutionException {
+		if (_failure != null) {
+			throw new ExecutionException(_failure);
+		}
+		return _response;
+	}
+
+	public String toString() {
+		return getClass().getName() + "[index=" + _index + ",done=" + isDone() + "]";
+	}
+}
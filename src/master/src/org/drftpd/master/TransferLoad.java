@@ -0,0 +1,227 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.drftpd.slave.Transfer;
+
+/**
+ * Load model of a slave, kept up to date as transfers are selected, start,
+ * report their speed and end, so the slave selection filters can read it
+ * without walking the transfers of the slave.<br>
+ * A reservation is made as soon as a slave is selected for a transfer, so
+ * the selections made before the slave reports any traffic already see
+ * each other. It is consumed when the transfer starts or expires after
+ * {@link #RESERVATION_TIMEOUT} milliseconds.<br>
+ * Until a started transfer reports a speed it keeps counting for the speed
+ * of one transfer, and the throughput never reads below the speed the
+ * running transfers last reported while the average catches up with it.
+ * @version $Id$
+ */
+public class TransferLoad {
+
+	public static final long RESERVATION_TIMEOUT = 10000L;
+
+	/**
+	 * Time constant of the throughput average, in milliseconds.
+	 */
+	private static final double AVERAGE_PERIOD = 5000.0;
+
+	/**
+	 * Speed a reserved transfer is assumed to run at until the slave has
+	 * reported the speed of a transfer in that direction, in bytes per second.
+	 */
+	public static final long DEFAULT_TRANSFER_SPEED = 1024L * 1024L;
+
+	private static final int UPLOAD = 0;
+
+	private static final int DOWNLOAD = 1;
+
+	private final ArrayList<ConcurrentLinkedQueue<Long>> _reservations = new ArrayList<ConcurrentLinkedQueue<Long>>(2);
+
+	private final int[] _transfers = new int[2];
+
+	/**
+	 * Running transfers whose last reported speed is 0.
+	 */
+	private final int[] _idle = new int[2];
+
+	private final long[] _speed = new long[2];
+
+	private final double[] _average = new double[2];
+
+	private final double[] _speedPerTransfer = { DEFAULT_TRANSFER_SPEED, DEFAULT_TRANSFER_SPEED };
+
+	private final long[] _lastUpdate = new long[2];
+
+	private volatile int _diskQueue;
+
+	public TransferLoad() {
+		_reservations.add(new ConcurrentLinkedQueue<Long>());
+		_reservations.add(new ConcurrentLinkedQueue<Long>());
+	}
+
+	private static int index(char direction) {
+		if (direction == Transfer.TRANSFER_RECEIVING_UPLOAD) {
+			return UPLOAD;
+		} else if (direction == Transfer.TRANSFER_SENDING_DOWNLOAD) {
+			return DOWNLOAD;
+		}
+		throw new IllegalArgumentException("Direction was not one of download or upload");
+	}
+
+	/**
+	 * Brings the average of the direction up to date with the current speed.
+	 */
+	private double average(int i, long now) {
+		long elapsed = now - _lastUpdate[i];
+		if (elapsed <= 0) {
+			return _average[i];
+		}
+		return _average[i] + (1 - Math.exp(-elapsed / AVERAGE_PERIOD)) * (_speed[i] - _average[i]);
+	}
+
+	private void update(int i, long now) {
+		_average[i] = average(i, now);
+		_lastUpdate[i] = now;
+		if (_transfers[i] > 0 && _speed[i] > 0) {
+			_speedPerTransfer[i] = _speed[i] / (double) _transfers[i];
+		}
+	}
+
+	/**
+	 * Drops the reservations older than {@link #RESERVATION_TIMEOUT}.
+	 */
+	private ConcurrentLinkedQueue<Long> getReservations(int i) {
+		ConcurrentLinkedQueue<Long> reservations = _reservations.get(i);
+		long expired = System.currentTimeMillis() - RESERVATION_TIMEOUT;
+		Long oldest;
+		while ((oldest = reservations.peek()) != null && oldest < expired) {
+			reservations.remove(oldest);
+		}
+		return reservations;
+	}
+
+	/**
+	 * Called when the slave is selected for a transfer in the given direction.
+	 */
+	public void reserve(char direction) {
+		getReservations(index(direction)).add(System.currentTimeMillis());
+	}
+
+	/**
+	 * Called when a transfer starts, consuming the oldest reservation.
+	 */
+	public synchronized void transferStarted(char direction) {
+		int i = index(direction);
+		getReservations(i).poll();
+		update(i, System.currentTimeMillis());
+		_transfers[i]++;
+		_idle[i]++;
+	}
+
+	/**
+	 * Called whenever a running transfer reports its speed.
+	 * @param oldSpeed the speed the transfer reported before.
+	 */
+	public synchronized void speedChanged(char direction, long oldSpeed, long newSpeed) {
+		int i = index(direction);
+		long now = System.currentTimeMillis();
+		update(i, now);
+		_speed[i] = Math.max(0L, _speed[i] - oldSpeed + newSpeed);
+		if (oldSpeed == 0L && newSpeed > 0L) {
+			_idle[i] = Math.max(0, _idle[i] - 1);
+		} else if (oldSpeed > 0L && newSpeed == 0L) {
+			_idle[i]++;
+		}
+		update(i, now);
+	}
+
+	/**
+	 * Called when a transfer ends.
+	 * @param speed the last speed the transfer reported.
+	 */
+	public synchronized void transferFinished(char direction, long speed) {
+		int i = index(direction);
+		update(i, System.currentTimeMillis());
+		_transfers[i] = Math.max(0, _transfers[i] - 1);
+		_speed[i] = Math.max(0L, _speed[i] - speed);
+		if (speed == 0L) {
+			_idle[i] = Math.max(0, _idle[i] - 1);
+		}
+	}
+
+	/**
+	 * Forgets every transfer, called when the slave goes offline.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < 2; i++) {
+			_reservations.get(i).clear();
+			_transfers[i] = 0;
+			_idle[i] = 0;
+			_speed[i] = 0L;
+			_average[i] = 0.0;
+			_lastUpdate[i] = 0L;
+		}
+		_diskQueue = 0;
+	}
+
+	/**
+	 * @return the number of transfers running plus the ones reserved.
+	 */
+	public synchronized int getTransfers(char direction) {
+		int i = index(direction);
+		return _transfers[i] + getReservations(i).size();
+	}
+
+	public int getReservations(char direction) {
+		return getReservations(index(direction)).size();
+	}
+
+	/**
+	 * @return the average throughput of the slave in bytes per second, or the
+	 * speed last reported by its transfers if higher, each reserved transfer
+	 * and each transfer that didn't report a speed yet counting for the last
+	 * known speed of one transfer.
+	 */
+	public synchronized long getThroughput(char direction) {
+		int i = index(direction);
+		double measured = Math.max(average(i, System.currentTimeMillis()), _speed[i]);
+		return (long) (measured + (getReservations(i).size() + _idle[i]) * _speedPerTransfer[i]);
+	}
+
+	/**
+	 * @return the number of disk bound commands running or waiting on the slave.
+	 */
+	public int getDiskQueue() {
+		return _diskQueue;
+	}
+
+	public void setDiskQueue(int diskQueue) {
+		_diskQueue = diskQueue;
+	}
+
+	public String toString() {
+		return getClass().getName() + "[up=" + getThroughput(Transfer.TRANSFER_RECEIVING_UPLOAD)
+				+ "/" + getTransfers(Transfer.TRANSFER_RECEIVING_UPLOAD) + ",down="
+				+ getThroughput(Transfer.TRANSFER_SENDING_DOWNLOAD) + "/"
+				+ getTransfers(Transfer.TRANSFER_SENDING_DOWNLOAD) + ",diskQueue=" + _diskQueue + "]";
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.master;
+
+import junit.framework.TestCase;
+
+import org.drftpd.slave.Transfer;
+
+/**
+ * @version $Id$
+ */
+public class TransferLoadTest extends TestCase {
+
+	private static final char UP = Transfer.TRANSFER_RECEIVING_UPLOAD;
+
+	private static final char DOWN = Transfer.TRANSFER_SENDING_DOWNLOAD;
+
+	public void testReservationsCountAsTransfers() {
+		TransferLoad load = new TransferLoad();
+		load.reserve(DOWN);
+		load.reserve(DOWN);
+		assertEquals(2, load.getTransfers(DOWN));
+		assertEquals(0, load.getTransfers(UP));
+
+		load.transferStarted(DOWN);
+		assertEquals(1, load.getReservations(DOWN));
+		assertEquals(2, load.getTransfers(DOWN));
+
+		load.transferFinished(DOWN, 0L);
+		assertEquals(1, load.getTransfers(DOWN));
+	}
+
+	public void testReservedTransfersUseKnownSpeed() {
+		TransferLoad load = new TransferLoad();
+		assertEquals(0L, load.getThroughput(UP));
+		load.reserve(UP);
+		assertEquals(TransferLoad.DEFAULT_TRANSFER_SPEED, load.getThroughput(UP));
+
+		load.transferStarted(UP);
+		load.speedChanged(UP, 0L, 500L);
+		load.reserve(UP);
+		assertEquals(1000L, load.getThroughput(UP));
+
+		load.clear();
+		assertEquals(0, load.getTransfers(UP));
+		assertEquals(0L, load.getThroughput(UP));
+	}
+
+	public void testStartedTransfersAreProjectedUntilMeasured() {
+		TransferLoad load = new TransferLoad();
+		load.reserve(DOWN);
+		load.transferStarted(DOWN);
+		// the reservation is consumed but the transfer has no speed yet
+		assertEquals(TransferLoad.DEFAULT_TRANSFER_SPEED, load.getThroughput(DOWN));
+
+		load.speedChanged(DOWN, 0L, 300L);
+		assertEquals(300L, load.getThroughput(DOWN));
+
+		load.transferFinished(DOWN, 300L);
+		load.transferStarted(DOWN);
+		load.transferFinished(DOWN, 0L);
+		assertEquals(0, load.getTransfers(DOWN));
+	}
+}
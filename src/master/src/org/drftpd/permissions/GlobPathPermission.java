@@ -56,6 +56,19 @@ public class GlobPathPermission extends PathPermission {
 	public Pattern getPattern() {
 		return _pat;
 	}
+
+	@Override
+	public String getPathPrefix() {
+		if (_pat.getOptions() != 0) {
+			return "";
+		}
+		return PathPermissionIndex.getLiteralPrefix(_pat.getPattern());
+	}
+
+	@Override
+	public boolean isPathOnly() {
+		return true;
+	}
 	
 	public String toString() {
 		return getClass().getCanonicalName()+",pat="+_pat.getPattern()+",users="+_users.toString();
@@ -31,4 +31,20 @@ public abstract class PathPermission extends Permission {
 	}
 
 	public abstract boolean checkPath(InodeHandle inode);
+
+	/**
+	 * @return a string starting every path accepted by {@link #checkPath(InodeHandle)},
+	 * the empty string if any path may be accepted.
+	 */
+	public String getPathPrefix() {
+		return "";
+	}
+
+	/**
+	 * @return true if {@link #checkPath(InodeHandle)} only depends on the path
+	 * of the inode and on whether it is a directory.
+	 */
+	public boolean isPathOnly() {
+		return false;
+	}
 }
@@ -0,0 +1,180 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.permissions;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.drftpd.vfs.InodeHandle;
+
+/**
+ * Finds the first of an ordered list of {@link PathPermission} matching an
+ * inode without trying every permission.<br>
+ * The permissions are sorted in a trie by the literal prefix of their path,
+ * only the permissions whose prefix starts the path are checked. The match
+ * found for a path is remembered as long as every permission only looks at
+ * the path of the inode, see {@link PathPermission#isPathOnly()}.
+ * @version $Id$
+ */
+public class PathPermissionIndex {
+
+	private static final int MAX_CACHED_PATHS = 10000;
+
+	private static final Integer NO_MATCH = -1;
+
+	private final PathPermission[] _perms;
+
+	private final Node _root = new Node();
+
+	private final ConcurrentHashMap<String, Integer> _matches;
+
+	/**
+	 * @param perms the permissions in the order they have to be checked.
+	 */
+	public PathPermissionIndex(List<? extends PathPermission> perms) {
+		_perms = perms.toArray(new PathPermission[perms.size()]);
+		boolean pathOnly = true;
+		for (int i = 0; i < _perms.length; i++) {
+			_root.add(_perms[i].getPathPrefix(), 0, i);
+			pathOnly &= _perms[i].isPathOnly();
+		}
+		_matches = pathOnly ? new ConcurrentHashMap<String, Integer>() : null;
+	}
+
+	/**
+	 * @return the first permission matching the inode, null if none does.
+	 */
+	public PathPermission getMatch(InodeHandle inode) {
+		if (_perms.length == 0) {
+			return null;
+		}
+		String path = inode.getPath();
+		boolean isDirectory = inode.isDirectory();
+		String key = null;
+		if (_matches != null) {
+			key = (isDirectory ? 'd' : 'f') + path;
+			Integer match = _matches.get(key);
+			if (match != null) {
+				return match.intValue() == -1 ? null : _perms[match];
+			}
+		}
+		int match = findMatch(inode, path, isDirectory);
+		if (_matches != null) {
+			if (_matches.size() >= MAX_CACHED_PATHS) {
+				_matches.clear();
+			}
+			_matches.put(key, match == -1 ? NO_MATCH : Integer.valueOf(match));
+		}
+		return match == -1 ? null : _perms[match];
+	}
+
+	private int findMatch(InodeHandle inode, String path, boolean isDirectory) {
+		// directories are matched with a trailing '/' by GlobPathPermission
+		if (isDirectory && !path.endsWith("/")) {
+			path = path + "/";
+		}
+		int[] candidates = new int[_perms.length];
+		int count = 0;
+		Node node = _root;
+		for (int i = 0; node != null; i++) {
+			for (int perm : node._perms) {
+				candidates[count++] = perm;
+			}
+			node = i < path.length() ? node.get(path.charAt(i)) : null;
+		}
+		Arrays.sort(candidates, 0, count);
+		for (int i = 0; i < count; i++) {
+			if (_perms[candidates[i]].checkPath(inode)) {
+				return candidates[i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of paths whose match is remembered, -1 if matches
+	 * can't be remembered.
+	 */
+	public int getCachedPaths() {
+		return _matches == null ? -1 : _matches.size();
+	}
+
+	/**
+	 * @return the characters every string matched by the regular expression
+	 * starts with, as far as it can be told without compiling it.
+	 */
+	static String getLiteralPrefix(String regex) {
+		StringBuilder prefix = new StringBuilder();
+		boolean ended = false;
+		for (int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (i + 1 < regex.length() && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+					if (!ended) {
+						prefix.append(regex.charAt(i + 1));
+					}
+					i++;
+					continue;
+				}
+				ended = true;
+			} else if (c == '|') {
+				// an alternative may start with anything
+				return "";
+			} else if (".[]()*+?{}^$".indexOf(c) != -1) {
+				if (!ended && "*?{".indexOf(c) != -1 && prefix.length() > 0) {
+					// the last character is optional
+					prefix.setLength(prefix.length() - 1);
+				}
+				ended = true;
+			} else if (!ended) {
+				prefix.append(c);
+			}
+		}
+		return prefix.toString();
+	}
+
+	private static class Node {
+
+		private HashMap<Character, Node> _children;
+
+		private int[] _perms = new int[0];
+
+		private void add(String prefix, int depth, int perm) {
+			if (depth == prefix.length()) {
+				_perms = Arrays.copyOf(_perms, _perms.length + 1);
+				_perms[_perms.length - 1] = perm;
+				return;
+			}
+			if (_children == null) {
+				_children = new HashMap<Character, Node>();
+			}
+			Node child = _children.get(prefix.charAt(depth));
+			if (child == null) {
+				child = new Node();
+				_children.put(prefix.charAt(depth), child);
+			}
+			child.add(prefix, depth + 1, perm);
+		}
+
+		private Node get(char c) {
+			return _children == null ? null : _children.get(c);
+		}
+	}
+}
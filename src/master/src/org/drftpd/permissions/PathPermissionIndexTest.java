@@ -0,0 +1,100 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.permissions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.drftpd.vfs.DirectoryHandle;
+import org.drftpd.vfs.FileHandle;
+import org.drftpd.vfs.InodeHandle;
+
+/**
+ * @version $Id$
+ */
+public class PathPermissionIndexTest extends TestCase {
+
+	private static final String[] PATHS = { "/", "/MP3", "/MP3/release", "/MP3/release/file.mp3",
+		"/PRE", "/PRE/group/release", "/incoming/release/file.sfv", "/incoming/release/Sample",
+		"/staff/notes.txt", "/X264/release-GRP/Sample/file.mkv", "/requests/" };
+
+	private ArrayList<PathPermission> _perms;
+
+	protected void setUp() throws Exception {
+		ArrayList<String> users = new ArrayList<String>(Arrays.asList("=siteop"));
+		_perms = new ArrayList<PathPermission>();
+		_perms.add(new GlobPathPermission("/PRE/*", users));
+		_perms.add(new GlobPathPermission("/staff*", users));
+		_perms.add(new GlobPathPermission("*/Sample/*", users));
+		_perms.add(new RegexPathPermission(Pattern.compile("\\.sfv$"), users));
+		_perms.add(new RegexPathPermission(Pattern.compile("^/incoming/"), users));
+		_perms.add(new StringPathPermission("/MP3/release", users));
+		_perms.add(new GlobPathPermission("/MP?/*", users));
+		_perms.add(new GlobPathPermission("*", users));
+	}
+
+	private static PathPermission findLinear(ArrayList<PathPermission> perms, InodeHandle inode) {
+		for (PathPermission perm : perms) {
+			if (perm.checkPath(inode)) {
+				return perm;
+			}
+		}
+		return null;
+	}
+
+	private void assertSameMatches(ArrayList<PathPermission> perms) {
+		PathPermissionIndex index = new PathPermissionIndex(perms);
+		for (int run = 0; run < 2; run++) {
+			for (String path : PATHS) {
+				InodeHandle dir = new DirectoryHandle(path);
+				assertSame(path, findLinear(perms, dir), index.getMatch(dir));
+				if (!path.endsWith("/")) {
+					InodeHandle file = new FileHandle(path);
+					assertSame(path, findLinear(perms, file), index.getMatch(file));
+				}
+			}
+		}
+	}
+
+	public void testMatchesLinearSearch() {
+		assertSameMatches(_perms);
+		_perms.remove(_perms.size() - 1);
+		assertSameMatches(_perms);
+		// not path only, matches are never remembered
+		_perms.add(0, new PathPermission(new ArrayList<String>()) {
+			public boolean checkPath(InodeHandle inode) {
+				return inode.getPath().endsWith(".txt");
+			}
+		});
+		assertSameMatches(_perms);
+		assertEquals(-1, new PathPermissionIndex(_perms).getCachedPaths());
+	}
+
+	public void testLiteralPrefix() throws Exception {
+		assertEquals("/PRE/", PathPermissionIndex.getLiteralPrefix("/PRE/.*"));
+		assertEquals("/MP", PathPermissionIndex.getLiteralPrefix("/MP3?/"));
+		assertEquals("/a.b/", PathPermissionIndex.getLiteralPrefix("/a\\.b/[^/]*"));
+		assertEquals("", PathPermissionIndex.getLiteralPrefix("/a/|/b/"));
+		assertEquals("/a", PathPermissionIndex.getLiteralPrefix("/a\\w"));
+		assertEquals("", new GlobPathPermission("*/Sample/*", _perms.get(0)._users).getPathPrefix());
+		assertEquals("/PRE/", _perms.get(0).getPathPrefix());
+	}
+}
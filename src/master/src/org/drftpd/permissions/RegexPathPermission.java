@@ -18,6 +18,21 @@ public class RegexPathPermission extends PathPermission {
 		Matcher m = _pat.matcher(inode.getPath());
 		return m.find();
 	}
+
+	@Override
+	public String getPathPrefix() {
+		String pattern = _pat.pattern();
+		// unanchored patterns may match anywhere in the path
+		if (_pat.flags() != 0 || !pattern.startsWith("^")) {
+			return "";
+		}
+		return PathPermissionIndex.getLiteralPrefix(pattern.substring(1));
+	}
+
+	@Override
+	public boolean isPathOnly() {
+		return true;
+	}
 	
 	public String toString() {
 		return getClass().getCanonicalName()+"[pat="+_pat.toString()+",users="+_users.toString()+"]";
@@ -31,6 +31,11 @@ import org.drftpd.slave.TransferIndex;
 public abstract class AbstractBasicIssuer extends AbstractIssuer {
 	public abstract String issueChecksumToSlave(RemoteSlave rslave, String path) throws SlaveUnavailableException;
 
+	/**
+	 * @param force make the slave read the file even if it has its checksum cached.
+	 */
+	public abstract String issueChecksumToSlave(RemoteSlave rslave, String path, boolean force) throws SlaveUnavailableException;
+
 	public abstract String issueConnectToSlave(RemoteSlave rslave, String ip, int port,
 			boolean encryptedDataChannel, boolean useSSLClientHandshake) throws SlaveUnavailableException, SSLUnavailableException;
 
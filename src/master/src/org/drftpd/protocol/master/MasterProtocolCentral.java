@@ -26,9 +26,11 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.log4j.Logger;
+import org.drftpd.GlobalContext;
 import org.drftpd.master.RemoteSlave;
 import org.drftpd.protocol.HandshakeWrapper;
 import org.drftpd.protocol.ProtocolException;
+import org.drftpd.slave.async.AsyncMessageCodec;
 import org.drftpd.util.CommonPluginUtils;
 import org.drftpd.util.PluginObjectContainer;
 
@@ -115,11 +117,14 @@ public class MasterProtocolCentral {
 	/**
 	 * Whenever a slave connects, before it even start remerging, a "handshake" is started
 	 * to check if the slave is capable of handling all operations that *might* be requested.
+	 * The binary wire format is negotiated at the end of the handshake, the agreed
+	 * version is sent to slaves that advertised one.
 	 * @param rslave
+	 * @return the agreed {@link AsyncMessageCodec} version, 0 to keep using java serialization.
 	 * @throws ProtocolException Either if the slave isn't capable of handling all operations
 	 * or there was an expected error during the handshake. 
 	 */
-	public void handshakeWithSlave(RemoteSlave rslave) throws ProtocolException {
+	public int handshakeWithSlave(RemoteSlave rslave) throws ProtocolException {
 		try {
 			logger.debug("Trying to handshake with Slave");
 			ObjectOutputStream out = rslave.getOutputStream();
@@ -138,6 +143,20 @@ public class MasterProtocolCentral {
 				throw hw.getException();
 			}
 			logger.debug("Handshake successful");
+
+			if (hw.getWireVersion() == 0) {
+				// older slave, it does not expect an answer
+				return 0;
+			}
+			int wireVersion = 0;
+			if (GlobalContext.getConfig().getMainProperties().getProperty("slave.wireformat", "binary").equals("binary")) {
+				wireVersion = Math.min(hw.getWireVersion(), AsyncMessageCodec.VERSION);
+			}
+			out.writeObject(Integer.valueOf(wireVersion));
+			out.flush();
+			out.reset();
+			logger.debug("Using wire format version " + wireVersion);
+			return wireVersion;
 		} catch (Exception e) {
 			throw new ProtocolException(e);
 		}
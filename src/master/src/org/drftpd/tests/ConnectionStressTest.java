@@ -17,8 +17,14 @@
  */
 package org.drftpd.tests;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import junit.framework.TestCase;
 
@@ -31,7 +37,10 @@ import org.apache.log4j.Logger;
  * This a Stress TestCase for the ConnectionManager ThreadPool.<br>
  * It tries to connect to 'localhost:2121' and hammer the daemon wiyh 100 connections.<br>
  * You can change those settings by simple code changes, not going to provide configuration files for this.<br>
- * The code depends on Jakarta Commons, check it out in <link>http://jakarta.apache.org/commons/net/</link>
+ * The code depends on Jakarta Commons, check it out in <link>http://jakarta.apache.org/commons/net/</link><br>
+ * testIdleConnections opens a few thousand idle control connections and reports how many
+ * connections per second the daemon accepts and the heap and threads each connection costs,
+ * run it against both values of connection.engine to compare them.
  * @author fr0w
  * @version $Id: ConnectionStressTest.java 1925 2009-06-15 21:46:05Z tdsoul $
  */
@@ -44,6 +53,16 @@ public class ConnectionStressTest extends TestCase {
 	private int success = 0;
 	
 	private ArrayList<Thread> list = new ArrayList<Thread>();
+
+	private static final String HOST = "127.0.0.1";
+
+	private static final int PORT = 21211;
+
+	private static final int IDLE_CONNECTIONS = 2000;
+
+	private static final Pattern THREADS = Pattern.compile("Threads running: (\\d+)");
+
+	private static final Pattern HEAP = Pattern.compile("Heap Memory: ([\\d.,]+)\\s*([KMGT]?i?B)");
 	
 	public ConnectionStressTest(String fName) {
 		super(fName);
@@ -82,6 +101,67 @@ public class ConnectionStressTest extends TestCase {
 		assertTrue(dead == success); // all threads were finalized.
 	}
 	
+	public void testIdleConnections() throws Exception {
+		FTPClient admin = new FTPClient();
+		admin.connect(HOST, PORT);
+		assertTrue(admin.login("drftpd", "drftpd"));
+		long heapBefore = getHeapUsed(admin);
+		int threadsBefore = getThreads(admin);
+
+		ArrayList<Socket> sockets = new ArrayList<Socket>();
+		long start = System.currentTimeMillis();
+		try {
+			for (int i = 0; i < IDLE_CONNECTIONS; i++) {
+				Socket sock = new Socket(HOST, PORT);
+				sock.setSoTimeout(10000);
+				sockets.add(sock);
+				String greeting = new BufferedReader(new InputStreamReader(sock.getInputStream())).readLine();
+				assertTrue(greeting, greeting.startsWith("220"));
+			}
+			long time = Math.max(System.currentTimeMillis() - start, 1);
+			int threads = getThreads(admin) - threadsBefore;
+			long heap = getHeapUsed(admin) - heapBefore;
+
+			logger.info(IDLE_CONNECTIONS + " connections in " + time + "ms, "
+					+ (IDLE_CONNECTIONS * 1000L / time) + " connections/s");
+			logger.info("Per connection: " + (heap / IDLE_CONNECTIONS) + " bytes of heap, "
+					+ ((float) threads / IDLE_CONNECTIONS) + " threads");
+		} finally {
+			for (Socket sock : sockets) {
+				try {
+					sock.close();
+				} catch (IOException e) {
+					// already closed
+				}
+			}
+			admin.disconnect();
+		}
+	}
+
+	private static String siteStatus(FTPClient client, String section) throws IOException {
+		client.sendCommand("SITE STATUS " + section);
+		return client.getReplyString();
+	}
+
+	private static int getThreads(FTPClient client) throws IOException {
+		Matcher m = THREADS.matcher(siteStatus(client, "threads"));
+		assertTrue(m.find());
+		return Integer.parseInt(m.group(1));
+	}
+
+	/**
+	 * Parses the heap usage out of SITE STATUS memory, formatted like 12.3MB.
+	 */
+	private static long getHeapUsed(FTPClient client) throws IOException {
+		Matcher m = HEAP.matcher(siteStatus(client, "memory"));
+		assertTrue(m.find());
+		double value = Double.parseDouble(m.group(1).replace(',', '.'));
+		String suffix = m.group(2).toUpperCase();
+		long base = suffix.contains("I") ? 1024L : 1000L;
+		int power = "BKMGT".indexOf(suffix.charAt(0));
+		return (long) (value * Math.pow(base, power));
+	}
+
 	public void addFailure() {
 		failures += 1;
 	}
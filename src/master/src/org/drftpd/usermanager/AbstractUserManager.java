@@ -38,6 +38,7 @@ import org.drftpd.event.UnloadPluginEvent;
 import org.drftpd.exceptions.DuplicateElementException;
 import org.drftpd.exceptions.FileExistsException;
 import org.drftpd.io.PermissionDeniedException;
+import org.drftpd.usermanager.util.UserRankings;
 import org.drftpd.util.CommonPluginUtils;
 import org.drftpd.util.MasterPluginUtils;
 
@@ -58,6 +59,8 @@ public abstract class AbstractUserManager implements UserManager {
 
 	private ArrayList<UserResetHookInterface> _postResetHooks = new ArrayList<UserResetHookInterface>();
 
+	private UserRankings _rankings = new UserRankings(this);
+
 	public void init() throws UserFileException {
 		// Subscribe to events
 		AnnotationProcessor.process(this);
@@ -130,6 +133,7 @@ public abstract class AbstractUserManager implements UserManager {
 		if (!getUserFile(username).delete())
 			throw new RuntimeException(new PermissionDeniedException());
 		_users.remove(username);
+		_rankings.remove(username);
 	}
 
 	protected abstract File getUserFile(String username);
@@ -219,6 +223,10 @@ public abstract class AbstractUserManager implements UserManager {
 	public abstract User getUserByNameUnchecked(String username)
 	throws NoSuchUserException, UserFileException;
 
+	public UserRankings getUserRankings() {
+		return _rankings;
+	}
+
 	protected synchronized void rename(User oldUser, String newUsername)
 	throws UserExistsException, UserFileException {
 		if (!_users.containsKey(newUsername)) {
@@ -20,6 +20,7 @@ package org.drftpd.usermanager;
 import java.util.Collection;
 
 import org.drftpd.master.cron.TimeEventInterface;
+import org.drftpd.usermanager.util.UserRankings;
 
 /**
  * @author mog
@@ -53,4 +54,9 @@ public interface UserManager extends TimeEventInterface {
 
 	public abstract User getUserByNameIncludeDeleted(String argument)
 			throws NoSuchUserException, UserFileException;
+
+	/**
+	 * @return the transfer stat rankings of all users.
+	 */
+	public abstract UserRankings getUserRankings();
 }
@@ -0,0 +1,409 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.usermanager.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.apache.log4j.Logger;
+import org.drftpd.stats.ExtendedTimedStats;
+import org.drftpd.usermanager.NoSuchUserException;
+import org.drftpd.usermanager.User;
+import org.drftpd.usermanager.UserFileException;
+import org.drftpd.usermanager.UserManager;
+
+/**
+ * Keeps every user and group ranked by each transfer stat, so top lists and
+ * places can be read without loading and sorting all users.<br>
+ * A stat is a combination of period (all, month, week, day), direction (up,
+ * down) and kind (bytes, files, time), see {@link #getStat(int, boolean, int)}.
+ * Entries are immutable snapshots replaced on {@link #update(User)}, readers
+ * walk the rankings without locking.
+ * @version $Id$
+ */
+public class UserRankings {
+	private static final Logger logger = Logger.getLogger(UserRankings.class);
+
+	public static final int BYTES = 0;
+
+	public static final int FILES = 1;
+
+	public static final int TIME = 2;
+
+	public static final int STATS = ExtendedTimedStats.P_SIZE * 2 * 3;
+
+	private final UserManager _userManager;
+
+	private final HashMap<String, Entry> _users = new HashMap<String, Entry>();
+
+	private final HashMap<String, Entry> _groups = new HashMap<String, Entry>();
+
+	private final ArrayList<ConcurrentSkipListSet<Entry>> _userRanks;
+
+	private final ArrayList<ConcurrentSkipListSet<Entry>> _groupRanks;
+
+	private volatile boolean _loaded = false;
+
+	public UserRankings(UserManager userManager) {
+		_userManager = userManager;
+		_userRanks = new ArrayList<ConcurrentSkipListSet<Entry>>(STATS);
+		_groupRanks = new ArrayList<ConcurrentSkipListSet<Entry>>(STATS);
+		for (int i = 0; i < STATS; i++) {
+			_userRanks.add(new ConcurrentSkipListSet<Entry>(new EntryComparator(i)));
+			_groupRanks.add(new ConcurrentSkipListSet<Entry>(new EntryComparator(i)));
+		}
+	}
+
+	/**
+	 * @param period one of the ExtendedTimedStats.P_* periods.
+	 * @param upload true for upload stats, false for download stats.
+	 * @param kind {@link #BYTES}, {@link #FILES} or {@link #TIME}.
+	 * @return the stat index used by the other methods.
+	 */
+	public static int getStat(int period, boolean upload, int kind) {
+		return ((period * 2) + (upload ? 0 : 1)) * 3 + kind;
+	}
+
+	/**
+	 * @param command a byte stat as used by the site commands, ex: ALUP,
+	 * MONTHDN, WKUP or DAYDN.
+	 * @return the stat index of the command.
+	 */
+	public static int getStat(String command) {
+		String period = command.substring(0, command.length() - 2).toUpperCase();
+		String updn = command.substring(command.length() - 2).toUpperCase();
+		boolean upload;
+		if (updn.equals("UP")) {
+			upload = true;
+		} else if (updn.equals("DN")) {
+			upload = false;
+		} else {
+			throw new IllegalArgumentException("unhandled command = " + command);
+		}
+		if (period.equals("AL")) {
+			return getStat(ExtendedTimedStats.P_ALL, upload, BYTES);
+		}
+		if (period.equals("MONTH")) {
+			return getStat(ExtendedTimedStats.P_MONTH, upload, BYTES);
+		}
+		if (period.equals("WK")) {
+			return getStat(ExtendedTimedStats.P_WEEK, upload, BYTES);
+		}
+		if (period.equals("DAY")) {
+			return getStat(ExtendedTimedStats.P_DAY, upload, BYTES);
+		}
+		throw new IllegalArgumentException("unhandled command = " + command);
+	}
+
+	/**
+	 * @return the current value of the stat for the user.
+	 */
+	public static long getValue(User user, int stat) {
+		int period = stat / 6;
+		boolean upload = (stat / 3) % 2 == 0;
+		switch (stat % 3) {
+		case BYTES:
+			return upload ? user.getUploadedBytesForPeriod(period)
+					: user.getDownloadedBytesForPeriod(period);
+		case FILES:
+			return upload ? user.getUploadedFilesForPeriod(period)
+					: user.getDownloadedFilesForPeriod(period);
+		default:
+			return upload ? user.getUploadedTimeForPeriod(period)
+					: user.getDownloadedTimeForPeriod(period);
+		}
+	}
+
+	private static long[] getValues(User user) {
+		long[] values = new long[STATS];
+		for (int i = 0; i < STATS; i++) {
+			values[i] = getValue(user, i);
+		}
+		return values;
+	}
+
+	/**
+	 * Reads the current stats and primary group of the user.<br>
+	 * Called whenever a user is committed.
+	 */
+	public void update(User user) {
+		put(user, true);
+	}
+
+	private synchronized void put(User user, boolean replace) {
+		Entry old = _users.get(user.getName());
+		if (old != null && !replace) {
+			return;
+		}
+		Entry entry = new Entry(user.getName(), user.getGroup(), 1, getValues(user));
+		if (old != null && old.sameAs(entry)) {
+			return;
+		}
+		if (old != null) {
+			unrank(_userRanks, old);
+			addToGroup(old, -1);
+		}
+		_users.put(entry.getName(), entry);
+		rank(_userRanks, entry);
+		addToGroup(entry, 1);
+	}
+
+	/**
+	 * Drops a user that was deleted or renamed.
+	 */
+	public synchronized void remove(String username) {
+		Entry old = _users.remove(username);
+		if (old != null) {
+			unrank(_userRanks, old);
+			addToGroup(old, -1);
+		}
+	}
+
+	private void addToGroup(Entry user, int sign) {
+		Entry old = _groups.get(user.getGroup());
+		long[] values = new long[STATS];
+		int members = sign;
+		if (old != null) {
+			unrank(_groupRanks, old);
+			members += old.getMembers();
+			for (int i = 0; i < STATS; i++) {
+				values[i] = old._values[i];
+			}
+		}
+		if (members <= 0) {
+			_groups.remove(user.getGroup());
+			return;
+		}
+		for (int i = 0; i < STATS; i++) {
+			values[i] += sign * user._values[i];
+		}
+		Entry entry = new Entry(user.getGroup(), user.getGroup(), members, values);
+		_groups.put(entry.getName(), entry);
+		rank(_groupRanks, entry);
+	}
+
+	private static void rank(ArrayList<ConcurrentSkipListSet<Entry>> ranks, Entry entry) {
+		for (ConcurrentSkipListSet<Entry> rank : ranks) {
+			rank.add(entry);
+		}
+	}
+
+	private static void unrank(ArrayList<ConcurrentSkipListSet<Entry>> ranks, Entry entry) {
+		for (ConcurrentSkipListSet<Entry> rank : ranks) {
+			rank.remove(entry);
+		}
+	}
+
+	/**
+	 * Ranks every user once, later changes come in through {@link #update(User)}.
+	 * The users are fetched outside of our own lock as the user manager may
+	 * call {@link #remove(String)} while holding its own.
+	 */
+	private void ensureLoaded() {
+		if (_loaded) {
+			return;
+		}
+		Collection<User> users = _userManager.getAllUsers();
+		for (User user : users) {
+			if (user != null) {
+				// users committed meanwhile already hold newer data
+				put(user, false);
+			}
+		}
+		_loaded = true;
+		logger.debug("Ranked " + users.size() + " users");
+	}
+
+	/**
+	 * @return the user names ordered by the stat, highest first.
+	 */
+	public Iterable<String> getUserNames(int stat) {
+		ensureLoaded();
+		final ConcurrentSkipListSet<Entry> rank = _userRanks.get(stat);
+		return new Iterable<String>() {
+			public Iterator<String> iterator() {
+				final Iterator<Entry> iter = rank.iterator();
+				return new Iterator<String>() {
+					public boolean hasNext() {
+						return iter.hasNext();
+					}
+
+					public String next() {
+						return iter.next().getName();
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * @return the users ordered by the stat, highest first. Users are only
+	 * fetched from the user manager as the iteration reaches them, so callers
+	 * should stop as soon as they have what they need.
+	 */
+	public Iterable<User> getUsers(final int stat) {
+		final Iterable<String> names = getUserNames(stat);
+		return new Iterable<User>() {
+			public Iterator<User> iterator() {
+				return new UserIterator(names.iterator());
+			}
+		};
+	}
+
+	/**
+	 * @return the place of the user for the stat, 1 being the best. Users
+	 * sharing a value share a place.
+	 */
+	public int getPlace(int stat, User user) {
+		ensureLoaded();
+		// sorts before every entry holding the same value
+		Entry probe = new Entry("", "", 0, new long[STATS]);
+		probe._values[stat] = getValue(user, stat);
+		return _userRanks.get(stat).headSet(probe).size() + 1;
+	}
+
+	/**
+	 * @return the primary groups ordered by the summed stat of their members,
+	 * highest first.
+	 */
+	public Iterable<Entry> getGroups(int stat) {
+		ensureLoaded();
+		return _groupRanks.get(stat);
+	}
+
+	/**
+	 * @return the number of ranked users.
+	 */
+	public synchronized int size() {
+		return _users.size();
+	}
+
+	/**
+	 * Ranked stats of a user or of all the users of a primary group.
+	 */
+	public static class Entry {
+		private final String _name;
+
+		private final String _group;
+
+		private final int _members;
+
+		private final long[] _values;
+
+		private Entry(String name, String group, int members, long[] values) {
+			_name = name;
+			_group = group;
+			_members = members;
+			_values = values;
+		}
+
+		public String getName() {
+			return _name;
+		}
+
+		public String getGroup() {
+			return _group;
+		}
+
+		/**
+		 * @return the number of users summed up in this entry.
+		 */
+		public int getMembers() {
+			return _members;
+		}
+
+		public long getValue(int stat) {
+			return _values[stat];
+		}
+
+		private boolean sameAs(Entry entry) {
+			if (!_group.equals(entry._group)) {
+				return false;
+			}
+			for (int i = 0; i < STATS; i++) {
+				if (_values[i] != entry._values[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static class EntryComparator implements Comparator<Entry> {
+		private final int _stat;
+
+		private EntryComparator(int stat) {
+			_stat = stat;
+		}
+
+		public int compare(Entry e1, Entry e2) {
+			long v1 = e1._values[_stat];
+			long v2 = e2._values[_stat];
+			if (v1 != v2) {
+				return v1 > v2 ? -1 : 1;
+			}
+			return e1._name.compareTo(e2._name);
+		}
+	}
+
+	private class UserIterator implements Iterator<User> {
+		private final Iterator<String> _names;
+
+		private User _next;
+
+		private UserIterator(Iterator<String> names) {
+			_names = names;
+		}
+
+		public boolean hasNext() {
+			while (_next == null && _names.hasNext()) {
+				String name = _names.next();
+				try {
+					_next = _userManager.getUserByNameUnchecked(name);
+				} catch (NoSuchUserException e) {
+					UserRankings.this.remove(name);
+				} catch (UserFileException e) {
+					logger.error("Error loading " + name, e);
+				}
+			}
+			return _next != null;
+		}
+
+		public User next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			User user = _next;
+			_next = null;
+			return user;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.usermanager.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.drftpd.stats.ExtendedTimedStats;
+import org.drftpd.tests.DummyUser;
+import org.drftpd.tests.DummyUserManager;
+
+/**
+ * @version $Id$
+ */
+public class UserRankingsTest extends TestCase {
+
+	private UserRankings _rankings;
+
+	protected void setUp() {
+		_rankings = new UserRankings(new DummyUserManager());
+	}
+
+	private DummyUser createUser(String name, String group, long bytesDay) {
+		DummyUser user = new DummyUser(name);
+		user.setGroup(group);
+		user.setUploadedBytesDay(bytesDay);
+		user.setUploadedBytes(bytesDay * 2);
+		_rankings.update(user);
+		return user;
+	}
+
+	private ArrayList<String> getNames(int stat) {
+		ArrayList<String> names = new ArrayList<String>();
+		for (String name : _rankings.getUserNames(stat)) {
+			names.add(name);
+		}
+		return names;
+	}
+
+	public void testRanking() {
+		int dayup = UserRankings.getStat("DAYUP");
+		assertEquals(UserRankings.getStat(ExtendedTimedStats.P_DAY, true,
+				UserRankings.BYTES), dayup);
+		DummyUser a = createUser("a", "g1", 100);
+		createUser("b", "g1", 300);
+		DummyUser c = createUser("c", "g2", 200);
+		assertEquals(Arrays.asList("b", "c", "a"), getNames(dayup));
+		assertEquals(3, _rankings.getPlace(dayup, a));
+
+		a.setUploadedBytesDay(400);
+		_rankings.update(a);
+		assertEquals(Arrays.asList("a", "b", "c"), getNames(dayup));
+		assertEquals(1, _rankings.getPlace(dayup, a));
+		assertEquals(3, _rankings.getPlace(dayup, c));
+
+		_rankings.remove("b");
+		assertEquals(Arrays.asList("a", "c"), getNames(dayup));
+		assertEquals(2, _rankings.size());
+	}
+
+	public void testGroups() {
+		int dayup = UserRankings.getStat("dayup");
+		createUser("a", "g1", 100);
+		createUser("b", "g1", 50);
+		DummyUser c = createUser("c", "g2", 120);
+		Iterator<UserRankings.Entry> iter = _rankings.getGroups(dayup).iterator();
+		UserRankings.Entry group = iter.next();
+		assertEquals("g1", group.getName());
+		assertEquals(150, group.getValue(dayup));
+		assertEquals(2, group.getMembers());
+		assertEquals("g2", iter.next().getName());
+		assertFalse(iter.hasNext());
+
+		c.setGroup("g1");
+		_rankings.update(c);
+		iter = _rankings.getGroups(dayup).iterator();
+		group = iter.next();
+		assertEquals(270, group.getValue(dayup));
+		assertEquals(3, group.getMembers());
+		assertFalse(iter.hasNext());
+	}
+}
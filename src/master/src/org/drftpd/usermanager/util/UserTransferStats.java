@@ -17,8 +17,6 @@
  */
 package org.drftpd.usermanager.util;
 
-import java.util.Collection;
-
 import org.drftpd.usermanager.User;
 import org.drftpd.usermanager.UserManager;
 
@@ -31,19 +29,8 @@ public class UserTransferStats {
 	public static int getStatsPlace(String command, User user,
 			UserManager userman) {
 		// AL MONTH WK DAY
-		int place = 1;
-		long bytes = getStats(command, user);
-		Collection<User> users = userman.getAllUsers();
-
-		for (User tempUser : users) {
-			long tempBytes = getStats(command, tempUser);
-
-			if (tempBytes > bytes) {
-				place++;
-			}
-		}
-
-		return place;
+		return userman.getUserRankings().getPlace(
+				UserRankings.getStat(command), user);
 	}
 
 	public static long getStats(String command, User user) {
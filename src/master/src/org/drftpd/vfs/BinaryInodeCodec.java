@@ -0,0 +1,338 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs;
+
+import java.beans.DefaultPersistenceDelegate;
+import java.beans.XMLDecoder;
+import java.beans.XMLEncoder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.drftpd.dynamicdata.Key;
+import org.drftpd.dynamicdata.KeyedMap;
+import org.drftpd.util.CommonPluginUtils;
+
+/**
+ * Compact binary representation of an inode, used by the
+ * {@link JournalVirtualFileSystemStore}.<br>
+ * Core fields are written as raw values. Metadata maps only holding
+ * Strings and boxed primitives are written the same way, maps containing
+ * plugin defined classes fall back to an embedded javabeans XML blob so
+ * that any data the XML store could persist is still supported.
+ * @version $Id$
+ */
+public class BinaryInodeCodec {
+
+	private static final Logger logger = Logger.getLogger(BinaryInodeCodec.class);
+
+	private static final byte TYPE_FILE = 1;
+	private static final byte TYPE_DIRECTORY = 2;
+	private static final byte TYPE_LINK = 3;
+	private static final byte TYPE_ROOT = 4;
+
+	private static final int MAP_XML = -1;
+
+	private static final byte VALUE_STRING = 1;
+	private static final byte VALUE_INTEGER = 2;
+	private static final byte VALUE_LONG = 3;
+	private static final byte VALUE_BOOLEAN = 4;
+	private static final byte VALUE_FLOAT = 5;
+	private static final byte VALUE_DOUBLE = 6;
+
+	private static final BinaryInodeCodec _instance = new BinaryInodeCodec();
+
+	private BinaryInodeCodec() {
+	}
+
+	/**
+	 * @return the loader used to resolve plugin classes referenced by metadata.
+	 */
+	private static ClassLoader getClassLoader() {
+		return CommonPluginUtils.getClassLoaderForObject(_instance);
+	}
+
+	public static byte[] encode(VirtualFileSystemInode inode) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		DataOutputStream out = new DataOutputStream(bytes);
+		if (inode instanceof VirtualFileSystemRoot) {
+			out.writeByte(TYPE_ROOT);
+		} else if (inode.isDirectory()) {
+			out.writeByte(TYPE_DIRECTORY);
+		} else if (inode.isFile()) {
+			out.writeByte(TYPE_FILE);
+		} else {
+			out.writeByte(TYPE_LINK);
+		}
+		out.writeUTF(inode.getUsername());
+		out.writeUTF(inode.getGroup());
+		out.writeLong(inode.getLastModified());
+		out.writeLong(inode.getCreationTime());
+		writeKeyedMap(out, inode.getKeyedMap());
+		writeKeyedMap(out, inode.getPluginMap());
+		writeUntypedMap(out, inode.getUntypedPluginMap());
+		if (inode.isDirectory()) {
+			VirtualFileSystemDirectory dir = (VirtualFileSystemDirectory) inode;
+			out.writeLong(dir.getSize());
+			out.writeBoolean(dir.getPlaceHolderLastModified());
+			Map<String, AtomicInteger> refCounts = dir.getSlaveRefCounts();
+			out.writeInt(refCounts.size());
+			for (Map.Entry<String, AtomicInteger> entry : refCounts.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue().get());
+			}
+		} else if (inode.isFile()) {
+			VirtualFileSystemFile file = (VirtualFileSystemFile) inode;
+			out.writeLong(file.getSize());
+			Set<String> slaves = file.getSlaves();
+			out.writeInt(slaves.size());
+			for (String slave : slaves) {
+				out.writeUTF(slave);
+			}
+		} else {
+			out.writeUTF(((VirtualFileSystemLink) inode).getLinkPath());
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	public static VirtualFileSystemInode decode(byte[] data, String path) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		byte type = in.readByte();
+		String username = in.readUTF();
+		String group = in.readUTF();
+		long lastModified = in.readLong();
+		long creationTime = in.readLong();
+		KeyedMap<Key<?>, Object> keyedMap = readKeyedMap(in, path);
+		KeyedMap<Key<?>, Object> pluginMap = readKeyedMap(in, path);
+		Map<String, Object> untypedMap = readUntypedMap(in, path);
+		VirtualFileSystemInode inode;
+		switch (type) {
+		case TYPE_ROOT:
+		case TYPE_DIRECTORY:
+			VirtualFileSystemDirectory dir = type == TYPE_ROOT ? new VirtualFileSystemRoot(username, group)
+					: new VirtualFileSystemDirectory(username, group);
+			dir.setSize(in.readLong());
+			dir.setPlaceHolderLastModified(in.readBoolean());
+			int refCount = in.readInt();
+			Map<String, AtomicInteger> refCounts = new TreeMap<String, AtomicInteger>();
+			for (int i = 0; i < refCount; i++) {
+				refCounts.put(in.readUTF(), new AtomicInteger(in.readInt()));
+			}
+			dir.setSlaveRefCounts(refCounts);
+			inode = dir;
+			break;
+		case TYPE_FILE:
+			long size = in.readLong();
+			int slaveCount = in.readInt();
+			Set<String> slaves = new HashSet<String>(slaveCount);
+			for (int i = 0; i < slaveCount; i++) {
+				slaves.add(in.readUTF());
+			}
+			inode = new VirtualFileSystemFile(username, group, size, slaves);
+			break;
+		case TYPE_LINK:
+			inode = new VirtualFileSystemLink(username, group, in.readUTF());
+			break;
+		default:
+			throw new IOException("Unknown inode type " + type + " for " + path);
+		}
+		inode.setLastModified(lastModified);
+		inode.setCreationTime(creationTime);
+		inode.setKeyedMap(keyedMap);
+		inode.setPluginMap(pluginMap);
+		inode.setUntypedPluginMap(untypedMap);
+		return inode;
+	}
+
+	private static boolean isSimpleValue(Object value) {
+		if (value instanceof String) {
+			// writeUTF() is limited to 64k of encoded data
+			return ((String) value).length() < 16384;
+		}
+		return value instanceof Integer || value instanceof Long
+				|| value instanceof Boolean || value instanceof Float || value instanceof Double;
+	}
+
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value instanceof String) {
+			out.writeByte(VALUE_STRING);
+			out.writeUTF((String) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(VALUE_INTEGER);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(VALUE_LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(VALUE_BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Float) {
+			out.writeByte(VALUE_FLOAT);
+			out.writeFloat((Float) value);
+		} else {
+			out.writeByte(VALUE_DOUBLE);
+			out.writeDouble((Double) value);
+		}
+	}
+
+	private static Object readValue(DataInput in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case VALUE_STRING:
+			return in.readUTF();
+		case VALUE_INTEGER:
+			return in.readInt();
+		case VALUE_LONG:
+			return in.readLong();
+		case VALUE_BOOLEAN:
+			return in.readBoolean();
+		case VALUE_FLOAT:
+			return in.readFloat();
+		case VALUE_DOUBLE:
+			return in.readDouble();
+		default:
+			throw new IOException("Unknown value type " + type);
+		}
+	}
+
+	private static void writeKeyedMap(DataOutputStream out, KeyedMap<Key<?>, Object> map) throws IOException {
+		Map<Key<?>, Object> copy;
+		synchronized (map) {
+			copy = new KeyedMap<Key<?>, Object>(map);
+		}
+		for (Object value : copy.values()) {
+			if (!isSimpleValue(value)) {
+				writeXML(out, copy);
+				return;
+			}
+		}
+		out.writeInt(copy.size());
+		for (Map.Entry<Key<?>, Object> entry : copy.entrySet()) {
+			out.writeUTF(entry.getKey().getOwner().getName());
+			out.writeUTF(entry.getKey().getKey());
+			writeValue(out, entry.getValue());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static KeyedMap<Key<?>, Object> readKeyedMap(DataInput in, String path) throws IOException {
+		int size = in.readInt();
+		if (size == MAP_XML) {
+			Object map = readXML(in, path);
+			if (map instanceof KeyedMap) {
+				return (KeyedMap<Key<?>, Object>) map;
+			}
+			return new KeyedMap<Key<?>, Object>();
+		}
+		KeyedMap<Key<?>, Object> map = new KeyedMap<Key<?>, Object>();
+		ClassLoader loader = getClassLoader();
+		for (int i = 0; i < size; i++) {
+			String owner = in.readUTF();
+			String key = in.readUTF();
+			Object value = readValue(in);
+			try {
+				map.put(new Key<Object>(Class.forName(owner, false, loader), key), value);
+			} catch (ClassNotFoundException e) {
+				// metadata of a plugin which is no longer loaded, drop it like the XML store does
+			}
+		}
+		return map;
+	}
+
+	private static void writeUntypedMap(DataOutputStream out, Map<String, Object> map) throws IOException {
+		Map<String, Object> copy;
+		synchronized (map) {
+			copy = new TreeMap<String, Object>(map);
+		}
+		for (Object value : copy.values()) {
+			if (!isSimpleValue(value)) {
+				writeXML(out, copy);
+				return;
+			}
+		}
+		out.writeInt(copy.size());
+		for (Map.Entry<String, Object> entry : copy.entrySet()) {
+			out.writeUTF(entry.getKey());
+			writeValue(out, entry.getValue());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> readUntypedMap(DataInput in, String path) throws IOException {
+		int size = in.readInt();
+		if (size == MAP_XML) {
+			Object map = readXML(in, path);
+			if (map instanceof Map) {
+				return new TreeMap<String, Object>((Map<String, Object>) map);
+			}
+			return new TreeMap<String, Object>();
+		}
+		Map<String, Object> map = new TreeMap<String, Object>();
+		for (int i = 0; i < size; i++) {
+			String key = in.readUTF();
+			map.put(key, readValue(in));
+		}
+		return map;
+	}
+
+	private static void writeXML(DataOutputStream out, Object object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		XMLEncoder enc = new XMLEncoder(bytes);
+		ClassLoader prevCL = Thread.currentThread().getContextClassLoader();
+		try {
+			Thread.currentThread().setContextClassLoader(getClassLoader());
+			enc.setPersistenceDelegate(Key.class,
+					new DefaultPersistenceDelegate(new String[] { "owner", "key" }));
+			enc.writeObject(object);
+		} finally {
+			enc.close();
+			Thread.currentThread().setContextClassLoader(prevCL);
+		}
+		out.writeInt(MAP_XML);
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+	}
+
+	private static Object readXML(DataInput in, String path) throws IOException {
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		XMLDecoder dec = new XMLDecoder(new ByteArrayInputStream(data));
+		dec.setExceptionListener(new VFSExceptionListener(path));
+		ClassLoader prevCL = Thread.currentThread().getContextClassLoader();
+		try {
+			Thread.currentThread().setContextClassLoader(getClassLoader());
+			return dec.readObject();
+		} catch (RuntimeException e) {
+			logger.error("Unable to decode metadata for " + path, e);
+			return null;
+		} finally {
+			dec.close();
+			Thread.currentThread().setContextClassLoader(prevCL);
+		}
+	}
+}
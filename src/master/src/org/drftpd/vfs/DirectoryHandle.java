@@ -821,7 +821,11 @@ public class DirectoryHandle extends InodeHandle implements
 		try {
 			dir = createDirectorySystem(name, placeHolderLastModified);
 		} catch (FileNotFoundException e) {
-			getParent().createDirectoryRecursive(getName(), placeHolderLastModified);
+			try {
+				getParent().createDirectoryRecursive(getName(), placeHolderLastModified);
+			} catch (FileExistsException e1) {
+				// the parent was created by another remerge in the meantime
+			}
 		} catch (FileExistsException e) {
 			throw new FileExistsException("Object already exists -- "
 					+ getPath() + VirtualFileSystem.separator + name);
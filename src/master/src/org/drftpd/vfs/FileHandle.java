@@ -162,13 +162,25 @@ public class FileHandle extends InodeHandle implements FileHandleInterface {
 	 */
 	public long getCheckSumFromSlave() throws NoAvailableSlaveException,
 			FileNotFoundException {
+		return getCheckSumFromSlave(false);
+	}
+
+	/**
+	 * @param force make the slave read the file even if it has the checksum
+	 * cached.
+	 * @return the CRC32 of the file ignoring the cached value.
+	 * @throws FileNotFoundException if there's no such file.
+	 * @throws NoAvailableSlaveException if there's no available slave.
+	 */
+	public long getCheckSumFromSlave(boolean force) throws NoAvailableSlaveException,
+			FileNotFoundException {
 		long checksum = 0L;
 		if (getSize() != 0L) {
 			while (true) {
 				synchronized(getInode()) {
 					RemoteSlave rslave = getASlaveForFunction();
 					try {		
-						checksum = rslave.getCheckSumForPath(getPath());
+						checksum = rslave.getCheckSumForPath(getPath(), force);
 					} catch (IOException e) {
 						rslave.setOffline(e);
 						continue;
@@ -0,0 +1,181 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of already resolved paths, used by
+ * {@link VirtualFileSystem#getInodeByPath(String)} to avoid walking the
+ * whole directory tree for every InodeHandle call.<br>
+ * Entries hold a strong reference to the inode, which also keeps the
+ * SoftReferences of its parents alive, so a cached inode is always the same
+ * object that is reachable from the root.<br>
+ * Any structural change of the tree must call {@link #invalidate(String)}
+ * <b>after</b> the change has been applied, this drops the path and every
+ * path below it.
+ * @version $Id$
+ */
+public class InodePathCache {
+
+	private final ConcurrentHashMap<String, VirtualFileSystemInode> _cache;
+
+	private final int _maxSize;
+
+	private final AtomicLong _generation = new AtomicLong();
+
+	private final AtomicLong _hits = new AtomicLong();
+
+	private final AtomicLong _misses = new AtomicLong();
+
+	private final AtomicLong _invalidations = new AtomicLong();
+
+	/**
+	 * @param maxSize maximum number of cached paths, 0 disables the cache.
+	 */
+	public InodePathCache(int maxSize) {
+		_maxSize = Math.max(0, maxSize);
+		_cache = new ConcurrentHashMap<String, VirtualFileSystemInode>(Math.min(_maxSize, 1024) + 16);
+	}
+
+	private static String getKey(String path) {
+		return path.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * @return the cached inode for the given path or null if it's not cached.
+	 */
+	public VirtualFileSystemInode get(String path) {
+		if (_maxSize == 0) {
+			return null;
+		}
+		VirtualFileSystemInode inode = _cache.get(getKey(path));
+		if (inode == null) {
+			_misses.incrementAndGet();
+		} else {
+			_hits.incrementAndGet();
+		}
+		return inode;
+	}
+
+	/**
+	 * Must be read before starting to resolve a path that is going to be
+	 * cached with {@link #put(String, VirtualFileSystemInode, long)}.
+	 */
+	public long getGeneration() {
+		return _generation.get();
+	}
+
+	/**
+	 * Caches the inode resolved for the given path.<br>
+	 * If an invalidation happened since <code>generation</code> was read the
+	 * walk may have seen the old tree, so the entry is discarded.
+	 */
+	public void put(String path, VirtualFileSystemInode inode, long generation) {
+		if (_maxSize == 0 || _generation.get() != generation) {
+			return;
+		}
+		String key = getKey(path);
+		if (_cache.size() >= _maxSize) {
+			evict();
+		}
+		_cache.put(key, inode);
+		if (_generation.get() != generation) {
+			// raced with an invalidation, the scan may have missed us
+			_cache.remove(key, inode);
+		}
+	}
+
+	/**
+	 * Drops roughly a tenth of the cache, the iteration order of the
+	 * underlying map makes this a cheap pseudo-random eviction.
+	 */
+	private void evict() {
+		int toRemove = Math.max(1, _maxSize / 10);
+		for (Iterator<String> iter = _cache.keySet().iterator(); iter.hasNext() && toRemove > 0; toRemove--) {
+			iter.next();
+			iter.remove();
+		}
+	}
+
+	/**
+	 * Removes the given path and everything underneath it from the cache.
+	 */
+	public void invalidate(String path) {
+		_generation.incrementAndGet();
+		if (_cache.isEmpty()) {
+			return;
+		}
+		_invalidations.incrementAndGet();
+		if (path.equals(VirtualFileSystem.separator)) {
+			_cache.clear();
+			return;
+		}
+		String key = getKey(path);
+		String prefix = key + VirtualFileSystem.separator;
+		_cache.remove(key);
+		for (Iterator<String> iter = _cache.keySet().iterator(); iter.hasNext();) {
+			if (iter.next().startsWith(prefix)) {
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Empties the cache.
+	 */
+	public void clear() {
+		_generation.incrementAndGet();
+		_cache.clear();
+	}
+
+	public int getSize() {
+		return _cache.size();
+	}
+
+	public int getMaxSize() {
+		return _maxSize;
+	}
+
+	public long getHits() {
+		return _hits.get();
+	}
+
+	public long getMisses() {
+		return _misses.get();
+	}
+
+	public long getInvalidations() {
+		return _invalidations.get();
+	}
+
+	/**
+	 * @return the percentage of lookups answered by the cache.
+	 */
+	public double getHitRatio() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		if (total == 0) {
+			return 0;
+		}
+		return (hits * 100d) / total;
+	}
+}
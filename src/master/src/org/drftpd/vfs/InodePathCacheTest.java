@@ -0,0 +1,77 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class InodePathCacheTest extends TestCase {
+
+	private InodePathCache _cache;
+
+	private static VirtualFileSystemInode createInode() {
+		return new VirtualFileSystemFile("drftpd", "drftpd", 0L, "testSlave");
+	}
+
+	protected void setUp() {
+		_cache = new InodePathCache(100);
+	}
+
+	public void testPutAndGet() {
+		VirtualFileSystemInode inode = createInode();
+		_cache.put("/MP3/Release", inode, _cache.getGeneration());
+		assertSame(inode, _cache.get("/MP3/Release"));
+		assertSame(inode, _cache.get("/mp3/release"));
+		assertNull(_cache.get("/MP3/Other"));
+		assertEquals(2, _cache.getHits());
+		assertEquals(1, _cache.getMisses());
+	}
+
+	public void testInvalidateSubtree() {
+		_cache.put("/MP3/Release", createInode(), _cache.getGeneration());
+		_cache.put("/MP3/Release/file.mp3", createInode(), _cache.getGeneration());
+		_cache.put("/MP3/Release2", createInode(), _cache.getGeneration());
+		_cache.invalidate("/MP3/Release");
+		assertNull(_cache.get("/MP3/Release"));
+		assertNull(_cache.get("/MP3/Release/file.mp3"));
+		assertNotNull(_cache.get("/MP3/Release2"));
+	}
+
+	public void testStaleGenerationIsDiscarded() {
+		long generation = _cache.getGeneration();
+		_cache.invalidate("/MP3");
+		_cache.put("/MP3/Release", createInode(), generation);
+		assertNull(_cache.get("/MP3/Release"));
+	}
+
+	public void testBounded() {
+		for (int i = 0; i < 1000; i++) {
+			_cache.put("/dir/" + i, createInode(), _cache.getGeneration());
+		}
+		assertTrue(_cache.getSize() <= _cache.getMaxSize());
+	}
+
+	public void testDisabled() {
+		_cache = new InodePathCache(0);
+		_cache.put("/MP3", createInode(), _cache.getGeneration());
+		assertNull(_cache.get("/MP3"));
+		assertEquals(0, _cache.getSize());
+	}
+}
@@ -0,0 +1,760 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+import org.drftpd.io.PermissionDeniedException;
+import org.drftpd.master.CommitManager;
+
+/**
+ * Stores all inodes in a single append-only journal of binary records.<br>
+ * Every change appends a record, the latest WRITE record of a path holds its
+ * data. An in memory index keeps the tree of stored paths with the position
+ * of their data, so lookups never touch the disk besides reading the record
+ * itself.<br>
+ * Once the journal grows well beyond the size of its live records it is
+ * compacted by a background thread: a snapshot holding only the live records
+ * is written next to it under the read lock, then the write lock is only taken
+ * to append the records written meanwhile and atomically replace the journal
+ * with the snapshot.<br>
+ * Every record is checksummed, a partially written record at the end of the
+ * journal (crash, full disk) is dropped when the journal is opened.<br>
+ * If no journal exists but an XML tree from {@link XMLVirtualFileSystemStore}
+ * does, the tree is imported on startup and left untouched on disk.
+ * @version $Id$
+ */
+public class JournalVirtualFileSystemStore implements VirtualFileSystemStore {
+
+	private static final Logger logger = Logger.getLogger(JournalVirtualFileSystemStore.class);
+
+	public static final String journalPath = "vfs.journal";
+
+	private static final int MAGIC = 0x44525646;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 8;
+
+	private static final byte OP_WRITE = 1;
+	private static final byte OP_DELETE = 2;
+	private static final byte OP_RENAME = 3;
+	private static final byte OP_DISCARD = 4;
+	private static final byte OP_MKDIR = 5;
+
+	/**
+	 * Node of the in memory index.
+	 */
+	private static class Entry {
+		private long _offset = -1;
+
+		private int _length;
+
+		private HashMap<String, Entry> _children;
+
+		private Entry(boolean directory) {
+			if (directory) {
+				_children = new HashMap<String, Entry>();
+			}
+		}
+
+		private boolean isDirectory() {
+			return _children != null;
+		}
+	}
+
+	/**
+	 * A serialized record and where its payload starts inside it.
+	 */
+	private static class Record {
+		private byte[] _data;
+
+		private int _payloadOffset;
+	}
+
+	/**
+	 * A snapshot being written, with the new position of every payload it holds.
+	 */
+	static final class Snapshot {
+		private final File _file;
+
+		private FileOutputStream _out;
+
+		/**
+		 * Size of the journal when the snapshot was taken, the records after it
+		 * are appended to the snapshot when it replaces the journal.
+		 */
+		private long _journalEnd;
+
+		private long _size;
+
+		private final IdentityHashMap<Entry, Long> _offsets = new IdentityHashMap<Entry, Long>();
+
+		private Snapshot(File file) {
+			_file = file;
+		}
+	}
+
+	private final File _journalFile;
+
+	private final long _compactMinSize;
+
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+	private FileChannel _channel;
+
+	private long _journalSize;
+
+	private long _liveBytes;
+
+	private Entry _root;
+
+	private volatile Thread _compaction;
+
+	/**
+	 * @param journalFile where the journal is stored.
+	 * @param compactMinSize the journal is never compacted below this size.
+	 */
+	public JournalVirtualFileSystemStore(File journalFile, long compactMinSize) throws IOException {
+		_journalFile = journalFile;
+		_compactMinSize = compactMinSize;
+		if (!_journalFile.exists() && XMLVirtualFileSystemStore.exists()) {
+			importXMLStore();
+		}
+		open();
+	}
+
+	/**
+	 * Opens the journal and rebuilds the index from it.
+	 */
+	private void open() throws IOException {
+		_root = new Entry(true);
+		_liveBytes = 0;
+		boolean created = !_journalFile.exists();
+		_channel = new RandomAccessFile(_journalFile, "rw").getChannel();
+		if (created) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			_channel.write(header, 0);
+			_journalSize = HEADER_SIZE;
+			return;
+		}
+		long start = System.currentTimeMillis();
+		int records = 0;
+		long position = HEADER_SIZE;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_journalFile), 65536));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(_journalFile + " is not a VFS journal this version can read");
+			}
+			CRC32 crc = new CRC32();
+			while (true) {
+				int length;
+				byte[] body;
+				try {
+					length = in.readInt();
+					if (length <= 0 || position + length + 8 > _channel.size()) {
+						throw new EOFException();
+					}
+					body = new byte[length];
+					in.readFully(body);
+					crc.reset();
+					crc.update(body);
+					if (in.readInt() != (int) crc.getValue()) {
+						throw new EOFException();
+					}
+				} catch (EOFException e) {
+					break;
+				}
+				apply(body, position);
+				position += length + 8;
+				records++;
+			}
+		} finally {
+			in.close();
+		}
+		if (position < _channel.size()) {
+			logger.warn("Dropping " + (_channel.size() - position)
+					+ " bytes of incomplete records at the end of " + _journalFile);
+			_channel.truncate(position);
+		}
+		_journalSize = position;
+		logger.info("Loaded " + records + " records from " + _journalFile + " in "
+				+ (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * Applies a record read from the journal to the index.
+	 * @param position where the record starts in the journal
+	 */
+	private void apply(byte[] body, long position) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+		byte op = in.readByte();
+		String path = in.readUTF();
+		switch (op) {
+		case OP_WRITE:
+			boolean directory = in.readBoolean();
+			int payloadOffset = body.length - in.available();
+			setData(path, directory, position + 4 + payloadOffset, body.length - payloadOffset);
+			break;
+		case OP_DELETE:
+			removeEntry(path);
+			break;
+		case OP_RENAME:
+			moveEntry(path, in.readUTF());
+			break;
+		case OP_DISCARD:
+			Entry entry = getEntry(path);
+			if (entry != null) {
+				_liveBytes -= entry._length;
+				entry._offset = -1;
+				entry._length = 0;
+			}
+			break;
+		case OP_MKDIR:
+			getOrCreateEntry(path, true);
+			break;
+		default:
+			throw new IOException("Unknown record type " + op + " in " + _journalFile);
+		}
+	}
+
+	private static String[] split(String path) {
+		if (path.equals(VirtualFileSystem.separator)) {
+			return new String[0];
+		}
+		return path.substring(1).split(VirtualFileSystem.separator);
+	}
+
+	private Entry getEntry(String path) {
+		Entry entry = _root;
+		for (String name : split(path)) {
+			if (!entry.isDirectory()) {
+				return null;
+			}
+			entry = entry._children.get(name);
+			if (entry == null) {
+				return null;
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Same as creating the missing parent directories on a real filesystem.
+	 */
+	private Entry getOrCreateEntry(String path, boolean directory) {
+		String[] names = split(path);
+		Entry entry = _root;
+		for (int i = 0; i < names.length; i++) {
+			boolean last = i == names.length - 1;
+			if (!entry.isDirectory()) {
+				entry._children = new HashMap<String, Entry>();
+			}
+			Entry child = entry._children.get(names[i]);
+			if (child == null) {
+				child = new Entry(!last || directory);
+				entry._children.put(names[i], child);
+			}
+			entry = child;
+		}
+		if (directory && !entry.isDirectory()) {
+			entry._children = new HashMap<String, Entry>();
+		}
+		return entry;
+	}
+
+	private void setData(String path, boolean directory, long offset, int length) {
+		Entry entry = getOrCreateEntry(path, directory);
+		if (!directory && entry.isDirectory() && entry._children.isEmpty()) {
+			entry._children = null;
+		}
+		_liveBytes += length - entry._length;
+		entry._offset = offset;
+		entry._length = length;
+	}
+
+	private Entry detachEntry(String path) {
+		if (path.equals(VirtualFileSystem.separator)) {
+			return null;
+		}
+		Entry parent = getEntry(VirtualFileSystem.stripLast(path));
+		if (parent == null || !parent.isDirectory()) {
+			return null;
+		}
+		return parent._children.remove(VirtualFileSystem.getLast(path));
+	}
+
+	private void removeEntry(String path) {
+		Entry entry = detachEntry(path);
+		if (entry != null) {
+			_liveBytes -= getLiveBytes(entry);
+		}
+	}
+
+	private static long getLiveBytes(Entry entry) {
+		long bytes = entry._length;
+		if (entry.isDirectory()) {
+			for (Entry child : entry._children.values()) {
+				bytes += getLiveBytes(child);
+			}
+		}
+		return bytes;
+	}
+
+	private void moveEntry(String source, String destination) {
+		Entry entry = detachEntry(source);
+		if (entry == null) {
+			return;
+		}
+		Entry parent = getOrCreateEntry(VirtualFileSystem.stripLast(destination), true);
+		Entry replaced = parent._children.put(VirtualFileSystem.getLast(destination), entry);
+		if (replaced != null) {
+			_liveBytes -= getLiveBytes(replaced);
+		}
+	}
+
+	private static Record createRecord(byte op, String path, String destination,
+			boolean directory, byte[] payload) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload == null ? 64 : payload.length + 64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		// placeholder for the length
+		out.writeInt(0);
+		out.writeByte(op);
+		out.writeUTF(path);
+		if (destination != null) {
+			out.writeUTF(destination);
+		}
+		Record record = new Record();
+		if (op == OP_WRITE) {
+			out.writeBoolean(directory);
+			record._payloadOffset = out.size();
+			out.write(payload);
+		}
+		out.writeInt(0);
+		out.flush();
+		byte[] data = bytes.toByteArray();
+		int length = data.length - 8;
+		CRC32 crc = new CRC32();
+		crc.update(data, 4, length);
+		ByteBuffer.wrap(data).putInt(0, length).putInt(data.length - 4, (int) crc.getValue());
+		record._data = data;
+		return record;
+	}
+
+	/**
+	 * Appends the record to the journal, must be called with the write lock held.
+	 * @return the position of the record in the journal.
+	 */
+	private long append(Record record) throws IOException {
+		long position = _journalSize;
+		ByteBuffer buffer = ByteBuffer.wrap(record._data);
+		while (buffer.hasRemaining()) {
+			_channel.write(buffer, position + buffer.position());
+		}
+		_journalSize += record._data.length;
+		return position;
+	}
+
+	private byte[] readPayload(Entry entry) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(entry._length);
+		long position = entry._offset;
+		while (buffer.hasRemaining()) {
+			if (_channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Unexpected end of " + _journalFile);
+			}
+		}
+		return buffer.array();
+	}
+
+	public VirtualFileSystemInode readInode(String path) throws Exception {
+		byte[] payload;
+		_lock.readLock().lock();
+		try {
+			Entry entry = getEntry(path);
+			if (entry == null || entry._offset == -1) {
+				throw new FileNotFoundException(path + " is not stored");
+			}
+			payload = readPayload(entry);
+		} finally {
+			_lock.readLock().unlock();
+		}
+		return BinaryInodeCodec.decode(payload, path);
+	}
+
+	public String[] listChildren(String path) {
+		_lock.readLock().lock();
+		try {
+			Entry entry = getEntry(path);
+			if (entry == null || !entry.isDirectory()) {
+				return new String[0];
+			}
+			return entry._children.keySet().toArray(new String[entry._children.size()]);
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	public boolean isDirectory(String path) {
+		_lock.readLock().lock();
+		try {
+			Entry entry = getEntry(path);
+			return entry != null && entry.isDirectory();
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	public boolean discardInode(String path) {
+		_lock.writeLock().lock();
+		try {
+			Entry entry = getEntry(path);
+			if (entry == null || entry._offset == -1) {
+				return false;
+			}
+			append(createRecord(OP_DISCARD, path, null, false, null));
+			_liveBytes -= entry._length;
+			entry._offset = -1;
+			entry._length = 0;
+			return true;
+		} catch (IOException e) {
+			logger.error("Unable to discard " + path + " from " + _journalFile, e);
+			return false;
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	public void writeInode(VirtualFileSystemInode inode) throws IOException {
+		String path = inode.getPath();
+		Record record = createRecord(OP_WRITE, path, null, inode.isDirectory(),
+				BinaryInodeCodec.encode(inode));
+		_lock.writeLock().lock();
+		try {
+			long position = append(record);
+			CommitManager.getCommitManager().addBytesWritten(record._data.length);
+			setData(path, inode.isDirectory(), position + record._payloadOffset,
+					record._data.length - record._payloadOffset - 4);
+			if (_compaction == null && needsCompaction()) {
+				_compaction = new Thread(new Runnable() {
+					public void run() {
+						compact();
+					}
+				}, "VFS journal compaction");
+				_compaction.setDaemon(true);
+				_compaction.start();
+			}
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	public void deleteInode(String path) {
+		_lock.writeLock().lock();
+		try {
+			if (getEntry(path) == null) {
+				return;
+			}
+			append(createRecord(OP_DELETE, path, null, false, null));
+			removeEntry(path);
+		} catch (IOException e) {
+			logger.error("Unable to delete " + path + " from " + _journalFile, e);
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	public void renameInode(String source, String destination)
+			throws FileNotFoundException, PermissionDeniedException {
+		_lock.writeLock().lock();
+		try {
+			if (getEntry(source) == null) {
+				throw new FileNotFoundException(source + " cannot be found");
+			}
+			append(createRecord(OP_RENAME, source, destination, false, null));
+			moveEntry(source, destination);
+		} catch (IOException e) {
+			throw new PermissionDeniedException("Cannot rename " + source
+					+ " to " + destination + " - " + e.getMessage());
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	public void close() {
+		try {
+			waitForCompaction();
+		} catch (InterruptedException e) {
+			// the compaction drops its snapshot once it finds the journal closed
+		}
+		_lock.writeLock().lock();
+		try {
+			_channel.force(true);
+			_channel.close();
+		} catch (IOException e) {
+			logger.error("Error closing " + _journalFile, e);
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the current size of the journal on disk.
+	 */
+	public long getJournalSize() {
+		return _journalSize;
+	}
+
+	/**
+	 * @return the amount of inode data the journal would hold once compacted.
+	 */
+	public long getLiveBytes() {
+		return _liveBytes;
+	}
+
+	private boolean needsCompaction() {
+		// records also hold the path, so live data is roughly twice the payload
+		return _journalSize > _compactMinSize && _journalSize > _liveBytes * 4;
+	}
+
+	/**
+	 * Writes a snapshot of the live records and replaces the journal with it,
+	 * run by the compaction thread.
+	 */
+	void compact() {
+		long start = System.currentTimeMillis();
+		long oldSize = _journalSize;
+		Snapshot snapshot = null;
+		try {
+			snapshot = writeSnapshot();
+			if (swap(snapshot)) {
+				logger.info("Compacted " + _journalFile + " from " + oldSize + " to " + _journalSize
+						+ " bytes in " + (System.currentTimeMillis() - start) + "ms");
+			}
+		} catch (IOException e) {
+			logger.error("Unable to compact " + _journalFile, e);
+			if (snapshot != null) {
+				try {
+					snapshot._out.close();
+				} catch (IOException e1) {
+				}
+				snapshot._file.delete();
+			}
+		} finally {
+			_compaction = null;
+		}
+	}
+
+	/**
+	 * Waits for the running compaction, if any, to be over.
+	 */
+	void waitForCompaction() throws InterruptedException {
+		Thread compaction = _compaction;
+		if (compaction != null) {
+			compaction.join();
+		}
+	}
+
+	/**
+	 * Writes the live records to a new snapshot, holding the read lock only so
+	 * that lookups go on meanwhile.
+	 */
+	Snapshot writeSnapshot() throws IOException {
+		Snapshot snapshot = new Snapshot(new File(_journalFile.getPath() + ".snapshot"));
+		FileOutputStream fos = new FileOutputStream(snapshot._file);
+		boolean written = false;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 65536));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			snapshot._size = HEADER_SIZE;
+			_lock.readLock().lock();
+			try {
+				snapshot._journalEnd = _journalSize;
+				writeSnapshot(out, snapshot, VirtualFileSystem.separator, _root);
+			} finally {
+				_lock.readLock().unlock();
+			}
+			out.flush();
+			snapshot._out = fos;
+			written = true;
+			return snapshot;
+		} finally {
+			if (!written) {
+				fos.close();
+				snapshot._file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Writes the live records of the entry and its children, parents first.
+	 */
+	private void writeSnapshot(DataOutputStream out, Snapshot snapshot, String path, Entry entry)
+			throws IOException {
+		if (entry._offset != -1) {
+			Record record = createRecord(OP_WRITE, path, null, entry.isDirectory(), readPayload(entry));
+			out.write(record._data);
+			snapshot._offsets.put(entry, snapshot._size + record._payloadOffset);
+			snapshot._size += record._data.length;
+		} else if (entry != _root && entry.isDirectory()) {
+			byte[] data = createRecord(OP_MKDIR, path, null, true, null)._data;
+			out.write(data);
+			snapshot._size += data.length;
+		}
+		if (entry.isDirectory()) {
+			String prefix = entry == _root ? "" : path;
+			for (Map.Entry<String, Entry> child : entry._children.entrySet()) {
+				writeSnapshot(out, snapshot, prefix + VirtualFileSystem.separator + child.getKey(), child.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Appends the records written since the snapshot was taken to it and
+	 * replaces the journal with it, under the write lock.
+	 * @return false if the store was closed meanwhile and the snapshot dropped.
+	 */
+	boolean swap(Snapshot snapshot) throws IOException {
+		_lock.writeLock().lock();
+		try {
+			if (!_channel.isOpen()) {
+				snapshot._out.close();
+				snapshot._file.delete();
+				return false;
+			}
+			long tail = _journalSize - snapshot._journalEnd;
+			FileChannel out = snapshot._out.getChannel();
+			for (long copied = 0; copied < tail;) {
+				copied += _channel.transferTo(snapshot._journalEnd + copied, tail - copied, out);
+			}
+			snapshot._out.getFD().sync();
+			snapshot._out.close();
+			_channel.close();
+			try {
+				replaceJournal(snapshot._file);
+			} finally {
+				// the old journal if the snapshot couldn't replace it
+				_channel = new RandomAccessFile(_journalFile, "rw").getChannel();
+			}
+			relocate(_root, snapshot, snapshot._size - snapshot._journalEnd);
+			_journalSize = snapshot._size + tail;
+			return true;
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Points the entries at their payload in the snapshot, or further in it by
+	 * <code>shift</code> for the payloads written after it was taken.
+	 */
+	private static void relocate(Entry entry, Snapshot snapshot, long shift) {
+		if (entry._offset >= snapshot._journalEnd) {
+			entry._offset += shift;
+		} else if (entry._offset != -1) {
+			// untouched since the snapshot, renames keep the entry
+			entry._offset = snapshot._offsets.get(entry);
+		}
+		if (entry.isDirectory()) {
+			for (Entry child : entry._children.values()) {
+				relocate(child, snapshot, shift);
+			}
+		}
+	}
+
+	private void replaceJournal(File snapshot) throws IOException {
+		try {
+			Files.move(snapshot.toPath(), _journalFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(snapshot.toPath(), _journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Converts the tree written by the {@link XMLVirtualFileSystemStore} into a journal.
+	 */
+	private void importXMLStore() throws IOException {
+		logger.info("Importing the XML VFS tree from " + XMLVirtualFileSystemStore.fileSystemPath
+				+ " into " + _journalFile + ", this may take a while");
+		long start = System.currentTimeMillis();
+		XMLVirtualFileSystemStore xmlStore = new XMLVirtualFileSystemStore();
+		File snapshot = new File(_journalFile.getPath() + ".import");
+		FileOutputStream fos = new FileOutputStream(snapshot);
+		int imported = 0;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 65536));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			imported = importXMLPath(out, xmlStore, VirtualFileSystem.separator);
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		replaceJournal(snapshot);
+		logger.info("Imported " + imported + " inodes in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private int importXMLPath(DataOutputStream out, XMLVirtualFileSystemStore xmlStore, String path)
+			throws IOException {
+		int imported = 0;
+		boolean directory = xmlStore.isDirectory(path);
+		try {
+			VirtualFileSystemInode inode = xmlStore.readInode(path);
+			out.write(createRecord(OP_WRITE, path, null, inode.isDirectory(), BinaryInodeCodec.encode(inode))._data);
+			imported++;
+		} catch (Exception e) {
+			logger.warn("Unable to import " + path + ", it will be recreated if possible", e);
+			if (directory) {
+				out.write(createRecord(OP_MKDIR, path, null, true, null)._data);
+			}
+		}
+		if (directory) {
+			String prefix = path.equals(VirtualFileSystem.separator) ? "" : path;
+			for (String child : xmlStore.listChildren(path)) {
+				imported += importXMLPath(out, xmlStore, prefix + VirtualFileSystem.separator + child);
+			}
+		}
+		return imported;
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class JournalVirtualFileSystemStoreTest extends TestCase {
+
+	private File _journal;
+
+	private JournalVirtualFileSystemStore _store;
+
+	private VirtualFileSystemRoot _root;
+
+	private VirtualFileSystemDirectory _dir;
+
+	private VirtualFileSystemFile _file;
+
+	protected void setUp() throws Exception {
+		_journal = File.createTempFile("drftpd", ".journal");
+		_journal.delete();
+		_store = new JournalVirtualFileSystemStore(_journal, 0);
+		_root = new VirtualFileSystemRoot("drftpd", "drftpd");
+		_dir = new VirtualFileSystemDirectory("user", "group");
+		_dir.setName("MP3");
+		_dir.setParent(_root);
+		_file = new VirtualFileSystemFile("user", "group", 1024L,
+				new HashSet<String>(Arrays.asList("slave1", "slave2")));
+		_file.setName("file.mp3");
+		_file.setParent(_dir);
+		_file.getKeyedMap().setObject(VirtualFileSystemFile.CRC, 12345L);
+	}
+
+	protected void tearDown() {
+		_store.close();
+		_journal.delete();
+	}
+
+	private JournalVirtualFileSystemStore reopen() throws Exception {
+		_store.close();
+		_store = new JournalVirtualFileSystemStore(_journal, 0);
+		return _store;
+	}
+
+	public void testWriteAndRead() throws Exception {
+		_store.writeInode(_root);
+		_store.writeInode(_dir);
+		_store.writeInode(_file);
+		reopen();
+		assertTrue(_store.readInode("/") instanceof VirtualFileSystemRoot);
+		assertTrue(_store.isDirectory("/MP3"));
+		assertEquals(Arrays.asList("file.mp3"), Arrays.asList(_store.listChildren("/MP3")));
+		VirtualFileSystemFile file = (VirtualFileSystemFile) _store.readInode("/MP3/file.mp3");
+		assertEquals("user", file.getUsername());
+		assertEquals(1024L, file.getSize());
+		assertEquals(_file.getSlaves(), file.getSlaves());
+		assertEquals(_file.getLastModified(), file.getLastModified());
+		assertEquals(Long.valueOf(12345L), file.getKeyedMap().getObject(VirtualFileSystemFile.CRC));
+	}
+
+	public void testRenameAndDelete() throws Exception {
+		_store.writeInode(_dir);
+		_store.writeInode(_file);
+		_store.renameInode("/MP3", "/Music");
+		assertFalse(_store.isDirectory("/MP3"));
+		reopen();
+		assertNotNull(_store.readInode("/Music/file.mp3"));
+		_store.deleteInode("/Music");
+		reopen();
+		assertEquals(0, _store.listChildren("/").length);
+		try {
+			_store.readInode("/Music/file.mp3");
+			fail("Deleted inode is still readable");
+		} catch (FileNotFoundException e) {
+			// expected
+		}
+	}
+
+	public void testCompaction() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			_file.setUsername("user" + i);
+			_store.writeInode(_file);
+		}
+		_store.waitForCompaction();
+		_store.compact();
+		assertTrue(_store.getJournalSize() < _store.getLiveBytes() * 4 + 1024);
+		assertEquals("user99", _store.readInode("/MP3/file.mp3").getUsername());
+		reopen();
+		assertEquals("user99", _store.readInode("/MP3/file.mp3").getUsername());
+	}
+
+	public void testWritesDuringCompactionAreKept() throws Exception {
+		_store.close();
+		// never compacted on its own
+		_store = new JournalVirtualFileSystemStore(_journal, Long.MAX_VALUE);
+		_store.writeInode(_dir);
+		_store.writeInode(_file);
+		VirtualFileSystemFile other = new VirtualFileSystemFile("other", "group", 10L,
+				new HashSet<String>(Arrays.asList("slave1")));
+		other.setName("other.mp3");
+		other.setParent(_dir);
+		_store.writeInode(other);
+
+		JournalVirtualFileSystemStore.Snapshot snapshot = _store.writeSnapshot();
+		_file.setUsername("changed");
+		_store.writeInode(_file);
+		_store.deleteInode("/MP3/other.mp3");
+		_store.renameInode("/MP3", "/Music");
+		assertTrue(_store.swap(snapshot));
+
+		assertEquals("changed", _store.readInode("/Music/file.mp3").getUsername());
+		assertEquals("user", _store.readInode("/Music").getUsername());
+		assertEquals(Arrays.asList("file.mp3"), Arrays.asList(_store.listChildren("/Music")));
+		reopen();
+		assertEquals("changed", _store.readInode("/Music/file.mp3").getUsername());
+		assertFalse(_store.isDirectory("/MP3"));
+		assertEquals(Arrays.asList("file.mp3"), Arrays.asList(_store.listChildren("/Music")));
+	}
+
+	public void testTruncatedRecordIsDropped() throws Exception {
+		_store.writeInode(_dir);
+		_store.writeInode(_file);
+		_store.close();
+		RandomAccessFile raf = new RandomAccessFile(_journal, "rw");
+		raf.setLength(raf.length() - 3);
+		raf.close();
+		_store = new JournalVirtualFileSystemStore(_journal, 0);
+		assertNotNull(_store.readInode("/MP3"));
+		assertEquals(0, _store.listChildren("/MP3").length);
+	}
+}
@@ -17,23 +17,17 @@
  */
 package org.drftpd.vfs;
 
-import java.beans.XMLDecoder;
-import java.beans.XMLEncoder;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.Comparator;
+import java.util.Properties;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.drftpd.GlobalContext;
+import org.drftpd.exceptions.FatalException;
 import org.drftpd.io.PermissionDeniedException;
-import org.drftpd.io.SafeFileOutputStream;
-import org.drftpd.util.CommonPluginUtils;
 import org.drftpd.vfs.event.VirtualFileSystemEvent;
 import org.drftpd.vfs.event.VirtualFileSystemInodeCreatedEvent;
 import org.drftpd.vfs.event.VirtualFileSystemInodeDeletedEvent;
@@ -56,25 +50,14 @@ public class VirtualFileSystem {
 		}
 	}
 
-	static class DirInodeFilenameFilter implements FilenameFilter {
-
-		@Override
-		public boolean accept(File dir, String file) {
-			return !file.equals(dirName);
-		}
-		
-	}
-
 	private static VirtualFileSystem _vfs = null;
 
-	public static final String dirName = ".dirProperties";
+	public static final String dirName = XMLVirtualFileSystemStore.dirName;
 
-	public static final String fileSystemPath = "files";
+	public static final String fileSystemPath = XMLVirtualFileSystemStore.fileSystemPath;
 
 	private static final Logger logger = Logger.getLogger(VirtualFileSystem.class);
 
-	private static final DirInodeFilenameFilter dirFilter = new DirInodeFilenameFilter();
-
 	public static final String separator = "/";
 
 	/**
@@ -119,6 +102,10 @@ public class VirtualFileSystem {
 
 	private VirtualFileSystemRoot _root = null;
 
+	private InodePathCache _pathCache = null;
+
+	private VirtualFileSystemStore _store = null;
+
 	/**
 	 * Create a VirtualFileSystem object, creating or not a new directory tree.
 	 * If there's a pre-existing tree, it loads the data, if not, it creates a
@@ -128,7 +115,8 @@ public class VirtualFileSystem {
 	 * This constructor is private due to the Singleton architecture.
 	 */
 	private VirtualFileSystem() {
-		new File(fileSystemPath).mkdirs();
+		_pathCache = new InodePathCache(getPathCacheSize());
+		_store = createStore();
 		try {
 			_root = (VirtualFileSystemRoot) loadInode(separator);
 		} catch (FileNotFoundException e) {
@@ -136,14 +124,42 @@ public class VirtualFileSystem {
 		}
 	}
 
+	private static int getPathCacheSize() {
+		try {
+			return Integer.parseInt(GlobalContext.getConfig().getMainProperties().getProperty("vfs.pathcache.size", "10000"));
+		} catch (NumberFormatException e) {
+			logger.warn("vfs.pathcache.size is not a valid number, using the default size");
+		}
+		return 10000;
+	}
+
+	/**
+	 * Creates the persistence backend selected by the 'vfs.store' setting.
+	 */
+	private static VirtualFileSystemStore createStore() {
+		Properties cfg = GlobalContext.getConfig().getMainProperties();
+		String store = cfg.getProperty("vfs.store", "xml").trim();
+		if (store.equalsIgnoreCase("journal")) {
+			try {
+				long compactSize = Long.parseLong(cfg.getProperty("vfs.journal.compact.size", "64")) * 1024 * 1024;
+				return new JournalVirtualFileSystemStore(new File(JournalVirtualFileSystemStore.journalPath), compactSize);
+			} catch (NumberFormatException e) {
+				throw new FatalException("vfs.journal.compact.size is not a valid number", e);
+			} catch (IOException e) {
+				throw new FatalException("Unable to open the VFS journal", e);
+			}
+		} else if (!store.equalsIgnoreCase("xml")) {
+			throw new FatalException("Unknown vfs.store " + store + ", valid options are xml or journal");
+		}
+		return new XMLVirtualFileSystemStore();
+	}
+
 	private VirtualFileSystemRoot createRootDirectory() {
 		logger.info("Creating new root filesystem");
 		logger.info("If you have already created your filesystem, then stop removing or corrupting your "
 						+ dirName + " file!");
-		new File(fileSystemPath).mkdirs();
 		_root = new VirtualFileSystemRoot("drftpd", "drftpd");
-		File rootFile = new File(fileSystemPath);
-		_root.setFiles(rootFile.list(dirFilter));
+		_root.setFiles(_store.listChildren(separator));
 		_root.commit();
 		_root.inodeLoadCompleted();
 		return _root;
@@ -156,7 +172,7 @@ public class VirtualFileSystem {
 	 * @param path
 	 */
 	protected void deleteInode(String path) {
-		recursiveDelete(new File(getRealPath(path)));
+		_store.deleteInode(path);
 	}
 
 	/**
@@ -177,15 +193,24 @@ public class VirtualFileSystem {
 		if (path.equals(separator)) {
 			return _root;
 		}
-		path = path.substring(1);
+		VirtualFileSystemInode inode = _pathCache.get(path);
+		if (inode != null) {
+			return inode;
+		}
+		long generation = _pathCache.getGeneration();
+		// paths going through links or relative entries can't be invalidated by prefix
+		boolean cacheable = true;
 		VirtualFileSystemDirectory walker = _root;
-		VirtualFileSystemInode inode = null;
-		String[] values = path.split(separator);
+		String[] values = path.substring(1).split(separator);
 		for (int x = 0; x < values.length; x++) {
+			if (values[x].equals(".") || values[x].equals("..") || values[x].equals("")) {
+				cacheable = false;
+			}
 			inode = walker.getInodeByName(values[x]);
 			if (inode.isDirectory()) {
 				walker = (VirtualFileSystemDirectory) inode;
 			} else if (inode.isLink() && (x != values.length - 1)) {
+				cacheable = false;
 				walker = (VirtualFileSystemDirectory) getInodeByPath(((VirtualFileSystemLink)inode).getLinkPath());
 			} else { // We better be at the end of the array
 				if (x != values.length - 1) {
@@ -194,17 +219,27 @@ public class VirtualFileSystem {
 				}
 			}
 		}
-		// logger.debug("getInodeByPath(/" + path + ")--returning--" + inode);
+		if (cacheable) {
+			_pathCache.put(path, inode, generation);
+		}
+		// logger.debug("getInodeByPath(" + path + ")--returning--" + inode);
 		return inode;
 	}
 
 	/**
+	 * @return the cache used to speed up {@link #getInodeByPath(String)}.
+	 */
+	public InodePathCache getPathCache() {
+		return _pathCache;
+	}
+
+	/**
+	 * Must be called whenever an inode is detached from its parent, drops
+	 * the cached resolution of the path and everything below it.
 	 * @param path
-	 * @return the real path of the file on the disk.<br>
-	 *         Ex: getRealPath('PICS/me.jpg') would return 'files/PICS/me.jpg'
 	 */
-	private String getRealPath(String path) {
-		return fileSystemPath + path;
+	protected void invalidatePath(String path) {
+		_pathCache.invalidate(path);
 	}
 
 	/**
@@ -220,39 +255,20 @@ public class VirtualFileSystem {
 	 */
 	protected VirtualFileSystemInode loadInode(String path)
 			throws FileNotFoundException {
-		String fullPath = fileSystemPath + path;
-		//logger.debug("Loading inode - " + fullPath);
-		File xmlFile = new File(fullPath);
-		File realDirectory = null;
-		if (xmlFile.isDirectory()) {
-			realDirectory = xmlFile;
-			fullPath = fullPath + separator + dirName;
-			xmlFile = new File(fullPath);
-		}
-		XMLDecoder xmlDec = null;
+		//logger.debug("Loading inode - " + path);
 		try {
-			xmlDec = new XMLDecoder(new BufferedInputStream(
-					new FileInputStream(fullPath)));
-			xmlDec.setExceptionListener(new VFSExceptionListener(fullPath));
-			ClassLoader prevCL = Thread.currentThread().getContextClassLoader();
-			Thread.currentThread().setContextClassLoader(CommonPluginUtils.getClassLoaderForObject(this));
-			VirtualFileSystemInode inode = (VirtualFileSystemInode) xmlDec
-					.readObject();
-			Thread.currentThread().setContextClassLoader(prevCL);
+			VirtualFileSystemInode inode = _store.readInode(path);
 			inode.setName(getLast(path));
 			if (inode.isDirectory()) {
 				VirtualFileSystemDirectory dir = (VirtualFileSystemDirectory) inode;
-				dir.setFiles(realDirectory.list(dirFilter));
+				dir.setFiles(_store.listChildren(path));
 			}
 			inode.inodeLoadCompleted();
 			return inode;
 		} catch (Exception e) {
-			logger.error("Failed to load inode fullPath - " + fullPath, e);
-			boolean corruptedXMLFile = xmlFile.exists();
-			if (corruptedXMLFile) {
-				// parsing error! Let's get rid of the offending bugger
-				xmlFile.delete();
-			}
+			logger.error("Failed to load inode - " + path, e);
+			// parsing error! Let's get rid of the offending bugger
+			boolean corruptedInode = _store.discardInode(path);
 			// if this object is the Root object, let's create it and get outta
 			// here
 			if (getLast(path).equals(separator)) {
@@ -271,46 +287,20 @@ public class VirtualFileSystem {
 							"You're filesystem is really messed up");
 				}
 			}
-			if (realDirectory != null && realDirectory.exists()) {
-				// let's create the .dirProperties file from what we know since
+			if (_store.isDirectory(path)) {
+				// let's create the inode data from what we know since
 				// it should be there
 				parentInode.createDirectoryRaw(getLast(path), "drftpd",
 						"drftpd");
 				return parentInode.getInodeByName(getLast(path));
 			}
-			if (corruptedXMLFile) {
-				// we already deleted the file, but we need to tell the parent
+			if (corruptedInode) {
+				// we already deleted the data, but we need to tell the parent
 				// directory that it doesn't exist anymore
-				logger
-						.debug("Error loading " + fullPath + ", deleting file",
-								e);
+				logger.debug("Error loading " + path + ", deleting inode", e);
 				parentInode.removeMissingChild(getLast(path));
 			}
 			throw new FileNotFoundException();
-		} finally {
-			if (xmlDec != null) {
-				xmlDec.close();
-			}
-		}
-	}
-
-	/**
-	 * If 'file' is a directory, it recurses through it and deletes, everything
-	 * inside it.<br>
-	 * If 'file' is an actual file, it simply deletes it.
-	 * 
-	 * @param file
-	 */
-	private void recursiveDelete(File file) {
-		if (file.isDirectory()) {
-			File[] files = file.listFiles();
-			for (int x = 0; x < files.length; x++) {
-				recursiveDelete(files[x]);
-			}
-		}
-		if (file.exists() && !file.delete()) {
-			logger.error("Could not delete local entry "
-					+ file.getAbsolutePath() + ", check permissions");
 		}
 	}
 
@@ -326,15 +316,7 @@ public class VirtualFileSystem {
 	 */
 	protected void renameInode(String source, String destination)
 			throws FileNotFoundException, PermissionDeniedException {
-		File file = new File(getRealPath(source));
-		if (!file.exists()) {
-			throw new FileNotFoundException(source + " cannot be found");
-		}
-		boolean result = file.renameTo(new File(getRealPath(destination)));
-		if (!result) {
-			throw new PermissionDeniedException("Cannot rename " + source
-					+ " to " + destination);
-		}
+		_store.renameInode(source, destination);
 	}
 
 	/**
@@ -342,32 +324,16 @@ public class VirtualFileSystem {
 	 * 
 	 * @param inode
 	 */
-	protected void writeInode(VirtualFileSystemInode inode) {
-		String fullPath = getRealPath(inode.getPath());
-		XMLEncoder enc = null;
-		try {
-			if (inode instanceof VirtualFileSystemRoot) {
-				new File(fileSystemPath).mkdirs();
-				fullPath = fullPath + separator + dirName;
-			} else if (inode.isDirectory()) {
-				new File(fullPath).mkdirs();
-				fullPath = fullPath + separator + dirName;
-			} else {
-				new File(getRealPath(inode.getParent().getPath())).mkdirs();
-			}
-			enc = new XMLEncoder(new BufferedOutputStream(
-					new SafeFileOutputStream(fullPath)));
-			inode.setupXML(enc);
-			enc.setExceptionListener(new VFSExceptionListener(fullPath));
-			enc.writeObject(inode);
-		} catch (IOException e) {
-			logger.error("Unable to write " + fullPath + " to disk", e);
-		} finally {
-			if (enc != null) {
-				enc.close();
-			}
-		}
-		logger.debug("Wrote fullPath " + fullPath);
+	protected void writeInode(VirtualFileSystemInode inode) throws IOException {
+		_store.writeInode(inode);
+	}
+
+	/**
+	 * Flushes and closes the persistence backend, no inode can be loaded or
+	 * written afterwards.
+	 */
+	public void shutdown() {
+		_store.close();
 	}
 
 	/**
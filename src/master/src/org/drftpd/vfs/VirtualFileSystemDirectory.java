@@ -422,7 +422,9 @@ public class VirtualFileSystemDirectory extends VirtualFileSystemInode {
 	}
 
 	public synchronized void removeMissingChild(String name) {
-		if (_files.remove(name) != null) {
+		boolean removed = _files.remove(name) != null;
+		getVFS().invalidatePath(getPath() + (isRoot() ? "" : VirtualFileSystem.separator) + name);
+		if (removed) {
 			setLastModified(System.currentTimeMillis());
 			commit();
 		}
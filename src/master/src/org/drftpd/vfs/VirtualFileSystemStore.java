@@ -0,0 +1,82 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.drftpd.io.PermissionDeniedException;
+
+/**
+ * Persistence backend of the {@link VirtualFileSystem}.<br>
+ * Implementations only deal with storing and retrieving inode data, the
+ * in memory tree and its consistency are handled by the VirtualFileSystem.
+ * All paths are absolute VFS paths, starting with "/".
+ * @version $Id$
+ */
+public interface VirtualFileSystemStore {
+
+	/**
+	 * Unserializes the inode stored for the given path.<br>
+	 * The returned inode has no name, parent or children set.
+	 * @throws FileNotFoundException if nothing is stored for the path.
+	 * @throws Exception if the stored data could not be read.
+	 */
+	public VirtualFileSystemInode readInode(String path) throws Exception;
+
+	/**
+	 * @return the names of all entries stored underneath the given directory.
+	 */
+	public String[] listChildren(String path);
+
+	/**
+	 * @return true if the path is known to be a directory, even if its own
+	 * inode data is missing or unreadable.
+	 */
+	public boolean isDirectory(String path);
+
+	/**
+	 * Removes unreadable inode data, leaving the entries underneath it
+	 * untouched.
+	 * @return true if there was data stored for the path.
+	 */
+	public boolean discardInode(String path);
+
+	/**
+	 * Stores the inode under its current path.
+	 */
+	public void writeInode(VirtualFileSystemInode inode) throws IOException;
+
+	/**
+	 * Deletes the path and everything underneath it.
+	 */
+	public void deleteInode(String path);
+
+	/**
+	 * Moves the path and everything underneath it.
+	 * @throws FileNotFoundException if the source is not stored.
+	 * @throws PermissionDeniedException if the entry could not be moved.
+	 */
+	public void renameInode(String source, String destination)
+			throws FileNotFoundException, PermissionDeniedException;
+
+	/**
+	 * Flushes pending data and releases the resources held by the store.
+	 */
+	public void close();
+}
@@ -0,0 +1,202 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs;
+
+import java.beans.XMLDecoder;
+import java.beans.XMLEncoder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+import org.drftpd.io.PermissionDeniedException;
+import org.drftpd.io.SafeFileOutputStream;
+import org.drftpd.master.CommitManager;
+import org.drftpd.util.CommonPluginUtils;
+
+/**
+ * Stores every inode as a javabeans XML file, mirroring the VFS tree
+ * underneath {@link #fileSystemPath}. Directories keep their own data in a
+ * {@link #dirName} file.
+ * @version $Id$
+ */
+public class XMLVirtualFileSystemStore implements VirtualFileSystemStore {
+
+	static class DirInodeFilenameFilter implements FilenameFilter {
+
+		@Override
+		public boolean accept(File dir, String file) {
+			return !file.equals(dirName);
+		}
+
+	}
+
+	public static final String dirName = ".dirProperties";
+
+	public static final String fileSystemPath = "files";
+
+	private static final Logger logger = Logger.getLogger(XMLVirtualFileSystemStore.class);
+
+	private static final DirInodeFilenameFilter dirFilter = new DirInodeFilenameFilter();
+
+	public XMLVirtualFileSystemStore() {
+		new File(fileSystemPath).mkdirs();
+	}
+
+	/**
+	 * @return true if a tree created by this store exists on disk.
+	 */
+	public static boolean exists() {
+		return new File(fileSystemPath + VirtualFileSystem.separator + dirName).exists();
+	}
+
+	/**
+	 * @param path
+	 * @return the real path of the file on the disk.<br>
+	 *         Ex: getRealPath('PICS/me.jpg') would return 'files/PICS/me.jpg'
+	 */
+	private String getRealPath(String path) {
+		return fileSystemPath + path;
+	}
+
+	/**
+	 * @return the file holding the inode data of the given path.
+	 */
+	private File getInodeFile(String path) {
+		File file = new File(getRealPath(path));
+		if (file.isDirectory()) {
+			return new File(file, dirName);
+		}
+		return file;
+	}
+
+	public VirtualFileSystemInode readInode(String path) throws Exception {
+		String fullPath = getInodeFile(path).getPath();
+		XMLDecoder xmlDec = null;
+		ClassLoader prevCL = Thread.currentThread().getContextClassLoader();
+		try {
+			xmlDec = new XMLDecoder(new BufferedInputStream(
+					new FileInputStream(fullPath)));
+			xmlDec.setExceptionListener(new VFSExceptionListener(fullPath));
+			Thread.currentThread().setContextClassLoader(CommonPluginUtils.getClassLoaderForObject(this));
+			return (VirtualFileSystemInode) xmlDec.readObject();
+		} finally {
+			Thread.currentThread().setContextClassLoader(prevCL);
+			if (xmlDec != null) {
+				xmlDec.close();
+			}
+		}
+	}
+
+	public String[] listChildren(String path) {
+		String[] children = new File(getRealPath(path)).list(dirFilter);
+		if (children == null) {
+			return new String[0];
+		}
+		return children;
+	}
+
+	public boolean isDirectory(String path) {
+		return new File(getRealPath(path)).isDirectory();
+	}
+
+	public boolean discardInode(String path) {
+		File inodeFile = getInodeFile(path);
+		if (inodeFile.exists()) {
+			inodeFile.delete();
+			return true;
+		}
+		return false;
+	}
+
+	public void writeInode(VirtualFileSystemInode inode) throws IOException {
+		String fullPath = getRealPath(inode.getPath());
+		XMLEncoder enc = null;
+		try {
+			if (inode instanceof VirtualFileSystemRoot) {
+				new File(fileSystemPath).mkdirs();
+				fullPath = fullPath + VirtualFileSystem.separator + dirName;
+			} else if (inode.isDirectory()) {
+				new File(fullPath).mkdirs();
+				fullPath = fullPath + VirtualFileSystem.separator + dirName;
+			} else {
+				new File(getRealPath(inode.getParent().getPath())).mkdirs();
+			}
+			enc = new XMLEncoder(new BufferedOutputStream(
+					new SafeFileOutputStream(fullPath)));
+			inode.setupXML(enc);
+			enc.setExceptionListener(new VFSExceptionListener(fullPath));
+			enc.writeObject(inode);
+			enc.close();
+			enc = null;
+			CommitManager.getCommitManager().addBytesWritten(new File(fullPath).length());
+		} catch (IOException e) {
+			logger.error("Unable to write " + fullPath + " to disk", e);
+		} finally {
+			if (enc != null) {
+				enc.close();
+			}
+		}
+		logger.debug("Wrote fullPath " + fullPath);
+	}
+
+	public void deleteInode(String path) {
+		recursiveDelete(new File(getRealPath(path)));
+	}
+
+	/**
+	 * If 'file' is a directory, it recurses through it and deletes, everything
+	 * inside it.<br>
+	 * If 'file' is an actual file, it simply deletes it.
+	 *
+	 * @param file
+	 */
+	private void recursiveDelete(File file) {
+		if (file.isDirectory()) {
+			File[] files = file.listFiles();
+			for (int x = 0; x < files.length; x++) {
+				recursiveDelete(files[x]);
+			}
+		}
+		if (file.exists() && !file.delete()) {
+			logger.error("Could not delete local entry "
+					+ file.getAbsolutePath() + ", check permissions");
+		}
+	}
+
+	public void renameInode(String source, String destination)
+			throws FileNotFoundException, PermissionDeniedException {
+		File file = new File(getRealPath(source));
+		if (!file.exists()) {
+			throw new FileNotFoundException(source + " cannot be found");
+		}
+		boolean result = file.renameTo(new File(getRealPath(destination)));
+		if (!result) {
+			throw new PermissionDeniedException("Cannot rename " + source
+					+ " to " + destination);
+		}
+	}
+
+	public void close() {
+		// every write goes straight to its own file
+	}
+}
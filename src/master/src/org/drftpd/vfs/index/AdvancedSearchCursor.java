@@ -0,0 +1,50 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs.index;
+
+import java.util.Map;
+
+/**
+ * Results of an advanced search read page by page in the requested sort
+ * order, so callers can act on the first hits before the rest is known and
+ * stop without having the remaining ones fetched.<br>
+ * A cursor must be closed once done with, whether it was exhausted or not.
+ * @version $Id$
+ */
+public interface AdvancedSearchCursor {
+	/**
+	 * @return the next hits, full path mapped to the inode type
+	 * (<code>"d"</code> or <code>"f"</code>) in sort order. An empty Map means
+	 * every hit was returned, the limit of the search was reached or its time
+	 * budget spent.
+	 * @throws IndexException
+	 */
+	public Map<String,String> nextPage() throws IndexException;
+
+	/**
+	 * @return true if the search was stopped because it took longer than
+	 * allowed, the hits returned so far are then incomplete.
+	 */
+	public boolean isTimedOut();
+
+	/**
+	 * Releases the resources held by the search, further calls to
+	 * {@link #nextPage()} return no hits.
+	 */
+	public void close();
+}
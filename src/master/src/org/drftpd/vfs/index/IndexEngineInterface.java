@@ -100,4 +100,11 @@ public interface IndexEngineInterface {
 	
 	public Set<String> findInode(DirectoryHandle startNode, String text, InodeType inodeType) throws IndexException;
 	public Map<String,String> advancedFind(DirectoryHandle startNode, AdvancedSearchParams params) throws IndexException, IllegalArgumentException;
+
+	/**
+	 * Same search as {@link #advancedFind(DirectoryHandle, AdvancedSearchParams)}
+	 * but the hits are read page by page through the returned cursor, which
+	 * must be closed by the caller.
+	 */
+	public AdvancedSearchCursor advancedFindCursor(DirectoryHandle startNode, AdvancedSearchParams params) throws IndexException, IllegalArgumentException;
 }
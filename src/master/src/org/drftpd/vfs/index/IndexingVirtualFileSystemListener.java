@@ -17,6 +17,11 @@
  */
 package org.drftpd.vfs.index;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
 import org.apache.log4j.Logger;
 import org.bushe.swing.event.annotation.AnnotationProcessor;
 import org.bushe.swing.event.annotation.EventSubscriber;
@@ -35,7 +40,10 @@ import org.drftpd.vfs.event.VirtualFileSystemSlaveEvent;
 /**
  * This VFS listener is responsible to notify the {@link IndexEngineInterface} that some
  * modification happened to the file system. It's implementation agnostic, so it can be used by
- * any implementation of indexes.
+ * any implementation of indexes.<br>
+ * Modifications are queued and applied to the index by the IndexUpdater thread, several
+ * modifications of the same path waiting in the queue are merged into one.
+ * Renames are applied in order with the other modifications as they can move whole trees.
  * 
  * @author fr0w
  * @version $Id: IndexVirtualFileSIndexVirtualFileSystemListener
@@ -45,11 +53,84 @@ public class IndexingVirtualFileSystemListener {
 	private static final Logger logger = Logger.getLogger(IndexingVirtualFileSystemListener.class);
 	
 	private static final String EXCEPTION_OCCURED_WHILE_INDEXING = "An exception occured while indexing, check stack trace";
+
+	static final int ADD = 0;
+
+	static final int UPDATE = 1;
+
+	static final int DELETE = 2;
+
+	static final int RENAME = 3;
+
+	private static final class PendingUpdate {
+		private int _type;
+
+		private ImmutableInodeHandle _inode;
+
+		private ImmutableInodeHandle _source;
+
+		private PendingUpdate(int type, ImmutableInodeHandle inode, ImmutableInodeHandle source) {
+			_type = type;
+			_inode = inode;
+			_source = source;
+		}
+	}
+
+	private final long _maxLag;
+
+	private final int _maxPending;
+
+	/**
+	 * Updates are merged within a batch, renames get a batch of their own.
+	 */
+	private final LinkedList<LinkedHashMap<String, PendingUpdate>> _batches =
+		new LinkedList<LinkedHashMap<String, PendingUpdate>>();
+
+	private boolean _lastIsRename;
+
+	private int _pending;
+
+	private long _firstQueued;
+
+	private long _sequence;
+
+	private long _appliedSequence;
+
+	private int _flushWaiters;
+
+	private long _merged;
+
+	private boolean _stop;
+
+	private Thread _updater;
+
+	/**
+	 * Applies every modification to the index as soon as it happens.
+	 */
+	public IndexingVirtualFileSystemListener() {
+		this(0, 0);
+	}
+
+	/**
+	 * @param maxLag the longest time in milliseconds a modification waits to
+	 * be merged with the following ones, 0 applies them right away.
+	 * @param maxPending number of queued modifications above which they are
+	 * applied without waiting and new ones are held back.
+	 */
+	public IndexingVirtualFileSystemListener(long maxLag, int maxPending) {
+		_maxLag = maxLag;
+		_maxPending = Math.max(maxPending, 1);
+	}
 	
 	/**
 	 * Initializes the listener, subscribing to the needed events.
 	 */
 	public void init() {
+		if (_maxLag > 0) {
+			_updater = new Thread(new IndexUpdater(), "IndexUpdater");
+			_updater.setDaemon(true);
+			_updater.start();
+		}
 		AnnotationProcessor.process(this);
 	}
 	
@@ -123,11 +204,7 @@ public class IndexingVirtualFileSystemListener {
 	 * @param inode
 	 */
 	protected void inodeUpdated(ImmutableInodeHandle inode) {
-		try {
-			getIndexEngine().updateInode(inode);
-		} catch (IndexException e) {
-			logger.error(EXCEPTION_OCCURED_WHILE_INDEXING, e);
-		}
+		enqueue(new PendingUpdate(UPDATE, inode, null));
 	}
 	
 	/**
@@ -138,11 +215,7 @@ public class IndexingVirtualFileSystemListener {
 	public void inodeRenamed(VirtualFileSystemRenameEvent event) {
 		if (bypassEvent(event))
 			return;
-		try {
-			getIndexEngine().renameInode(event.getSource(), event.getImmutableInode());
-		} catch (IndexException e) {
-			logger.error(EXCEPTION_OCCURED_WHILE_INDEXING, e);
-		}
+		enqueue(new PendingUpdate(RENAME, event.getImmutableInode(), event.getSource()));
 	}
 	
 	/**
@@ -155,11 +228,7 @@ public class IndexingVirtualFileSystemListener {
 		if (bypassEvent(event))
 			return;
 		
-		try {
-			getIndexEngine().addInode(event.getImmutableInode());
-		} catch (IndexException e) {
-			logger.error(EXCEPTION_OCCURED_WHILE_INDEXING, e);
-		}
+		enqueue(new PendingUpdate(ADD, event.getImmutableInode(), null));
 	}
 	
 	/**
@@ -171,11 +240,7 @@ public class IndexingVirtualFileSystemListener {
 		if (bypassEvent(event))
 			return;
 		
-		try {
-			getIndexEngine().deleteInode(event.getImmutableInode());
-		} catch (IndexException e) {
-			logger.error(EXCEPTION_OCCURED_WHILE_INDEXING, e);
-		}
+		enqueue(new PendingUpdate(DELETE, event.getImmutableInode(), null));
 	}
 	
 	/**
@@ -189,6 +254,196 @@ public class IndexingVirtualFileSystemListener {
 
 		inodeUpdated(event.getImmutableInode());
 	}
-}
 
+	private void enqueue(PendingUpdate update) {
+		if (_updater == null || !enqueueLater(update)) {
+			apply(update);
+		}
+	}
+
+	/**
+	 * @return false if the updater is stopped and the modification must be
+	 * applied by the caller.
+	 */
+	private synchronized boolean enqueueLater(PendingUpdate update) {
+		while (_pending >= _maxPending && !_stop) {
+			notifyAll();
+			try {
+				wait();
+			} catch (InterruptedException e) {
+			}
+		}
+		if (_stop) {
+			return false;
+		}
+		_sequence++;
+		if (_batches.isEmpty()) {
+			_firstQueued = System.currentTimeMillis();
+			notifyAll();
+		}
+		if (update._type == RENAME) {
+			LinkedHashMap<String, PendingUpdate> batch = new LinkedHashMap<String, PendingUpdate>();
+			batch.put(update._source.getPath(), update);
+			_batches.add(batch);
+			_lastIsRename = true;
+			_pending++;
+			return true;
+		}
+		if (_batches.isEmpty() || _lastIsRename) {
+			_batches.add(new LinkedHashMap<String, PendingUpdate>());
+			_lastIsRename = false;
+		}
+		LinkedHashMap<String, PendingUpdate> batch = _batches.getLast();
+		String path = update._inode.getPath();
+		PendingUpdate previous = batch.get(path);
+		if (previous == null) {
+			batch.put(path, update);
+			_pending++;
+			return true;
+		}
+		_merged++;
+		previous._inode = update._inode;
+		previous._type = merge(previous._type, update._type);
+		return true;
+	}
+
+	/**
+	 * @return the single modification standing for a queued modification of
+	 * a path followed by another one of the same path, renames excluded.
+	 */
+	static int merge(int previous, int next) {
+		if (next == DELETE) {
+			return DELETE;
+		}
+		if (previous == DELETE) {
+			// deleted then created again, replace the document
+			return UPDATE;
+		}
+		// an update of a pending add is still an add
+		return previous;
+	}
 
+	private void apply(PendingUpdate update) {
+		try {
+			switch (update._type) {
+			case ADD:
+				getIndexEngine().addInode(update._inode);
+				break;
+			case UPDATE:
+				getIndexEngine().updateInode(update._inode);
+				break;
+			case DELETE:
+				getIndexEngine().deleteInode(update._inode);
+				break;
+			case RENAME:
+				getIndexEngine().renameInode(update._source, update._inode);
+				break;
+			}
+		} catch (IndexException e) {
+			logger.error(EXCEPTION_OCCURED_WHILE_INDEXING, e);
+		} catch (RuntimeException e) {
+			logger.error(EXCEPTION_OCCURED_WHILE_INDEXING, e);
+		}
+	}
+
+	/**
+	 * Waits until every modification queued before this call is applied to
+	 * the index.
+	 */
+	public void flush() {
+		if (_updater == null || Thread.currentThread() == _updater) {
+			return;
+		}
+		synchronized (this) {
+			long sequence = _sequence;
+			_flushWaiters++;
+			try {
+				notifyAll();
+				while (_appliedSequence < sequence && _updater.isAlive()) {
+					try {
+						wait(1000);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			} finally {
+				_flushWaiters--;
+			}
+		}
+	}
+
+	/**
+	 * Applies the queued modifications and stops the updater thread.
+	 */
+	public void shutdown() {
+		if (_updater == null) {
+			return;
+		}
+		synchronized (this) {
+			_stop = true;
+			notifyAll();
+		}
+		try {
+			_updater.join();
+		} catch (InterruptedException e) {
+		}
+	}
+
+	/**
+	 * @return the number of modifications waiting to be applied.
+	 */
+	public synchronized int getPending() {
+		return _pending;
+	}
+
+	/**
+	 * @return the number of modifications merged with a queued one.
+	 */
+	public synchronized long getMerged() {
+		return _merged;
+	}
+
+	private class IndexUpdater implements Runnable {
+		public void run() {
+			while (true) {
+				List<LinkedHashMap<String, PendingUpdate>> batches;
+				long sequence;
+				synchronized (IndexingVirtualFileSystemListener.this) {
+					while (_batches.isEmpty() && !_stop) {
+						try {
+							IndexingVirtualFileSystemListener.this.wait();
+						} catch (InterruptedException e) {
+						}
+					}
+					if (_batches.isEmpty()) {
+						return;
+					}
+					// give the following modifications a chance to be merged
+					long wait;
+					while (!_stop && _flushWaiters == 0 && _pending < _maxPending
+							&& (wait = _firstQueued + _maxLag - System.currentTimeMillis()) > 0) {
+						try {
+							IndexingVirtualFileSystemListener.this.wait(wait);
+						} catch (InterruptedException e) {
+						}
+					}
+					batches = new ArrayList<LinkedHashMap<String, PendingUpdate>>(_batches);
+					_batches.clear();
+					_pending = 0;
+					sequence = _sequence;
+					// wake up held back producers
+					IndexingVirtualFileSystemListener.this.notifyAll();
+				}
+				for (LinkedHashMap<String, PendingUpdate> batch : batches) {
+					for (PendingUpdate update : batch.values()) {
+						apply(update);
+					}
+				}
+				synchronized (IndexingVirtualFileSystemListener.this) {
+					_appliedSequence = sequence;
+					IndexingVirtualFileSystemListener.this.notifyAll();
+				}
+			}
+		}
+	}
+}
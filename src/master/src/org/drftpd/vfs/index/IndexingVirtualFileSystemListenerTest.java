@@ -0,0 +1,55 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs.index;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class IndexingVirtualFileSystemListenerTest extends TestCase {
+
+	private static final int ADD = IndexingVirtualFileSystemListener.ADD;
+
+	private static final int UPDATE = IndexingVirtualFileSystemListener.UPDATE;
+
+	private static final int DELETE = IndexingVirtualFileSystemListener.DELETE;
+
+	private static int merge(int previous, int next) {
+		return IndexingVirtualFileSystemListener.merge(previous, next);
+	}
+
+	public void testUpdateOfAddIsAdd() {
+		assertEquals(ADD, merge(ADD, UPDATE));
+	}
+
+	public void testDeleteWins() {
+		assertEquals(DELETE, merge(ADD, DELETE));
+		assertEquals(DELETE, merge(UPDATE, DELETE));
+		assertEquals(DELETE, merge(DELETE, DELETE));
+	}
+
+	public void testAddAfterDeleteIsUpdate() {
+		assertEquals(UPDATE, merge(DELETE, ADD));
+		assertEquals(UPDATE, merge(DELETE, UPDATE));
+	}
+
+	public void testUpdateOfUpdateIsUpdate() {
+		assertEquals(UPDATE, merge(UPDATE, UPDATE));
+	}
+}
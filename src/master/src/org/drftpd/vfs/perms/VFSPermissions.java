@@ -24,10 +24,12 @@ import java.util.List;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.drftpd.permissions.GlobPathPermission;
 import org.drftpd.permissions.PathPermission;
+import org.drftpd.permissions.PathPermissionIndex;
 import org.drftpd.usermanager.User;
 import org.drftpd.util.CommonPluginUtils;
 import org.drftpd.util.PluginObjectContainer;
@@ -47,6 +49,9 @@ public class VFSPermissions {
 	private HashMap<String, HashMap<String, LinkedList<PathPermission>>> _pathPerms;	
 	private HashMap<String, String> _directiveToType;
 	private HashMap<String, TreeMap<Integer, String>> _priorities;
+
+	// the permissions of each type in the order they are checked
+	private ConcurrentHashMap<String, PathPermissionIndex> _indexes = new ConcurrentHashMap<String, PathPermissionIndex>();
 	
 	public VFSPermissions() {
 		loadExtensions();
@@ -155,6 +160,24 @@ public class VFSPermissions {
 		}
 		
 		list.add(pathPerm);
+		_indexes.remove(type);
+	}
+
+	private PathPermissionIndex getIndex(String type, HashMap<String, LinkedList<PathPermission>> map,
+			TreeMap<Integer, String> order) {
+		PathPermissionIndex index = _indexes.get(type);
+		if (index == null) {
+			LinkedList<PathPermission> perms = new LinkedList<PathPermission>();
+			for (String directive : order.values()) {
+				// 'directive' may not be in perms.conf
+				if (map.containsKey(directive)) {
+					perms.addAll(map.get(directive));
+				}
+			}
+			index = new PathPermissionIndex(perms);
+			_indexes.put(type, index);
+		}
+		return index;
 	}
 	
 	public boolean checkPathPermission(String type, User user, InodeHandle inode) {
@@ -183,27 +206,13 @@ public class VFSPermissions {
 			logger.error(npe, npe);
 			throw npe;
 		}
-				
-		for (Entry<Integer, String> entry : order.entrySet()) {
-			String directive = entry.getValue();
-			
-			LinkedList<PathPermission> perms = map.get(directive);
-			
-			if (perms == null) {
-				// 'directive' was not found in perms.conf
-				continue;
-			}
-			
-			if (!perms.isEmpty()) {
-				for (PathPermission perm : perms) {
-					if (perm.checkPath(inode)) {
-						if (invertUserSemantic) {
-							return !perm.check(user);
-						}
-						return perm.check(user);
-					}
-				}
+
+		PathPermission perm = getIndex(type, map, order).getMatch(inode);
+		if (perm != null) {
+			if (invertUserSemantic) {
+				return !perm.check(user);
 			}
+			return perm.check(user);
 		}
 		
 		return defaults;
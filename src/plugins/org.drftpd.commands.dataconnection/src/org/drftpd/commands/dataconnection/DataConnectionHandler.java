@@ -133,7 +133,6 @@ public class DataConnectionHandler extends CommandInterface {
 				s2.setEnabledProtocols(GlobalContext.getConfig().getSSLProtocols());
 			}
 			s2.startHandshake();
-			conn.authDone();
 		} catch (IOException e) {
 			logger.warn("", e);
 			if (s2 != null) {
@@ -49,6 +49,7 @@ import org.drftpd.util.PluginObjectContainer;
 import org.drftpd.vfs.DirectoryHandle;
 import org.drftpd.vfs.FileHandle;
 import org.drftpd.vfs.InodeHandle;
+import org.drftpd.vfs.index.AdvancedSearchCursor;
 import org.drftpd.vfs.index.AdvancedSearchParams;
 import org.drftpd.vfs.index.IndexEngineInterface;
 import org.drftpd.vfs.index.IndexException;
@@ -192,10 +193,10 @@ public class Find extends CommandInterface {
 		params.setLimit(0); // Get all results, we filter out hidden inodes later
 
 		IndexEngineInterface ie = GlobalContext.getGlobalContext().getIndexEngine();
-		Map<String,String> inodes;
+		AdvancedSearchCursor cursor;
 
 		try {
-			inodes = ie.advancedFind(dir, params);
+			cursor = ie.advancedFindCursor(dir, params);
 		} catch (IndexException e) {
 			logger.error(e.getMessage());
 			return new CommandResponse(550, e.getMessage());
@@ -210,44 +211,59 @@ public class Find extends CommandInterface {
 
 		CommandResponse response = new CommandResponse(200, "Find complete!");
 
-		if (inodes.isEmpty()) {
-			response.addComment(session.jprintf(_bundle,_keyPrefix+"find.empty", env, user.getName()));
-			return response;
-		}
-
-		LinkedList<String> responses = new LinkedList<String>();
 		int results = 0;
 		boolean observePrivPath = request.getProperties().
 				getProperty("observe.privpath","true").equalsIgnoreCase("true");
-		
-		InodeHandle inode;
-		for (Map.Entry<String,String> item : inodes.entrySet()) {
-			if (results == limit)
-				break;
-			try {
-				inode = item.getValue().equals("d") ? new DirectoryHandle(item.getKey().
-						substring(0, item.getKey().length()-1)) : new FileHandle(item.getKey());
-				if ((observePrivPath && inode.isHidden(user)) || (!observePrivPath && inode.isHidden(null))) {
-					continue;
-				}
-				env.add("name", inode.getName());
-				env.add("path", inode.getPath());
-				env.add("owner", inode.getUsername());
-				env.add("group", inode.getGroup());
-				env.add("size", Bytes.formatBytes(inode.getSize()));
-				for (ActionInterface action : actions) {
-					if ((inode.isFile() && action.execInFiles()) ||
-							(inode.isDirectory() && action.execInDirs())) {
-						logger.debug("Action "+ action.getClass() + " executing on " + inode.getPath());
-						String text = action.exec(request, inode);
-						if (!quiet || action.failed())
-							responses.add(text);
+
+		// results are sent as they are found, the search stops once the limit is reached
+		try {
+			InodeHandle inode;
+			Map<String,String> inodes = cursor.nextPage();
+			while (!inodes.isEmpty() && results < limit) {
+				for (Map.Entry<String,String> item : inodes.entrySet()) {
+					if (results == limit)
+						break;
+					try {
+						inode = item.getValue().equals("d") ? new DirectoryHandle(item.getKey().
+								substring(0, item.getKey().length()-1)) : new FileHandle(item.getKey());
+						if ((observePrivPath && inode.isHidden(user)) || (!observePrivPath && inode.isHidden(null))) {
+							continue;
+						}
+						env.add("name", inode.getName());
+						env.add("path", inode.getPath());
+						env.add("owner", inode.getUsername());
+						env.add("group", inode.getGroup());
+						env.add("size", Bytes.formatBytes(inode.getSize()));
+						for (ActionInterface action : actions) {
+							if ((inode.isFile() && action.execInFiles()) ||
+									(inode.isDirectory() && action.execInDirs())) {
+								logger.debug("Action "+ action.getClass() + " executing on " + inode.getPath());
+								String text = action.exec(request, inode);
+								if (!quiet || action.failed())
+									session.printOutput(200, text);
+							}
+						}
+						results++;
+					} catch (FileNotFoundException e) {
+						logger.warn("Index contained an unexistent inode: " + item.getKey());
 					}
 				}
-				results++;
-			} catch (FileNotFoundException e) {
-				logger.warn("Index contained an unexistent inode: " + item.getKey());
+				if (results < limit) {
+					inodes = cursor.nextPage();
+				}
 			}
+		} catch (IndexException e) {
+			logger.error(e.getMessage());
+			response.addComment(e.getMessage());
+		} finally {
+			cursor.close();
+		}
+
+		env.add("limit", limit);
+		env.add("results", results);
+
+		if (cursor.isTimedOut()) {
+			response.addComment(session.jprintf(_bundle,_keyPrefix+"find.timeout", env, user.getName()));
 		}
 
 		if (results == 0) {
@@ -255,13 +271,7 @@ public class Find extends CommandInterface {
 			return response;
 		}
 
-		env.add("limit", limit);
-		env.add("results", results);
-		response.addComment(session.jprintf(_bundle,_keyPrefix+"find.header", env, user.getName()));
-
-		for (String line : responses) {
-			response.addComment(line);
-		}
+		response.addComment(session.jprintf(_bundle,_keyPrefix+"find.done", env, user.getName()));
 
 		return response;
 	}
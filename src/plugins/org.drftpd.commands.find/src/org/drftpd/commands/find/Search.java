@@ -29,6 +29,7 @@ import org.drftpd.usermanager.User;
 import org.drftpd.vfs.DirectoryHandle;
 import org.drftpd.vfs.FileHandle;
 import org.drftpd.vfs.InodeHandle;
+import org.drftpd.vfs.index.AdvancedSearchCursor;
 import org.drftpd.vfs.index.AdvancedSearchParams;
 import org.drftpd.vfs.index.IndexEngineInterface;
 import org.drftpd.vfs.index.IndexException;
@@ -78,10 +79,10 @@ public class Search extends CommandInterface {
 		params.setLimit(0); // Get all results, we filter out hidden inodes later
 
 		IndexEngineInterface ie = GlobalContext.getGlobalContext().getIndexEngine();
-		Map<String,String> inodes;
+		AdvancedSearchCursor cursor;
 
 		try {
-			inodes = ie.advancedFind(request.getCurrentDirectory(), params);
+			cursor = ie.advancedFindCursor(request.getCurrentDirectory(), params);
 		} catch (IndexException e) {
 			logger.error(e.getMessage());
 			return new CommandResponse(550, e.getMessage());
@@ -102,26 +103,46 @@ public class Search extends CommandInterface {
 
 		boolean observePrivPath = request.getProperties().
 				getProperty("observe.privpath","true").equalsIgnoreCase("true");
-		
-		InodeHandle inode;
-		for (Map.Entry<String,String> item : inodes.entrySet()) {
-			if (responses.size() == limit)
-				break;
-			try {
-				inode = item.getValue().equals("d") ? new DirectoryHandle(item.getKey().
-						substring(0, item.getKey().length()-1)) : new FileHandle(item.getKey());
-				if ((observePrivPath && inode.isHidden(user)) || (!observePrivPath && inode.isHidden(null))) {
-					continue;
+
+		// only as many pages as needed to fill the limit are searched
+		try {
+			InodeHandle inode;
+			Map<String,String> inodes = cursor.nextPage();
+			while (!inodes.isEmpty() && responses.size() < limit) {
+				for (Map.Entry<String,String> item : inodes.entrySet()) {
+					if (responses.size() == limit)
+						break;
+					try {
+						inode = item.getValue().equals("d") ? new DirectoryHandle(item.getKey().
+								substring(0, item.getKey().length()-1)) : new FileHandle(item.getKey());
+						if ((observePrivPath && inode.isHidden(user)) || (!observePrivPath && inode.isHidden(null))) {
+							continue;
+						}
+						env.add("name", inode.getName());
+						env.add("path", inode.getPath());
+						env.add("owner", inode.getUsername());
+						env.add("group", inode.getGroup());
+						env.add("size", Bytes.formatBytes(inode.getSize()));
+						responses.add(session.jprintf(_bundle,_keyPrefix+"search.item", env, user.getName()));
+					} catch (FileNotFoundException e) {
+						logger.warn("Index contained an unexistent inode: " + item.getKey());
+					}
+				}
+				if (responses.size() < limit) {
+					inodes = cursor.nextPage();
 				}
-				env.add("name", inode.getName());
-				env.add("path", inode.getPath());
-				env.add("owner", inode.getUsername());
-				env.add("group", inode.getGroup());
-				env.add("size", Bytes.formatBytes(inode.getSize()));
-				responses.add(session.jprintf(_bundle,_keyPrefix+"search.item", env, user.getName()));
-			} catch (FileNotFoundException e) {
-				logger.warn("Index contained an unexistent inode: " + item.getKey());
 			}
+		} catch (IndexException e) {
+			logger.error(e.getMessage());
+			response.addComment(e.getMessage());
+		} finally {
+			cursor.close();
+		}
+
+		if (cursor.isTimedOut()) {
+			env.add("limit", limit);
+			env.add("results", responses.size());
+			response.addComment(session.jprintf(_bundle,_keyPrefix+"search.timeout", env, user.getName()));
 		}
 
 		if (responses.isEmpty()) {
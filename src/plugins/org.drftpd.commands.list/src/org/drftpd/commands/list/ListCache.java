@@ -0,0 +1,285 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.commands.list;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.bushe.swing.event.annotation.AnnotationProcessor;
+import org.bushe.swing.event.annotation.EventSubscriber;
+import org.drftpd.GlobalContext;
+import org.drftpd.event.ReloadEvent;
+import org.drftpd.event.SlaveEvent;
+import org.drftpd.misc.LRUMap;
+import org.drftpd.usermanager.User;
+import org.drftpd.vfs.VirtualFileSystem;
+import org.drftpd.vfs.event.VirtualFileSystemEvent;
+import org.drftpd.vfs.event.VirtualFileSystemInodeDeletedEvent;
+import org.drftpd.vfs.event.VirtualFileSystemRenameEvent;
+
+/**
+ * Keeps the rendered listings of recently listed directories, so a directory
+ * listed by many users is only built once.<br>
+ * Listings are kept per directory and per view, the view being made of the
+ * list format and of the privpath rules hiding entries from the user.
+ * A directory is dropped whenever a {@link VirtualFileSystemEvent} touches it
+ * or one of its entries, the whole cache is dropped when a slave goes online
+ * or offline as files may become offline.<br>
+ * As those events are delivered asynchronously, every listing also records
+ * the last modified time and size the directory had when it was built and is
+ * only served while the directory still has them, so a client listing right
+ * after changing the directory never gets the old listing.
+ * @version $Id$
+ */
+public class ListCache {
+
+	private static final Logger logger = Logger.getLogger(ListCache.class);
+
+	private static ListCache _listCache;
+
+	private LRUMap<String, CachedDirectory> _dirs = new LRUMap<String, CachedDirectory>(1000);
+
+	private boolean _enabled;
+
+	private boolean _shared;
+
+	private long _maxAge;
+
+	private final AtomicLong _hits = new AtomicLong();
+
+	private final AtomicLong _misses = new AtomicLong();
+
+	private final AtomicLong _invalidations = new AtomicLong();
+
+	private ListCache() {
+		loadConfig();
+		AnnotationProcessor.process(this);
+	}
+
+	public static synchronized ListCache getListCache() {
+		if (_listCache == null) {
+			_listCache = new ListCache();
+		}
+		return _listCache;
+	}
+
+	private void loadConfig() {
+		Properties cfg = GlobalContext.getConfig().getMainProperties();
+		_enabled = cfg.getProperty("list.cache.enabled", "true").equalsIgnoreCase("true");
+		_shared = cfg.getProperty("list.cache.shared", "true").equalsIgnoreCase("true");
+		_maxAge = Long.parseLong(cfg.getProperty("list.cache.maxage", "60")) * 1000L;
+		int size = Integer.parseInt(cfg.getProperty("list.cache.size", "1000"));
+		synchronized (this) {
+			if (size != _dirs.getMaxSize()) {
+				_dirs = new LRUMap<String, CachedDirectory>(size);
+			}
+		}
+		clear();
+	}
+
+	public boolean isEnabled() {
+		return _enabled;
+	}
+
+	/**
+	 * @return the key under which the listing rendered in the given format
+	 * for the user is stored.
+	 */
+	public String getView(User user, String format) {
+		StringBuilder view = new StringBuilder(format);
+		view.append('\n');
+		String privPath = GlobalContext.getConfig().getVFSPermissions().getPrivPathRegex(user);
+		if (privPath != null) {
+			view.append(privPath);
+		}
+		if (!_shared) {
+			view.append('\n').append(user == null ? "" : user.getName());
+		}
+		return view.toString();
+	}
+
+	/**
+	 * @return the cached listings of the directory, every listing built after
+	 * this call may be stored in it.
+	 */
+	public synchronized CachedDirectory getDirectory(String path) {
+		CachedDirectory dir = _dirs.get(path);
+		if (dir == null) {
+			dir = new CachedDirectory();
+			_dirs.put(path, dir);
+		}
+		return dir;
+	}
+
+	/**
+	 * Drops the listings of the directory and of its parent.
+	 */
+	public void invalidate(String path) {
+		ArrayList<CachedDirectory> dropped = new ArrayList<CachedDirectory>(2);
+		synchronized (this) {
+			dropped.add(_dirs.remove(path));
+			int index = path.lastIndexOf(VirtualFileSystem.separator);
+			if (index == 0 && path.length() > 1) {
+				dropped.add(_dirs.remove(VirtualFileSystem.separator));
+			} else if (index > 0) {
+				dropped.add(_dirs.remove(path.substring(0, index)));
+			}
+		}
+		invalidate(dropped);
+	}
+
+	/**
+	 * Drops the listings of the directory, of its parent and of every
+	 * directory underneath it.
+	 */
+	public void invalidateTree(String path) {
+		ArrayList<CachedDirectory> dropped = new ArrayList<CachedDirectory>();
+		String prefix = path.endsWith(VirtualFileSystem.separator) ? path : path + VirtualFileSystem.separator;
+		synchronized (this) {
+			for (Iterator<Map.Entry<String, CachedDirectory>> iter = _dirs.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry<String, CachedDirectory> entry = iter.next();
+				if (entry.getKey().startsWith(prefix)) {
+					dropped.add(entry.getValue());
+					iter.remove();
+				}
+			}
+		}
+		invalidate(dropped);
+		invalidate(path);
+	}
+
+	public void clear() {
+		ArrayList<CachedDirectory> dropped;
+		synchronized (this) {
+			dropped = new ArrayList<CachedDirectory>(_dirs.values());
+			_dirs.clear();
+		}
+		invalidate(dropped);
+	}
+
+	private void invalidate(ArrayList<CachedDirectory> dropped) {
+		for (CachedDirectory dir : dropped) {
+			if (dir != null) {
+				dir._valid = false;
+				_invalidations.incrementAndGet();
+			}
+		}
+	}
+
+	public long getHits() {
+		return _hits.get();
+	}
+
+	public long getMisses() {
+		return _misses.get();
+	}
+
+	public long getInvalidations() {
+		return _invalidations.get();
+	}
+
+	public synchronized int getSize() {
+		return _dirs.size();
+	}
+
+	@EventSubscriber
+	public void onVirtualFileSystemEvent(VirtualFileSystemEvent event) {
+		if (event instanceof VirtualFileSystemRenameEvent) {
+			invalidateTree(((VirtualFileSystemRenameEvent) event).getSource().getPath());
+			invalidateTree(event.getImmutableInode().getPath());
+		} else if (event instanceof VirtualFileSystemInodeDeletedEvent) {
+			invalidateTree(event.getImmutableInode().getPath());
+		} else {
+			invalidate(event.getImmutableInode().getPath());
+		}
+	}
+
+	@EventSubscriber
+	public void onSlaveEvent(SlaveEvent event) {
+		if (event.getCommand().equals("ADDSLAVE") || event.getCommand().equals("DELSLAVE")) {
+			clear();
+		}
+	}
+
+	@EventSubscriber
+	public void onReloadEvent(ReloadEvent event) {
+		logger.debug("Reloading the list cache settings");
+		loadConfig();
+	}
+
+	/**
+	 * The listings of one directory, keyed by view.
+	 */
+	public class CachedDirectory {
+
+		private final ConcurrentHashMap<String, CachedListing> _listings = new ConcurrentHashMap<String, CachedListing>();
+
+		private volatile boolean _valid = true;
+
+		/**
+		 * @param lastModified current last modified time of the directory.
+		 * @param size current size of the directory.
+		 * @return the listing rendered for the view, null if it has to be built.
+		 */
+		public String getListing(String view, long lastModified, long size) {
+			CachedListing listing = _listings.get(view);
+			if (listing == null || !_valid
+					|| listing._lastModified != lastModified || listing._size != size
+					|| System.currentTimeMillis() - listing._created > _maxAge) {
+				_misses.incrementAndGet();
+				return null;
+			}
+			_hits.incrementAndGet();
+			return listing._output;
+		}
+
+		/**
+		 * Stores a listing, unless the directory changed since it was looked up.
+		 * @param lastModified last modified time of the directory read before
+		 * the listing was built.
+		 * @param size size of the directory read before the listing was built.
+		 */
+		public void putListing(String view, String output, long lastModified, long size) {
+			if (_valid) {
+				_listings.put(view, new CachedListing(output, lastModified, size));
+			}
+		}
+	}
+
+	private static class CachedListing {
+
+		private final String _output;
+
+		private final long _created = System.currentTimeMillis();
+
+		private final long _lastModified;
+
+		private final long _size;
+
+		private CachedListing(String output, long lastModified, long size) {
+			_output = output;
+			_lastModified = lastModified;
+			_size = size;
+		}
+	}
+}
@@ -101,6 +101,8 @@ public class ListHandler extends CommandInterface {
 
 	private StandardCommandManager _cManager;
 
+	private ListCache _listCache;
+
 	private ResourceBundle _bundle;
 
 	protected String _keyPrefix;
@@ -114,6 +116,7 @@ public class ListHandler extends CommandInterface {
 		};
 		_bundle = cManager.getResourceBundle();
 		_keyPrefix = this.getClass().getName()+".";
+		_listCache = ListCache.getListCache();
 
 		// Subscribe to events
 		AnnotationProcessor.process(this);
@@ -253,27 +256,55 @@ public class ListHandler extends CommandInterface {
 					return new CommandResponse(425, ex.getMessage());
 				}
 			}
-			ListElementsContainer container = null;
+			ListCache.CachedDirectory cachedDir = null;
+			String view = null;
+			String listing = null;
+			long lastModified = 0L;
+			long size = 0L;
 
-			try {
-				container = listElements(directoryFile, conn, request.getUser());
-			} catch (IOException e) {
-				logger.error(e);
-				return new CommandResponse(450, e.getMessage());
+			if (!isMlst && _listCache.isEnabled()) {
+				try {
+					// read before the listing is built, a change made meanwhile makes it stale
+					lastModified = directoryFile.lastModified();
+					size = directoryFile.getSize();
+					view = _listCache.getView(user, isMlsd ? "MLSD " + request.getArgument() : (fulldate ? "LIST -T" : "LIST"));
+					cachedDir = _listCache.getDirectory(directoryFile.getPath());
+					listing = cachedDir.getListing(view, lastModified, size);
+				} catch (FileNotFoundException e) {
+					// listElements() reports it
+				}
 			}
 
-			// execute list addons.
-			for (AddListElementsInterface listAddon : _listAddons) {
-				container = listAddon.addElements(directoryFile,container);
+			if (listing == null) {
+				ListElementsContainer container = null;
+
+				try {
+					container = listElements(directoryFile, conn, request.getUser());
+				} catch (IOException e) {
+					logger.error(e);
+					return new CommandResponse(450, e.getMessage());
+				}
+
+				// execute list addons.
+				for (AddListElementsInterface listAddon : _listAddons) {
+					container = listAddon.addElements(directoryFile,container);
+				}
+
+				if (isStat || isList) {
+					listing = toList(container.getElements(), fulldate);
+				} else {
+					listing = toMLST(container.getElements(),request.getArgument());
+				}
+				if (cachedDir != null) {
+					cachedDir.putListing(view, listing, lastModified, size);
+				}
 			}
 
 			try {
 				if (isStat || isList) {
 					os.write("total 0" + NEWLINE);
-					os.write(toList(container.getElements(), fulldate));
-				} else {
-					os.write(toMLST(container.getElements(),request.getArgument()));
 				}
+				os.write(listing);
 				if (isStat || isMlst)
 					return response;
 				os.close();
@@ -297,10 +328,9 @@ public class ListHandler extends CommandInterface {
 		ArrayList<String> fileTypes = container.getFileTypes();
 		int numOnline = container.getNumOnline();
 		int numTotal = container.getNumTotal();
+		boolean offlineFilesEnabled = GlobalContext.getConfig().getMainProperties().getProperty("files.offline.enabled", "true").equals("true");
 
 		for (InodeHandle element : tempFileList) {
-			boolean offlineFilesEnabled = GlobalContext.getConfig().getMainProperties().getProperty("files.offline.enabled", "true").equals("true");
-			
 			if (offlineFilesEnabled && element.isFile()) {
 				try {
 					if (!((FileHandleInterface) element).isAvailable()) {
@@ -537,6 +567,7 @@ public class ListHandler extends CommandInterface {
 			}
 			if (addonRemoved) {
 				_listAddons = clonedListAddons;
+				_listCache.clear();
 			}
 		}
 	}
@@ -553,6 +584,7 @@ public class ListHandler extends CommandInterface {
 					clonedListAddons.add(listAddon);
 				}
 				_listAddons = clonedListAddons;
+				_listCache.clear();
 			}
 		} catch (IllegalArgumentException e) {
 			logger.error("Failed to load plugins for a loadplugin event for org.drftpd.commands.list extension point 'AddElements'"+
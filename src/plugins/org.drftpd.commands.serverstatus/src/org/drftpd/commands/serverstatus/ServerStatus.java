@@ -35,11 +35,19 @@ import org.drftpd.commandmanager.CommandRequest;
 import org.drftpd.commandmanager.CommandResponse;
 import org.drftpd.commandmanager.ImproperUsageException;
 import org.drftpd.commandmanager.StandardCommandManager;
+import org.drftpd.commands.list.ListCache;
 import org.drftpd.dynamicdata.Key;
+import org.drftpd.event.AsyncThreadSafeEventService;
+import org.drftpd.event.AsyncThreadSafeEventService.SubscriberStatistics;
 import org.drftpd.exceptions.ObjectNotFoundException;
+import org.drftpd.master.CommitManager;
+import org.drftpd.master.ConnectionManager;
 import org.drftpd.master.RemoteSlave;
+import org.drftpd.master.SelectorConnectionEngine;
 import org.drftpd.master.Session;
 import org.drftpd.util.ExtendedPropertyResourceBundle;
+import org.drftpd.vfs.InodePathCache;
+import org.drftpd.vfs.VirtualFileSystem;
 import org.tanesha.replacer.ReplacerEnvironment;
 
 /**
@@ -206,6 +214,73 @@ public class ServerStatus extends CommandInterface {
 				response.addComment(session.jprintf(_bundle, env, _keyPrefix+"status.gcinfo"));
 			}
 			
+			if (arg.equals("vfs") || isAll) {
+				InodePathCache pathCache = VirtualFileSystem.getVirtualFileSystem().getPathCache();
+				env.add("pathcache.size", pathCache.getSize());
+				env.add("pathcache.max", pathCache.getMaxSize());
+				env.add("pathcache.hits", pathCache.getHits());
+				env.add("pathcache.misses", pathCache.getMisses());
+				env.add("pathcache.ratio", String.format("%.2f", pathCache.getHitRatio()));
+				env.add("pathcache.invalidations", pathCache.getInvalidations());
+				response.addComment(session.jprintf(_bundle, env, _keyPrefix+"status.vfs.pathcache"));
+			}
+
+			if (arg.equals("commit") || isAll) {
+				CommitManager commitManager = CommitManager.getCommitManager();
+				env.add("commit.queue", commitManager.getQueueSize());
+				env.add("commit.writers", commitManager.getWriterCount());
+				env.add("commit.writes", commitManager.getWrites());
+				env.add("commit.failed", commitManager.getFailedWrites());
+				env.add("commit.bytes", Bytes.formatBytes(commitManager.getBytesWritten()));
+				env.add("commit.avgtime", String.format("%.2f", commitManager.getAverageWriteTime()));
+				env.add("commit.maxtime", String.format("%.2f", commitManager.getMaxWriteTime()));
+				env.add("commit.rate", String.format("%.1f", commitManager.getWriteRate()));
+				response.addComment(session.jprintf(_bundle, env, _keyPrefix+"status.commit"));
+			}
+
+			if (arg.equals("events") || isAll) {
+				AsyncThreadSafeEventService eventService = GlobalContext.getEventService();
+				env.add("events.queue", eventService.getQueueSize());
+				env.add("events.threads", eventService.getThreads());
+				response.addComment(session.jprintf(_bundle, env, _keyPrefix+"status.events"));
+				for (SubscriberStatistics stats : eventService.getStatistics()) {
+					env.add("events.subscriber", stats.getName());
+					env.add("events.handled", stats.getHandled());
+					env.add("events.queued", stats.getQueued());
+					env.add("events.avgtime", String.format("%.2f", stats.getAverageTime()));
+					env.add("events.maxtime", String.format("%.2f", stats.getMaxTime()));
+					response.addComment(session.jprintf(_bundle, env, _keyPrefix+"status.events.subscriber"));
+				}
+			}
+
+			if (arg.equals("connections") || isAll) {
+				ConnectionManager connManager = GlobalContext.getConnectionManager();
+				SelectorConnectionEngine engine = connManager.getEngine();
+				env.add("conn.count", connManager.getConnections().size());
+				env.add("conn.engine", engine != null ? "selector" : "thread");
+				env.add("conn.threads", connManager.getThreadCount());
+				response.addComment(session.jprintf(_bundle, env, _keyPrefix+"status.connections"));
+				if (engine != null) {
+					env.add("conn.parked", engine.getParkedCount());
+					env.add("conn.wakeups", engine.getWakeupCount());
+					env.add("conn.accepted", engine.getAcceptedCount());
+					response.addComment(session.jprintf(_bundle, env, _keyPrefix+"status.connections.selector"));
+				}
+			}
+
+			if (arg.equals("lists") || isAll) {
+				ListCache listCache = ListCache.getListCache();
+				long hits = listCache.getHits();
+				long lookups = hits + listCache.getMisses();
+				env.add("lists.enabled", listCache.isEnabled() ? "enabled" : "disabled");
+				env.add("lists.dirs", listCache.getSize());
+				env.add("lists.hits", hits);
+				env.add("lists.misses", listCache.getMisses());
+				env.add("lists.ratio", lookups == 0 ? 0 : hits * 100 / lookups);
+				env.add("lists.invalidations", listCache.getInvalidations());
+				response.addComment(session.jprintf(_bundle, env, _keyPrefix+"status.lists"));
+			}
+
 			if (isAll) {
 				// no need to output repeated 
 				break;
@@ -38,6 +38,8 @@ import org.drftpd.exceptions.NoAvailableSlaveException;
 import org.drftpd.exceptions.ObjectNotFoundException;
 import org.drftpd.exceptions.SlaveUnavailableException;
 import org.drftpd.master.CommitManager;
+import org.drftpd.master.RemergeManager;
+import org.drftpd.master.RemergeQueue;
 import org.drftpd.master.RemoteSlave;
 import org.drftpd.master.Session;
 import org.drftpd.master.SlaveManager;
@@ -562,14 +564,27 @@ public class SlaveManagement extends CommandInterface {
 			}
 			else if (size > 0)
 			{
-				arr.add(rslave.getName() +" remergeque size is " + size);
+				RemergeQueue queue = rslave.getRemergeQueue();
+				arr.add(rslave.getName() +" remergeque size is " + size + ", " + queue.getRunning()
+						+ " merging, " + queue.getMerged() + " dirs (" + queue.getMergedFiles() + " entries) merged at "
+						+ String.format("%.1f", queue.getMergeRate()) + " dirs/s, "
+						+ String.format("%.1f", queue.getAverageMergeTime()) + "ms avg per dir");
 			}
 			else
 			{
 				arr.add(rslave.getName() +" remergeque size is 0 but remerge is ongoing");				
 			}
 		}
-		arr.add("Total commit:" + CommitManager.getCommitManager().getQueueSize());
+		RemergeManager remergeManager = RemergeManager.getRemergeManager();
+		arr.add("Remerge threads: " + remergeManager.getActiveCount() + "/" + remergeManager.getThreadCount()
+				+ " busy, " + remergeManager.getWaitingCount() + " dirs waiting for a thread");
+		CommitManager commitManager = CommitManager.getCommitManager();
+		arr.add("Total commit:" + commitManager.getQueueSize());
+		long drainTime = commitManager.getEstimatedDrainTime();
+		if (drainTime >= 0) {
+			arr.add("Commit rate: " + String.format("%.1f", commitManager.getWriteRate())
+					+ " writes/s, backlog drains in " + drainTime + "ms");
+		}
 		
 		CommandResponse response = StandardCommandManager.genericResponse("RESPONSE_200_COMMAND_OK");
 		for (String str : arr) {
@@ -20,7 +20,6 @@ package org.drftpd.commands.transferstatistics;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.ResourceBundle;
 
 import org.apache.log4j.Logger;
@@ -31,6 +30,7 @@ import org.drftpd.commandmanager.CommandRequest;
 import org.drftpd.commandmanager.CommandResponse;
 import org.drftpd.commandmanager.StandardCommandManager;
 import org.drftpd.usermanager.User;
+import org.drftpd.usermanager.util.UserRankings;
 import org.drftpd.util.GroupPosition;
 import org.drftpd.util.ReplacerUtils;
 import org.tanesha.replacer.ReplacerEnvironment;
@@ -144,36 +144,18 @@ public class MoreStats extends CommandInterface {
         }
         
         ArrayList<MyGroupPosition> grpList = new ArrayList<MyGroupPosition>();
-        Collection<User> users = GlobalContext.getGlobalContext().getUserManager().getAllUsers();
-
-        MyGroupPosition stat = null;
-        String groupname = "";
+        UserRankings rankings = GlobalContext.getGlobalContext().getUserManager().getUserRankings();
+        int stat = UserRankings.getStat(type);
 
-        for (User user : users) {
-            groupname = user.getGroup();
-
-            for (MyGroupPosition stat2 : grpList) {
-            	if (stat2.getGroupname().equals(groupname)) {
-            		stat = stat2;
-            		break;
-            	}
-            }
-
-            if (stat == null) {
-                stat = new MyGroupPosition(groupname, 0, 0, 0, 0, 0);
-                grpList.add(stat);
+        for (UserRankings.Entry group : rankings.getGroups(stat)) {
+            if (grpList.size() >= count) {
+                break;
             }
-
-            logger.debug("Type: "+type);
-            stat.updateBytes(getStats(type, user));
-            stat.updateFiles(getFiles(type, user));
-            stat.updateXfertime(getTime(type, user));
-            stat.updateMembers(1);
-            stat = null;
+            grpList.add(new MyGroupPosition(group.getName(), group.getValue(stat),
+                    (int) group.getValue(stat + UserRankings.FILES),
+                    group.getValue(stat + UserRankings.TIME), group.getMembers(), 0));
         }
 
-        Collections.sort(grpList);
-
         ReplacerEnvironment env = new ReplacerEnvironment();
 
         //morestats.grpstats=| ${grp,-15} |${grpname,7} |${files,8} | ${megs,9} | ${members,9} |
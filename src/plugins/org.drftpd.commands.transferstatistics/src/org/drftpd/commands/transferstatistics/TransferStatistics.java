@@ -18,11 +18,7 @@
 package org.drftpd.commands.transferstatistics;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.ResourceBundle;
 import java.util.StringTokenizer;
 import org.apache.log4j.Level;
@@ -40,7 +36,7 @@ import org.drftpd.usermanager.NoSuchUserException;
 import org.drftpd.usermanager.User;
 import org.drftpd.usermanager.UserFileException;
 import org.drftpd.usermanager.UserManager;
-import org.drftpd.usermanager.util.UserComparator;
+import org.drftpd.usermanager.util.UserRankings;
 import org.drftpd.usermanager.util.UserTransferStats;
 import org.tanesha.replacer.ReplacerEnvironment;
 
@@ -212,9 +208,8 @@ public class TransferStatistics extends CommandInterface  {
 
 	private CommandResponse execute(CommandRequest request, String type) {
 
-		Collection<User> users = GlobalContext.getGlobalContext().getUserManager().getAllUsers();
-
 		int count = 10; // default # of users to list
+		Permission filter = null;
 
 		if (request.hasArgument()) {
 			StringTokenizer st = new StringTokenizer(request.getArgument());
@@ -229,32 +224,15 @@ public class TransferStatistics extends CommandInterface  {
 				/* TODO Likely this will need revisiting
 				 * to move to prehooks
 				 */
-				Permission perm = new Permission(Permission.makeUsers(st));
-
-				for (Iterator<User> iter = users.iterator(); iter.hasNext();) {
-					User user = iter.next();
-
-					if (!perm.check(user)) {
-						iter.remove();
-					}
-				}
+				filter = new Permission(Permission.makeUsers(st));
 			}
 		}
 
 	
 		Permission perm = new Permission(Permission.makeUsers(new StringTokenizer(GlobalContext.getConfig().getHideInStats())));
 
-		for (Iterator<User> iter = users.iterator(); iter.hasNext();) {
-			User user = iter.next();
-
-			if (perm.check(user)) {
-				iter.remove();
-			}
-		}
-
 		CommandResponse response = StandardCommandManager.genericResponse("RESPONSE_200_COMMAND_OK");
-		ArrayList<User> users2 = new ArrayList<User>(users);
-		Collections.sort(users2, new UserComparator(type));
+		UserRankings rankings = GlobalContext.getGlobalContext().getUserManager().getUserRankings();
 		ReplacerEnvironment env = new ReplacerEnvironment();
 
 		String headerBundleKey = _keyPrefix + type + ".header"; 
@@ -272,7 +250,10 @@ public class TransferStatistics extends CommandInterface  {
 
 		int i = 0;
 
-		for (User user : users2) {
+		for (User user : rankings.getUsers(UserRankings.getStat(type))) {
+			if ((filter != null && !filter.check(user)) || perm.check(user)) {
+				continue;
+			}
 			if (++i > count) {
 				break;
 			}
@@ -53,44 +53,22 @@ public class SFVTools {
 
 	public static long getSFVTotalBytes(DirectoryHandle dir, ZipscriptVFSDataSFV sfvData) 
 	throws IOException, FileNotFoundException, NoAvailableSlaveException, SlaveUnavailableException {
-		long totalBytes = 0;
-
-		for (FileHandle file : getSFVFiles(dir, sfvData)) {
-			totalBytes += file.getSize();
-		}
-		return totalBytes;
+		return sfvData.getSFVRaceInfo().getTotalBytes();
 	}
 
 	public static long getSFVLargestFileBytes(DirectoryHandle dir, ZipscriptVFSDataSFV sfvData) 
 	throws IOException, FileNotFoundException, NoAvailableSlaveException, SlaveUnavailableException {
-		long largestFileBytes = 0;
-
-		for (FileHandle file : getSFVFiles(dir, sfvData)) {
-			if (file.getSize() > largestFileBytes) {
-				largestFileBytes = file.getSize();
-			}
-		}
-		return largestFileBytes;
+		return sfvData.getSFVRaceInfo().getLargestFileBytes();
 	}
 
 	public static long getSFVTotalXfertime(DirectoryHandle dir, ZipscriptVFSDataSFV sfvData)
 	throws IOException, FileNotFoundException, NoAvailableSlaveException, SlaveUnavailableException {
-		long totalXfertime = 0;
-
-		for (FileHandle file : getSFVFiles(dir, sfvData)) {
-			totalXfertime += file.getXfertime();
-		}
-		return totalXfertime;
+		return sfvData.getSFVRaceInfo().getTotalXfertime();
 	}
 
 	public static long getXferspeed(DirectoryHandle dir, ZipscriptVFSDataSFV sfvData)
 	throws IOException, FileNotFoundException, NoAvailableSlaveException, SlaveUnavailableException {
-		long totalXfertime = getSFVTotalXfertime(dir, sfvData);
-		if (totalXfertime / 1000 == 0) {
-			return 0;
-		}
-
-		return getSFVTotalBytes(dir, sfvData) / (totalXfertime / 1000);
+		return sfvData.getSFVRaceInfo().getXferspeed();
 	}
 
 	public static SFVStatus getSFVStatus(SFVInfo sfvInfo, DirectoryHandle dir)
@@ -91,6 +91,7 @@ public class ZipscriptCommands extends CommandInterface {
 		String startPath = null;
 		boolean recursive = false;
 		boolean forceRescan = true;
+		boolean forceCrc = false;
 		boolean deleteBad = true;
 		boolean deleteZeroByte = true;
 		boolean quiet = false;
@@ -101,6 +102,8 @@ public class ZipscriptCommands extends CommandInterface {
 				recursive = true;
 			} else if (arg.equalsIgnoreCase("noforce")) {
 				forceRescan = false;
+			} else if (arg.equalsIgnoreCase("forcecrc")) {
+				forceCrc = true;
 			} else if (arg.equalsIgnoreCase("nodelete")) {
 				deleteBad = false;
 			} else if (arg.equalsIgnoreCase("nodelete0byte")) {
@@ -183,7 +186,7 @@ public class ZipscriptCommands extends CommandInterface {
 						file = workingDir.getFile(sfvEntryName, user);
 						fileSize = file.getSize();
 						if (forceRescan) {
-							fileChecksum = file.getCheckSumFromSlave();
+							fileChecksum = file.getCheckSumFromSlave(forceCrc);
 						} else {
 							fileChecksum = file.getCheckSum();
 						}
@@ -28,7 +28,6 @@ import org.apache.log4j.Logger;
 import org.drftpd.Bytes;
 import org.drftpd.Checksum;
 import org.drftpd.GlobalContext;
-import org.drftpd.RankUtils;
 import org.drftpd.commandmanager.CommandRequest;
 import org.drftpd.commandmanager.CommandResponse;
 import org.drftpd.commandmanager.PostHookInterface;
@@ -37,6 +36,7 @@ import org.drftpd.commands.dataconnection.DataConnectionHandler;
 import org.drftpd.commands.dir.Dir;
 import org.drftpd.commands.zipscript.SFVTools;
 import org.drftpd.commands.zipscript.event.SFVMemberTransferEvent;
+import org.drftpd.commands.zipscript.vfs.SFVRaceInfo;
 import org.drftpd.commands.zipscript.vfs.ZipscriptVFSDataSFV;
 import org.drftpd.dynamicdata.KeyNotFoundException;
 import org.drftpd.exceptions.NoAvailableSlaveException;
@@ -171,6 +171,7 @@ public class ZipscriptPostHook extends SFVTools implements PostHookInterface {
 					response.addComment("checksum match: SLAVE/SFV:" +
 							Long.toHexString(checksum));
 					if (transferFile.exists()) {
+						sfvData.addRaceFile(transferFile);
 						try {
 							BaseFtpConnection conn = (BaseFtpConnection)request.getSession();
 							RemoteSlave transferSlave = response.getObject(DataConnectionHandler.TRANSFER_SLAVE);
@@ -192,10 +193,12 @@ public class ZipscriptPostHook extends SFVTools implements PostHookInterface {
 						// then it should be deleted.
 						response.addComment("0Byte File, Deleting...");
 						transferFile.deleteUnchecked();
-					} else
+					} else {
 						// The file has checksum = 0, although the size is != 0,
 						// meaning that we are not using checked transfers.
 						response.addComment("checksum match: SLAVE/SFV: DISABLED");
+						sfvData.addRaceFile(transferFile);
+					}
 				} else {
 					response.addComment("checksum mismatch: SLAVE: " +
 							Long.toHexString(checksum) + " SFV: " +
@@ -261,6 +264,7 @@ public class ZipscriptPostHook extends SFVTools implements PostHookInterface {
 		if (deleFileName.toLowerCase().endsWith(".sfv")) {
 			try {
 				request.getCurrentDirectory().removePluginMetaData(SFVInfo.SFVINFO);
+				new ZipscriptVFSDataSFV(request.getCurrentDirectory()).removeRaceInfo();
 			} catch(FileNotFoundException e) {
 				// No inode to remove sfvinfo from
 			}
@@ -273,9 +277,9 @@ public class ZipscriptPostHook extends SFVTools implements PostHookInterface {
 			ZipscriptVFSDataSFV sfvData = new ZipscriptVFSDataSFV(dir);
 			SFVInfo sfvInfo = sfvData.getSFVInfo();
 			SFVStatus sfvStatus = sfvData.getSFVStatus();
-			Collection<UploaderPosition> racers = RankUtils.userSort(getSFVFiles(dir, sfvData),
-					"bytes", "high");
-			Collection<GroupPosition> groups = RankUtils.topFileGroup(getSFVFiles(dir, sfvData));
+			SFVRaceInfo raceInfo = sfvData.getSFVRaceInfo();
+			Collection<UploaderPosition> racers = raceInfo.getUsers();
+			Collection<GroupPosition> groups = raceInfo.getGroups();
 
 			String racerline = _bundle.getString(_keyPrefix+"cwd.racers.body");
 			String groupline = _bundle.getString(_keyPrefix+"cwd.groups.body");
@@ -364,9 +368,9 @@ public class ZipscriptPostHook extends SFVTools implements PostHookInterface {
 			raceTextBuilder.append('\n');
 
 			env.add("completefiles", Integer.toString(sfvStatus.getPresent()) + "/" + Integer.toString(sfvInfo.getSize()));
-			env.add("totalbytes", Bytes.formatBytes(getSFVTotalBytes(dir, sfvData)));
+			env.add("totalbytes", Bytes.formatBytes(raceInfo.getTotalBytes()));
 			env.add("totalspeed",
-					Bytes.formatBytes(getXferspeed(dir, sfvData)) + "/s");
+					Bytes.formatBytes(raceInfo.getXferspeed()) + "/s");
 			env.add("totalpercent",
 					Integer.toString(
 							(sfvStatus.getPresent() * 100) / sfvInfo.getSize()) +
@@ -33,7 +33,9 @@ import org.drftpd.commands.list.AddListElementsInterface;
 import org.drftpd.commands.list.ListElementsContainer;
 import org.drftpd.commands.zipscript.SFVTools;
 import org.drftpd.commands.zipscript.vfs.ZipscriptVFSDataSFV;
+import org.drftpd.commands.zipscript.vfs.SFVRaceInfo;
 import org.drftpd.event.LoadPluginEvent;
+import org.drftpd.event.SlaveEvent;
 import org.drftpd.event.UnloadPluginEvent;
 import org.drftpd.exceptions.NoAvailableSlaveException;
 import org.drftpd.exceptions.SlaveUnavailableException;
@@ -45,6 +47,13 @@ import org.drftpd.util.MasterPluginUtils;
 import org.drftpd.vfs.DirectoryHandle;
 import org.drftpd.vfs.FileHandle;
 import org.drftpd.vfs.VirtualFileSystem;
+import org.drftpd.vfs.event.ImmutableInodeHandle;
+import org.drftpd.vfs.event.VirtualFileSystemEvent;
+import org.drftpd.vfs.event.VirtualFileSystemInodeCreatedEvent;
+import org.drftpd.vfs.event.VirtualFileSystemInodeDeletedEvent;
+import org.drftpd.vfs.event.VirtualFileSystemRenameEvent;
+import org.drftpd.vfs.event.VirtualFileSystemSizeEvent;
+import org.drftpd.vfs.event.VirtualFileSystemSlaveEvent;
 import org.tanesha.replacer.ReplacerEnvironment;
 
 /**
@@ -215,6 +224,49 @@ public class ZipscriptList extends SFVTools implements AddListElementsInterface
 		}
 	}
 
+	/**
+	 * Keeps the race state of release directories in line with files
+	 * deleted, moved or added outside of STOR.
+	 */
+	@EventSubscriber
+	public void onVirtualFileSystemEvent(VirtualFileSystemEvent event) {
+		ImmutableInodeHandle inode = event.getImmutableInode();
+		if (!inode.isFile()) {
+			return;
+		}
+		try {
+			if (event instanceof VirtualFileSystemInodeDeletedEvent) {
+				removeFromRace(inode);
+			} else if (event instanceof VirtualFileSystemRenameEvent) {
+				removeFromRace(((VirtualFileSystemRenameEvent) event).getSource());
+				new ZipscriptVFSDataSFV(inode.getParent()).updateRaceFile(new FileHandle(inode.getPath()));
+			} else if (event instanceof VirtualFileSystemInodeCreatedEvent
+					|| event instanceof VirtualFileSystemSizeEvent) {
+				new ZipscriptVFSDataSFV(inode.getParent()).updateRaceFile(new FileHandle(inode.getPath()));
+			} else if (event instanceof VirtualFileSystemSlaveEvent) {
+				new ZipscriptVFSDataSFV(inode.getParent()).invalidateRaceOffline();
+			}
+		} catch (FileNotFoundException e) {
+			// directory or file is already gone
+		}
+	}
+
+	private void removeFromRace(ImmutableInodeHandle inode) throws FileNotFoundException {
+		ZipscriptVFSDataSFV sfvData = new ZipscriptVFSDataSFV(inode.getParent());
+		if (inode.getName().toLowerCase().endsWith(".sfv")) {
+			sfvData.removeRaceInfo();
+		} else {
+			sfvData.removeRaceFile(inode.getName());
+		}
+	}
+
+	@EventSubscriber
+	public void onSlaveEvent(SlaveEvent event) {
+		if (event.getCommand().equals("ADDSLAVE") || event.getCommand().equals("DELSLAVE")) {
+			SFVRaceInfo.slavesChanged();
+		}
+	}
+
 	public void unload() {
 		AnnotationProcessor.unprocess(this);
 	}
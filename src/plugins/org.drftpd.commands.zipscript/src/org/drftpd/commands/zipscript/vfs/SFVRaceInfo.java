@@ -0,0 +1,352 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.commands.zipscript.vfs;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.drftpd.dynamicdata.Key;
+import org.drftpd.util.GroupPosition;
+import org.drftpd.util.UploaderPosition;
+import org.drftpd.vfs.CaseInsensitiveTreeMap;
+
+/**
+ * Race state of a release directory, kept in the plugin metadata of the
+ * directory next to its {@link org.drftpd.protocol.zipscript.common.SFVInfo}.<br>
+ * It holds the completed sfv members and keeps their totals per user and per
+ * group up to date as members are added or removed, so race stats, status
+ * bars and announces don't have to walk the directory on every upload.<br>
+ * Only the members are persisted, the totals are rebuilt from them after the
+ * inode is loaded again.
+ * @version $Id$
+ */
+@SuppressWarnings("serial")
+public class SFVRaceInfo implements Serializable {
+
+	public static final Key<SFVRaceInfo> SFVRACEINFO = new Key<SFVRaceInfo>(SFVRaceInfo.class, "sfvrace");
+
+	private static final AtomicLong _slaveGeneration = new AtomicLong();
+
+	private long _checksum = 0L;
+
+	private CaseInsensitiveTreeMap<String, RaceFile> _files = new CaseInsensitiveTreeMap<String, RaceFile>();
+
+	private transient HashMap<String, UploaderPosition> _users;
+
+	private transient HashMap<String, GroupPosition> _groups;
+
+	private transient long _bytes;
+
+	private transient long _xfertime;
+
+	private transient long _largest = -1;
+
+	private transient int _offline;
+
+	private transient long _offlineGeneration = -1;
+
+	/**
+	 * Constructor for SFVRaceInfo
+	 */
+	public SFVRaceInfo() {
+
+	}
+
+	/**
+	 * Marks the offline count of every race as outdated, to be called
+	 * whenever a slave goes online or offline.
+	 */
+	public static void slavesChanged() {
+		_slaveGeneration.incrementAndGet();
+	}
+
+	static long getSlaveGeneration() {
+		return _slaveGeneration.get();
+	}
+
+	/**
+	 * @return the checksum of the sfv file the race was counted against.
+	 */
+	public synchronized long getChecksum() {
+		return _checksum;
+	}
+
+	public synchronized void setChecksum(long checksum) {
+		_checksum = checksum;
+	}
+
+	/**
+	 * @return a copy of the completed members, keyed by file name.
+	 */
+	public synchronized CaseInsensitiveTreeMap<String, RaceFile> getFiles() {
+		CaseInsensitiveTreeMap<String, RaceFile> files = new CaseInsensitiveTreeMap<String, RaceFile>();
+		files.putAll(_files);
+		return files;
+	}
+
+	public synchronized void setFiles(Map<String, RaceFile> files) {
+		_files = new CaseInsensitiveTreeMap<String, RaceFile>();
+		_files.putAll(files);
+		_users = null;
+		_largest = -1;
+		_offlineGeneration = -1;
+	}
+
+	/**
+	 * Adds a completed member to the race, replacing any previous entry with
+	 * the same name. The replaced entry is the same file of the directory, so
+	 * a cached offline count stays valid.
+	 */
+	public synchronized void addFile(String name, String username, String group, long size, long xfertime) {
+		loadTotals();
+		RaceFile old = _files.get(name);
+		if (old != null) {
+			count(old, -1);
+		}
+		RaceFile file = new RaceFile(username, group, size, Math.max(xfertime, 0L));
+		_files.put(name, file);
+		count(file, 1);
+		if (old != null && old.getSize() == _largest && size < _largest) {
+			_largest = -1;
+		}
+	}
+
+	/**
+	 * Removes a member from the race.
+	 * @return true if the file was part of the race.
+	 */
+	public synchronized boolean removeFile(String name) {
+		loadTotals();
+		RaceFile old = _files.remove(name);
+		if (old == null) {
+			return false;
+		}
+		count(old, -1);
+		_offlineGeneration = -1;
+		if (old.getSize() == _largest) {
+			_largest = -1;
+		}
+		return true;
+	}
+
+	public synchronized boolean contains(String name) {
+		return _files.containsKey(name);
+	}
+
+	/**
+	 * @return true if the member is already counted with the given size.
+	 */
+	public synchronized boolean contains(String name, long size) {
+		RaceFile file = _files.get(name);
+		return file != null && file.getSize() == size;
+	}
+
+	/**
+	 * @return the number of completed members.
+	 */
+	public synchronized int getPresent() {
+		return _files.size();
+	}
+
+	public synchronized long getTotalBytes() {
+		loadTotals();
+		return _bytes;
+	}
+
+	public synchronized long getTotalXfertime() {
+		loadTotals();
+		return _xfertime;
+	}
+
+	public synchronized long getLargestFileBytes() {
+		if (_largest == -1) {
+			long largest = 0;
+			for (RaceFile file : _files.values()) {
+				largest = Math.max(largest, file.getSize());
+			}
+			_largest = largest;
+		}
+		return _largest;
+	}
+
+	/**
+	 * @return the average speed of the race in bytes per second.
+	 */
+	public synchronized long getXferspeed() {
+		loadTotals();
+		if (_xfertime / 1000 == 0) {
+			return 0;
+		}
+		return _bytes / (_xfertime / 1000);
+	}
+
+	/**
+	 * @return the racers, the one with the most bytes first.
+	 */
+	public synchronized List<UploaderPosition> getUsers() {
+		loadTotals();
+		ArrayList<UploaderPosition> users = new ArrayList<UploaderPosition>(_users.size());
+		for (UploaderPosition user : _users.values()) {
+			users.add(new UploaderPosition(user.getUsername(), user.getBytes(),
+					user.getFiles(), user.getXfertime()));
+		}
+		Collections.sort(users);
+		return users;
+	}
+
+	/**
+	 * @return the racing groups, the one with the most bytes first.
+	 */
+	public synchronized List<GroupPosition> getGroups() {
+		loadTotals();
+		ArrayList<GroupPosition> groups = new ArrayList<GroupPosition>(_groups.size());
+		for (GroupPosition group : _groups.values()) {
+			groups.add(new GroupPosition(group.getGroupname(), group.getBytes(),
+					group.getFiles(), group.getXfertime()));
+		}
+		Collections.sort(groups);
+		return groups;
+	}
+
+	/**
+	 * @return the totals of the user, null if the user has no file in the race.
+	 */
+	public synchronized UploaderPosition getUser(String username) {
+		loadTotals();
+		return _users.get(username);
+	}
+
+	/**
+	 * @return the cached offline count, -1 if it has to be counted again.
+	 */
+	synchronized int getOffline() {
+		return _offlineGeneration == getSlaveGeneration() ? _offline : -1;
+	}
+
+	synchronized void setOffline(int offline, long generation) {
+		_offline = offline;
+		_offlineGeneration = generation;
+	}
+
+	private void loadTotals() {
+		if (_users != null) {
+			return;
+		}
+		_users = new HashMap<String, UploaderPosition>();
+		_groups = new HashMap<String, GroupPosition>();
+		_bytes = 0L;
+		_xfertime = 0L;
+		for (RaceFile file : _files.values()) {
+			count(file, 1);
+		}
+	}
+
+	private void count(RaceFile file, int sign) {
+		_bytes += sign * file.getSize();
+		_xfertime += sign * file.getXfertime();
+		if (sign > 0 && _largest != -1 && file.getSize() > _largest) {
+			_largest = file.getSize();
+		}
+
+		UploaderPosition user = _users.get(file.getUsername());
+		if (user == null) {
+			user = new UploaderPosition(file.getUsername(), 0L, 0, 0L);
+			_users.put(file.getUsername(), user);
+		}
+		user.updateBytes(sign * file.getSize());
+		user.updateFiles(sign);
+		user.updateXfertime(sign * file.getXfertime());
+		if (user.getFiles() == 0) {
+			_users.remove(file.getUsername());
+		}
+
+		GroupPosition group = _groups.get(file.getGroup());
+		if (group == null) {
+			group = new GroupPosition(file.getGroup(), 0L, 0, 0L);
+			_groups.put(file.getGroup(), group);
+		}
+		group.updateBytes(sign * file.getSize());
+		group.updateFiles(sign);
+		group.updateXfertime(sign * file.getXfertime());
+		if (group.getFiles() == 0) {
+			_groups.remove(file.getGroup());
+		}
+	}
+
+	/**
+	 * A completed member of the race.
+	 */
+	public static class RaceFile implements Serializable {
+
+		private String _username;
+
+		private String _group;
+
+		private long _size;
+
+		private long _xfertime;
+
+		public RaceFile() {
+
+		}
+
+		public RaceFile(String username, String group, long size, long xfertime) {
+			_username = username;
+			_group = group;
+			_size = size;
+			_xfertime = xfertime;
+		}
+
+		public String getUsername() {
+			return _username;
+		}
+
+		public void setUsername(String username) {
+			_username = username;
+		}
+
+		public String getGroup() {
+			return _group;
+		}
+
+		public void setGroup(String group) {
+			_group = group;
+		}
+
+		public long getSize() {
+			return _size;
+		}
+
+		public void setSize(long size) {
+			_size = size;
+		}
+
+		public long getXfertime() {
+			return _xfertime;
+		}
+
+		public void setXfertime(long xfertime) {
+			_xfertime = xfertime;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.commands.zipscript.vfs;
+
+import java.util.List;
+
+import org.drftpd.util.GroupPosition;
+import org.drftpd.util.UploaderPosition;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class SFVRaceInfoTest extends TestCase {
+
+	private SFVRaceInfo _race;
+
+	protected void setUp() {
+		_race = new SFVRaceInfo();
+		_race.addFile("a.r00", "alice", "grp1", 100L, 1000L);
+		_race.addFile("a.r01", "bob", "grp2", 300L, 2000L);
+		_race.addFile("a.r02", "alice", "grp1", 50L, 1000L);
+	}
+
+	public void testTotals() {
+		assertEquals(3, _race.getPresent());
+		assertEquals(450L, _race.getTotalBytes());
+		assertEquals(300L, _race.getLargestFileBytes());
+		assertEquals(112L, _race.getXferspeed());
+
+		// a re-upload replaces the previous entry
+		_race.addFile("A.R01", "alice", "grp1", 200L, 1000L);
+		assertEquals(3, _race.getPresent());
+		assertEquals(350L, _race.getTotalBytes());
+		assertEquals(200L, _race.getLargestFileBytes());
+		assertNull(_race.getUser("bob"));
+
+		assertTrue(_race.removeFile("a.r01"));
+		assertFalse(_race.removeFile("a.r01"));
+		assertEquals(150L, _race.getTotalBytes());
+		assertEquals(100L, _race.getLargestFileBytes());
+	}
+
+	public void testReAddKeepsOffline() {
+		assertTrue(_race.contains("A.R00", 100L));
+		assertFalse(_race.contains("a.r00", 101L));
+		assertFalse(_race.contains("a.r03", 100L));
+
+		_race.setOffline(1, SFVRaceInfo.getSlaveGeneration());
+		_race.addFile("a.r00", "alice", "grp1", 100L, 1000L);
+		assertEquals(1, _race.getOffline());
+		assertEquals(3, _race.getPresent());
+		assertEquals(450L, _race.getTotalBytes());
+	}
+
+	public void testRanking() {
+		List<UploaderPosition> users = _race.getUsers();
+		assertEquals(2, users.size());
+		assertEquals("bob", users.get(0).getUsername());
+		assertEquals("alice", users.get(1).getUsername());
+		assertEquals(2, users.get(1).getFiles());
+		assertEquals(150L, users.get(1).getBytes());
+
+		List<GroupPosition> groups = _race.getGroups();
+		assertEquals("grp2", groups.get(0).getGroupname());
+
+		// totals are rebuilt from the persisted members
+		SFVRaceInfo loaded = new SFVRaceInfo();
+		loaded.setFiles(_race.getFiles());
+		assertEquals(450L, loaded.getTotalBytes());
+		assertEquals(2, loaded.getUser("alice").getFiles());
+	}
+}
@@ -21,7 +21,6 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 
 import org.drftpd.GlobalContext;
-import org.drftpd.commands.zipscript.SFVTools;
 import org.drftpd.dynamicdata.KeyNotFoundException;
 import org.drftpd.exceptions.NoAvailableSlaveException;
 import org.drftpd.exceptions.SlaveUnavailableException;
@@ -34,6 +33,7 @@ import org.drftpd.slave.RemoteIOException;
 import org.drftpd.vfs.DirectoryHandle;
 import org.drftpd.vfs.FileHandle;
 import org.drftpd.vfs.ObjectNotValidException;
+import org.drftpd.vfs.VirtualFileSystem;
 
 /**
  * @author djb61
@@ -41,7 +41,7 @@ import org.drftpd.vfs.ObjectNotValidException;
  */
 public class ZipscriptVFSDataSFV {
 
-	private static DirectoryHandle _dir;
+	private DirectoryHandle _dir;
 
 	public ZipscriptVFSDataSFV(DirectoryHandle dir) {
 		_dir = dir;
@@ -95,7 +95,140 @@ public class ZipscriptVFSDataSFV {
 	}
 	
 	public SFVStatus getSFVStatus() throws IOException, FileNotFoundException, NoAvailableSlaveException, SlaveUnavailableException {
-		return SFVTools.getSFVStatus(getSFVInfo(), _dir);
+		SFVInfo sfvInfo = getSFVInfo();
+		SFVRaceInfo raceInfo = getSFVRaceInfo(sfvInfo);
+		int offline = raceInfo.getOffline();
+		if (offline == -1) {
+			long generation = SFVRaceInfo.getSlaveGeneration();
+			offline = 0;
+			for (String name : raceInfo.getFiles().keySet()) {
+				try {
+					if (!getFile(name).isAvailable()) {
+						offline++;
+					}
+				} catch (FileNotFoundException e) {
+					// deleted meanwhile, the delete event will drop it from the race
+				}
+			}
+			raceInfo.setOffline(offline, generation);
+		}
+		return new SFVStatus(sfvInfo.getSize(), offline, raceInfo.getPresent());
+	}
+
+	/**
+	 * Returns the race state of the directory, it is counted once from the
+	 * directory contents when missing or when the sfv file has changed and
+	 * then kept up to date as members are uploaded and deleted.
+	 */
+	public SFVRaceInfo getSFVRaceInfo() throws IOException, FileNotFoundException, NoAvailableSlaveException, SlaveUnavailableException {
+		return getSFVRaceInfo(getSFVInfo());
+	}
+
+	private SFVRaceInfo getSFVRaceInfo(SFVInfo sfvInfo) throws FileNotFoundException {
+		try {
+			SFVRaceInfo raceInfo = _dir.getPluginMetaData(SFVRaceInfo.SFVRACEINFO);
+			if (raceInfo.getChecksum() == sfvInfo.getChecksum()) {
+				return raceInfo;
+			}
+		} catch (KeyNotFoundException e) {
+			// not counted yet
+		}
+		SFVRaceInfo raceInfo = new SFVRaceInfo();
+		raceInfo.setChecksum(sfvInfo.getChecksum());
+		for (FileHandle file : _dir.getFilesUnchecked()) {
+			try {
+				if (sfvInfo.getEntries().containsKey(file.getName()) && !file.isUploading()) {
+					raceInfo.addFile(file.getName(), file.getUsername(), file.getGroup(),
+							file.getSize(), file.getXfertime());
+				}
+			} catch (FileNotFoundException e) {
+				// file was deleted or moved
+			}
+		}
+		_dir.addPluginMetaData(SFVRaceInfo.SFVRACEINFO, raceInfo);
+		return raceInfo;
+	}
+
+	/**
+	 * Adds a completed upload to the race of the directory if the file is
+	 * listed in the sfv.
+	 */
+	public void addRaceFile(FileHandle file) throws IOException, FileNotFoundException, NoAvailableSlaveException, SlaveUnavailableException {
+		SFVInfo sfvInfo = getSFVInfo();
+		if (!sfvInfo.getEntries().containsKey(file.getName())) {
+			return;
+		}
+		SFVRaceInfo raceInfo = getSFVRaceInfo(sfvInfo);
+		raceInfo.addFile(file.getName(), file.getUsername(), file.getGroup(),
+				file.getSize(), file.getXfertime());
+		_dir.addPluginMetaData(SFVRaceInfo.SFVRACEINFO, raceInfo);
+	}
+
+	/**
+	 * Brings the race entry of the file up to date, used for files that
+	 * show up without going through STOR, does nothing if the race of the
+	 * directory hasn't been counted yet as it will be counted on first use.
+	 */
+	public void updateRaceFile(FileHandle file) throws FileNotFoundException {
+		try {
+			SFVInfo sfvInfo = _dir.getPluginMetaData(SFVInfo.SFVINFO);
+			SFVRaceInfo raceInfo = _dir.getPluginMetaData(SFVRaceInfo.SFVRACEINFO);
+			if (raceInfo.getChecksum() != sfvInfo.getChecksum()
+					|| !sfvInfo.getEntries().containsKey(file.getName()) || file.isUploading()) {
+				return;
+			}
+			if (raceInfo.contains(file.getName(), file.getSize())) {
+				// already counted by the STOR hook
+				return;
+			}
+			raceInfo.addFile(file.getName(), file.getUsername(), file.getGroup(),
+					file.getSize(), file.getXfertime());
+			_dir.addPluginMetaData(SFVRaceInfo.SFVRACEINFO, raceInfo);
+		} catch (KeyNotFoundException e) {
+			// nothing counted yet
+		}
+	}
+
+	/**
+	 * Drops a deleted or moved file from the race of the directory.
+	 */
+	public void removeRaceFile(String name) throws FileNotFoundException {
+		try {
+			SFVRaceInfo raceInfo = _dir.getPluginMetaData(SFVRaceInfo.SFVRACEINFO);
+			if (raceInfo.removeFile(name)) {
+				_dir.addPluginMetaData(SFVRaceInfo.SFVRACEINFO, raceInfo);
+			}
+		} catch (KeyNotFoundException e) {
+			// nothing counted yet
+		}
+	}
+
+	/**
+	 * Forgets the race of the directory, it will be counted again on next use.
+	 */
+	public void removeRaceInfo() throws FileNotFoundException {
+		try {
+			_dir.getPluginMetaData(SFVRaceInfo.SFVRACEINFO);
+			_dir.removePluginMetaData(SFVRaceInfo.SFVRACEINFO);
+		} catch (KeyNotFoundException e) {
+			// nothing counted yet
+		}
+	}
+
+	/**
+	 * Marks the offline count of the race as outdated, to be called when the
+	 * slaves of one of its files have changed.
+	 */
+	public void invalidateRaceOffline() throws FileNotFoundException {
+		try {
+			_dir.getPluginMetaData(SFVRaceInfo.SFVRACEINFO).setOffline(0, -1);
+		} catch (KeyNotFoundException e) {
+			// nothing counted yet
+		}
+	}
+
+	private FileHandle getFile(String name) {
+		return new FileHandle(_dir.getPath()+VirtualFileSystem.separator+name);
 	}
 	
 	private static SFVInfo getSFVInfoFromInode(DirectoryHandle vfsDirHandle) throws FileNotFoundException, KeyNotFoundException {
@@ -6,9 +6,7 @@ import java.util.*;
 import org.bushe.swing.event.annotation.AnnotationProcessor;
 import org.bushe.swing.event.annotation.EventSubscriber;
 import org.drftpd.plugins.autofreespace.event.AFSEvent;
-import org.drftpd.vfs.DirectoryHandle;
 import org.drftpd.vfs.InodeHandle;
-import org.drftpd.vfs.FileHandle;
 import org.drftpd.exceptions.NoAvailableSlaveException;
 import org.drftpd.exceptions.SlaveUnavailableException;
 
@@ -18,7 +16,6 @@ import org.drftpd.GlobalContext;
 import org.drftpd.PluginInterface;
 import org.drftpd.event.ReloadEvent;
 import org.drftpd.master.RemoteSlave;
-import org.drftpd.sections.SectionInterface;
 import org.drftpd.PropertyHelper;
 
 
@@ -39,6 +36,7 @@ public class AutoFreeSpace implements PluginInterface {
 	private boolean _onlyAnnounce;
 	private boolean deleteOnDate=false;
 	private boolean deleteOnSpace=false;
+	private ReleaseIndex _index = new ReleaseIndex();
 
 	public void startPlugin() {
 		_excludeFiles = new ArrayList<String>();
@@ -46,11 +44,13 @@ public class AutoFreeSpace implements PluginInterface {
 		reload();
 		// Subscribe to events
 		AnnotationProcessor.process(this);
+		AnnotationProcessor.process(_index);
 		logger.info("Autofreespace plugin loaded successfully");
 	}
 
 	public void stopPlugin(String reason) {
 		AnnotationProcessor.unprocess(this);
+		AnnotationProcessor.unprocess(_index);
 		_timer.cancel();
 		logger.info("Autofreespace plugin unloaded successfully");
 	}
@@ -96,6 +96,7 @@ public class AutoFreeSpace implements PluginInterface {
 			_excludeFiles.add(sec);
 		}
 		_excludeFiles.trimToSize();
+		_index.setSections(sections.keySet());
 
 		_onlyAnnounce = p.getProperty("announce.only", "false").equalsIgnoreCase("true");
 
@@ -107,6 +108,7 @@ public class AutoFreeSpace implements PluginInterface {
 		private HashMap<String,Section> _sections;
 		private long _minFreeSpace;
 		private ArrayList<String> checkedReleases = new ArrayList<String>();
+		private WipeFilter _filter = new WipeFilter();
 
 		public MrCleanit(ArrayList<String> excludeFiles, long minFreeSpace, HashMap<String,Section> sections) {
 			_excludeFiles = excludeFiles;
@@ -123,118 +125,43 @@ public class AutoFreeSpace implements PluginInterface {
 			return false;
 		}
 
-		private class AgeComparator implements Comparator<InodeHandle> {
-
-			// Compare two InodeHandle.
-			public final int compare ( InodeHandle a, InodeHandle b ) {
-				Long aLong, bLong;
-				try {
-					aLong = a.lastModified();
-					bLong = b.lastModified();
-				} catch (FileNotFoundException fnfe) {
-					logger.warn("AUTODELETE: File missing when comparing age", fnfe.getCause());
-					return 0;
+		/**
+		 * Accepts the releases old enough to be wiped, or any release when
+		 * deleting on space only.
+		 */
+		private class WipeFilter implements ReleaseIndex.ReleaseFilter {
+			public boolean accept(ReleaseIndex.Release release) {
+				if (checkInvalidName(release.getName())) {
+					return false;
 				}
-				int result = aLong.compareTo(bLong);
-				if (result == 0)
-					return a.getName().compareTo(b.getName());
-				else
-					return result;
-			}
-		}
-
-		public InodeHandle getOldestFile(DirectoryHandle dir, RemoteSlave slave) throws FileNotFoundException {
-
-			Collection<InodeHandle> collection = dir.getInodeHandlesUnchecked();
-
-			if (collection.isEmpty()) {
-				logger.debug("AUTODELETE: Empty section: " + dir.getName() + ", skipping");
-				return null; //empty section, just ignore
-			}
-
-			TreeSet<InodeHandle> sortedCollection = new TreeSet<InodeHandle>(new AgeComparator());
-			sortedCollection.addAll(collection);
-
-			for (InodeHandle inode : sortedCollection) {
-				if (checkInvalidName(inode.getName())) {
-					continue;
-				}
-				try {
-					if (gotFilesOn(inode, slave)) {
-						return inode;
-					}
-				} catch (NoAvailableSlaveException e) {
-					logger.warn("AUTODELETE: No slave available", e.getCause());
-				}
-			}
-			logger.debug("AUTODELETE: Could not find a valid release to delete in section " + dir.getName());
-			return null;
-		}
-
-		private boolean gotFilesOn(InodeHandle inode, RemoteSlave slave)
-				throws NoAvailableSlaveException, FileNotFoundException {
-
-			if (inode.isFile()) {
-				if(((FileHandle)inode).getAvailableSlaves().contains(slave)) {
+				if (deleteOnSpace) {
 					return true;
 				}
-			} else if (inode.isDirectory()) {
-				for (FileHandle file : ((DirectoryHandle)inode).getAllFilesRecursiveUnchecked()) {
-					if (file.getAvailableSlaves().contains(slave)) {
-						return true;
-					}
-				}
+				Section section = _sections.get(release.getSection());
+				long age = System.currentTimeMillis() - release.getLastModified();
+				return section != null && age > section.getWipeAfter()
+						&& !checkedReleases.contains(release.getName());
 			}
-
-			return false;
 		}
 
 		private InodeHandle getOldestRelease(RemoteSlave slave) throws FileNotFoundException {
-
-			InodeHandle oldest = null;
-
-			for (SectionInterface si :
-					GlobalContext.getGlobalContext().getSectionManager().getSections()) {
-
-				if (!_sections.containsKey(si.getName())) {
-					continue;
-				}
-
-				logger.debug("AUTODELETE: Getting oldest release in section " + si.getName());
-				try {
-					InodeHandle file = getOldestFile(si.getBaseDirectory(), slave);
-
-					if (file == null)
-						continue;
-
-					logger.debug("AUTODELETE: Oldest file in section " + si.getName() + ": " + file.getName());
-
-					long age = System.currentTimeMillis() - file.lastModified();
-					Section section = _sections.get(si.getName());
-					long _archiveAfter=section.getWipeAfter();
-
-					if (oldest == null || file.lastModified() < oldest.lastModified()) {
-						if (age > _archiveAfter && !checkedReleases.contains(file.getName())) {
-							oldest = file;
-							logger.debug("AUTODELETE: New oldest file: " + oldest.getName() + ", oldest in section " + si.getName());
-						} else if (deleteOnSpace) {
-							oldest = file;
-							logger.debug("AUTODELETE: Deleting due to low space on slave: " + file.getName() + " in section " + si.getName());
-						}
-					}
-				} catch (FileNotFoundException e) {
-					logger.warn("AUTODELETE: File missing", e.getCause());
-				}
-			}
+			ReleaseIndex.Release oldest = _index.getOldest(slave.getName(), _filter);
 
 			if (oldest == null) {
 				throw new FileNotFoundException("Nothing to wipe");
 			}
 
-			return oldest;
+			logger.debug("AUTODELETE: Oldest release on " + slave.getName() + ": " + oldest.getPath());
+			try {
+				return oldest.getInode();
+			} catch (FileNotFoundException e) {
+				_index.remove(oldest.getPath());
+				throw e;
+			}
 		}
 
 		public void run() {
+			_index.refresh();
 			try {
 				for (RemoteSlave remoteSlave :
 						GlobalContext.getGlobalContext().getSlaveManager().getAvailableSlaves()) {
@@ -249,6 +176,7 @@ public class AutoFreeSpace implements PluginInterface {
 									continue;
 								}
 								oldestRelease.deleteUnchecked();
+								_index.remove(oldestRelease.getPath());
 								logger.info("AUTODELETE: Removing " + oldestRelease.getName());
 							}
 						} catch (FileNotFoundException e) {
@@ -259,7 +187,6 @@ public class AutoFreeSpace implements PluginInterface {
 						
 						try {
 							long freespace = remoteSlave.getSlaveStatus().getDiskSpaceAvailable();
-							long freespaceBak = freespace;
 	
 							if (freespace < _minFreeSpace) {
 								logger.debug("AUTODELETE: Space under limit for " + remoteSlave.getName() + ", will clean: " +
@@ -271,37 +198,35 @@ public class AutoFreeSpace implements PluginInterface {
 							} else {
 								logger.debug("AUTODELETE: Space over limit for " + remoteSlave.getName() + " will not clean: " +
 										Bytes.formatBytes(freespace) + ">" + Bytes.formatBytes(_minFreeSpace));
+								continue;
 							}
 
-							while (freespace < _minFreeSpace) {
-	
-								InodeHandle oldestRelease = null;
-	
+							// all the releases needed to get back over the limit, in one pass
+							long needed = _minFreeSpace - freespace;
+							long cleared = 0;
+							for (ReleaseIndex.Release release :
+									_index.planWipe(remoteSlave.getName(), needed, _filter)) {
 								try {
-									oldestRelease = getOldestRelease(remoteSlave);
+									InodeHandle oldestRelease = release.getInode();
 	
 									GlobalContext.getEventService().publishAsync(new AFSEvent(oldestRelease, remoteSlave));
 
-									//issue somewhere around here, we find the release but it never gets deleted..
 									oldestRelease.deleteUnchecked();
+									cleared += release.getBytes(remoteSlave.getName());
 	
-									freespace = remoteSlave.getSlaveStatus().getDiskSpaceAvailable();
-	
-									logger.info("AUTODELETE: Removing " + oldestRelease.getName() + ", cleared " +
-											Bytes.formatBytes(remoteSlave.getSlaveStatus().getDiskSpaceAvailable()-freespace)
+									logger.info("AUTODELETE: Removing " + oldestRelease.getName() + ", clears " +
+											Bytes.formatBytes(release.getBytes(remoteSlave.getName()))
 											+ " on " + remoteSlave.getName());
 	
 								} catch (FileNotFoundException e) {
 									logger.warn("AUTODELETE: Oldest release not found for slave " +
 											remoteSlave.getName() + ": " + e);
 								}
+								_index.remove(release.getPath());
+							}
 	
-								if(freespaceBak==freespace) {
-									logger.warn("Tried, but could not clean the slave to meet your demands, giving up for now");
-									break;
-								}
-	
-								freespaceBak = freespace;
+							if (cleared < needed) {
+								logger.warn("Tried, but could not clean the slave to meet your demands, giving up for now");
 							}
 						} catch (SlaveUnavailableException e) {
 							logger.warn("Slave suddenly went offline");
@@ -0,0 +1,368 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.plugins.autofreespace;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.bushe.swing.event.annotation.EventSubscriber;
+import org.drftpd.GlobalContext;
+import org.drftpd.sections.SectionInterface;
+import org.drftpd.vfs.DirectoryHandle;
+import org.drftpd.vfs.FileHandle;
+import org.drftpd.vfs.InodeHandle;
+import org.drftpd.vfs.VirtualFileSystem;
+import org.drftpd.vfs.event.VirtualFileSystemEvent;
+import org.drftpd.vfs.event.VirtualFileSystemRenameEvent;
+
+/**
+ * Keeps the releases of the AutoFreeSpace sections ordered by age for every
+ * slave holding some of their files, along with the amount of data each
+ * slave holds.<br>
+ * A release is a direct child of a section's base directory. VFS events only
+ * mark the release they touch as dirty, dirty releases are rescanned on the
+ * next {@link #refresh()}, so a cycle only walks what changed since the last
+ * one instead of every release for every slave.
+ * @version $Id$
+ */
+public class ReleaseIndex {
+	private static final Logger logger = Logger.getLogger(ReleaseIndex.class);
+
+	/**
+	 * Orders releases oldest first, then by path.
+	 */
+	private static final Comparator<Release> AGE_ORDER = new Comparator<Release>() {
+		public int compare(Release r1, Release r2) {
+			if (r1._lastModified != r2._lastModified) {
+				return r1._lastModified < r2._lastModified ? -1 : 1;
+			}
+			return r1._path.compareTo(r2._path);
+		}
+	};
+
+	/**
+	 * Section base directory paths to section names, only replaced as a whole.
+	 */
+	private volatile Map<String, String> _sectionPaths = Collections.emptyMap();
+
+	private final HashMap<String, Release> _releases = new HashMap<String, Release>();
+
+	private final HashMap<String, TreeSet<Release>> _bySlave = new HashMap<String, TreeSet<Release>>();
+
+	/**
+	 * Releases touched by VFS events since the last refresh, filled from the
+	 * event threads.
+	 */
+	private final ConcurrentHashMap<String, Boolean> _dirty = new ConcurrentHashMap<String, Boolean>();
+
+	private volatile boolean _fullScan = true;
+
+	/**
+	 * Sets the sections whose releases are indexed, the next refresh
+	 * rebuilds the whole index.
+	 */
+	public void setSections(Collection<String> sections) {
+		HashMap<String, String> sectionPaths = new HashMap<String, String>();
+		for (SectionInterface section : GlobalContext.getGlobalContext().getSectionManager().getSections()) {
+			if (sections.contains(section.getName())) {
+				sectionPaths.put(section.getBaseDirectory().getPath(), section.getName());
+			}
+		}
+		_sectionPaths = sectionPaths;
+		_fullScan = true;
+	}
+
+	/**
+	 * @return the path of the release holding the given path, null if the
+	 * path is not inside an indexed section.
+	 */
+	private String getReleasePath(String path) {
+		for (String base : _sectionPaths.keySet()) {
+			String prefix = base.equals(VirtualFileSystem.separator) ? base : base + VirtualFileSystem.separator;
+			if (path.startsWith(prefix) && path.length() > prefix.length()) {
+				int end = path.indexOf(VirtualFileSystem.separator, prefix.length());
+				return end == -1 ? path : path.substring(0, end);
+			}
+		}
+		return null;
+	}
+
+	private void markDirty(String path) {
+		String release = getReleasePath(path);
+		if (release != null) {
+			_dirty.put(release, Boolean.TRUE);
+		}
+	}
+
+	@EventSubscriber
+	public void onVirtualFileSystemEvent(VirtualFileSystemEvent event) {
+		if (_fullScan) {
+			return;
+		}
+		markDirty(event.getImmutableInode().getPath());
+		if (event instanceof VirtualFileSystemRenameEvent) {
+			markDirty(((VirtualFileSystemRenameEvent) event).getSource().getPath());
+		}
+	}
+
+	/**
+	 * Brings the index up to date, rescanning the dirty releases or all of
+	 * them after a change of sections.
+	 */
+	public synchronized void refresh() {
+		long start = System.currentTimeMillis();
+		if (_fullScan) {
+			// events are recorded again before the scan reads anything, so a
+			// change the scan misses is rescanned on the next refresh
+			_dirty.clear();
+			_fullScan = false;
+			_releases.clear();
+			_bySlave.clear();
+			for (Map.Entry<String, String> section : _sectionPaths.entrySet()) {
+				try {
+					for (InodeHandle inode : new DirectoryHandle(section.getKey()).getInodeHandlesUnchecked()) {
+						scan(inode, section.getValue());
+					}
+				} catch (FileNotFoundException e) {
+					logger.warn("AUTODELETE: Section " + section.getValue() + " has no base directory");
+				}
+			}
+			logger.debug("AUTODELETE: Indexed " + _releases.size() + " releases in "
+					+ (System.currentTimeMillis() - start) + "ms");
+			return;
+		}
+		int rescanned = 0;
+		for (Iterator<String> iter = _dirty.keySet().iterator(); iter.hasNext();) {
+			String path = iter.next();
+			iter.remove();
+			rescanned++;
+			String section = _sectionPaths.get(VirtualFileSystem.stripLast(path));
+			if (section == null) {
+				remove(path);
+				continue;
+			}
+			try {
+				scan(new DirectoryHandle(VirtualFileSystem.stripLast(path))
+						.getInodeHandleUnchecked(VirtualFileSystem.getLast(path)), section);
+			} catch (FileNotFoundException e) {
+				remove(path);
+			}
+		}
+		if (rescanned > 0) {
+			logger.debug("AUTODELETE: Rescanned " + rescanned + " releases in "
+					+ (System.currentTimeMillis() - start) + "ms");
+		}
+	}
+
+	/**
+	 * Reads the age of the release and the amount of data every slave holds of it.
+	 */
+	private void scan(InodeHandle inode, String section) {
+		try {
+			HashMap<String, Long> slaveBytes = new HashMap<String, Long>();
+			if (inode.isFile()) {
+				addFile(slaveBytes, (FileHandle) inode);
+			} else if (inode.isDirectory()) {
+				for (FileHandle file : ((DirectoryHandle) inode).getAllFilesRecursiveUnchecked()) {
+					addFile(slaveBytes, file);
+				}
+			}
+			update(inode.getPath(), section, inode.lastModified(), slaveBytes);
+		} catch (FileNotFoundException e) {
+			remove(inode.getPath());
+		}
+	}
+
+	private static void addFile(Map<String, Long> slaveBytes, FileHandle file) {
+		try {
+			long size = file.getSize();
+			for (String slave : file.getSlaveNames()) {
+				Long bytes = slaveBytes.get(slave);
+				slaveBytes.put(slave, bytes == null ? size : bytes + size);
+			}
+		} catch (FileNotFoundException e) {
+			// deleted meanwhile, the deletion marks the release dirty again
+		}
+	}
+
+	/**
+	 * Stores the state of a release, replacing its previous one.
+	 * @param slaveBytes the amount of data of the release on each slave.
+	 */
+	public synchronized void update(String path, String section, long lastModified,
+			Map<String, Long> slaveBytes) {
+		remove(path);
+		Release release = new Release(path, section, lastModified, slaveBytes);
+		_releases.put(path, release);
+		for (String slave : slaveBytes.keySet()) {
+			TreeSet<Release> releases = _bySlave.get(slave);
+			if (releases == null) {
+				releases = new TreeSet<Release>(AGE_ORDER);
+				_bySlave.put(slave, releases);
+			}
+			releases.add(release);
+		}
+	}
+
+	/**
+	 * Drops a release, called once it is deleted.
+	 */
+	public synchronized void remove(String path) {
+		Release release = _releases.remove(path);
+		if (release == null) {
+			return;
+		}
+		for (String slave : release._slaveBytes.keySet()) {
+			TreeSet<Release> releases = _bySlave.get(slave);
+			releases.remove(release);
+			if (releases.isEmpty()) {
+				_bySlave.remove(slave);
+			}
+		}
+	}
+
+	/**
+	 * @return the releases holding data on the slave, oldest first.
+	 */
+	public synchronized List<Release> getReleases(String slave) {
+		TreeSet<Release> releases = _bySlave.get(slave);
+		if (releases == null) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<Release>(releases);
+	}
+
+	/**
+	 * @return the oldest release on the slave accepted by the filter, null if
+	 * there is none.
+	 */
+	public synchronized Release getOldest(String slave, ReleaseFilter filter) {
+		TreeSet<Release> releases = _bySlave.get(slave);
+		if (releases != null) {
+			for (Release release : releases) {
+				if (filter.accept(release)) {
+					return release;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Picks the oldest releases accepted by the filter until they hold at
+	 * least the given amount of data on the slave.
+	 * @return the releases to wipe, oldest first. It holds less than the
+	 * requested amount if the slave has nothing more to wipe.
+	 */
+	public synchronized List<Release> planWipe(String slave, long bytes, ReleaseFilter filter) {
+		ArrayList<Release> plan = new ArrayList<Release>();
+		TreeSet<Release> releases = _bySlave.get(slave);
+		if (releases == null || bytes <= 0) {
+			return plan;
+		}
+		long planned = 0;
+		for (Release release : releases) {
+			if (planned >= bytes) {
+				break;
+			}
+			if (filter.accept(release)) {
+				plan.add(release);
+				planned += release.getBytes(slave);
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * @return the number of indexed releases.
+	 */
+	public synchronized int size() {
+		return _releases.size();
+	}
+
+	public interface ReleaseFilter {
+		public boolean accept(Release release);
+	}
+
+	/**
+	 * Indexed state of a release, replaced as a whole when rescanned.
+	 */
+	public static class Release {
+		private final String _path;
+
+		private final String _section;
+
+		private final long _lastModified;
+
+		private final Map<String, Long> _slaveBytes;
+
+		private Release(String path, String section, long lastModified, Map<String, Long> slaveBytes) {
+			_path = path;
+			_section = section;
+			_lastModified = lastModified;
+			_slaveBytes = new HashMap<String, Long>(slaveBytes);
+		}
+
+		public String getPath() {
+			return _path;
+		}
+
+		public String getName() {
+			return VirtualFileSystem.getLast(_path);
+		}
+
+		public String getSection() {
+			return _section;
+		}
+
+		public long getLastModified() {
+			return _lastModified;
+		}
+
+		/**
+		 * @return the amount of data of the release stored on the slave.
+		 */
+		public long getBytes(String slave) {
+			Long bytes = _slaveBytes.get(slave);
+			return bytes == null ? 0 : bytes;
+		}
+
+		public Set<String> getSlaves() {
+			return _slaveBytes.keySet();
+		}
+
+		/**
+		 * @return a handle on the release in the VFS.
+		 */
+		public InodeHandle getInode() throws FileNotFoundException {
+			return new DirectoryHandle(VirtualFileSystem.stripLast(_path))
+					.getInodeHandleUnchecked(getName());
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.plugins.autofreespace;
+
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class ReleaseIndexTest extends TestCase {
+
+	private static final ReleaseIndex.ReleaseFilter ALL = new ReleaseIndex.ReleaseFilter() {
+		public boolean accept(ReleaseIndex.Release release) {
+			return true;
+		}
+	};
+
+	private ReleaseIndex _index;
+
+	protected void setUp() {
+		_index = new ReleaseIndex();
+		add("/MP3/old", 1000L, "slave1", 100L, "slave2", 50L);
+		add("/MP3/mid", 2000L, "slave1", 200L, null, 0L);
+		add("/MP3/new", 3000L, "slave1", 300L, "slave2", 10L);
+	}
+
+	private void add(String path, long lastModified, String slave1, long bytes1,
+			String slave2, long bytes2) {
+		HashMap<String, Long> slaveBytes = new HashMap<String, Long>();
+		slaveBytes.put(slave1, bytes1);
+		if (slave2 != null) {
+			slaveBytes.put(slave2, bytes2);
+		}
+		_index.update(path, "MP3", lastModified, slaveBytes);
+	}
+
+	public void testOldestPerSlave() {
+		assertEquals("/MP3/old", _index.getOldest("slave1", ALL).getPath());
+		_index.remove("/MP3/old");
+		assertEquals("/MP3/mid", _index.getOldest("slave1", ALL).getPath());
+		assertEquals("/MP3/new", _index.getOldest("slave2", ALL).getPath());
+		assertNull(_index.getOldest("slave3", ALL));
+	}
+
+	public void testUpdateReordersRelease() {
+		add("/MP3/old", 4000L, "slave1", 100L, null, 0L);
+		assertEquals("/MP3/mid", _index.getOldest("slave1", ALL).getPath());
+		assertEquals("/MP3/new", _index.getOldest("slave2", ALL).getPath());
+		assertEquals(3, _index.size());
+	}
+
+	public void testPlanWipe() {
+		List<ReleaseIndex.Release> plan = _index.planWipe("slave1", 250L, ALL);
+		assertEquals(2, plan.size());
+		assertEquals("/MP3/old", plan.get(0).getPath());
+		assertEquals("/MP3/mid", plan.get(1).getPath());
+		ReleaseIndex.ReleaseFilter skipOld = new ReleaseIndex.ReleaseFilter() {
+			public boolean accept(ReleaseIndex.Release release) {
+				return !release.getName().equals("old");
+			}
+		};
+		plan = _index.planWipe("slave2", 1000L, skipOld);
+		assertEquals(1, plan.size());
+		assertEquals("/MP3/new", plan.get(0).getPath());
+	}
+}
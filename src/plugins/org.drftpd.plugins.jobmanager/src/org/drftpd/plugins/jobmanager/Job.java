@@ -132,6 +132,16 @@ public class Job {
 		}
 	}
 
+	/**
+	 * Recreates a job saved by the {@link JobManager} before a restart.
+	 */
+	Job(FileHandle file, Collection<String> destSlaves, int priority, int transferNum,
+			int minSlaves, boolean onlyCountOnlineSlaves) {
+		this(file, priority, transferNum, minSlaves);
+		_destSlaves = new HashSet<String>(destSlaves);
+		_onlyCountOnlineSlaves = onlyCountOnlineSlaves;
+	}
+
 	public void addTimeSpent(long time) {
 		_timeSpent += time;
 	}
@@ -231,6 +241,25 @@ public class Job {
 		return Collections.unmodifiableSet(_destSlaves);
 	}
 
+	/**
+	 * Returns every destination slave, online or not.
+	 */
+	public Set<String> getAllDestinationSlaves() {
+		return Collections.unmodifiableSet(_destSlaves);
+	}
+
+	public int getOriginalTransferNum() {
+		return _originalTransferNum;
+	}
+
+	public int getMinSlaves() {
+		return _originalminnumOfSlaves;
+	}
+
+	public boolean isOnlyCountOnlineSlaves() {
+		return _onlyCountOnlineSlaves;
+	}
+
 	public void abort() {
 		_deleteDone = true;
 		_transferNum = 0;
@@ -344,18 +373,23 @@ public class Job {
 				+ ",minTransferNum="+ _originalminnumOfSlaves + ",priority=" + getPriority() + "],deleteDone=" + _deleteDone;
 	}
 
+	public boolean transfer(boolean checkCRC, boolean secureTransfer, RemoteSlave sourceSlave,
+			RemoteSlave destSlave) throws FileNotFoundException {
+		return transfer(checkCRC, secureTransfer, sourceSlave, destSlave, 0L);
+	}
+
 	/**
 	 * Returns true if transfer was completed successfully
 	 * 
 	 * @param checkCRC
 	 * @param sourceSlave
 	 * @param destSlave
+	 * @param maxSpeed bytes per second the transfer is limited to, 0 for no limit
 	 * @return
 	 * @throws FileNotFoundException
 	 */
-
-    public void transfer(boolean checkCRC, boolean secureTransfer, RemoteSlave sourceSlave,
-			RemoteSlave destSlave) throws FileNotFoundException {
+	public boolean transfer(boolean checkCRC, boolean secureTransfer, RemoteSlave sourceSlave,
+			RemoteSlave destSlave, long maxSpeed) throws FileNotFoundException {
 		synchronized (this) {
 			if (_slaveTransfer != null) {
 				throw new IllegalStateException("Job is already transferring");
@@ -365,7 +399,7 @@ public class Job {
 						"File already exists on target slave");
 			}
 			_slaveTransfer = new SlaveTransfer(getFile(), sourceSlave,
-					destSlave, secureTransfer);
+					destSlave, secureTransfer, maxSpeed);
 		}
 
 		logger.info("Sending " + getFile().getName() + " from "
@@ -375,10 +409,10 @@ public class Job {
 			boolean crcMatch = _slaveTransfer.transfer();
 			if (crcMatch || !checkCRC) {
 				logSuccess();
-			} else {
-				destSlave.ArchiveDelete(getFile().getPath());
-				logger.debug("CRC did not match for " + getFile() + " when sending from " + sourceSlave.getName() + " to " + destSlave.getName());
+				return true;
 			}
+			destSlave.ArchiveDelete(getFile().getPath());
+			logger.debug("CRC did not match for " + getFile() + " when sending from " + sourceSlave.getName() + " to " + destSlave.getName());
 		} catch (DestinationSlaveException e) {
 			if (e.getCause() instanceof FileExistsException) {
 				logger.debug("Caught FileExistsException in sending " + getFile().getName() + " from " + sourceSlave.getName() + " to " + destSlave.getName(), e);
@@ -391,11 +425,11 @@ public class Job {
 				} catch (SlaveUnavailableException e2) {
 					logger.debug("SlaveUnavailableException from ", e2);
 					destSlave.ArchiveDelete(getFile().getPath());
-					return;
+					return false;
 				} catch (RemoteIOException e3) {
 					logger.debug("RemoteIOException from ", e3);
 					destSlave.ArchiveDelete(getFile().getPath());
-					return;
+					return false;
 				}
 
 				try {
@@ -407,17 +441,17 @@ public class Job {
 					// successful transfer
 					getFile().setCheckSum(remoteChecksum);
 					logSuccess();
-					return;
+					return true;
 				}
 				if (remoteChecksum == localChecksum) {
 					logger.debug("Accepting file because the crc's match");
 					// successful transfer
 					logSuccess();
-				} else {
-					logger.debug("Checksum did not match, removing offending file");
-					destSlave.ArchiveDelete(getFile().getPath());
+					return true;
 				}
-				return;
+				logger.debug("Checksum did not match, removing offending file");
+				destSlave.ArchiveDelete(getFile().getPath());
+				return false;
 			}
 			logger.error("Error on DestinationSlaveException during slave2slave transfer from " + sourceSlave.getName() + " to " + destSlave.getName(), e);
 			
@@ -428,7 +462,7 @@ public class Job {
 			if (e.getCause() instanceof FileNotFoundException) {
 				logger.warn("Caught FileNotFoundException in sending " + getFile().getName() + " from " + sourceSlave.getName() + " to " + destSlave.getName(), e);
 				getFile().removeSlave(sourceSlave);
-				return;
+				return false;
 			}
 			logger.error("Error on SourceSlaveException during slave2slave transfer from " + sourceSlave.getName() + " to " + destSlave.getName(), e);
 
@@ -440,6 +474,7 @@ public class Job {
 			addTimeSpent(System.currentTimeMillis() - startTime);
 			reset();
 		}
+		return false;
 	}
 
 	private void logSuccess() {
@@ -51,7 +51,11 @@ public class JobComparator implements Comparator<Job>, Serializable {
 			return -1;
 		}
 
-		// if (job1.getIndex() > job2.getIndex()) { //younger
-		return 1;
+		if (job1.getIndex() > job2.getIndex()) { // younger
+			return 1;
+		}
+
+		// the index is unique, this is the same job
+		return 0;
 	}
 }
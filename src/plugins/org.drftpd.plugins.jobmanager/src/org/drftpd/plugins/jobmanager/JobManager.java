@@ -16,16 +16,27 @@
  */
 package org.drftpd.plugins.jobmanager;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TimerTask;
-import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
 import org.bushe.swing.event.annotation.AnnotationProcessor;
@@ -36,18 +47,40 @@ import org.drftpd.PropertyHelper;
 import org.drftpd.event.ReloadEvent;
 import org.drftpd.exceptions.NoAvailableSlaveException;
 import org.drftpd.exceptions.ObjectNotFoundException;
+import org.drftpd.io.SafeFileOutputStream;
 import org.drftpd.master.RemoteSlave;
+import org.drftpd.slave.Transfer;
+import org.drftpd.vfs.FileHandle;
 
 /**
+ * Keeps the queue of slave to slave transfers and runs as many of them at
+ * once as the transfersPerSlave and transfersPerPair limits allow.<br>
+ * The queue is saved to {@link #queueFile} so that it survives restarts.
  * @author zubov
  * @version $Id: JobManager.java 1927 2009-06-21 16:38:35Z djb61 $
  */
 public class JobManager implements PluginInterface {
 	private static final Logger logger = Logger.getLogger(JobManager.class);
 
+	private static final String queueFile = "logs/jobqueue.txt";
+
 	private boolean _isStopped = false;
 
-	private Set<Job> _queuedJobSet;
+	private JobQueue _queue;
+
+	/**
+	 * Jobs read back from {@link #queueFile}, replaced by the job of the
+	 * plugin that queues the same file again.
+	 */
+	private Set<Job> _restoredJobs = new HashSet<Job>();
+
+	private boolean _queueChanged = false;
+
+	private HashSet<Job> _runningJobs = new HashSet<Job>();
+
+	private HashMap<String, Integer> _slaveTransfers = new HashMap<String, Integer>();
+
+	private HashMap<String, Integer> _pairTransfers = new HashMap<String, Integer>();
 
 	private boolean _useCRC;
 	
@@ -55,8 +88,22 @@ public class JobManager implements PluginInterface {
 
 	private long _sleepSeconds;
 
+	private int _transfersPerSlave;
+
+	private int _transfersPerPair;
+
+	private long _maxSpeed;
+
 	private TimerTask _runJob = null;
 
+	private long _timeStarted;
+
+	private long _transfersSucceeded;
+
+	private long _transfersFailed;
+
+	private long _bytesTransferred;
+
 	/**
 	 * Keeps track of all jobs and controls them
 	 */
@@ -95,7 +142,14 @@ public class JobManager implements PluginInterface {
 				jobiter.remove();
 			}
 		}
-		_queuedJobSet.addAll(jobs2);
+		for (Job job : jobs2) {
+			Job queued = _queue.get(job.getFile().getPath());
+			if (queued != null && !_runningJobs.contains(queued) && _restoredJobs.remove(queued)) {
+				_queue.remove(queued);
+			}
+			_queue.add(job);
+		}
+		_queueChanged = true;
 	}
 
 	public synchronized void addJobToQueue(Job job) {
@@ -105,57 +159,78 @@ public class JobManager implements PluginInterface {
 	/**
 	 * Gets all jobs.
 	 */
-	public synchronized Set<Job> getAllJobsFromQueue() {
-		return Collections.unmodifiableSet(_queuedJobSet);
+	public synchronized Collection<Job> getAllJobsFromQueue() {
+		return Collections.unmodifiableCollection(_queue.getAll());
+	}
+
+	public boolean isStopped() {
+		return _isStopped;
 	}
 
-	public synchronized Job getNextJob(Set<RemoteSlave> busySlaves, Set<Job> skipJobs) {
-		for (Iterator<Job> iter = _queuedJobSet.iterator(); iter.hasNext();) {
-			Job tempJob = iter.next();
+	private boolean hasFreeSlot(String slave) {
+		Integer transfers = _slaveTransfers.get(slave);
+		return transfers == null || transfers < _transfersPerSlave;
+	}
 
-			if (tempJob.isDone()) {
-				iter.remove();
+	private boolean hasFreeSlot(String source, String destination) {
+		Integer transfers = _pairTransfers.get(source + ">" + destination);
+		return transfers == null || transfers < _transfersPerPair;
+	}
 
-				continue;
-			}
+	private static void count(Map<String, Integer> transfers, String key, int delta) {
+		Integer count = transfers.get(key);
+		int value = (count == null ? 0 : count) + delta;
+		if (value <= 0) {
+			transfers.remove(key);
+		} else {
+			transfers.put(key, value);
+		}
+	}
 
-			if (tempJob.isTransferring()) {
-				continue;
-			}
+	private void reserve(RemoteSlave source, RemoteSlave destination, int delta) {
+		count(_slaveTransfers, source.getName(), delta);
+		count(_slaveTransfers, destination.getName(), delta);
+		count(_pairTransfers, source.getName() + ">" + destination.getName(), delta);
+	}
 
-			if (skipJobs.contains(tempJob)) {
-				continue;
-			}
+	/**
+	 * Walks the jobs queued for one destination slave, by priority.
+	 */
+	private static class Cursor {
+		private String _slave;
 
-			Collection<RemoteSlave> availableSlaves = null;
+		private Iterator<Job> _iter;
 
-			try {
-				availableSlaves = tempJob.getFile().getAvailableSlaves();
-			} catch (NoAvailableSlaveException e) {
-				continue; // can't transfer what isn't online
-			} catch (FileNotFoundException e) {
-				tempJob.abort();
-				iter.remove();
-				continue;
-			}
+		private Job _job;
 
-			if (!busySlaves.containsAll(availableSlaves)) {
-				return tempJob;
-			}
+		private Cursor(String slave, Iterator<Job> iter) {
+			_slave = slave;
+			_iter = iter;
 		}
 
-		return null;
+		private boolean next() {
+			_job = _iter.hasNext() ? _iter.next() : null;
+			return _job != null;
+		}
 	}
 
-	public boolean isStopped() {
-		return _isStopped;
-	}
+	private static final Comparator<Cursor> CURSOR_ORDER = new Comparator<Cursor>() {
+		private JobComparator _jobOrder = new JobComparator();
 
-	public void processJob() {
-		Job job = null;
-		RemoteSlave sourceSlave = null;
-		RemoteSlave destSlave = null;
+		public int compare(Cursor c1, Cursor c2) {
+			return _jobOrder.compare(c1._job, c2._job);
+		}
+	};
 
+	/**
+	 * Starts as many queued jobs as there are free transfer slots.<br>
+	 * Only the jobs queued for the slaves that can take another transfer are
+	 * looked at, merged by priority.
+	 */
+	public void processJobs() {
+		if (_isStopped) {
+			return;
+		}
 		Collection<RemoteSlave> availableSlaves;
 		try {
 			availableSlaves = getGlobalContext().getSlaveManager().getAvailableSlaves();
@@ -163,105 +238,177 @@ public class JobManager implements PluginInterface {
 			return; // can't transfer with no slaves
 		}
 
-		Set<RemoteSlave> busySlavesDown = new HashSet<RemoteSlave>();
-		Set<Job> skipJobs = new HashSet<Job>();
+		ArrayList<Job> started = new ArrayList<Job>();
+		ArrayList<RemoteSlave[]> startedSlaves = new ArrayList<RemoteSlave[]>();
 
 		synchronized (this) {
-			/*
-			 * this loops through and makes sure that the file is on every available
-			 * slave.  However this isn't the case for all archive types, so we
-			 * will do a check later on to see if the job is fully archived
-			 * with the .conf specificiations.
-			 */
-			while (!busySlavesDown.containsAll(availableSlaves)) {
-				job = getNextJob(busySlavesDown, skipJobs);
-				if (job == null) {
-					return;
+			HashMap<String, RemoteSlave> freeSlaves = new HashMap<String, RemoteSlave>();
+			for (RemoteSlave rslave : availableSlaves) {
+				if (hasFreeSlot(rslave.getName())) {
+					freeSlaves.put(rslave.getName(), rslave);
 				}
-				Collection<RemoteSlave> destinationSlaveObjects = null;
-				try {
-					destinationSlaveObjects = job.getSlaveObjects(job.getDestinationSlaves());
-				} catch (ObjectNotFoundException e2) {
-					logger.debug("Slave no longer exists!", e2);
-					job.abort();
-					continue;
+			}
+			if (freeSlaves.size() < 2) {
+				// every transfer needs a source and a destination
+				return;
+			}
+
+			PriorityQueue<Cursor> cursors = new PriorityQueue<Cursor>(freeSlaves.size(), CURSOR_ORDER);
+			for (String slave : freeSlaves.keySet()) {
+				Cursor cursor = new Cursor(slave, _queue.getJobsFor(slave).iterator());
+				if (cursor.next()) {
+					cursors.add(cursor);
 				}
+			}
 
-				/*
-				 * Lets check and see if the file is already archived with the right number of slaves
-				 * And if it is, lets not re-archive the thing if not needed.
-				 * 
-				 * Cleanup is used to remove other files from old - not needed slaves
-				 * Removejob is to remove it from this queue, and return the process 
-				 */
-				if (job.checkIfArchived()) {
-					job.cleanup();
-					removeJobFromQueue(job);
-					return;
+			HashSet<Job> finished = new HashSet<Job>();
+			while (!cursors.isEmpty()) {
+				Cursor cursor = cursors.poll();
+				RemoteSlave destSlave = freeSlaves.get(cursor._slave);
+				if (destSlave == null) {
+					// ran out of slots since it was queued
+					continue;
 				}
-				
-				try {
-					sourceSlave = getGlobalContext().getSlaveSelectionManager().getASlaveForJobDownload(job.getFile(),job.getSlaveObjects(job.getSlavesToTransferTo()));
-				} catch (NoAvailableSlaveException e) {
-					try {
-						busySlavesDown.addAll(job.getFile().getSlaves());
-					} catch (FileNotFoundException e1) {
-						// can't transfer
-						return;
+				Job job = cursor._job;
+				if (!finished.contains(job)) {
+					RemoteSlave sourceSlave = startJob(job, destSlave, freeSlaves, finished);
+					if (sourceSlave != null) {
+						started.add(job);
+						startedSlaves.add(new RemoteSlave[] { sourceSlave, destSlave });
 					}
-					continue;
-				} catch (FileNotFoundException e) {
-					job.abort();
-					// can't transfer
-					return;
-				} catch (ObjectNotFoundException e) {
-					job.abort();
-					// can't transfer
-					return;
 				}
-
-				if (sourceSlave == null) {
-					logger.debug("Unable to find a suitable job for transfer");
-					return;
+				if (freeSlaves.containsKey(cursor._slave) && cursor.next()) {
+					cursors.add(cursor);
 				}
-				try {
-					availableSlaves.removeAll(job.getFile().getSlaves());
-					destSlave = getGlobalContext().getSlaveSelectionManager().getASlaveForJobUpload(job.getFile(),destinationSlaveObjects, sourceSlave);
-					
-					break; // we have a source slave and a destination
-					// slave,
-
-					// transfer!
-				} catch (NoAvailableSlaveException e) {
-					// job was ready to be sent, but it had no slave that was
-					// ready to accept it
-					skipJobs.add(job);
+			}
+			for (Job job : finished) {
+				removeJobFromQueue(job);
+			}
+		}
 
-					continue;
-				} catch (FileNotFoundException e) {
-					// can't transfer
-					return;
+		for (int i = 0; i < started.size(); i++) {
+			RemoteSlave[] slaves = startedSlaves.get(i);
+			new JobTransferThread(this, started.get(i), slaves[0], slaves[1]).start();
+		}
+	}
+
+	/**
+	 * Picks a source slave for the job and reserves the transfer slots.
+	 * @return the source slave, null if the job can't be sent to destSlave now.
+	 */
+	private RemoteSlave startJob(Job job, RemoteSlave destSlave,
+			Map<String, RemoteSlave> freeSlaves, Set<Job> finished) {
+		if (_runningJobs.contains(job) || job.isTransferring()) {
+			return null;
+		}
+		if (job.isDone()) {
+			finished.add(job);
+			return null;
+		}
+
+		/*
+		 * Lets check and see if the file is already archived with the right number of slaves
+		 * And if it is, lets not re-archive the thing if not needed.
+		 * 
+		 * Cleanup is used to remove other files from old - not needed slaves
+		 */
+		if (job.checkIfArchived()) {
+			job.cleanup();
+			finished.add(job);
+			return null;
+		}
+
+		Collection<RemoteSlave> excludedSlaves;
+		try {
+			if (!job.getDestinationSlaves().contains(destSlave.getName())
+					|| !job.getSlavesToTransferTo().contains(destSlave.getName())) {
+				return null;
+			}
+			excludedSlaves = job.getSlaveObjects(job.getSlavesToTransferTo());
+			// slaves without a free slot can't be the source either
+			for (RemoteSlave rslave : job.getFile().getAvailableSlaves()) {
+				if (!freeSlaves.containsKey(rslave.getName())
+						|| !hasFreeSlot(rslave.getName(), destSlave.getName())) {
+					excludedSlaves.add(rslave);
 				}
 			}
-			// sourceSlave will always be null if destSlave is null
-			if (destSlave == null /* || sourceSlave == null */) {
-				// all slaves are offline or busy
-				return;
+		} catch (NoAvailableSlaveException e) {
+			return null; // can't transfer what isn't online
+		} catch (FileNotFoundException e) {
+			job.abort();
+			finished.add(job);
+			return null;
+		} catch (ObjectNotFoundException e) {
+			logger.debug("Slave no longer exists!", e);
+			finished.add(job);
+			return null;
+		}
+
+		RemoteSlave sourceSlave;
+		try {
+			sourceSlave = getGlobalContext().getSlaveSelectionManager().getASlaveForJobDownload(job.getFile(), excludedSlaves);
+			if (sourceSlave == null) {
+				return null;
+			}
+			RemoteSlave selected = getGlobalContext().getSlaveSelectionManager().getASlaveForJobUpload(job.getFile(),
+					Collections.singletonList(destSlave), sourceSlave);
+			if (selected != destSlave) {
+				return null;
 			}
+		} catch (NoAvailableSlaveException e) {
+			return null;
+		} catch (FileNotFoundException e) {
+			job.abort();
+			finished.add(job);
+			return null;
 		}
 
-		// file is not deleted and is available, we are ready to process
+		_runningJobs.add(job);
+		reserve(sourceSlave, destSlave, 1);
+		// the transfer starts right away, the selection only picked the slaves
+		sourceSlave.getTransferLoad().reserve(Transfer.TRANSFER_SENDING_DOWNLOAD);
+		destSlave.getTransferLoad().reserve(Transfer.TRANSFER_RECEIVING_UPLOAD);
+		if (!hasFreeSlot(sourceSlave.getName())) {
+			freeSlaves.remove(sourceSlave.getName());
+		}
+		if (!hasFreeSlot(destSlave.getName())) {
+			freeSlaves.remove(destSlave.getName());
+		}
+		return sourceSlave;
+	}
 
+	/**
+	 * Runs one transfer started by {@link #processJobs()}, called from its own
+	 * JobTransferThread.
+	 */
+	protected void transferJob(Job job, RemoteSlave sourceSlave, RemoteSlave destSlave) {
+		long size = 0L;
+		boolean sent = false;
 		try {
-			job.transfer(useCRC(), useSecureTransfers(), sourceSlave, destSlave);
+			size = job.getFile().getSize();
+			sent = job.transfer(useCRC(), useSecureTransfers(), sourceSlave, destSlave, _maxSpeed);
 		} catch (FileNotFoundException e) {
 			job.abort();
 			// file is deleted, hah! stupid race conditions
-			return;
+		} finally {
+			synchronized (this) {
+				_runningJobs.remove(job);
+				reserve(sourceSlave, destSlave, -1);
+				if (sent) {
+					_transfersSucceeded++;
+					_bytesTransferred += size;
+				} else {
+					_transfersFailed++;
+				}
+				if (job.isDone()) {
+					logger.debug("Job is finished, removing job " + job.getFile());
+					removeJobFromQueue(job);
+				}
+			}
 		}
-		if (job.isDone()) {
-			logger.debug("Job is finished, removing job " + job.getFile());
-			removeJobFromQueue(job);
+		if (sent) {
+			// a slot was freed, no need to wait for the timer to fill it
+			processJobs();
 		}
 	}
 
@@ -276,6 +423,9 @@ public class JobManager implements PluginInterface {
 		_useSSL = p.getProperty("useSSLTransfers", "true").equals("true"); 
 		_sleepSeconds = 1000 * Long.parseLong(PropertyHelper.getProperty(p,
 				"sleepSeconds", "30"));
+		_transfersPerSlave = Math.max(1, Integer.parseInt(p.getProperty("transfersPerSlave", "2")));
+		_transfersPerPair = Math.max(1, Integer.parseInt(p.getProperty("transfersPerPair", "1")));
+		_maxSpeed = Math.max(0L, 1024L * Long.parseLong(p.getProperty("maxSpeed", "0")));
 		if (_runJob != null) {
 			_runJob.cancel();
 			getGlobalContext().getTimer().purge();
@@ -285,6 +435,7 @@ public class JobManager implements PluginInterface {
 		}
 		_runJob = new TimerTask() {
 			public void run() {
+				saveQueue();
 				if (_isStopped) {
 					return;
 				}
@@ -299,7 +450,107 @@ public class JobManager implements PluginInterface {
 	}
 
 	public synchronized void removeJobFromQueue(Job job) {
-		_queuedJobSet.remove(job);
+		if (_queue.remove(job)) {
+			_restoredJobs.remove(job);
+			_queueChanged = true;
+		}
+	}
+
+	/**
+	 * Writes the queue to {@link #queueFile} if it changed since the last save.
+	 */
+	private void saveQueue() {
+		Collection<Job> jobs;
+		synchronized (this) {
+			if (!_queueChanged) {
+				return;
+			}
+			_queueChanged = false;
+			jobs = _queue.getAll();
+		}
+		BufferedWriter out = null;
+		try {
+			out = new BufferedWriter(new OutputStreamWriter(new SafeFileOutputStream(queueFile), "UTF-8"));
+			for (Job job : jobs) {
+				if (job.isDone()) {
+					continue;
+				}
+				StringBuilder slaves = new StringBuilder();
+				for (String slave : job.getAllDestinationSlaves()) {
+					if (slaves.length() > 0) {
+						slaves.append(',');
+					}
+					slaves.append(slave);
+				}
+				out.write(job.getPriority() + "\t" + job.getOriginalTransferNum() + "\t"
+						+ job.getMinSlaves() + "\t" + job.isOnlyCountOnlineSlaves() + "\t"
+						+ slaves + "\t" + job.getFile().getPath());
+				out.newLine();
+			}
+		} catch (IOException e) {
+			logger.error("Unable to save the job queue to " + queueFile, e);
+			synchronized (this) {
+				_queueChanged = true;
+			}
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					logger.error("Unable to save the job queue to " + queueFile, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues the jobs saved before the last shutdown again.
+	 */
+	private void loadQueue() {
+		File file = new File(queueFile);
+		if (!file.exists()) {
+			return;
+		}
+		ArrayList<Job> jobs = new ArrayList<Job>();
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.split("\t", 6);
+				if (fields.length != 6) {
+					continue;
+				}
+				try {
+					FileHandle jobFile = new FileHandle(fields[5]);
+					if (!jobFile.exists()) {
+						continue;
+					}
+					jobs.add(new Job(jobFile, Arrays.asList(fields[4].split(",")),
+							Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+							Integer.parseInt(fields[2]), Boolean.parseBoolean(fields[3])));
+				} catch (NumberFormatException e) {
+					logger.warn("Skipping invalid job " + line);
+				} catch (IllegalArgumentException e) {
+					logger.warn("Skipping invalid job " + line);
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Unable to load the job queue from " + queueFile, e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// already read
+				}
+			}
+		}
+		synchronized (this) {
+			addJobsToQueue(jobs);
+			_restoredJobs.addAll(jobs);
+		}
+		logger.info("Restored " + jobs.size() + " jobs from " + queueFile);
 	}
 
 	public void startJobs() {
@@ -327,11 +578,48 @@ public class JobManager implements PluginInterface {
 		return _useSSL;
 	}
 
+	public synchronized int getQueueSize() {
+		return _queue.size();
+	}
+
+	/**
+	 * @return the number of queued jobs that may send their file to the slave.
+	 */
+	public synchronized int getBacklog(String slave) {
+		return _queue.getJobsFor(slave).size();
+	}
+
+	public synchronized int getRunningTransfers() {
+		return _runningJobs.size();
+	}
+
+	public synchronized long getTransfersSucceeded() {
+		return _transfersSucceeded;
+	}
+
+	public synchronized long getTransfersFailed() {
+		return _transfersFailed;
+	}
+
+	public synchronized long getBytesTransferred() {
+		return _bytesTransferred;
+	}
+
+	/**
+	 * @return the average amount of bytes per second sent since the plugin started.
+	 */
+	public synchronized long getThroughput() {
+		long elapsed = (System.currentTimeMillis() - _timeStarted) / 1000;
+		return elapsed > 0 ? _bytesTransferred / elapsed : _bytesTransferred;
+	}
+
 	public void startPlugin() {
 		// Subscribe to events
 		AnnotationProcessor.process(this);
 		logger.info("JobManager plugin loaded successfully");
-		_queuedJobSet = new TreeSet<Job>(new JobComparator());
+		_queue = new JobQueue();
+		_timeStarted = System.currentTimeMillis();
+		loadQueue();
 		reload();
 	}
 
@@ -340,12 +628,14 @@ public class JobManager implements PluginInterface {
 			_runJob.cancel();
 			getGlobalContext().getTimer().purge();
 		}
-		if (_queuedJobSet != null) {
+		if (_queue != null) {
+			saveQueue();
 			synchronized (this) {
-				for (Job job : _queuedJobSet) {
+				for (Job job : _queue.getAll()) {
 					job.abort();
 				}
-				_queuedJobSet.clear();
+				_queue.clear();
+				_restoredJobs.clear();
 			}
 		}
 		AnnotationProcessor.unprocess(this);
@@ -32,6 +32,7 @@ import org.drftpd.commandmanager.CommandResponse;
 import org.drftpd.commandmanager.ImproperUsageException;
 import org.drftpd.commandmanager.StandardCommandManager;
 import org.drftpd.exceptions.ObjectNotFoundException;
+import org.drftpd.master.RemoteSlave;
 import org.drftpd.usermanager.User;
 import org.drftpd.vfs.FileHandle;
 import org.drftpd.vfs.ObjectNotValidException;
@@ -215,6 +216,34 @@ public class JobManagerCommandHandler extends CommandInterface {
 		return response;
 	}
 
+	public CommandResponse doJOBSTATS(CommandRequest request) {
+
+		CommandResponse response = StandardCommandManager.genericResponse("RESPONSE_200_COMMAND_OK");
+		JobManager jm = getJobManager();
+		ReplacerEnvironment env = new ReplacerEnvironment();
+		env.add("succeeded", jm.getTransfersSucceeded());
+		env.add("failed", jm.getTransfersFailed());
+		env.add("bytes", Bytes.formatBytes(jm.getBytesTransferred()));
+		env.add("throughput", Bytes.formatBytes(jm.getThroughput()));
+		env.add("running", jm.getRunningTransfers());
+		response.addComment(request.getSession().jprintf(_bundle, env, _keyPrefix + "jobstats"));
+
+		for (RemoteSlave rslave : GlobalContext.getGlobalContext().getSlaveManager().getSlaves()) {
+			int backlog = jm.getBacklog(rslave.getName());
+			if (backlog == 0) {
+				continue;
+			}
+			env = new ReplacerEnvironment();
+			env.add("slave", rslave.getName());
+			env.add("backlog", backlog);
+			response.addComment(request.getSession().jprintf(_bundle, env, _keyPrefix + "jobstats.slave"));
+		}
+		env = new ReplacerEnvironment();
+		env.add("total", jm.getQueueSize());
+		response.addComment(request.getSession().jprintf(_bundle, env, _keyPrefix + "jobstats.total"));
+		return response;
+	}
+
 	public CommandResponse doREMOVEJOBS(CommandRequest request) {
 		TreeSet<Job> treeSet = new TreeSet<Job>(new JobIndexComparator());
 		treeSet.addAll(getJobManager().getAllJobsFromQueue());
@@ -0,0 +1,116 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.plugins.jobmanager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Queued jobs, ordered by priority and indexed by the destination slaves and
+ * the file they are sending.<br>
+ * A slave with a free transfer slot only has to look at the jobs heading its
+ * way instead of the whole queue. This class is not thread safe, the
+ * {@link JobManager} guards it with its own lock.
+ * @version $Id$
+ */
+public class JobQueue {
+
+	private TreeSet<Job> _jobs = new TreeSet<Job>(new JobComparator());
+
+	private HashMap<String, TreeSet<Job>> _byDestination = new HashMap<String, TreeSet<Job>>();
+
+	private HashMap<String, Job> _byPath = new HashMap<String, Job>();
+
+	public void add(Job job) {
+		if (!_jobs.add(job)) {
+			return;
+		}
+		for (String slave : job.getAllDestinationSlaves()) {
+			TreeSet<Job> jobs = _byDestination.get(slave);
+			if (jobs == null) {
+				jobs = new TreeSet<Job>(new JobComparator());
+				_byDestination.put(slave, jobs);
+			}
+			jobs.add(job);
+		}
+		_byPath.put(job.getFile().getPath(), job);
+	}
+
+	public boolean remove(Job job) {
+		if (!_jobs.remove(job)) {
+			return false;
+		}
+		for (String slave : job.getAllDestinationSlaves()) {
+			TreeSet<Job> jobs = _byDestination.get(slave);
+			if (jobs != null) {
+				jobs.remove(job);
+				if (jobs.isEmpty()) {
+					_byDestination.remove(slave);
+				}
+			}
+		}
+		String path = job.getFile().getPath();
+		if (_byPath.get(path) == job) {
+			_byPath.remove(path);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the latest job queued for the file, null if there is none.
+	 */
+	public Job get(String path) {
+		return _byPath.get(path);
+	}
+
+	/**
+	 * @return the jobs that may send their file to the slave, by priority.
+	 */
+	public SortedSet<Job> getJobsFor(String slave) {
+		TreeSet<Job> jobs = _byDestination.get(slave);
+		if (jobs == null) {
+			return Collections.unmodifiableSortedSet(new TreeSet<Job>(new JobComparator()));
+		}
+		return Collections.unmodifiableSortedSet(jobs);
+	}
+
+	/**
+	 * @return a copy of all queued jobs, by priority.
+	 */
+	public Collection<Job> getAll() {
+		return new ArrayList<Job>(_jobs);
+	}
+
+	public int size() {
+		return _jobs.size();
+	}
+
+	public boolean isEmpty() {
+		return _jobs.isEmpty();
+	}
+
+	public void clear() {
+		_jobs.clear();
+		_byDestination.clear();
+		_byPath.clear();
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.plugins.jobmanager;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.drftpd.vfs.FileHandle;
+
+/**
+ * @version $Id$
+ */
+public class JobQueueTest extends TestCase {
+
+	private Job job(String path, int priority, String... slaves) {
+		return new Job(new FileHandle(path), Arrays.asList(slaves), priority, 1);
+	}
+
+	public void testJobsForDestinationByPriority() {
+		JobQueue queue = new JobQueue();
+		Job low = job("/a", 1, "slave1", "slave2");
+		Job high = job("/b", 5, "slave1");
+		Job other = job("/c", 9, "slave2");
+		queue.add(low);
+		queue.add(high);
+		queue.add(other);
+
+		Iterator<Job> iter = queue.getJobsFor("slave1").iterator();
+		assertSame(high, iter.next());
+		assertSame(low, iter.next());
+		assertFalse(iter.hasNext());
+		assertEquals(2, queue.getJobsFor("slave2").size());
+		assertEquals(0, queue.getJobsFor("slave3").size());
+	}
+
+	public void testRemove() {
+		JobQueue queue = new JobQueue();
+		Job first = job("/a", 1, "slave1");
+		Job second = job("/a", 1, "slave1");
+		queue.add(first);
+		queue.add(second);
+		assertSame(second, queue.get("/a"));
+
+		assertTrue(queue.remove(first));
+		assertFalse(queue.remove(first));
+		assertSame(second, queue.get("/a"));
+		assertEquals(1, queue.getJobsFor("slave1").size());
+
+		assertTrue(queue.remove(second));
+		assertNull(queue.get("/a"));
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.getJobsFor("slave1").size());
+	}
+}
@@ -18,6 +18,7 @@
 package org.drftpd.plugins.jobmanager;
 
 import org.apache.log4j.Logger;
+import org.drftpd.master.RemoteSlave;
 
 /**
  * @author zubov
@@ -29,6 +30,12 @@ public class JobTransferThread extends Thread {
 
 	private JobManager _jm;
 
+	private Job _job;
+
+	private RemoteSlave _sourceSlave;
+
+	private RemoteSlave _destSlave;
+
 	private static int count = 1;
 
 	/**
@@ -39,9 +46,24 @@ public class JobTransferThread extends Thread {
 		_jm = jm;
 	}
 
+	/**
+	 * This class sends the given job, its slots are already reserved
+	 */
+	public JobTransferThread(JobManager jm, Job job, RemoteSlave sourceSlave, RemoteSlave destSlave) {
+		super("JobTransferThread - " + count++ + " - " + sourceSlave.getName() + " -> " + destSlave.getName());
+		_jm = jm;
+		_job = job;
+		_sourceSlave = sourceSlave;
+		_destSlave = destSlave;
+	}
+
 	public void run() {
 		try {
-			_jm.processJob();
+			if (_job != null) {
+				_jm.transferJob(_job, _sourceSlave, _destSlave);
+			} else {
+				_jm.processJobs();
+			}
 		} catch (Exception e) {
 			logger.debug("", e);
 		}
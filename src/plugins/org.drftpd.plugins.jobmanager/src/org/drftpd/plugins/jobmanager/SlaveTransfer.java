@@ -49,15 +49,26 @@ public class SlaveTransfer {
 
 	private boolean _secureTransfer;
 
+	private long _maxSpeed;
+
 	/**
 	 * Slave to Slave Transfers
 	 */
 	public SlaveTransfer(FileHandle file, RemoteSlave sourceSlave,
 			RemoteSlave destSlave, boolean secureTransfer) {
+		this(file, sourceSlave, destSlave, secureTransfer, 0L);
+	}
+
+	/**
+	 * @param maxSpeed bytes per second both slaves limit the transfer to, 0 for no limit
+	 */
+	public SlaveTransfer(FileHandle file, RemoteSlave sourceSlave,
+			RemoteSlave destSlave, boolean secureTransfer, long maxSpeed) {
 		_file = file;
 		_srcSlave = sourceSlave;
 		_destSlave = destSlave;
 		_secureTransfer = secureTransfer; 
+		_maxSpeed = maxSpeed;
 	}
 
 	long getTransfered() {
@@ -120,7 +131,7 @@ public class SlaveTransfer {
 		}
 
 		try {
-			_destTransfer.receiveFile(_file.getPath(), 'I', 0, "*@*", 0L, 0L);
+			_destTransfer.receiveFile(_file.getPath(), 'I', 0, "*@*", 0L, _maxSpeed);
 		} catch (IOException e1) {
 			throw new DestinationSlaveException(e1);
 		} catch (SlaveUnavailableException e1) {
@@ -128,7 +139,7 @@ public class SlaveTransfer {
 		}
 
 		try {
-			_srcTransfer.sendFile(_file.getPath(), 'I', 0, "*@*", 0L, 0L);
+			_srcTransfer.sendFile(_file.getPath(), 'I', 0, "*@*", 0L, _maxSpeed);
 		} catch (IOException e2) {
 			throw new SourceSlaveException(e2);
 		} catch (SlaveUnavailableException e2) {
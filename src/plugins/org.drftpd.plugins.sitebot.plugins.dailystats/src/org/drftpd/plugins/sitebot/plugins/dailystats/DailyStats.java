@@ -18,9 +18,7 @@ package org.drftpd.plugins.sitebot.plugins.dailystats;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.Properties;
 
 import org.apache.log4j.Logger;
@@ -32,7 +30,7 @@ import org.drftpd.event.ReloadEvent;
 import org.drftpd.plugins.sitebot.plugins.dailystats.event.StatsEvent;
 import org.drftpd.usermanager.User;
 import org.drftpd.usermanager.UserResetHookInterface;
-import org.drftpd.usermanager.util.UserComparator;
+import org.drftpd.usermanager.util.UserRankings;
 
 /**
  * @author djb61
@@ -84,11 +82,14 @@ public class DailyStats implements UserResetHookInterface {
 		String name;
 		String files = null;
 		String bytes = null;
-		ArrayList<User> initialUsers = new ArrayList<User>(GlobalContext.getGlobalContext().getUserManager().getAllUsers());
+		ArrayList<User> initialUsers = new ArrayList<User>();
 		ArrayList<UserStats> outputUsers = new ArrayList<UserStats>();
 
-		for (Iterator<User> iter = initialUsers.iterator(); iter.hasNext();) {
-			User user = iter.next();
+		UserRankings rankings = GlobalContext.getGlobalContext().getUserManager().getUserRankings();
+		for (User user : rankings.getUsers(UserRankings.getStat(type))) {
+			if (initialUsers.size() >= _outputnum) {
+				break;
+			}
 			allow = true;
 			for (int i = 0; i < _exempt.length; i++) {
 				if (user.isMemberOf(_exempt[i]))
@@ -97,13 +98,11 @@ public class DailyStats implements UserResetHookInterface {
 			if (user.isDeleted()) {
 				allow = false;
 			}
-			if (!allow) {
-				iter.remove();
+			if (allow) {
+				initialUsers.add(user);
 			}
 		}
 
-		Collections.sort(initialUsers, new UserComparator(type));
-
 		for (int i=0; ((i < _outputnum) && (i < initialUsers.size())); ++i) {
 			if (type.equals("dayup")) {
 				if ((initialUsers.get(i).getUploadedBytesDay() < 1) && (!_showzero))
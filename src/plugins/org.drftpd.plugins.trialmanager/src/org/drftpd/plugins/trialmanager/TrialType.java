@@ -18,8 +18,6 @@ package org.drftpd.plugins.trialmanager;
 
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.Properties;
 import java.util.ResourceBundle;
 
@@ -30,7 +28,7 @@ import org.drftpd.commandmanager.CommandResponse;
 import org.drftpd.master.cron.TimeManager;
 import org.drftpd.permissions.Permission;
 import org.drftpd.usermanager.User;
-import org.drftpd.usermanager.util.UserComparator;
+import org.drftpd.usermanager.util.UserRankings;
 
 /**
  * @author CyBeR
@@ -115,14 +113,13 @@ public abstract class TrialType {
 	}
 	
 	protected ArrayList<User> getUsers() {
-		Collection<User> users = GlobalContext.getGlobalContext().getUserManager().getAllUsers();
+		UserRankings rankings = GlobalContext.getGlobalContext().getUserManager().getUserRankings();
 		ArrayList<User> filteredusers = new ArrayList<User>();
-		for (User user : users) {
+		for (User user : rankings.getUsers(UserRankings.getStat(getPeriodStr()))) {
 			if ((getPerms().check(user)) && (!user.isDeleted())) {
 				filteredusers.add(user);
 			}
 		}
-		Collections.sort(filteredusers,new UserComparator(getPeriodStr()));
 		return filteredusers;
 	}
 	
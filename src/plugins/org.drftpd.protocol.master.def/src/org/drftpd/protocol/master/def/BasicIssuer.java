@@ -31,8 +31,13 @@ import org.drftpd.slave.async.AsyncCommandArgument;
  */
 public class BasicIssuer extends AbstractBasicIssuer {
 	public String issueChecksumToSlave(RemoteSlave rslave, String path)	throws SlaveUnavailableException {
+		return issueChecksumToSlave(rslave, path, false);
+	}
+
+	public String issueChecksumToSlave(RemoteSlave rslave, String path, boolean force) throws SlaveUnavailableException {
 		String index = rslave.fetchIndex();
-		rslave.sendCommand(new AsyncCommandArgument(index, "checksum", path));
+		rslave.sendCommand(new AsyncCommandArgument(index, "checksum",
+				new String[] { path, String.valueOf(force) }));
 
 		return index;
 	}
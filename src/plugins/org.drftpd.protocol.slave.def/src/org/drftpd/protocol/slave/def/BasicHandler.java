@@ -37,6 +37,7 @@ import org.drftpd.exceptions.TransferDeniedException;
 import org.drftpd.io.PermissionDeniedException;
 import org.drftpd.io.PhysicalFile;
 import org.drftpd.master.QueuedOperation;
+import org.drftpd.protocol.PrioritizedObjectWriter;
 import org.drftpd.protocol.slave.AbstractHandler;
 import org.drftpd.protocol.slave.SlaveProtocolCentral;
 import org.drftpd.slave.ConnectInfo;
@@ -324,12 +325,16 @@ public class BasicHandler extends AbstractHandler {
 				}
 			}
 			
-			return new AsyncResponse(ac.getIndex());
+			// the master puts the slave online on this reply, it has to be
+			// queued behind the remerge data on the same lane
+			sendResponse(new AsyncResponse(ac.getIndex()), PrioritizedObjectWriter.PRIORITY_BULK);
+			return null;
 		} catch (Throwable e) {
 			logger.error("Exception during merging", e);
 			sendResponse(new AsyncResponseSiteBotMessage("Exception during merging"));
 
-			return new AsyncResponseException(ac.getIndex(), e);
+			sendResponse(new AsyncResponseException(ac.getIndex(), e), PrioritizedObjectWriter.PRIORITY_BULK);
+			return null;
 		}
 	}
 	
@@ -795,7 +800,9 @@ public class BasicHandler extends AbstractHandler {
 		try {
 			//TODO resolve remergeCheckSum from master <-> slave
 			//boolean ignoreCRCRemerge = GlobalContext.getConfig().getMainProperties().getProperty("ignore.crcremerge", "true").equals("true");
-			return new AsyncResponseChecksum(ac.getIndex(), getSlaveObject().checkSum(ac.getArgs()));
+			String[] args = ac.getArgsArray();
+			boolean force = args.length > 1 && args[1].equals("true");
+			return new AsyncResponseChecksum(ac.getIndex(), getSlaveObject().checkSum(args[0], force));
 			//return new AsyncResponseChecksum(ac.getIndex(), getSlaveObject().remergeCheckSum(ac.getArgs()));
 		} catch (IOException e) {
 			return new AsyncResponseException(ac.getIndex(), e);
@@ -0,0 +1,115 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.protocol.zipscript.flac.slave;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.drftpd.slave.UploadAnalysis;
+import org.drftpd.slave.UploadAnalyzer;
+
+/**
+ * Reads the FLAC info of uploaded .flac files as they are written.<br>
+ * Only the metadata blocks at the start of the stream are kept for parsing,
+ * the block headers are followed as the data arrives to know where they end.
+ * @version $Id$
+ */
+public class FlacAnalyzer implements UploadAnalyzer {
+
+	private static final int MARKER_SIZE = 4;
+
+	private static final int BLOCK_HEADER_SIZE = 4;
+
+	private static final int MAX_HEAD_SIZE = 4 * 1024 * 1024;
+
+	public UploadAnalysis startAnalysis(String path) {
+		if (!path.toLowerCase().endsWith(".flac")) {
+			return null;
+		}
+		return new FlacAnalysis(path.substring(path.lastIndexOf('/') + 1));
+	}
+
+	private static class FlacAnalysis implements UploadAnalysis {
+
+		private String _name;
+
+		private byte[] _head = new byte[8192];
+
+		private int _size = 0;
+
+		// start of the next metadata block header
+		private int _nextBlock = MARKER_SIZE;
+
+		private boolean _lastBlock = false;
+
+		private boolean _complete = false;
+
+		private boolean _failed = false;
+
+		private FlacAnalysis(String name) {
+			_name = name;
+		}
+
+		public void update(byte[] buff, int offset, int length) {
+			if (_complete || _failed) {
+				return;
+			}
+			if (_size + length > MAX_HEAD_SIZE) {
+				// huge metadata (pictures), leave it to the handler
+				_failed = true;
+				_head = null;
+				return;
+			}
+			if (_size + length > _head.length) {
+				byte[] head = new byte[Math.max(_head.length * 2, _size + length)];
+				System.arraycopy(_head, 0, head, 0, _size);
+				_head = head;
+			}
+			System.arraycopy(buff, offset, _head, _size, length);
+			_size += length;
+			while (!_lastBlock && _nextBlock + BLOCK_HEADER_SIZE <= _size) {
+				_lastBlock = (_head[_nextBlock] & 0x80) != 0;
+				int blockSize = ((_head[_nextBlock + 1] & 0xff) << 16)
+						| ((_head[_nextBlock + 2] & 0xff) << 8) | (_head[_nextBlock + 3] & 0xff);
+				_nextBlock += BLOCK_HEADER_SIZE + blockSize;
+			}
+			_complete = _lastBlock && _nextBlock <= _size;
+			if (!_complete && _nextBlock > MAX_HEAD_SIZE) {
+				_failed = true;
+				_head = null;
+			}
+		}
+
+		public Object getResult(long length) {
+			if (_failed || _size < MARKER_SIZE) {
+				return null;
+			}
+			try {
+				return FlacParser.readFlacInfo(new ByteArrayInputStream(_head, 0, _size), _name);
+			} catch (IOException e) {
+				// let the handler read the file and report it
+				return null;
+			}
+		}
+
+		public void close() {
+			_failed = true;
+			_head = null;
+		}
+	}
+}
@@ -20,6 +20,7 @@ package org.drftpd.protocol.zipscript.flac.slave;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.kc7bfi.jflac.FLACDecoder;
 import org.kc7bfi.jflac.metadata.Metadata;
@@ -40,7 +41,7 @@ public class FlacParser {
 		_flacfile = flacfile;
 	}
 	
-	private String getVorbisTagByName(VorbisComment vorbisComment, String key) {
+	private static String getVorbisTagByName(VorbisComment vorbisComment, String key) {
 		try {
 			return vorbisComment.getCommentByName(key)[0];
 		} catch(ArrayIndexOutOfBoundsException e) {
@@ -50,20 +51,25 @@ public class FlacParser {
 	
 	public FlacInfo getFlacInfo() throws IOException {
 		FileInputStream in = null;
-		FLACDecoder decoder = null;
-		Metadata metadata[] = null;
 		try {
 			in = new FileInputStream(_flacfile);
-			decoder = new FLACDecoder(in);
-			metadata = decoder.readMetadata();
+			return readFlacInfo(in, _flacfile.getName());
 		} finally {
 			if (in != null) {
 				in.close();
 			}
 		}
+	}
+
+	/**
+	 * Reads the info from the metadata blocks at the start of a FLAC stream.
+	 */
+	static FlacInfo readFlacInfo(InputStream in, String name) throws IOException {
+		FLACDecoder decoder = new FLACDecoder(in);
+		Metadata metadata[] = decoder.readMetadata();
 		
-		if (decoder == null || metadata == null) {
-			throw new IOException(_flacfile.getName() + " is not a valid FLAC file");
+		if (metadata == null) {
+			throw new IOException(name + " is not a valid FLAC file");
 		}
 		
 		FlacInfo flacinfo  = new FlacInfo();
@@ -36,6 +36,7 @@ public class ZipscriptFlacHandler extends AbstractHandler {
 
 	public ZipscriptFlacHandler(SlaveProtocolCentral central) {
 		super(central);
+		getSlaveObject().addUploadAnalyzer(new FlacAnalyzer());
 	}
 
 	public AsyncResponse handleFlacFile(AsyncCommandArgument ac) {
@@ -48,6 +49,10 @@ public class ZipscriptFlacHandler extends AbstractHandler {
 	}
 
 	private FlacInfo getFlacFile(Slave slave, String path) throws IOException {
+		FlacInfo analyzed = slave.getUploadAnalysis(path, FlacInfo.class);
+		if (analyzed != null) {
+			return analyzed;
+		}
 		FlacParser flacparser = new FlacParser(slave.getRoots().getFile(path));
 		FlacInfo flacinfo = flacparser.getFlacInfo();
 		return flacinfo;
@@ -57,9 +57,14 @@ public class ID3Parser extends RandomAccessFile {
 
 	private void processFile() {
 		_id3tag = null;
-		if (existsID3v1Tag()) {
-			_id3tag = new ID3Tag();
-			_id3tag = readID3v1Tag(_id3tag);
+		try {
+			seek(length() - TAGLENGTH);
+
+			byte[] tag = new byte[(int) TAGLENGTH];
+			readFully(tag);
+			_id3tag = parseID3v1Tag(tag);
+		} catch (IOException e) {
+			// No tag, null will be returned
 		}
 		try {
 			this.close();
@@ -72,43 +77,19 @@ public class ID3Parser extends RandomAccessFile {
 		return _id3tag;
 	}
 
-	/**        Determines, if an id3v1 tag exists.
-	 *        @return true if an id3v1 tag exists.
+	/**        Reads an ID3v1Tag from the last 128 bytes of a file
+	 *        @return The ID3v1Tag read, null if there is no tag or an
+	 *        empty/incomplete tag if it could not be read.
 	 */
-	private boolean existsID3v1Tag() {
-		boolean hasTag = false;
-
-		try {
-			seek(length() - TAGLENGTH);
-
-			byte[] tag = new byte[128];
-			read(tag);
+	public static ID3Tag parseID3v1Tag(byte[] tag) {
+		String tagString = new String(tag);
 
-			String tagString = new String(tag);
-
-			if (tagString.substring(0, 3).equals("TAG")) {
-				hasTag = true;
-			}
-		} catch (IOException e) {
-			// No need to do anything here, will just result in false being returned
+		if (!tagString.startsWith("TAG")) {
+			return null;
 		}
-
-		return hasTag;
-	}
-
-	/** Reads an ID3v1Tag
-	 *        @return The ID3v1Tag read from file or an empty ID3v1Tag if no tag was found.
-	 */
-	private ID3Tag readID3v1Tag(ID3Tag id3tag) {
+		ID3Tag id3tag = new ID3Tag();
 
 		try {
-			seek(length() - TAGLENGTH);
-
-			byte[] tag = new byte[128];
-			read(tag);
-
-			String tagString = new String(tag);
-
 			String title = tagString.substring(3, 33);
 			String artist = tagString.substring(33, 63);
 			String album = tagString.substring(63, 93);
@@ -125,8 +106,6 @@ public class ID3Parser extends RandomAccessFile {
 			id3tag.setTrack(track);
 			id3tag.setGenre(genre);
 
-		} catch (IOException e) {
-			// Just let an empty tag be returned
 		} catch (StringIndexOutOfBoundsException e) {
 			// Just let an empty/incomplete tag be returned
 		}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.protocol.zipscript.mp3.slave;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.drftpd.protocol.zipscript.mp3.common.MP3Info;
+import org.drftpd.slave.UploadAnalysis;
+import org.drftpd.slave.UploadAnalyzer;
+
+/**
+ * Reads the mp3 info of uploaded .mp3 files as they are written.<br>
+ * Only the start of the file, up to the first frames after the ID3v2 tag,
+ * and its last 128 bytes, where the ID3v1 tag is, are kept for parsing.
+ * @version $Id$
+ */
+public class MP3Analyzer implements UploadAnalyzer {
+
+	private static final int ID3V2_HEADER = 10;
+
+	private static final int FRAMES_SIZE = 65536;
+
+	private static final int MAX_HEAD_SIZE = 4 * 1024 * 1024;
+
+	private static final int TAG_SIZE = 128;
+
+	public UploadAnalysis startAnalysis(String path) {
+		if (!path.toLowerCase().endsWith(".mp3")) {
+			return null;
+		}
+		return new MP3Analysis(path.substring(path.lastIndexOf('/') + 1));
+	}
+
+	private static class MP3Analysis implements UploadAnalysis {
+
+		private String _name;
+
+		private ByteArrayOutputStream _head = new ByteArrayOutputStream();
+
+		private int _headSize = -1;
+
+		private byte[] _tail = new byte[TAG_SIZE];
+
+		private MP3Analysis(String name) {
+			_name = name;
+		}
+
+		public void update(byte[] buff, int offset, int length) {
+			updateTail(buff, offset, length);
+			if (_head == null) {
+				return;
+			}
+			int count = length;
+			if (_headSize != -1) {
+				count = Math.min(length, _headSize - _head.size());
+			}
+			if (count > 0) {
+				_head.write(buff, offset, count);
+			}
+			if (_headSize == -1 && _head.size() >= ID3V2_HEADER) {
+				_headSize = getHeadSize(_head.toByteArray());
+				if (_headSize > MAX_HEAD_SIZE) {
+					// huge tag, leave it to the handler
+					_head = null;
+				}
+			}
+		}
+
+		public Object getResult(long length) {
+			if (_head == null) {
+				return null;
+			}
+			try {
+				MP3Info mp3info = MP3Parser.readMP3Info(
+						new ByteArrayInputStream(_head.toByteArray()), _name, length);
+				mp3info.setID3Tag(length >= TAG_SIZE ? ID3Parser.parseID3v1Tag(_tail) : null);
+				return mp3info;
+			} catch (IOException e) {
+				// let the handler read the file and report it
+				return null;
+			}
+		}
+
+		public void close() {
+			_head = null;
+		}
+
+		private void updateTail(byte[] buff, int offset, int length) {
+			if (length >= TAG_SIZE) {
+				System.arraycopy(buff, offset + length - TAG_SIZE, _tail, 0, TAG_SIZE);
+			} else {
+				System.arraycopy(_tail, length, _tail, 0, TAG_SIZE - length);
+				System.arraycopy(buff, offset, _tail, TAG_SIZE - length, length);
+			}
+		}
+
+		/**
+		 * @return the number of bytes needed to read the first frames, the ID3v2
+		 * tag in front of them included.
+		 */
+		private static int getHeadSize(byte[] header) {
+			if (header[0] != 'I' || header[1] != 'D' || header[2] != '3') {
+				return FRAMES_SIZE;
+			}
+			// the tag size is stored on 4 bytes of 7 bits
+			int size = ((header[6] & 0x7f) << 21) | ((header[7] & 0x7f) << 14)
+					| ((header[8] & 0x7f) << 7) | (header[9] & 0x7f);
+			if ((header[5] & 0x10) != 0) {
+				// footer
+				size += ID3V2_HEADER;
+			}
+			return ID3V2_HEADER + size + FRAMES_SIZE;
+		}
+	}
+}
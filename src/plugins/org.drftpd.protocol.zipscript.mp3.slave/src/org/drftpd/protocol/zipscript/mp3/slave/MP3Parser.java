@@ -20,6 +20,7 @@ package org.drftpd.protocol.zipscript.mp3.slave;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.drftpd.protocol.zipscript.mp3.common.MP3Info;
 import org.drftpd.protocol.zipscript.mp3.slave.decoder.Bitstream;
@@ -40,42 +41,15 @@ public class MP3Parser {
 
 	public MP3Info getMP3Info() throws IOException {
 		FileInputStream in = null;
-		Header frameHeader = null;
+		MP3Info mp3info;
 		try {
 			in = new FileInputStream(_mp3file);
-			Bitstream mp3Stream = new Bitstream(in);
-			// Read 4 frames to ensure this really is an mp3
-			for (int i = 0; i < 4; i++) {
-				try {
-					frameHeader = mp3Stream.readFrame();
-				} catch (BitstreamException e) {
-					// Not a valid MP3
-					throw new IOException(_mp3file.getName() + " is not a valid MP3 file");
-				} finally {
-					if (mp3Stream != null) {
-						try {
-							mp3Stream.close();
-						} catch (BitstreamException e) {
-							// ignore
-						}
-					}
-				}
-				if (frameHeader == null) {
-					// Not a valid MP3
-					throw new IOException(_mp3file.getName() + " is not a valid MP3 file");
-				}
-			}
+			mp3info = readMP3Info(in, _mp3file.getName(), _mp3file.length());
 		} finally {
 			if (in != null) {
 				in.close();
 			}
 		}
-		MP3Info mp3info  = new MP3Info();
-		mp3info.setBitrate(frameHeader.bitrate());
-		mp3info.setSamplerate(frameHeader.sample_frequency_string());
-		mp3info.setEncodingtype(frameHeader.vbr() ? "VBR" : "CBR");
-		mp3info.setStereoMode(frameHeader.mode_string());
-		mp3info.setRuntime(frameHeader.total_ms((int) _mp3file.length()));
 
 		// Get ID3 tag
 		ID3Parser id3parser = new ID3Parser(_mp3file,"r");
@@ -83,4 +57,41 @@ public class MP3Parser {
 
 		return mp3info;
 	}
+
+	/**
+	 * Reads the stream info from the first frames of an mp3, without the ID3 tag.
+	 * @param length the size of the whole file, used for the runtime.
+	 */
+	static MP3Info readMP3Info(InputStream in, String name, long length) throws IOException {
+		Header frameHeader = null;
+		Bitstream mp3Stream = new Bitstream(in);
+		// Read 4 frames to ensure this really is an mp3
+		for (int i = 0; i < 4; i++) {
+			try {
+				frameHeader = mp3Stream.readFrame();
+			} catch (BitstreamException e) {
+				// Not a valid MP3
+				throw new IOException(name + " is not a valid MP3 file");
+			} finally {
+				if (mp3Stream != null) {
+					try {
+						mp3Stream.close();
+					} catch (BitstreamException e) {
+						// ignore
+					}
+				}
+			}
+			if (frameHeader == null) {
+				// Not a valid MP3
+				throw new IOException(name + " is not a valid MP3 file");
+			}
+		}
+		MP3Info mp3info  = new MP3Info();
+		mp3info.setBitrate(frameHeader.bitrate());
+		mp3info.setSamplerate(frameHeader.sample_frequency_string());
+		mp3info.setEncodingtype(frameHeader.vbr() ? "VBR" : "CBR");
+		mp3info.setStereoMode(frameHeader.mode_string());
+		mp3info.setRuntime(frameHeader.total_ms((int) length));
+		return mp3info;
+	}
 }
@@ -37,6 +37,7 @@ public class ZipscriptMP3Handler extends AbstractHandler {
 
 	public ZipscriptMP3Handler(SlaveProtocolCentral central) {
 		super(central);
+		getSlaveObject().addUploadAnalyzer(new MP3Analyzer());
 	}
 
 	public AsyncResponse handleMP3File(AsyncCommandArgument ac) {
@@ -49,6 +50,10 @@ public class ZipscriptMP3Handler extends AbstractHandler {
 	}
 
 	private MP3Info getMP3File(Slave slave, String path) throws IOException {
+		MP3Info analyzed = slave.getUploadAnalysis(path, MP3Info.class);
+		if (analyzed != null) {
+			return analyzed;
+		}
 		MP3Parser mp3parser = new MP3Parser(slave.getRoots().getFile(path));
 		MP3Info mp3info = mp3parser.getMP3Info();
 		return mp3info;
@@ -0,0 +1,90 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.protocol.zipscript.slave;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.zip.CRC32;
+
+import org.drftpd.protocol.zipscript.common.SFVInfo;
+import org.drftpd.slave.UploadAnalysis;
+import org.drftpd.slave.UploadAnalyzer;
+
+/**
+ * Parses uploaded .sfv files as they are written.
+ * @version $Id$
+ */
+public class SFVAnalyzer implements UploadAnalyzer {
+
+	private static final int MAX_SIZE = 1024 * 1024;
+
+	public UploadAnalysis startAnalysis(String path) {
+		if (!path.toLowerCase().endsWith(".sfv")) {
+			return null;
+		}
+		return new SFVAnalysis(path.substring(path.lastIndexOf('/') + 1));
+	}
+
+	private static class SFVAnalysis implements UploadAnalysis {
+
+		private String _name;
+
+		private ByteArrayOutputStream _data = new ByteArrayOutputStream();
+
+		private SFVAnalysis(String name) {
+			_name = name;
+		}
+
+		public void update(byte[] buff, int offset, int length) {
+			if (_data == null) {
+				return;
+			}
+			if (_data.size() + length > MAX_SIZE) {
+				// not a real sfv, leave it to the handler
+				_data = null;
+				return;
+			}
+			_data.write(buff, offset, length);
+		}
+
+		public Object getResult(long length) {
+			if (_data == null || _data.size() != length) {
+				return null;
+			}
+			byte[] data = _data.toByteArray();
+			CRC32 checksum = new CRC32();
+			checksum.update(data, 0, data.length);
+			try {
+				SFVInfo sfvInfo = SFVInfo.importSFVInfoFromFile(new BufferedReader(
+						new InputStreamReader(new ByteArrayInputStream(data))));
+				sfvInfo.setSFVFileName(_name);
+				sfvInfo.setChecksum(checksum.getValue());
+				return sfvInfo;
+			} catch (IOException e) {
+				return null;
+			}
+		}
+
+		public void close() {
+			_data = null;
+		}
+	}
+}
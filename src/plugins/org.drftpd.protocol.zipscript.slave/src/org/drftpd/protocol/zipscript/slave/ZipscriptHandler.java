@@ -41,6 +41,7 @@ import org.drftpd.slave.async.AsyncResponseException;
 public class ZipscriptHandler extends AbstractHandler {
 	public ZipscriptHandler(SlaveProtocolCentral central) {
 		super(central);
+		getSlaveObject().addUploadAnalyzer(new SFVAnalyzer());
 	}
 
 	public AsyncResponse handleSfvFile(AsyncCommandArgument ac) {
@@ -53,6 +54,10 @@ public class ZipscriptHandler extends AbstractHandler {
 	}
 
 	private SFVInfo getSFVFile(Slave slave, String path) throws IOException {
+		SFVInfo analyzed = slave.getUploadAnalysis(path, SFVInfo.class);
+		if (analyzed != null) {
+			return analyzed;
+		}
 		BufferedReader reader = null;
 		CRC32 checksum = null;
 		try {
@@ -0,0 +1,464 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.protocol.zipscript.zip.slave;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.drftpd.protocol.zipscript.zip.common.DizInfo;
+import org.drftpd.slave.UploadAnalysis;
+import org.drftpd.slave.UploadAnalyzer;
+
+/**
+ * Checks the entries of uploaded zip files and reads their file_id.diz as
+ * the data is written.<br>
+ * The local headers are followed through the stream, stored entries and
+ * deflated ones are checksummed against their crc. The central directory
+ * then has to list exactly those entries and the end record has to point
+ * at it, a zip cut anywhere before the end of that record isn't intact.<br>
+ * Zips that can't be followed that way (encrypted, zip64, leading data...)
+ * get no result and are left to the handler.
+ * @version $Id$
+ */
+public class ZipAnalyzer implements UploadAnalyzer {
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+
+	private static final int CENTRAL_HEADER = 0x02014b50;
+
+	private static final int END_HEADER = 0x06054b50;
+
+	private static final int DATA_DESCRIPTOR = 0x08074b50;
+
+	private static final int CENTRAL_HEADER_SIZE = 42;
+
+	private static final int END_HEADER_SIZE = 18;
+
+	private static final int MAX_DIZ_SIZE = 65536;
+
+	public UploadAnalysis startAnalysis(String path) {
+		if (!path.toLowerCase().endsWith(".zip")) {
+			return null;
+		}
+		return new ZipAnalysis();
+	}
+
+	/**
+	 * What was learnt about an uploaded zip.
+	 */
+	public static class ZipResult {
+
+		private boolean _integrityOk;
+
+		private DizInfo _dizInfo;
+
+		public ZipResult(boolean integrityOk, DizInfo dizInfo) {
+			_integrityOk = integrityOk;
+			_dizInfo = dizInfo;
+		}
+
+		public boolean isIntegrityOk() {
+			return _integrityOk;
+		}
+
+		/**
+		 * @return the diz info, null if it has to be read from the file.
+		 */
+		public DizInfo getDizInfo() {
+			return _dizInfo;
+		}
+	}
+
+	private enum State { SIGNATURE, HEADER, NAME, DATA, DESCRIPTOR_START, DESCRIPTOR,
+		CENTRAL, CENTRAL_NAME, END, END_COMMENT, DONE, FAILED, UNKNOWN }
+
+	/**
+	 * A local entry as it was read, to check the central directory against.
+	 */
+	private static class LocalEntry {
+
+		private String _name;
+
+		private long _crc;
+
+		private long _compressedSize;
+
+		private boolean _listed = false;
+
+		private LocalEntry(String name) {
+			_name = name;
+		}
+	}
+
+	private static class ZipAnalysis implements UploadAnalysis {
+
+		private State _state;
+
+		private byte[] _buffer = new byte[26];
+
+		private int _needed;
+
+		private int _filled;
+
+		private int _flags;
+
+		private int _method;
+
+		private long _crc;
+
+		private int _nameLength;
+
+		private long _remaining;
+
+		private int _entries = 0;
+
+		/**
+		 * Number of bytes consumed from the stream.
+		 */
+		private long _position = 0L;
+
+		private long _headerOffset;
+
+		private long _dataStart;
+
+		private LocalEntry _entry;
+
+		private HashMap<Long, LocalEntry> _localEntries = new HashMap<Long, LocalEntry>();
+
+		private long _centralStart = -1L;
+
+		private int _centralEntries = 0;
+
+		private Inflater _inflater = new Inflater(true);
+
+		private byte[] _inflated = new byte[65536];
+
+		private CRC32 _entryCrc = new CRC32();
+
+		private boolean _inDiz = false;
+
+		private ByteArrayOutputStream _diz = null;
+
+		private boolean _dizTooLarge = false;
+
+		private ZipAnalysis() {
+			expect(State.SIGNATURE, 4);
+		}
+
+		public void update(byte[] buff, int offset, int length) {
+			int end = offset + length;
+			while (offset < end && isRunning()) {
+				if (_state == State.DATA) {
+					offset = readData(buff, offset, end);
+				} else {
+					int count = Math.min(_needed - _filled, end - offset);
+					System.arraycopy(buff, offset, _buffer, _filled, count);
+					_filled += count;
+					offset += count;
+					_position += count;
+					if (_filled == _needed) {
+						parse();
+					}
+				}
+			}
+		}
+
+		public Object getResult(long length) {
+			if (_state == State.DONE) {
+				return new ZipResult(true, getDizInfo());
+			}
+			if (_state == State.UNKNOWN) {
+				return null;
+			}
+			// corrupt or truncated, no central directory to read a diz from either
+			return new ZipResult(false, _state == State.FAILED ? null : new DizInfo());
+		}
+
+		public void close() {
+			_inflater.end();
+		}
+
+		private boolean isRunning() {
+			return _state != State.DONE && _state != State.FAILED && _state != State.UNKNOWN;
+		}
+
+		private void expect(State state, int needed) {
+			_state = state;
+			_needed = needed;
+			_filled = 0;
+			if (_buffer.length < needed) {
+				_buffer = new byte[needed];
+			}
+			if (needed == 0) {
+				parse();
+			}
+		}
+
+		private void parse() {
+			switch (_state) {
+			case SIGNATURE:
+				int signature = (int) readInt(0);
+				long signatureOffset = _position - 4;
+				if (_entries == 0 && signature != LOCAL_HEADER) {
+					// data in front of the first entry is allowed, an empty zip is not
+					_state = signature == CENTRAL_HEADER || signature == END_HEADER
+							? State.FAILED : State.UNKNOWN;
+				} else if (signature == LOCAL_HEADER && _centralStart == -1L) {
+					_headerOffset = signatureOffset;
+					expect(State.HEADER, 26);
+				} else if (signature == CENTRAL_HEADER) {
+					if (_centralStart == -1L) {
+						_centralStart = signatureOffset;
+					}
+					expect(State.CENTRAL, CENTRAL_HEADER_SIZE);
+				} else if (signature == END_HEADER && _centralStart != -1L) {
+					_headerOffset = signatureOffset;
+					expect(State.END, END_HEADER_SIZE);
+				} else {
+					_state = State.FAILED;
+				}
+				break;
+			case HEADER:
+				_flags = readShort(2);
+				_method = readShort(4);
+				_crc = readInt(10);
+				long compressedSize = readInt(14);
+				_nameLength = readShort(22);
+				if ((_flags & 1) != 0 || compressedSize == 0xFFFFFFFFL) {
+					// encrypted or zip64
+					_state = State.UNKNOWN;
+					break;
+				}
+				_remaining = compressedSize;
+				expect(State.NAME, _nameLength + readShort(24));
+				break;
+			case NAME:
+				startEntry();
+				break;
+			case DESCRIPTOR_START:
+				if (readInt(0) == DATA_DESCRIPTOR) {
+					expect(State.DESCRIPTOR, 12);
+				} else {
+					// no signature, the crc came first
+					_crc = readInt(0);
+					expect(State.DESCRIPTOR, 8);
+				}
+				break;
+			case DESCRIPTOR:
+				if (_needed == 12) {
+					_crc = readInt(0);
+				}
+				checkEntry();
+				break;
+			case CENTRAL:
+				checkCentralHeader();
+				break;
+			case CENTRAL_NAME:
+				checkCentralName();
+				break;
+			case END:
+				checkEnd();
+				break;
+			case END_COMMENT:
+				_state = State.DONE;
+				break;
+			default:
+				throw new IllegalStateException(_state.toString());
+			}
+		}
+
+		private void startEntry() {
+			String name;
+			try {
+				name = new String(_buffer, 0, _nameLength, "ISO-8859-1");
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+			_entry = new LocalEntry(name);
+			_dataStart = _position;
+			_inDiz = name.equalsIgnoreCase("file_id.diz");
+			if (_inDiz && _diz == null) {
+				_diz = new ByteArrayOutputStream();
+			}
+			_entryCrc.reset();
+			if (_method == 0) {
+				if ((_flags & 8) != 0) {
+					// a stored entry doesn't tell where it ends
+					_state = State.UNKNOWN;
+					return;
+				}
+				_state = State.DATA;
+				if (_remaining == 0) {
+					endEntry();
+				}
+			} else if (_method == 8) {
+				_inflater.reset();
+				_state = State.DATA;
+			} else {
+				_state = State.UNKNOWN;
+			}
+		}
+
+		private int readData(byte[] buff, int offset, int end) {
+			if (_method == 0) {
+				int count = (int) Math.min(_remaining, end - offset);
+				entryData(buff, offset, count);
+				_remaining -= count;
+				_position += count;
+				if (_remaining == 0) {
+					endEntry();
+				}
+				return offset + count;
+			}
+			_inflater.setInput(buff, offset, end - offset);
+			try {
+				while (true) {
+					int count = _inflater.inflate(_inflated);
+					if (count > 0) {
+						entryData(_inflated, 0, count);
+					}
+					if (_inflater.finished()) {
+						int consumed = end - offset - _inflater.getRemaining();
+						_position += consumed;
+						endEntry();
+						return offset + consumed;
+					}
+					if (count == 0) {
+						if (_inflater.needsDictionary()) {
+							_state = State.FAILED;
+						}
+						_position += end - offset;
+						return end;
+					}
+				}
+			} catch (DataFormatException e) {
+				_state = State.FAILED;
+				return end;
+			}
+		}
+
+		private void entryData(byte[] buff, int offset, int length) {
+			_entryCrc.update(buff, offset, length);
+			if (_inDiz) {
+				if (_diz.size() + length > MAX_DIZ_SIZE) {
+					_dizTooLarge = true;
+				} else {
+					_diz.write(buff, offset, length);
+				}
+			}
+		}
+
+		private void endEntry() {
+			_entry._compressedSize = _position - _dataStart;
+			if ((_flags & 8) != 0) {
+				expect(State.DESCRIPTOR_START, 4);
+			} else {
+				checkEntry();
+			}
+		}
+
+		private void checkEntry() {
+			if (_entryCrc.getValue() != _crc) {
+				_state = State.FAILED;
+				return;
+			}
+			_inDiz = false;
+			_entries++;
+			_entry._crc = _crc;
+			_localEntries.put(_headerOffset, _entry);
+			expect(State.SIGNATURE, 4);
+		}
+
+		private void checkCentralHeader() {
+			long compressedSize = readInt(16);
+			long offset = readInt(38);
+			if (compressedSize == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+				// zip64
+				_state = State.UNKNOWN;
+				return;
+			}
+			_entry = _localEntries.get(offset);
+			if (_entry == null || _entry._listed || _entry._crc != readInt(12)
+					|| _entry._compressedSize != compressedSize) {
+				_state = State.FAILED;
+				return;
+			}
+			_entry._listed = true;
+			_centralEntries++;
+			_nameLength = readShort(24);
+			expect(State.CENTRAL_NAME, _nameLength + readShort(26) + readShort(28));
+		}
+
+		private void checkCentralName() {
+			try {
+				if (!_entry._name.equals(new String(_buffer, 0, _nameLength, "ISO-8859-1"))) {
+					_state = State.FAILED;
+					return;
+				}
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+			expect(State.SIGNATURE, 4);
+		}
+
+		private void checkEnd() {
+			int totalEntries = readShort(6);
+			long centralOffset = readInt(12);
+			if (totalEntries == 0xFFFF || centralOffset == 0xFFFFFFFFL) {
+				// zip64
+				_state = State.UNKNOWN;
+				return;
+			}
+			if (readShort(0) != 0 || readShort(2) != 0 || readShort(4) != totalEntries
+					|| totalEntries != _centralEntries || _centralEntries != _entries
+					// the directory ends where the end record starts
+					|| readInt(8) != _headerOffset - _centralStart
+					|| centralOffset != _centralStart) {
+				_state = State.FAILED;
+				return;
+			}
+			expect(State.END_COMMENT, readShort(16));
+		}
+
+		private DizInfo getDizInfo() {
+			if (_diz == null) {
+				return new DizInfo();
+			}
+			if (_dizTooLarge) {
+				return null;
+			}
+			try {
+				return ZipscriptZipHandler.createDizInfo(_diz.toString("8859_1"));
+			} catch (UnsupportedEncodingException e) {
+				return null;
+			}
+		}
+
+		private int readShort(int offset) {
+			return (_buffer[offset] & 0xff) | ((_buffer[offset + 1] & 0xff) << 8);
+		}
+
+		private long readInt(int offset) {
+			return (readShort(offset) | ((long) readShort(offset + 2) << 16)) & 0xffffffffL;
+		}
+	}
+}
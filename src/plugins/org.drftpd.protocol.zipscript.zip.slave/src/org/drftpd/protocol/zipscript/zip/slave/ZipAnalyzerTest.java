@@ -0,0 +1,124 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.protocol.zipscript.zip.slave;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.drftpd.slave.UploadAnalysis;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class ZipAnalyzerTest extends TestCase {
+
+	private static byte[] createZip() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(bytes);
+
+		byte[] data = new byte[200000];
+		new Random(42).nextBytes(data);
+		zip.putNextEntry(new ZipEntry("release.r00"));
+		zip.write(data);
+		zip.closeEntry();
+
+		byte[] diz = "Some Release (01/12)\r\n".getBytes("8859_1");
+		ZipEntry stored = new ZipEntry("FILE_ID.DIZ");
+		stored.setMethod(ZipEntry.STORED);
+		stored.setSize(diz.length);
+		CRC32 crc = new CRC32();
+		crc.update(diz);
+		stored.setCrc(crc.getValue());
+		zip.putNextEntry(stored);
+		zip.write(diz);
+		zip.closeEntry();
+
+		zip.close();
+		return bytes.toByteArray();
+	}
+
+	private static ZipAnalyzer.ZipResult analyze(byte[] zip) {
+		UploadAnalysis analysis = new ZipAnalyzer().startAnalysis("/dir/release.zip");
+		// small blocks so headers are split between writes
+		for (int i = 0; i < zip.length; i += 7) {
+			analysis.update(zip, i, Math.min(7, zip.length - i));
+		}
+		try {
+			return (ZipAnalyzer.ZipResult) analysis.getResult(zip.length);
+		} finally {
+			analysis.close();
+		}
+	}
+
+	private static byte[] copy(byte[] zip, int length) {
+		byte[] copy = new byte[length];
+		System.arraycopy(zip, 0, copy, 0, length);
+		return copy;
+	}
+
+	private static int readInt(byte[] zip, int offset) {
+		return (zip[offset] & 0xff) | ((zip[offset + 1] & 0xff) << 8)
+				| ((zip[offset + 2] & 0xff) << 16) | ((zip[offset + 3] & 0xff) << 24);
+	}
+
+	public void testValidZip() throws IOException {
+		assertNull(new ZipAnalyzer().startAnalysis("/dir/release.r00"));
+		ZipAnalyzer.ZipResult result = analyze(createZip());
+		assertTrue(result.isIntegrityOk());
+		assertTrue(result.getDizInfo().isValid());
+		assertEquals(12, result.getDizInfo().getTotal());
+	}
+
+	public void testCorruptAndTruncatedZip() throws IOException {
+		byte[] zip = createZip();
+		byte[] corrupt = zip.clone();
+		corrupt[100000] ^= 0x55;
+		assertFalse(analyze(corrupt).isIntegrityOk());
+
+		assertFalse(analyze(copy(zip, zip.length / 2)).isIntegrityOk());
+	}
+
+	public void testCentralDirectoryChecked() throws IOException {
+		byte[] zip = createZip();
+		// no comment, the end record is the last 22 bytes
+		int end = zip.length - 22;
+		int central = readInt(zip, end + 16);
+
+		assertFalse(analyze(copy(zip, central + 10)).isIntegrityOk());
+		assertFalse(analyze(copy(zip, end)).isIntegrityOk());
+		assertFalse(analyze(copy(zip, zip.length - 5)).isIntegrityOk());
+
+		byte[] crc = zip.clone();
+		crc[central + 16] ^= 0x55;
+		assertFalse(analyze(crc).isIntegrityOk());
+
+		byte[] count = zip.clone();
+		count[end + 10]++;
+		assertFalse(analyze(count).isIntegrityOk());
+
+		byte[] offset = zip.clone();
+		offset[end + 16]++;
+		assertFalse(analyze(offset).isIntegrityOk());
+	}
+}
@@ -18,6 +18,7 @@ package org.drftpd.protocol.zipscript.zip.slave;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.drftpd.util.Base64; 
@@ -47,6 +48,7 @@ public class ZipscriptZipHandler extends AbstractHandler {
 			
 	public ZipscriptZipHandler(SlaveProtocolCentral central) {
 		super(central);
+		getSlaveObject().addUploadAnalyzer(new ZipAnalyzer());
 	}
 
 	public AsyncResponse handleZipCRC(AsyncCommandArgument ac) {
@@ -60,6 +62,10 @@ public class ZipscriptZipHandler extends AbstractHandler {
 	}
 
 	private boolean checkZipFile(Slave slave, String path) {
+		ZipAnalyzer.ZipResult analyzed = slave.getUploadAnalysis(path, ZipAnalyzer.ZipResult.class);
+		if (analyzed != null) {
+			return analyzed.isIntegrityOk();
+		}
 		boolean integrityOk = true;
 		TFile zipFile = null;
 		try {
@@ -102,6 +108,10 @@ public class ZipscriptZipHandler extends AbstractHandler {
 	}
 
 	private DizInfo getDizInfo(Slave slave, String path) {
+		ZipAnalyzer.ZipResult analyzed = slave.getUploadAnalysis(path, ZipAnalyzer.ZipResult.class);
+		if (analyzed != null && analyzed.getDizInfo() != null) {
+			return analyzed.getDizInfo();
+		}
 		DizInfo dizInfo = new DizInfo();
 		TFile zipFile = null;
 		try {
@@ -124,14 +134,7 @@ public class ZipscriptZipHandler extends AbstractHandler {
 									dizBuffer.append(dizBlock);
 								}
 							}
-							String dizString = dizBuffer.toString();
-							int total = getDizTotal(dizString);
-							if (total > 0) {
-								dizInfo.setValid(true);
-								dizInfo.setTotal(total);
-								dizString = Base64.encodeToString(dizBuffer.toString().getBytes("8859_1"), Base64.RFC2045);
-								dizInfo.setString(dizString);
-							}
+							dizInfo = createDizInfo(dizBuffer.toString());
 							break;
 						} catch (IOException e) {
 							// Something wrong with the .diz entry in this file, just return with no diz info
@@ -158,7 +161,18 @@ public class ZipscriptZipHandler extends AbstractHandler {
 		return dizInfo;
 	}
 
-	private int getDizTotal(String dizString) {
+	static DizInfo createDizInfo(String dizString) throws UnsupportedEncodingException {
+		DizInfo dizInfo = new DizInfo();
+		int total = getDizTotal(dizString);
+		if (total > 0) {
+			dizInfo.setValid(true);
+			dizInfo.setTotal(total);
+			dizInfo.setString(Base64.encodeToString(dizString.getBytes("8859_1"), Base64.RFC2045));
+		}
+		return dizInfo;
+	}
+
+	private static int getDizTotal(String dizString) {
 		int total = 0;
 		String regex = "[\\[\\(\\<\\:\\s][0-9oOxX\\*]*/([0-9oOxX]*[0-9oO])[\\]\\)\\>\\s]";
 		Pattern p = Pattern.compile(regex);
@@ -0,0 +1,87 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave.diskselection.filter;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Properties;
+
+import org.drftpd.slave.Root;
+import org.drftpd.slave.RootLoad;
+
+/**
+ * Spreads concurrent transfers over the roots by taking points from the
+ * roots that are already busy.
+ * 
+ * <pre>
+ *  X.filter=load
+ *  X.writes=100
+ *  X.reads=50
+ *  X.speed=1
+ *  X.assign=all
+ * </pre>
+ * 
+ * Works like this: addScore( -1 * ( writes * uploads on the root
+ * + reads * downloads on the root + speed * MB/s moved on the root ) )
+ * 
+ * @version $Id$
+ */
+public class LoadFilter extends DiskFilter {
+
+	private static final long MEGABYTE = 1024L * 1024L;
+
+	private float _writes;
+
+	private float _reads;
+
+	private float _speed;
+
+	public LoadFilter(DiskSelectionFilter diskSelection, Properties p, Integer i) {
+		super(diskSelection, p, i);
+		_writes = DiskFilter.parseMultiplier(p.getProperty(i + ".writes", "100"));
+		_reads = DiskFilter.parseMultiplier(p.getProperty(i + ".reads", "50"));
+		_speed = DiskFilter.parseMultiplier(p.getProperty(i + ".speed", "1"));
+		_assignList = AssignRoot.parseAssign(this, p.getProperty(i + ".assign", "all"));
+	}
+
+	public void process(ScoreChart sc, String path) {
+		AssignRoot.addScoresToChart(this, _assignList, sc);
+
+		HashMap<Root, RootLoad> loads = getDiskSelection().getSlaveObject().getRootLoads();
+
+		for (Iterator<Root> iter = getRootList().iterator(); iter.hasNext();) {
+			Root o = iter.next();
+
+			if (!AssignRoot.isAssignedRoot(this, o, _assignList))
+				continue;
+
+			RootLoad load = loads.get(o);
+			if (load == null) {
+				continue;
+			}
+			float penalty = load.getWrites() * _writes + load.getReads() * _reads
+					+ ((float) load.getXferSpeed() / MEGABYTE) * _speed;
+			sc.addScore(o, -(long) penalty);
+		}
+	}
+
+	public String toString() {
+		return getClass().getName() + "[writes=" + _writes + ",reads=" + _reads
+				+ ",speed=" + _speed + ",roots=" + getAssignList() + "]";
+	}
+}
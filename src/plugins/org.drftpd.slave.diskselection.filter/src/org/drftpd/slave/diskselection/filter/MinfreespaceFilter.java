@@ -64,7 +64,7 @@ public class MinfreespaceFilter extends DiskFilter {
 			if (!AssignRoot.isAssignedRoot(this, o, _assignList))
 				continue;
 
-			long df = o.getDiskSpaceAvailable();
+			long df = o.getCachedDiskSpaceAvailable();
 			if (df < _minfreespace) {
 				if (_multiplier == 0) {
 					sc.removeFromChart(o);
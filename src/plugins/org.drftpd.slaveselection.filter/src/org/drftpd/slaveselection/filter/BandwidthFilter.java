@@ -22,9 +22,7 @@ import java.util.Iterator;
 import java.util.Properties;
 
 import org.drftpd.PropertyHelper;
-import org.drftpd.exceptions.SlaveUnavailableException;
 import org.drftpd.master.RemoteSlave;
-import org.drftpd.slave.SlaveStatus;
 import org.drftpd.slaveselection.filter.ScoreChart.SlaveScore;
 import org.drftpd.usermanager.User;
 import org.drftpd.vfs.InodeHandleInterface;
@@ -47,17 +45,16 @@ public class BandwidthFilter extends Filter {
 			char direction, InodeHandleInterface file, RemoteSlave sourceSlave) {
 		for (Iterator<SlaveScore> iter = scorechart.getSlaveScores().iterator(); iter.hasNext();) {
 			SlaveScore score = iter.next();
-			SlaveStatus status = null;
 
-			try {
-				status = score.getRSlave().getSlaveStatusAvailable();
-			} catch (SlaveUnavailableException e) {
+			if (!score.getRSlave().isAvailable()) {
 				// how come the slave is offline? it was just online.
 				iter.remove();
 				continue;
 			}
 
-			score.addScore(-(long) (status.getThroughputDirection(direction) * _multiplier));
+			// includes the transfers the slave was just selected for
+			long throughput = score.getRSlave().getTransferLoad().getThroughput(direction);
+			score.addScore(-(long) (throughput * _multiplier));
 		}
 	}
 }
@@ -25,8 +25,7 @@ import junit.framework.TestCase;
 import org.drftpd.exceptions.NoAvailableSlaveException;
 import org.drftpd.exceptions.ObjectNotFoundException;
 import org.drftpd.master.RemoteSlave;
-import org.drftpd.slave.DiskStatus;
-import org.drftpd.slave.SlaveStatus;
+import org.drftpd.master.TransferLoad;
 import org.drftpd.slave.Transfer;
 import org.drftpd.tests.DummyRemoteSlave;
 
@@ -42,25 +41,44 @@ public class BandwidthFilterTest extends TestCase {
 		
 		Filter f = new BandwidthFilter(1, p);
 		
-		SlaveStatus status = new SlaveStatus(new DiskStatus(0, 0), 0, 0, 100, 0, 100, 0);
-		RemoteSlave[] list = { new RS("slave1", status) };
+		RemoteSlave[] list = { new RS("slave1"), new RS("slave2") };
+		TransferLoad load = list[0].getTransferLoad();
+		load.transferStarted(Transfer.TRANSFER_SENDING_DOWNLOAD);
+		load.speedChanged(Transfer.TRANSFER_SENDING_DOWNLOAD, 0, 100);
 		ScoreChart sc = new ScoreChart(Arrays.asList(list));
 		
 		f.process(sc, null, null, Transfer.TRANSFER_SENDING_DOWNLOAD, null, null);
 		
+		// the speed reported counts right away, not only once averaged
 		assertEquals(-300, sc.getScoreForSlave(list[0]).getScore());
+		assertEquals(0, sc.getScoreForSlave(list[1]).getScore());
+	}
+
+	public void testReservations() throws NoAvailableSlaveException, ObjectNotFoundException {
+		Properties p = new Properties();
+		p.put("1.multiplier", "1");
+		
+		Filter f = new BandwidthFilter(1, p);
+		
+		RemoteSlave[] list = { new RS("slave1"), new RS("slave2") };
+		list[0].getTransferLoad().reserve(Transfer.TRANSFER_SENDING_DOWNLOAD);
+		list[0].getTransferLoad().reserve(Transfer.TRANSFER_RECEIVING_UPLOAD);
+		ScoreChart sc = new ScoreChart(Arrays.asList(list));
+		
+		f.process(sc, null, null, Transfer.TRANSFER_SENDING_DOWNLOAD, null, null);
+		
+		assertEquals(-TransferLoad.DEFAULT_TRANSFER_SPEED, sc.getScoreForSlave(list[0]).getScore());
+		assertEquals(0, sc.getScoreForSlave(list[1]).getScore());
+		assertEquals(list[1], sc.getBestSlave());
 	}
 	
 	static class RS extends DummyRemoteSlave {
-		private SlaveStatus _status;
-
-		public RS(String name, SlaveStatus status) {
+		public RS(String name) {
 			super(name);
-			_status = status;
 		}
 		
-        public SlaveStatus getSlaveStatusAvailable() {
-            return _status;
-        }
+		public boolean isAvailable() {
+			return true;
+		}
 	}
 }
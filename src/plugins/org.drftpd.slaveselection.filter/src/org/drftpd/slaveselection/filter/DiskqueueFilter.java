@@ -0,0 +1,48 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slaveselection.filter;
+
+import java.net.InetAddress;
+import java.util.Properties;
+
+import org.drftpd.PropertyHelper;
+import org.drftpd.master.RemoteSlave;
+import org.drftpd.slaveselection.filter.ScoreChart.SlaveScore;
+import org.drftpd.usermanager.User;
+import org.drftpd.vfs.InodeHandleInterface;
+
+/**
+ * Removes points for every disk bound command the slave is running or has
+ * queued, as last reported by the slave.
+ * @version $Id$
+ */
+public class DiskqueueFilter extends Filter {
+	private float _multiplier;
+
+	public DiskqueueFilter(int i, Properties p) {
+		super(i, p);
+		_multiplier = parseMultiplier(PropertyHelper.getProperty(p, i + ".multiplier"));
+	}
+
+	public void process(ScoreChart scorechart, User user, InetAddress peer,
+			char direction, InodeHandleInterface dir, RemoteSlave sourceSlave) {
+		for (SlaveScore score : scorechart.getSlaveScores()) {
+			score.addScore(-(long) (score.getRSlave().getTransferLoad().getDiskQueue() * _multiplier));
+		}
+	}
+}
@@ -23,10 +23,7 @@ import java.util.Properties;
 
 import org.drftpd.PropertyHelper;
 import org.drftpd.exceptions.NoAvailableSlaveException;
-import org.drftpd.exceptions.SlaveUnavailableException;
 import org.drftpd.master.RemoteSlave;
-import org.drftpd.slave.SlaveStatus;
-import org.drftpd.slave.Transfer;
 import org.drftpd.slaveselection.filter.ScoreChart.SlaveScore;
 import org.drftpd.usermanager.User;
 import org.drftpd.vfs.InodeHandleInterface;
@@ -48,24 +45,14 @@ public class MaxtransfersFilter extends Filter {
 		for (Iterator<SlaveScore> iter = scorechart.getSlaveScores().iterator(); iter
 				.hasNext();) {
 			SlaveScore score = iter.next();
-			SlaveStatus status;
-			try {
-				status = score.getRSlave().getSlaveStatusAvailable();
-			} catch (SlaveUnavailableException e) {
+			if (!score.getRSlave().isAvailable()) {
 				// how come the slave is offline? it was just online.
 				iter.remove();
 				continue;
 			}
 
-			int transfers = 0;
-
-			if (direction == Transfer.TRANSFER_RECEIVING_UPLOAD) {
-				transfers = status.getTransfersReceiving();
-			} else if (direction == Transfer.TRANSFER_SENDING_DOWNLOAD) {
-				transfers = status.getTransfersSending();
-			} else {
-				throw new IllegalArgumentException("Direction was not one of download or upload");
-			}
+			// running transfers plus the ones the slave was just selected for
+			int transfers = score.getRSlave().getTransferLoad().getTransfers(direction);
 
 			if (transfers > _maxTransfers) {
 				iter.remove();
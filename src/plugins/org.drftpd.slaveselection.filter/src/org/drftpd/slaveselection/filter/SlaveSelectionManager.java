@@ -114,7 +114,12 @@ public class SlaveSelectionManager extends SlaveSelectionManagerInterface {
 			throw new IllegalArgumentException();
 		}
 
-		return process(status, new ScoreChart(availableSlaves), conn, direction, file, null);
+		RemoteSlave rslave = process(status, new ScoreChart(availableSlaves), conn, direction, file, null);
+		if (conn != null) {
+			// checksums don't transfer anything
+			rslave.getTransferLoad().reserve(direction);
+		}
+		return rslave;
 	}
 
 	public RemoteSlave getASlaveForJobDownload(FileHandle file, Collection<RemoteSlave> destinationSlaves)
@@ -65,6 +65,9 @@ public class BeanUser extends AbstractUser {
 	}
 
 	public void commit() {
+		if (_um != null && !_purged) {
+			_um.getUserRankings().update(this);
+		}
 		CommitManager.getCommitManager().add(this);
 	}
 
@@ -116,6 +119,7 @@ public class BeanUser extends AbstractUser {
 			if (out != null)
 				out.close();
 		}
+		CommitManager.getCommitManager().addBytesWritten(_um.getUserFile(getName()).length());
 	}
 
 	public String descriptiveName() {
@@ -0,0 +1,283 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.usermanager.journal;
+
+import java.beans.DefaultPersistenceDelegate;
+import java.beans.ExceptionListener;
+import java.beans.XMLDecoder;
+import java.beans.XMLEncoder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.drftpd.dynamicdata.Key;
+import org.drftpd.dynamicdata.KeyedMap;
+import org.drftpd.stats.ExtendedTimedStats;
+import org.drftpd.usermanager.User;
+import org.drftpd.util.CommonPluginUtils;
+import org.drftpd.util.HostMask;
+import org.drftpd.util.HostMaskCollection;
+
+/**
+ * Compact binary representation of a user, used by the
+ * {@link JournalUserManager}.<br>
+ * The user fields and stats are written as raw values, as is the keyed map
+ * when it only holds Strings, Dates and boxed primitives. Maps containing
+ * plugin defined classes are embedded as a javabeans XML blob.
+ * @version $Id$
+ */
+public class BinaryUserCodec {
+
+	private static final Logger logger = Logger.getLogger(BinaryUserCodec.class);
+
+	private static final int MAP_XML = -1;
+
+	private static final byte VALUE_STRING = 1;
+	private static final byte VALUE_INTEGER = 2;
+	private static final byte VALUE_LONG = 3;
+	private static final byte VALUE_BOOLEAN = 4;
+	private static final byte VALUE_FLOAT = 5;
+	private static final byte VALUE_DOUBLE = 6;
+	private static final byte VALUE_DATE = 7;
+
+	private static final BinaryUserCodec _instance = new BinaryUserCodec();
+
+	private BinaryUserCodec() {
+	}
+
+	/**
+	 * @return the loader used to resolve plugin classes referenced by the keyed map.
+	 */
+	private static ClassLoader getClassLoader() {
+		return CommonPluginUtils.getClassLoaderForObject(_instance);
+	}
+
+	public static byte[] encode(User user, String password) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(user.getName());
+		out.writeUTF(password);
+		out.writeUTF(user.getGroup());
+		List<String> groups = new ArrayList<String>(user.getGroups());
+		out.writeInt(groups.size());
+		for (String group : groups) {
+			out.writeUTF(group);
+		}
+		List<HostMask> masks = new ArrayList<HostMask>(user.getHostMaskCollection());
+		out.writeInt(masks.size());
+		for (HostMask mask : masks) {
+			out.writeUTF(mask.getMask());
+		}
+		out.writeLong(user.getCredits());
+		out.writeInt(user.getIdleTime());
+		out.writeLong(user.getLastReset());
+		for (int p = 0; p < ExtendedTimedStats.P_SIZE; p++) {
+			out.writeLong(user.getUploadedBytesForPeriod(p));
+			out.writeInt(user.getUploadedFilesForPeriod(p));
+			out.writeLong(user.getUploadedTimeForPeriod(p));
+			out.writeLong(user.getDownloadedBytesForPeriod(p));
+			out.writeInt(user.getDownloadedFilesForPeriod(p));
+			out.writeLong(user.getDownloadedTimeForPeriod(p));
+		}
+		writeKeyedMap(out, user.getKeyedMap());
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	public static JournalUser decode(byte[] data, JournalUserManager manager) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		JournalUser user = new JournalUser(manager, in.readUTF());
+		user.setPassword(in.readUTF());
+		user.setGroup(in.readUTF());
+		int size = in.readInt();
+		List<String> groups = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			groups.add(in.readUTF());
+		}
+		user.setGroups(groups);
+		size = in.readInt();
+		List<String> masks = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			masks.add(in.readUTF());
+		}
+		user.setHostMaskCollection(new HostMaskCollection(masks));
+		user.setCredits(in.readLong());
+		user.setIdleTime(in.readInt());
+		user.setLastReset(in.readLong());
+		for (int p = 0; p < ExtendedTimedStats.P_SIZE; p++) {
+			user.setUploadedBytesForPeriod(p, in.readLong());
+			user.setUploadedFilesForPeriod(p, in.readInt());
+			user.setUploadedTimeForPeriod(p, in.readLong());
+			user.setDownloadedBytesForPeriod(p, in.readLong());
+			user.setDownloadedFilesForPeriod(p, in.readInt());
+			user.setDownloadedTimeForPeriod(p, in.readLong());
+		}
+		user.setKeyedMap(readKeyedMap(in, user.getName()));
+		return user;
+	}
+
+	private static boolean isSimpleValue(Object value) {
+		if (value instanceof String) {
+			// writeUTF() is limited to 64k of encoded data
+			return ((String) value).length() < 16384;
+		}
+		return value instanceof Integer || value instanceof Long || value instanceof Boolean
+				|| value instanceof Float || value instanceof Double || value instanceof Date;
+	}
+
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value instanceof String) {
+			out.writeByte(VALUE_STRING);
+			out.writeUTF((String) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(VALUE_INTEGER);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(VALUE_LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(VALUE_BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Float) {
+			out.writeByte(VALUE_FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof Double) {
+			out.writeByte(VALUE_DOUBLE);
+			out.writeDouble((Double) value);
+		} else {
+			out.writeByte(VALUE_DATE);
+			out.writeLong(((Date) value).getTime());
+		}
+	}
+
+	private static Object readValue(DataInput in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case VALUE_STRING:
+			return in.readUTF();
+		case VALUE_INTEGER:
+			return in.readInt();
+		case VALUE_LONG:
+			return in.readLong();
+		case VALUE_BOOLEAN:
+			return in.readBoolean();
+		case VALUE_FLOAT:
+			return in.readFloat();
+		case VALUE_DOUBLE:
+			return in.readDouble();
+		case VALUE_DATE:
+			return new Date(in.readLong());
+		default:
+			throw new IOException("Unknown value type " + type);
+		}
+	}
+
+	private static void writeKeyedMap(DataOutputStream out, KeyedMap<Key<?>, Object> map) throws IOException {
+		Map<Key<?>, Object> copy;
+		synchronized (map) {
+			copy = new KeyedMap<Key<?>, Object>(map);
+		}
+		for (Object value : copy.values()) {
+			if (!isSimpleValue(value)) {
+				writeXML(out, copy);
+				return;
+			}
+		}
+		out.writeInt(copy.size());
+		for (Map.Entry<Key<?>, Object> entry : copy.entrySet()) {
+			out.writeUTF(entry.getKey().getOwner().getName());
+			out.writeUTF(entry.getKey().getKey());
+			writeValue(out, entry.getValue());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static KeyedMap<Key<?>, Object> readKeyedMap(DataInput in, String username) throws IOException {
+		int size = in.readInt();
+		if (size == MAP_XML) {
+			Object map = readXML(in, username);
+			if (map instanceof KeyedMap) {
+				return (KeyedMap<Key<?>, Object>) map;
+			}
+			return new KeyedMap<Key<?>, Object>();
+		}
+		KeyedMap<Key<?>, Object> map = new KeyedMap<Key<?>, Object>();
+		ClassLoader loader = getClassLoader();
+		for (int i = 0; i < size; i++) {
+			String owner = in.readUTF();
+			String key = in.readUTF();
+			Object value = readValue(in);
+			try {
+				map.put(new Key<Object>(Class.forName(owner, false, loader), key), value);
+			} catch (ClassNotFoundException e) {
+				// data of a plugin which is no longer loaded, drop it like the javabeans store does
+			}
+		}
+		return map;
+	}
+
+	private static void writeXML(DataOutputStream out, Object object) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		XMLEncoder enc = new XMLEncoder(bytes);
+		ClassLoader prevCL = Thread.currentThread().getContextClassLoader();
+		try {
+			Thread.currentThread().setContextClassLoader(getClassLoader());
+			enc.setPersistenceDelegate(Key.class,
+					new DefaultPersistenceDelegate(new String[] { "owner", "key" }));
+			enc.setPersistenceDelegate(HostMask.class,
+					new DefaultPersistenceDelegate(new String[] { "mask" }));
+			enc.writeObject(object);
+		} finally {
+			enc.close();
+			Thread.currentThread().setContextClassLoader(prevCL);
+		}
+		out.writeInt(MAP_XML);
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+	}
+
+	private static Object readXML(DataInput in, final String username) throws IOException {
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		XMLDecoder dec = new XMLDecoder(new ByteArrayInputStream(data));
+		dec.setExceptionListener(new ExceptionListener() {
+			public void exceptionThrown(Exception e) {
+				logger.error("Error decoding the data of " + username, e);
+			}
+		});
+		ClassLoader prevCL = Thread.currentThread().getContextClassLoader();
+		try {
+			Thread.currentThread().setContextClassLoader(getClassLoader());
+			return dec.readObject();
+		} catch (RuntimeException e) {
+			logger.error("Unable to decode the data of " + username, e);
+			return null;
+		} finally {
+			dec.close();
+			Thread.currentThread().setContextClassLoader(prevCL);
+		}
+	}
+}
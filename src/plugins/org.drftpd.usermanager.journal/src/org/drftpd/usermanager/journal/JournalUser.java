@@ -0,0 +1,85 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.usermanager.journal;
+
+import java.io.IOException;
+
+import org.drftpd.master.CommitManager;
+import org.drftpd.usermanager.AbstractUser;
+import org.drftpd.usermanager.AbstractUserManager;
+import org.drftpd.usermanager.UserManager;
+
+/**
+ * User of the {@link JournalUserManager}, always resident in memory.
+ * @version $Id$
+ */
+public class JournalUser extends AbstractUser {
+
+	private final JournalUserManager _um;
+
+	private String _password = "";
+
+	private boolean _purged;
+
+	public JournalUser(JournalUserManager manager, String username) {
+		super(username);
+		_um = manager;
+	}
+
+	public AbstractUserManager getAbstractUserManager() {
+		return _um;
+	}
+
+	public UserManager getUserManager() {
+		return _um;
+	}
+
+	public boolean checkPassword(String password) {
+		return password.equals(_password);
+	}
+
+	public void commit() {
+		if (!_purged) {
+			_um.getUserRankings().update(this);
+		}
+		CommitManager.getCommitManager().add(this);
+	}
+
+	public void purge() {
+		_purged = true;
+		_um.delete(getName());
+	}
+
+	public String getPassword() {
+		return _password;
+	}
+
+	public void setPassword(String password) {
+		_password = password;
+	}
+
+	public void writeToDisk() throws IOException {
+		if (_purged)
+			return;
+		_um.writeUser(this);
+	}
+
+	public String descriptiveName() {
+		return getName();
+	}
+}
@@ -0,0 +1,475 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.usermanager.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+import org.drftpd.GlobalContext;
+import org.drftpd.master.CommitManager;
+import org.drftpd.usermanager.AbstractUserManager;
+import org.drftpd.usermanager.NoSuchUserException;
+import org.drftpd.usermanager.User;
+import org.drftpd.usermanager.UserExistsException;
+import org.drftpd.usermanager.UserFileException;
+import org.drftpd.usermanager.javabeans.BeanUser;
+import org.drftpd.usermanager.javabeans.BeanUserManager;
+
+/**
+ * User manager keeping every user resident in memory, so lookups and
+ * {@link #getAllUsers()} never touch the disk.<br>
+ * Users are stored in a single append-only journal of checksummed binary
+ * records, each commit appends the whole user encoded by the
+ * {@link BinaryUserCodec}. The CommitManager already coalesces repeated
+ * commits of a user, so a busy user costs one small append per commit
+ * round instead of rewriting an XML file.<br>
+ * Once the journal grows well beyond the size of the live records it is
+ * replaced by a snapshot of the current users. A partially written record
+ * at the end of the journal is dropped when it is opened.<br>
+ * If no journal exists, the users of the javabeans user manager are
+ * imported on startup and their files are left untouched.
+ * @version $Id$
+ */
+public class JournalUserManager extends AbstractUserManager {
+
+	private static final Logger logger = Logger.getLogger(JournalUserManager.class);
+
+	private static final String _userpath = "users/journal/";
+	private static final File _userpathFile = new File(_userpath);
+
+	private static final int MAGIC = 0x44525553;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 8;
+
+	private static final byte OP_WRITE = 1;
+	private static final byte OP_DELETE = 2;
+
+	private final ConcurrentHashMap<String, JournalUser> _resident = new ConcurrentHashMap<String, JournalUser>();
+
+	/**
+	 * Size of the latest record of every stored user, guarded by _journalLock.
+	 */
+	private final HashMap<String, Integer> _recordSizes = new HashMap<String, Integer>();
+
+	private final Object _journalLock = new Object();
+
+	private File _journalFile;
+
+	private long _compactMinSize;
+
+	private FileChannel _channel;
+
+	private long _journalSize;
+
+	private long _liveBytes;
+
+	/**
+	 * UserManager initializer.
+	 * @throws UserFileException
+	 */
+	public void init() throws UserFileException {
+		super.init();
+		Properties cfg = GlobalContext.getGlobalContext().getPluginsConfig()
+				.getPropertiesForPlugin("journaluser.conf");
+		long compactSize;
+		try {
+			compactSize = Long.parseLong(cfg.getProperty("compact.size", "8").trim()) * 1024 * 1024;
+		} catch (NumberFormatException e) {
+			logger.warn("compact.size is not a valid number, using the default size");
+			compactSize = 8 * 1024 * 1024;
+		}
+		if (!getUserpathFile().exists() && !getUserpathFile().mkdirs()) {
+			throw new UserFileException(new IOException(
+					"Error creating directories: " + getUserpathFile()));
+		}
+		try {
+			open(new File(_userpathFile, "users.journal"), compactSize);
+		} catch (IOException e) {
+			throw new UserFileException("Unable to open the user journal", e);
+		}
+		if (_resident.isEmpty()) {
+			createSiteopUser();
+		}
+	}
+
+	/**
+	 * Opens the journal and loads every user stored in it.
+	 * @param journalFile where the journal is stored.
+	 * @param compactMinSize the journal is never compacted below this size.
+	 */
+	protected void open(File journalFile, long compactMinSize) throws IOException {
+		_journalFile = journalFile;
+		_compactMinSize = compactMinSize;
+		_users = new HashMap<String, SoftReference<User>>();
+		if (!_journalFile.exists() && hasJavaBeansUsers()) {
+			importJavaBeans();
+		}
+		synchronized (_journalLock) {
+			for (Map.Entry<String, byte[]> record : readJournal().entrySet()) {
+				try {
+					addResident(BinaryUserCodec.decode(record.getValue(), this));
+				} catch (IOException e) {
+					logger.error("Unable to decode user " + record.getKey() + ", the user is lost", e);
+				}
+			}
+		}
+		logger.info("Loaded " + _resident.size() + " users from " + _journalFile);
+	}
+
+	/**
+	 * Reads the journal, creating it if needed, and opens it for appending.
+	 * @return the latest data of every stored user.
+	 */
+	private LinkedHashMap<String, byte[]> readJournal() throws IOException {
+		LinkedHashMap<String, byte[]> users = new LinkedHashMap<String, byte[]>();
+		_recordSizes.clear();
+		_liveBytes = 0;
+		boolean created = !_journalFile.exists();
+		_channel = new RandomAccessFile(_journalFile, "rw").getChannel();
+		if (created) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			_channel.write(header, 0);
+			_journalSize = HEADER_SIZE;
+			return users;
+		}
+		long position = HEADER_SIZE;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_journalFile), 65536));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(_journalFile + " is not a user journal this version can read");
+			}
+			CRC32 crc = new CRC32();
+			while (true) {
+				int length;
+				byte[] body;
+				try {
+					length = in.readInt();
+					if (length <= 0 || position + length + 8 > _channel.size()) {
+						throw new EOFException();
+					}
+					body = new byte[length];
+					in.readFully(body);
+					crc.reset();
+					crc.update(body);
+					if (in.readInt() != (int) crc.getValue()) {
+						throw new EOFException();
+					}
+				} catch (EOFException e) {
+					break;
+				}
+				DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+				byte op = record.readByte();
+				String name = record.readUTF();
+				if (op == OP_WRITE) {
+					byte[] payload = new byte[record.available()];
+					record.readFully(payload);
+					users.remove(name);
+					users.put(name, payload);
+					setRecordSize(name, length + 8);
+				} else if (op == OP_DELETE) {
+					users.remove(name);
+					setRecordSize(name, 0);
+				} else {
+					throw new IOException("Unknown record type " + op + " in " + _journalFile);
+				}
+				position += length + 8;
+			}
+		} finally {
+			in.close();
+		}
+		if (position < _channel.size()) {
+			logger.warn("Dropping " + (_channel.size() - position)
+					+ " bytes of incomplete records at the end of " + _journalFile);
+			_channel.truncate(position);
+		}
+		_journalSize = position;
+		return users;
+	}
+
+	private void setRecordSize(String name, int size) {
+		Integer old = size == 0 ? _recordSizes.remove(name) : _recordSizes.put(name, size);
+		_liveBytes += size - (old == null ? 0 : old);
+	}
+
+	private static byte[] createRecord(byte op, String name, byte[] payload) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload == null ? 64 : payload.length + 64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		// placeholder for the length
+		out.writeInt(0);
+		out.writeByte(op);
+		out.writeUTF(name);
+		if (payload != null) {
+			out.write(payload);
+		}
+		out.writeInt(0);
+		out.flush();
+		byte[] data = bytes.toByteArray();
+		int length = data.length - 8;
+		CRC32 crc = new CRC32();
+		crc.update(data, 4, length);
+		ByteBuffer.wrap(data).putInt(0, length).putInt(data.length - 4, (int) crc.getValue());
+		return data;
+	}
+
+	/**
+	 * Appends the record to the journal, must be called holding _journalLock.
+	 */
+	private void append(byte[] record) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		while (buffer.hasRemaining()) {
+			_channel.write(buffer, _journalSize + buffer.position());
+		}
+		_journalSize += record.length;
+		CommitManager.getCommitManager().addBytesWritten(record.length);
+	}
+
+	/**
+	 * Appends the current data of the user to the journal, called by
+	 * {@link JournalUser#writeToDisk()}.
+	 */
+	protected void writeUser(JournalUser user) throws IOException {
+		String name = user.getName();
+		byte[] record = createRecord(OP_WRITE, name, BinaryUserCodec.encode(user, user.getPassword()));
+		synchronized (_journalLock) {
+			if (_resident.get(name) != user) {
+				// deleted or being renamed, the user is written again once renamed
+				return;
+			}
+			append(record);
+			setRecordSize(name, record.length);
+			if (_journalSize > _compactMinSize && _journalSize > _liveBytes * 4) {
+				compact();
+			}
+		}
+		logger.debug("Wrote user " + name);
+	}
+
+	/**
+	 * Replaces the journal with a snapshot of the resident users, must be
+	 * called holding _journalLock.
+	 */
+	private void compact() {
+		long start = System.currentTimeMillis();
+		long oldSize = _journalSize;
+		File snapshot = new File(_journalFile.getPath() + ".snapshot");
+		HashMap<String, Integer> sizes = new HashMap<String, Integer>();
+		long size = HEADER_SIZE;
+		try {
+			FileOutputStream fos = new FileOutputStream(snapshot);
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 65536));
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				for (JournalUser user : _resident.values()) {
+					byte[] record = createRecord(OP_WRITE, user.getName(),
+							BinaryUserCodec.encode(user, user.getPassword()));
+					out.write(record);
+					sizes.put(user.getName(), record.length);
+					size += record.length;
+				}
+				out.flush();
+				fos.getFD().sync();
+			} finally {
+				fos.close();
+			}
+			_channel.close();
+			replaceJournal(snapshot);
+			_channel = new RandomAccessFile(_journalFile, "rw").getChannel();
+			_journalSize = size;
+			_recordSizes.clear();
+			_recordSizes.putAll(sizes);
+			_liveBytes = size - HEADER_SIZE;
+			logger.info("Compacted " + _journalFile + " from " + oldSize + " to " + _journalSize
+					+ " bytes in " + (System.currentTimeMillis() - start) + "ms");
+		} catch (IOException e) {
+			logger.error("Unable to compact " + _journalFile, e);
+			snapshot.delete();
+			if (!_channel.isOpen()) {
+				try {
+					// nothing was replaced if the channel is closed but the move failed
+					_channel = new RandomAccessFile(_journalFile, "rw").getChannel();
+				} catch (IOException e1) {
+					throw new RuntimeException("Unable to reopen " + _journalFile, e1);
+				}
+			}
+		}
+	}
+
+	private void replaceJournal(File snapshot) throws IOException {
+		try {
+			Files.move(snapshot.toPath(), _journalFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(snapshot.toPath(), _journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static File getJavaBeansPath() {
+		return new File("users/javabeans/");
+	}
+
+	private static boolean hasJavaBeansUsers() {
+		String[] files = getJavaBeansPath().list();
+		if (files == null) {
+			return false;
+		}
+		for (String file : files) {
+			if (file.endsWith(".xml")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Converts the users of the javabeans user manager into a journal.
+	 */
+	private void importJavaBeans() throws IOException {
+		logger.info("Importing the users from " + getJavaBeansPath() + " into " + _journalFile);
+		JavaBeansReader reader = new JavaBeansReader();
+		File snapshot = new File(_journalFile.getPath() + ".import");
+		FileOutputStream fos = new FileOutputStream(snapshot);
+		int imported = 0;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 65536));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			for (String file : getJavaBeansPath().list()) {
+				if (!file.endsWith(".xml")) {
+					continue;
+				}
+				String name = file.substring(0, file.length() - 4);
+				try {
+					BeanUser user = reader.read(name);
+					out.write(createRecord(OP_WRITE, name, BinaryUserCodec.encode(user, user.getPassword())));
+					imported++;
+				} catch (NoSuchUserException e) {
+					logger.warn("Unable to import " + name, e);
+				} catch (UserFileException e) {
+					logger.warn("Unable to import " + name, e);
+				}
+			}
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		replaceJournal(snapshot);
+		logger.info("Imported " + imported + " users");
+	}
+
+	private void addResident(JournalUser user) {
+		_resident.put(user.getName(), user);
+		// kept alive by _resident, the soft reference is never cleared
+		_users.put(user.getName(), new SoftReference<User>(user));
+	}
+
+	/**
+	 * Creates a user named 'username' and adds it to the users map.
+	 */
+	protected synchronized User createUser(String username) {
+		JournalUser user = new JournalUser(this, username);
+		addResident(user);
+		return user;
+	}
+
+	public synchronized void delete(String username) {
+		_resident.remove(username);
+		_users.remove(username);
+		getUserRankings().remove(username);
+		synchronized (_journalLock) {
+			if (!_recordSizes.containsKey(username)) {
+				return;
+			}
+			try {
+				append(createRecord(OP_DELETE, username, null));
+				setRecordSize(username, 0);
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to delete " + username + " from " + _journalFile, e);
+			}
+		}
+	}
+
+	protected synchronized void rename(User oldUser, String newUsername)
+			throws UserExistsException, UserFileException {
+		super.rename(oldUser, newUsername);
+		_resident.remove(oldUser.getName());
+		_resident.put(newUsername, (JournalUser) oldUser);
+	}
+
+	/**
+	 * Lists all users, they are always in memory.
+	 */
+	public Collection<User> getAllUsers() {
+		return new ArrayList<User>(_resident.values());
+	}
+
+	public User getUserByNameUnchecked(String username)
+			throws NoSuchUserException, UserFileException {
+		User user = _resident.get(username);
+		if (user == null) {
+			throw new NoSuchUserException("No such user found: " + username);
+		}
+		return user;
+	}
+
+	protected final File getUserpathFile() {
+		return _userpathFile;
+	}
+
+	protected final File getUserFile(String username) {
+		return _journalFile;
+	}
+
+	/**
+	 * Gives access to the user loading of the javabeans user manager.
+	 */
+	private static class JavaBeansReader extends BeanUserManager {
+		private BeanUser read(String name) throws NoSuchUserException, UserFileException {
+			return (BeanUser) loadUser(name);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.usermanager.journal;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.drftpd.commands.UserManagement;
+import org.drftpd.usermanager.NoSuchUserException;
+import org.drftpd.usermanager.User;
+
+/**
+ * @version $Id$
+ */
+public class JournalUserManagerTest extends TestCase {
+
+	private File _journal;
+
+	private JournalUserManager _um;
+
+	protected void setUp() throws Exception {
+		_journal = File.createTempFile("drftpd", ".journal");
+		_journal.delete();
+		reopen();
+	}
+
+	protected void tearDown() {
+		_journal.delete();
+	}
+
+	private void reopen() throws Exception {
+		_um = new JournalUserManager();
+		_um.open(_journal, 0);
+	}
+
+	private JournalUser create(String name) throws Exception {
+		return (JournalUser) _um.create(name);
+	}
+
+	public void testWriteAndRead() throws Exception {
+		JournalUser user = create("alice");
+		user.setPassword("secret");
+		user.setGroup("group");
+		user.addSecondaryGroup("siteop");
+		user.addIPMask("*@127.0.0.1");
+		user.setCredits(1234L);
+		user.setUploadedBytesForPeriod(JournalUser.P_DAY, 4096L);
+		user.setDownloadedFilesForPeriod(JournalUser.P_ALL, 7);
+		user.getKeyedMap().setObject(UserManagement.LASTSEEN, new Date(5000L));
+		user.getKeyedMap().setObject(UserManagement.MAXLOGINS, 3);
+		user.writeToDisk();
+		reopen();
+		User loaded = _um.getUserByName("alice");
+		assertTrue(loaded.checkPassword("secret"));
+		assertEquals("group", loaded.getGroup());
+		assertTrue(loaded.isMemberOf("siteop"));
+		assertEquals("*@127.0.0.1", loaded.getHostMaskCollection().get(0).getMask());
+		assertEquals(1234L, loaded.getCredits());
+		assertEquals(4096L, loaded.getUploadedBytesDay());
+		assertEquals(7, loaded.getDownloadedFiles());
+		assertEquals(new Date(5000L), loaded.getKeyedMap().getObject(UserManagement.LASTSEEN));
+		assertEquals(Integer.valueOf(3), loaded.getKeyedMap().getObject(UserManagement.MAXLOGINS));
+		assertEquals(1, _um.getAllUsers().size());
+	}
+
+	public void testRenameAndDelete() throws Exception {
+		create("alice").writeToDisk();
+		create("bob").writeToDisk();
+		JournalUser alice = (JournalUser) _um.getUserByName("alice");
+		alice.rename("carol");
+		alice.writeToDisk();
+		_um.getUserByName("bob").purge();
+		reopen();
+		assertEquals(1, _um.getAllUsers().size());
+		assertEquals("carol", _um.getUserByName("carol").getName());
+		try {
+			_um.getUserByName("alice");
+			fail("Renamed user is still stored under its old name");
+		} catch (NoSuchUserException e) {
+			// expected
+		}
+	}
+
+	public void testCompaction() throws Exception {
+		JournalUser user = create("alice");
+		for (int i = 0; i < 100; i++) {
+			user.setCredits(i);
+			user.writeToDisk();
+		}
+		assertTrue(_journal.length() < 4096);
+		reopen();
+		assertEquals(99L, _um.getUserByName("alice").getCredits());
+	}
+
+	public void testTruncatedRecordIsDropped() throws Exception {
+		create("alice").writeToDisk();
+		create("bob").writeToDisk();
+		RandomAccessFile raf = new RandomAccessFile(_journal, "rw");
+		raf.setLength(raf.length() - 3);
+		raf.close();
+		reopen();
+		assertEquals(1, _um.getAllUsers().size());
+		_um.getUserByName("alice");
+	}
+}
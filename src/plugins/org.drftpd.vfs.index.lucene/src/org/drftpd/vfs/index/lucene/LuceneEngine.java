@@ -49,7 +49,6 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.NumericRangeQuery;
 import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.TotalHitCountCollector;
 import org.apache.lucene.search.regex.RegexQuery;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Scorer;
@@ -75,6 +74,7 @@ import org.drftpd.vfs.DirectoryHandle;
 import org.drftpd.vfs.InodeHandle;
 import org.drftpd.vfs.VirtualFileSystem;
 import org.drftpd.vfs.event.ImmutableInodeHandle;
+import org.drftpd.vfs.index.AdvancedSearchCursor;
 import org.drftpd.vfs.index.AdvancedSearchParams;
 import org.drftpd.vfs.index.IndexEngineInterface;
 import org.drftpd.vfs.index.IndexException;
@@ -136,6 +136,7 @@ public class LuceneEngine implements IndexEngineInterface {
 
 	private Directory _storage;
 	private IndexWriter _iWriter;
+	private LuceneSearcherManager _searcherManager;
 
 	private static final TermQuery QUERY_DIRECTORY = new TermQuery(new Term("type", "d"));
 	private static final TermQuery QUERY_FILE = new TermQuery(new Term("type", "f"));
@@ -152,11 +153,15 @@ public class LuceneEngine implements IndexEngineInterface {
 	private static final SimpleSearchFieldSelector SIMPLE_FIELD_SELECTOR = new SimpleSearchFieldSelector();
 	private static final AdvancedSearchFieldSelector ADVANCED_FIELD_SELECTOR = new AdvancedSearchFieldSelector();
 
-	private Sort SORT = new Sort();
-
 	private int _maxHitsNumber;
+	private int _searchPageSize;
+	private long _maxSearchTime;
 	private int _maxDocsBuffer;
 	private int _maxRAMBufferSize;
+	private int _searcherRefreshInterval;
+	private int _updateDelay;
+	private int _updateQueueSize;
+	private boolean _flushOnQuery;
 
 	private boolean _nativeLocking;
 
@@ -224,7 +229,7 @@ public class LuceneEngine implements IndexEngineInterface {
 			_backupThread.start();
 		}
 
-		_listener = new IndexingVirtualFileSystemListener();
+		_listener = new IndexingVirtualFileSystemListener(_updateDelay, _updateQueueSize);
 		_listener.init();
 	}
 
@@ -251,6 +256,7 @@ public class LuceneEngine implements IndexEngineInterface {
 			conf.setRAMBufferSizeMB(_maxRAMBufferSize);
 
 			_iWriter = new IndexWriter(_storage, conf);
+			_searcherManager = new LuceneSearcherManager(_iWriter, _searcherRefreshInterval);
 		} catch (IOException e) {
 			closeAll();
 
@@ -265,9 +271,15 @@ public class LuceneEngine implements IndexEngineInterface {
 	private void reload() {
 		Properties cfg = GlobalContext.getGlobalContext().getPluginsConfig().getPropertiesForPlugin("lucene");
 		_maxHitsNumber = Integer.parseInt(cfg.getProperty("max_hits", "50"));
+		_searchPageSize = Integer.parseInt(cfg.getProperty("search_page_size", "100"));
+		_maxSearchTime = Long.parseLong(cfg.getProperty("max_search_time", "10000"));
 		_maxDocsBuffer = Integer.parseInt(cfg.getProperty("maxdocs_buffer", "-1"));
 		_maxRAMBufferSize = Integer.parseInt(cfg.getProperty("max_rambuffer", "16"));
 		_nativeLocking = cfg.getProperty("native_locking", "true").equals("true");
+		_searcherRefreshInterval = Integer.parseInt(cfg.getProperty("searcher_refresh_interval", "1000"));
+		_updateDelay = Integer.parseInt(cfg.getProperty("update_delay", "500"));
+		_updateQueueSize = Integer.parseInt(cfg.getProperty("update_queue_size", "10000"));
+		_flushOnQuery = cfg.getProperty("flush_on_query", "false").equals("true");
 
 		// in minutes, convert'em!
 		int optimizeInterval = Integer.parseInt(cfg.getProperty("optimize_interval", "15")) * 60 * 1000;
@@ -287,6 +299,8 @@ public class LuceneEngine implements IndexEngineInterface {
 	 */
 	private void closeAll() {
 		try {
+			if (_searcherManager != null)
+				_searcherManager.close();
 			if (_iWriter != null)
 				_iWriter.close();
 			if (_storage != null)
@@ -295,6 +309,7 @@ public class LuceneEngine implements IndexEngineInterface {
 			logger.error(e, e);
 		}
 
+		_searcherManager = null;
 		_iWriter = null;
 		_storage = null;
 	}
@@ -402,15 +417,6 @@ public class LuceneEngine implements IndexEngineInterface {
 		return new TermQuery(TERM_GROUP.createTerm(group));
 	}
 
-	private void setSortField(boolean order) {
-		SORT.setSort(new SortField("fullPath", SortField.STRING, order));
-	}
-
-	private void setSortField(String field, int type, boolean order) {
-		SORT.setSort(new SortField(field, type, order),
-				new SortField("fullPath", SortField.STRING, order));
-	}
-
 	/* {@inheritDoc} */
 	public void addInode(ImmutableInodeHandle inode) throws IndexException {
 		try {
@@ -418,6 +424,7 @@ public class LuceneEngine implements IndexEngineInterface {
 				Document doc = makeDocumentFromInode(inode);
 				_iWriter.addDocument(doc);
 			}
+			_searcherManager.setStale();
 		} catch (FileNotFoundException e) {
 			logger.error("Unable to add " + inode.getPath() + " to the index", e);
 		} catch (CorruptIndexException e) {
@@ -431,6 +438,7 @@ public class LuceneEngine implements IndexEngineInterface {
 	public void deleteInode(ImmutableInodeHandle inode) throws IndexException {
 		try {
 			_iWriter.deleteDocuments(makeFullPathTermFromInode(inode));
+			_searcherManager.setStale();
 		} catch (CorruptIndexException e) {
 			throw new IndexException("Unable to delete " + inode.getPath() + " from the index", e);
 		} catch (IOException e) {
@@ -444,6 +452,7 @@ public class LuceneEngine implements IndexEngineInterface {
 			synchronized (INDEX_DOCUMENT) {
 				_iWriter.updateDocument(makeFullPathTermFromInode(inode), makeDocumentFromInode(inode));
 			}
+			_searcherManager.setStale();
 		} catch (FileNotFoundException e) {
 			logger.error("The inode was here but now it isn't!", e);
 		} catch (CorruptIndexException e) {
@@ -456,19 +465,19 @@ public class LuceneEngine implements IndexEngineInterface {
 	/* {@inheritDoc} */
 	public void renameInode(ImmutableInodeHandle fromInode, ImmutableInodeHandle toInode) throws IndexException {
 		IndexSearcher iSearcher = null;
-		IndexReader iReader = null;
 		try {
 			Term fromInodeTerm = makeFullPathTermFromInode(fromInode);
 			synchronized (INDEX_DOCUMENT) {
 				_iWriter.updateDocument(fromInodeTerm, makeDocumentFromInode(toInode));
 			}
+			_searcherManager.setStale();
 			if (toInode.isDirectory()) {
 				PrefixQuery prefixQuery = new PrefixQuery(fromInodeTerm);
 
-				iReader = IndexReader.open(_iWriter, true);
-				iSearcher = new IndexSearcher(iReader);
+				// the children must all be visible to be renamed
+				iSearcher = _searcherManager.acquire(true);
 
-				final BitSet bits = new BitSet(iReader.maxDoc());
+				final BitSet bits = new BitSet(iSearcher.maxDoc());
 				iSearcher.search(prefixQuery, new Collector() {
 					private int docBase;
 
@@ -519,18 +528,7 @@ public class LuceneEngine implements IndexEngineInterface {
 					toInode.getPath() + " in the index", e);
 		} finally {
 			if (iSearcher != null) {
-				try {
-					iSearcher.close();
-				} catch (IOException e) {
-					logger.error("IOException closing IndexSearcher", e);
-				}
-			}
-			if (iReader != null) {
-				try {
-					iReader.close();
-				} catch (IOException e) {
-					logger.error("IOException closing IndexReader obtained from the IndexWriter", e);
-				}
+				_searcherManager.release(iSearcher);
 			}
 		}
 	}
@@ -542,6 +540,7 @@ public class LuceneEngine implements IndexEngineInterface {
 	public void commit() throws IndexException {
 		try {
 			_iWriter.commit();
+			_searcherManager.refresh();
 		} catch (CorruptIndexException e) {
 			throw new IndexException("Unable to commit the index", e);
 		} catch (IOException e) {
@@ -556,6 +555,7 @@ public class LuceneEngine implements IndexEngineInterface {
 		}
 		_rebuilding = true;
 
+		_listener.flush();
 		closeAll();
 
 		PhysicalFile f = new PhysicalFile(INDEX_DIR);
@@ -567,6 +567,7 @@ public class LuceneEngine implements IndexEngineInterface {
 			DirectoryHandle root = GlobalContext.getGlobalContext().getRoot();
 			root.requestRefresh(true); // Start by adding root inode
 			recurseAndBuild(root); // Recursively traverse the VFS and add all inodes
+			_listener.flush(); // wait for the queued inodes to be indexed
 			commit(); // commit the writer so that the searcher can see the new stuff.
 		} catch (IndexException e) {
 			logger.error("Exception whilst rebuilding lucene index",e);
@@ -617,6 +618,18 @@ public class LuceneEngine implements IndexEngineInterface {
 		return _rebuilding;
 	}
 
+	/**
+	 * @return a searcher for a query, which sees every modification made to
+	 * the VFS so far if flush_on_query is enabled.
+	 */
+	private IndexSearcher acquireSearcher() throws IOException {
+		if (_flushOnQuery) {
+			_listener.flush();
+			return _searcherManager.acquire(true);
+		}
+		return _searcherManager.acquire();
+	}
+
 	/**
 	 * @param startNode
 	 *            The dir where the search will begin.
@@ -625,157 +638,192 @@ public class LuceneEngine implements IndexEngineInterface {
 	 */
 	public Map<String,String> advancedFind(DirectoryHandle startNode, AdvancedSearchParams params)
 	throws IndexException, IllegalArgumentException {
+		// callers of this method rely on complete results, so no time budget
+		// and a single pass over the index whatever the limit
+		BooleanQuery query = makeAdvancedQuery(startNode, params);
+		Sort sort = makeAdvancedSort(params);
+
+		int limit = _maxHitsNumber;
+		if (params.getLimit() != null) {
+			limit = params.getLimit();
+		}
+
+		logger.debug("Query: " + query);
+
 		IndexSearcher iSearcher = null;
-		IndexReader iReader = null;
+		long start = System.nanoTime();
 		try {
+			iSearcher = acquireSearcher();
+			int[] docs;
+			if (limit == 0) {
+				SortedHitsCollector sortedHitsCollector = new SortedHitsCollector(sort.getSort());
+				iSearcher.search(query, sortedHitsCollector);
+				docs = sortedHitsCollector.getDocs();
+			} else {
+				TopFieldCollector topFieldCollector = TopFieldCollector.create(sort, limit, true, false, false, false);
+				iSearcher.search(query, topFieldCollector);
+				ScoreDoc[] hits = topFieldCollector.topDocs().scoreDocs;
+				docs = new int[hits.length];
+				for (int i = 0; i < hits.length; i++) {
+					docs[i] = hits[i].doc;
+				}
+			}
+
 			Map<String,String> inodes = new LinkedHashMap<String,String>();
+			for (int doc : docs) {
+				Document document = iSearcher.doc(doc, ADVANCED_FIELD_SELECTOR);
+				inodes.put(document.getFieldable("fullPath").stringValue(), document.getFieldable("type").stringValue());
+			}
+			return inodes;
+		} catch (CorruptIndexException e) {
+			logger.error(EXCEPTION_OCCURED_WHILE_SEARCHING, e);
+			throw new IndexException("Unable to search the index", e);
+		} catch (IOException e) {
+			logger.error(EXCEPTION_OCCURED_WHILE_SEARCHING, e);
+			throw new IndexException("Unable to search the index", e);
+		} finally {
+			if (iSearcher != null) {
+				_searcherManager.release(iSearcher);
+				_searcherManager.searchDone(start);
+			}
+		}
+	}
 
-			BooleanQuery query = new BooleanQuery();
+	/**
+	 * @param startNode
+	 *            The dir where the search will begin.
+	 * @param params
+	 *            Search options.
+	 */
+	public AdvancedSearchCursor advancedFindCursor(DirectoryHandle startNode, AdvancedSearchParams params)
+	throws IndexException, IllegalArgumentException {
+		BooleanQuery query = makeAdvancedQuery(startNode, params);
+		Sort sort = makeAdvancedSort(params);
 
-			if (!startNode.getPath().equals(VirtualFileSystem.separator)) {
-				PrefixQuery parentQuery = new PrefixQuery(makeParentPathTermFromInode(startNode));
-				query.add(parentQuery, Occur.MUST);
-			}
+		int limit = _maxHitsNumber;
+		if (params.getLimit() != null) {
+			limit = params.getLimit();
+		}
 
-			if (params.getInodeType() == InodeType.ANY) {
-				/*
-				 * The following isnt needed, we simply ignore search for this
-				 * field.
-				 *
-				 * query.add(QUERY_DIRECTORY, Occur.SHOULD);
-				 * query.add(QUERY_FILE, Occur.SHOULD);
-				 */
-			} else if (params.getInodeType() == InodeType.DIRECTORY) {
-				query.add(QUERY_DIRECTORY, Occur.MUST);
-			} else if (params.getInodeType() == InodeType.FILE) {
-				query.add(QUERY_FILE, Occur.MUST);
-			}
+		logger.debug("Query: " + query);
 
-			if (params.getOwner() != null) {
-				query.add(makeOwnerTermQueryFromString(params.getOwner()), Occur.MUST);
-			}
-			if (params.getGroup() != null) {
-				query.add(makeGroupTermQueryFromString(params.getGroup()), Occur.MUST);
-			}
+		try {
+			return new LuceneSearchCursor(_searcherManager, acquireSearcher(), query, sort,
+					limit, _searchPageSize, _maxSearchTime);
+		} catch (IOException e) {
+			logger.error(EXCEPTION_OCCURED_WHILE_SEARCHING, e);
+			throw new IndexException("Unable to search the index", e);
+		}
+	}
 
-			if (!params.getSlaves().isEmpty()) {
-				StringBuilder sb = new StringBuilder();
-				for (String slaveName : params.getSlaves()) {
-					sb.append(slaveName).append(" ");
-				}
-				Query slaveQuery = LuceneUtils.analyze("slaves", TERM_SLAVES, sb.toString().trim());
-				query.add(slaveQuery, Occur.MUST);
-			}
+	private BooleanQuery makeAdvancedQuery(DirectoryHandle startNode, AdvancedSearchParams params)
+	throws IllegalArgumentException {
+		BooleanQuery query = new BooleanQuery();
 
-			if (params.getMinAge() != null || params.getMaxAge() != null) {
-				Query ageQuery = NumericRangeQuery.newLongRange("lastModified",
-						params.getMinAge(), params.getMaxAge(), true, true);
-				query.add(ageQuery, Occur.MUST);
-			}
+		if (!startNode.getPath().equals(VirtualFileSystem.separator)) {
+			PrefixQuery parentQuery = new PrefixQuery(makeParentPathTermFromInode(startNode));
+			query.add(parentQuery, Occur.MUST);
+		}
 
-			if (params.getMinSize() != null || params.getMaxSize() != null) {
-				Query sizeQuery = NumericRangeQuery.newLongRange("size",
-						params.getMinSize(), params.getMaxSize(), true, true);
-				query.add(sizeQuery, Occur.MUST);
-			}
+		if (params.getInodeType() == InodeType.ANY) {
+			/*
+			 * The following isnt needed, we simply ignore search for this
+			 * field.
+			 *
+			 * query.add(QUERY_DIRECTORY, Occur.SHOULD);
+			 * query.add(QUERY_FILE, Occur.SHOULD);
+			 */
+		} else if (params.getInodeType() == InodeType.DIRECTORY) {
+			query.add(QUERY_DIRECTORY, Occur.MUST);
+		} else if (params.getInodeType() == InodeType.FILE) {
+			query.add(QUERY_FILE, Occur.MUST);
+		}
 
-			if (params.getMinSlaves() != null || params.getMaxSlaves() != null) {
-				Query nbrOfSlavesQuery = NumericRangeQuery.newIntRange("nbrOfSlaves",
-						params.getMinSlaves(), params.getMaxSlaves(), true, true);
-				query.add(nbrOfSlavesQuery, Occur.MUST);
-			}
+		if (params.getOwner() != null) {
+			query.add(makeOwnerTermQueryFromString(params.getOwner()), Occur.MUST);
+		}
+		if (params.getGroup() != null) {
+			query.add(makeGroupTermQueryFromString(params.getGroup()), Occur.MUST);
+		}
 
-			if (params.getName() != null) {
-				if (!LuceneUtils.validWildcards(params.getName())) {
-					throw new IllegalArgumentException("Wildcards in the first three chars not allowed.");
-				}
-				Query nameQuery = LuceneUtils.analyze("name", TERM_NAME, params.getName());
-				query.add(nameQuery, Occur.MUST);
-			}
-			if (params.getExact() != null) {
-				if (!LuceneUtils.validWildcards(params.getExact())) {
-					throw new IllegalArgumentException("Wildcards in the first three chars not allowed.");
-				}
-				query.add(makeFullNameWildcardQueryFromString(params.getExact()), Occur.MUST);
-			}
-			if (params.getRegex() != null) {
-				query.add(makeFullPathRegexQueryFromString(params.getRegex()), Occur.MUST);
-			}
-			if (params.getEndsWith() != null) {
-				query.add(makeFullNameReversePrefixQueryFromString(params.getEndsWith()), Occur.MUST);
+		if (!params.getSlaves().isEmpty()) {
+			StringBuilder sb = new StringBuilder();
+			for (String slaveName : params.getSlaves()) {
+				sb.append(slaveName).append(" ");
 			}
+			Query slaveQuery = LuceneUtils.analyze("slaves", TERM_SLAVES, sb.toString().trim());
+			query.add(slaveQuery, Occur.MUST);
+		}
 
-			if (params.getSortField() != null) {
-				if (params.getSortField().equalsIgnoreCase("lastModified") ||
-						params.getSortField().equalsIgnoreCase("size")) {
-					setSortField(params.getSortField(), SortField.LONG, params.getSortOrder());
-				} else if (params.getSortField().equalsIgnoreCase("nbrOfSlaves")) {
-					setSortField(params.getSortField(), SortField.INT, params.getSortOrder());
-				} else if (params.getSortField().equalsIgnoreCase("parentPath") ||
-						params.getSortField().equalsIgnoreCase("owner") ||
-						params.getSortField().equalsIgnoreCase("group") ||
-						params.getSortField().equalsIgnoreCase("type")) {
-					setSortField(params.getSortField(), SortField.STRING, params.getSortOrder());
-				} else {
-					setSortField(params.getSortOrder());
-				}
-			}
+		if (params.getMinAge() != null || params.getMaxAge() != null) {
+			Query ageQuery = NumericRangeQuery.newLongRange("lastModified",
+					params.getMinAge(), params.getMaxAge(), true, true);
+			query.add(ageQuery, Occur.MUST);
+		}
 
-			int limit = _maxHitsNumber;
+		if (params.getMinSize() != null || params.getMaxSize() != null) {
+			Query sizeQuery = NumericRangeQuery.newLongRange("size",
+					params.getMinSize(), params.getMaxSize(), true, true);
+			query.add(sizeQuery, Occur.MUST);
+		}
+
+		if (params.getMinSlaves() != null || params.getMaxSlaves() != null) {
+			Query nbrOfSlavesQuery = NumericRangeQuery.newIntRange("nbrOfSlaves",
+					params.getMinSlaves(), params.getMaxSlaves(), true, true);
+			query.add(nbrOfSlavesQuery, Occur.MUST);
+		}
 
-			if (params.getLimit() != null) {
-				limit = params.getLimit();
+		if (params.getName() != null) {
+			if (!LuceneUtils.validWildcards(params.getName())) {
+				throw new IllegalArgumentException("Wildcards in the first three chars not allowed.");
 			}
-			
-			// Add any query terms from extensions
-			for (QueryTermExtensionInterface queryExtension : _queryExtensions) {
-				queryExtension.addQueryTerms(query, params);
+			Query nameQuery = LuceneUtils.analyze("name", TERM_NAME, params.getName());
+			query.add(nameQuery, Occur.MUST);
+		}
+		if (params.getExact() != null) {
+			if (!LuceneUtils.validWildcards(params.getExact())) {
+				throw new IllegalArgumentException("Wildcards in the first three chars not allowed.");
 			}
+			query.add(makeFullNameWildcardQueryFromString(params.getExact()), Occur.MUST);
+		}
+		if (params.getRegex() != null) {
+			query.add(makeFullPathRegexQueryFromString(params.getRegex()), Occur.MUST);
+		}
+		if (params.getEndsWith() != null) {
+			query.add(makeFullNameReversePrefixQueryFromString(params.getEndsWith()), Occur.MUST);
+		}
 
-			logger.debug("Query: " + query);
-
-			iReader = IndexReader.open(_iWriter, true);
-			iSearcher = new IndexSearcher(iReader);
-			if (limit == 0) {
-				TotalHitCountCollector totalHitCountCollector = new TotalHitCountCollector();
-				iSearcher.search(query, totalHitCountCollector);
-				limit = totalHitCountCollector.getTotalHits();
-				if (limit == 0) {
-					return inodes;
-				}
-				logger.debug("Found " + limit + " inode match(es) in the index, using this as limit.");
-			}
-			TopFieldCollector topFieldCollector = TopFieldCollector.create(SORT, limit, true, false, false, false);
-			iSearcher.search(query, topFieldCollector);
+		// Add any query terms from extensions
+		for (QueryTermExtensionInterface queryExtension : _queryExtensions) {
+			queryExtension.addQueryTerms(query, params);
+		}
 
-			for (ScoreDoc scoreDoc : topFieldCollector.topDocs().scoreDocs) {
-				Document doc = iSearcher.doc(scoreDoc.doc, ADVANCED_FIELD_SELECTOR);
-				inodes.put(doc.getFieldable("fullPath").stringValue(), doc.getFieldable("type").stringValue());
-			}
+		return query;
+	}
 
-			return inodes;
-		} catch (CorruptIndexException e) {
-			logger.error(EXCEPTION_OCCURED_WHILE_SEARCHING, e);
-			throw new IndexException("Unable to search the index", e);
-		} catch (IOException e) {
-			logger.error(EXCEPTION_OCCURED_WHILE_SEARCHING, e);
-			throw new IndexException("Unable to search the index", e);
-		} finally {
-			if (iSearcher != null) {
-				try {
-					iSearcher.close();
-				} catch (IOException e) {
-					logger.error("IOException closing IndexSearcher", e);
-				}
-			}
-			if (iReader != null) {
-				try {
-					iReader.close();
-				} catch (IOException e) {
-					logger.error("IOException closing IndexReader obtained from the IndexWriter", e);
-				}
+	/**
+	 * @return the sort of an advanced search, always ending with the full
+	 * path so that the order of the hits is stable from one page to the next.
+	 */
+	private Sort makeAdvancedSort(AdvancedSearchParams params) {
+		String field = params.getSortField();
+		boolean order = params.getSortOrder();
+		int type = -1;
+		if (field != null) {
+			if (field.equalsIgnoreCase("lastModified") || field.equalsIgnoreCase("size")) {
+				type = SortField.LONG;
+			} else if (field.equalsIgnoreCase("nbrOfSlaves")) {
+				type = SortField.INT;
+			} else if (field.equalsIgnoreCase("parentPath") || field.equalsIgnoreCase("owner") ||
+					field.equalsIgnoreCase("group") || field.equalsIgnoreCase("type")) {
+				type = SortField.STRING;
 			}
 		}
+		if (type == -1) {
+			return new Sort(new SortField("fullPath", SortField.STRING, order));
+		}
+		return new Sort(new SortField(field, type, order),
+				new SortField("fullPath", SortField.STRING, order));
 	}
 
 	/**
@@ -788,7 +836,7 @@ public class LuceneEngine implements IndexEngineInterface {
 	 */
 	public Set<String> findInode(DirectoryHandle startNode, String text, InodeType inodeType) throws IndexException {
 		IndexSearcher iSearcher = null;
-		IndexReader iReader = null;
+		long start = System.nanoTime();
 		try {
 			Set<String> inodes = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
 
@@ -816,8 +864,7 @@ public class LuceneEngine implements IndexEngineInterface {
 				query.add(QUERY_FILE, Occur.MUST);
 			}
 
-			iReader = IndexReader.open(_iWriter, true);
-			iSearcher = new IndexSearcher(iReader);
+			iSearcher = acquireSearcher();
 			TopScoreDocCollector topScoreDocsCollector = TopScoreDocCollector.create(_maxHitsNumber, false);
 			iSearcher.search(query, topScoreDocsCollector);
 			logger.debug("Query: " + query);
@@ -836,18 +883,8 @@ public class LuceneEngine implements IndexEngineInterface {
 			throw new IndexException("Unable to search the index", e);
 		} finally {
 			if (iSearcher != null) {
-				try {
-					iSearcher.close();
-				} catch (IOException e) {
-					logger.error("IOException closing IndexSearcher", e);
-				}
-			}
-			if (iReader != null) {
-				try {
-					iReader.close();
-				} catch (IOException e) {
-					logger.error("IOException closing IndexReader obtained from the IndexWriter", e);
-				}
+				_searcherManager.release(iSearcher);
+				_searcherManager.searchDone(start);
 			}
 		}
 	}
@@ -864,6 +901,9 @@ public class LuceneEngine implements IndexEngineInterface {
 	 * <li>The date of the last uptade of the search engine (key => "last search engine update")</li>
 	 * <li>Amount of cached documents (key => "cached inodes")</li>
 	 * <li>Amount of used memory (key => "ram usage")</li>
+	 * <li>Search and searcher reopen statistics (keys => "searches", "average search time",
+	 * "max search time", "searcher reopens", "average reopen time")</li>
+	 * <li>Queued and merged modifications (keys => "pending updates", "merged updates")</li>
 	 * <li>The size in disk of the index (key => "disk usage")</li>
 	 * </ul>
 	 */
@@ -881,24 +921,28 @@ public class LuceneEngine implements IndexEngineInterface {
 			logger.error("IOException getting IndexWriter", e);
 		}
 
-		IndexReader iReader = null;
+		IndexSearcher iSearcher = null;
 		try {
-			iReader = IndexReader.open(_iWriter, true);
-			status.put("deleted inodes", String.valueOf(iReader.numDeletedDocs()));
+			iSearcher = _searcherManager.acquire();
+			status.put("deleted inodes", String.valueOf(iSearcher.getIndexReader().numDeletedDocs()));
 		} catch (CorruptIndexException e) {
 			logger.error(EXCEPTION_OCCURED_WHILE_SEARCHING, e);
 		} catch (IOException e) {
 			logger.error(EXCEPTION_OCCURED_WHILE_SEARCHING, e);
 		} finally {
-			if (iReader != null) {
-				try {
-					iReader.close();
-				} catch (IOException e) {
-					logger.error("IOException closing IndexReader obtained from the IndexWriter", e);
-				}
+			if (iSearcher != null) {
+				_searcherManager.release(iSearcher);
 			}
 		}
 		
+		status.put("searches", String.valueOf(_searcherManager.getSearches()));
+		status.put("average search time", _searcherManager.getAverageSearchTime() + "us");
+		status.put("max search time", _searcherManager.getMaxSearchTime() + "us");
+		status.put("searcher reopens", String.valueOf(_searcherManager.getReopens()));
+		status.put("average reopen time", _searcherManager.getAverageReopenTime() + "ms");
+		status.put("pending updates", String.valueOf(_listener.getPending()));
+		status.put("merged updates", String.valueOf(_listener.getMerged()));
+
 		status.put("cached inodes", String.valueOf(_iWriter.numRamDocs()));
 		status.put("max hits", String.valueOf(_maxHitsNumber));
 		status.put("last optimization", lastOp);
@@ -975,6 +1019,7 @@ public class LuceneEngine implements IndexEngineInterface {
 	 */
 	private final class IndexShutdownHookRunnable implements Runnable {
 		public void run() {
+			_listener.shutdown();
 			_backupThread.stopBackup();
 			_maintenanceThread.stopMaintenance();
 
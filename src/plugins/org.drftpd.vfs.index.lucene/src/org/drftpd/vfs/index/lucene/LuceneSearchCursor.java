@@ -0,0 +1,160 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs.index.lucene;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TimeLimitingCollector;
+import org.apache.lucene.search.TopFieldCollector;
+import org.drftpd.vfs.index.AdvancedSearchCursor;
+import org.drftpd.vfs.index.IndexException;
+
+/**
+ * Reads the hits of an advanced search page by page.<br>
+ * The searcher is held until the cursor is closed so that every page is read
+ * from the same snapshot of the index, even when the caller modifies the
+ * inodes found. Each page runs the query again keeping only the hits sorting
+ * after the last one returned, so no more than a page of hits is in memory.
+ * Pages start small for the first hits to come quickly and double in size
+ * up to a maximum to limit the number of passes over large results.
+ * @version $Id$
+ */
+public class LuceneSearchCursor implements AdvancedSearchCursor {
+	private static final Logger logger = Logger.getLogger(LuceneSearchCursor.class);
+
+	private static final AdvancedSearchFieldSelector ADVANCED_FIELD_SELECTOR = new AdvancedSearchFieldSelector();
+
+	private static final int MAX_PAGE_GROWTH = 32;
+
+	private LuceneSearcherManager _searcherManager;
+
+	private IndexSearcher _searcher;
+
+	private Query _query;
+
+	private Sort _sort;
+
+	private int _remaining;
+
+	private int _pageSize;
+
+	private int _maxPageSize;
+
+	private long _maxSearchTime;
+
+	private long _searchTime = 0L;
+
+	private FieldDoc _last = null;
+
+	private boolean _timedOut = false;
+
+	/**
+	 * @param limit maximum number of hits to return, 0 for all of them.
+	 * @param maxSearchTime time in milliseconds the pages may take in total to
+	 * be searched, 0 for no limit.
+	 */
+	public LuceneSearchCursor(LuceneSearcherManager searcherManager, IndexSearcher searcher,
+			Query query, Sort sort, int limit, int pageSize, long maxSearchTime) {
+		_searcherManager = searcherManager;
+		_searcher = searcher;
+		_query = query;
+		_sort = sort;
+		_remaining = limit == 0 ? Integer.MAX_VALUE : limit;
+		_pageSize = Math.max(1, pageSize);
+		_maxPageSize = _pageSize * MAX_PAGE_GROWTH;
+		_maxSearchTime = maxSearchTime;
+	}
+
+	public synchronized Map<String,String> nextPage() throws IndexException {
+		Map<String,String> inodes = new LinkedHashMap<String,String>();
+		if (_searcher == null) {
+			return inodes;
+		}
+		long start = System.nanoTime();
+		try {
+			int size = Math.min(_pageSize, _remaining);
+			TopFieldCollector topFieldCollector = TopFieldCollector.create(_sort, size, true, false, false, false);
+			Collector collector = new SearchAfterCollector(topFieldCollector, _sort.getSort(),
+					_last == null ? null : _last.fields);
+			if (_maxSearchTime > 0) {
+				long allowed = _maxSearchTime - _searchTime / 1000000L;
+				if (allowed <= 0) {
+					_timedOut = true;
+					close();
+					return inodes;
+				}
+				collector = new TimeLimitingCollector(collector, allowed);
+			}
+
+			boolean complete = true;
+			try {
+				_searcher.search(_query, collector);
+			} catch (TimeLimitingCollector.TimeExceededException e) {
+				// the hits collected so far are still returned
+				logger.debug("Search ran out of time: " + _query);
+				_timedOut = true;
+				complete = false;
+			}
+
+			ScoreDoc[] hits = topFieldCollector.topDocs().scoreDocs;
+			for (ScoreDoc scoreDoc : hits) {
+				Document doc = _searcher.doc(scoreDoc.doc, ADVANCED_FIELD_SELECTOR);
+				inodes.put(doc.getFieldable("fullPath").stringValue(), doc.getFieldable("type").stringValue());
+			}
+			if (hits.length > 0) {
+				_last = (FieldDoc) hits[hits.length - 1];
+			}
+			_remaining -= hits.length;
+			_pageSize = Math.min(_pageSize * 2, _maxPageSize);
+			_searchTime += System.nanoTime() - start;
+
+			if (!complete || hits.length < size || _remaining == 0) {
+				close();
+			}
+			return inodes;
+		} catch (IOException e) {
+			logger.error("An exception occured while searching the index", e);
+			_searchTime += System.nanoTime() - start;
+			close();
+			throw new IndexException("Unable to search the index", e);
+		}
+	}
+
+	public synchronized boolean isTimedOut() {
+		return _timedOut;
+	}
+
+	public synchronized void close() {
+		if (_searcher != null) {
+			_searcherManager.release(_searcher);
+			// only the time spent searching counts, not what the caller did in between
+			_searcherManager.searchDone(System.nanoTime() - _searchTime);
+			_searcher = null;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs.index.lucene;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class LuceneSearchCursorTest extends TestCase {
+
+	private IndexWriter _writer;
+
+	private LuceneSearcherManager _searcherManager;
+
+	protected void setUp() throws Exception {
+		_writer = new IndexWriter(new RAMDirectory(),
+				new IndexWriterConfig(Version.LUCENE_32, new WhitespaceAnalyzer(Version.LUCENE_32)));
+		// sizes repeat so the full path has to break the ties
+		for (int i = 0; i < 25; i++) {
+			Document doc = new Document();
+			doc.add(new Field("fullPath", "/dir/file" + (char) ('a' + i), Field.Store.YES, Field.Index.NOT_ANALYZED));
+			doc.add(new Field("type", "f", Field.Store.YES, Field.Index.NOT_ANALYZED));
+			doc.add(new NumericField("size", Field.Store.YES, true).setLongValue(i % 4));
+			_writer.addDocument(doc);
+			if (i == 12) {
+				// more than one segment
+				_writer.commit();
+			}
+		}
+		_writer.commit();
+		_searcherManager = new LuceneSearcherManager(_writer, 0);
+	}
+
+	protected void tearDown() throws Exception {
+		_searcherManager.close();
+		_writer.close();
+	}
+
+	private List<String> readAll(Sort sort, int limit, int pageSize) throws Exception {
+		LuceneSearchCursor cursor = new LuceneSearchCursor(_searcherManager, _searcherManager.acquire(),
+				new MatchAllDocsQuery(), sort, limit, pageSize, 0);
+		List<String> paths = new ArrayList<String>();
+		try {
+			for (Map<String,String> page = cursor.nextPage(); !page.isEmpty(); page = cursor.nextPage()) {
+				paths.addAll(page.keySet());
+			}
+		} finally {
+			cursor.close();
+		}
+		return paths;
+	}
+
+	public void testPagesFollowSortOrder() throws Exception {
+		Sort sort = new Sort(new SortField("size", SortField.LONG, true),
+				new SortField("fullPath", SortField.STRING, true));
+		List<String> all = readAll(sort, 0, 100);
+		assertEquals(25, all.size());
+		assertEquals("/dir/filex", all.get(0));
+		assertEquals(all, readAll(sort, 0, 1));
+		assertEquals(all, readAll(sort, 0, 3));
+	}
+
+	public void testSortedHitsInOnePass() throws Exception {
+		Sort sort = new Sort(new SortField("size", SortField.LONG, false),
+				new SortField("fullPath", SortField.STRING, true));
+		IndexSearcher searcher = _searcherManager.acquire();
+		List<String> paths = new ArrayList<String>();
+		try {
+			SortedHitsCollector collector = new SortedHitsCollector(sort.getSort());
+			searcher.search(new MatchAllDocsQuery(), collector);
+			for (int doc : collector.getDocs()) {
+				paths.add(searcher.doc(doc).get("fullPath"));
+			}
+		} finally {
+			_searcherManager.release(searcher);
+		}
+		assertEquals(25, paths.size());
+		assertEquals(readAll(sort, 0, 100), paths);
+	}
+
+	public void testLimit() throws Exception {
+		Sort sort = new Sort(new SortField("fullPath", SortField.STRING, false));
+		List<String> paths = readAll(sort, 7, 2);
+		assertEquals(7, paths.size());
+		assertEquals("/dir/filea", paths.get(0));
+		assertEquals("/dir/fileg", paths.get(6));
+	}
+}
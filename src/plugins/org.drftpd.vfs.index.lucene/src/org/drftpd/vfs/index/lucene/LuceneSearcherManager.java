@@ -0,0 +1,227 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs.index.lucene;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+
+/**
+ * Shares one near real time {@link IndexSearcher} between all the searches.<br>
+ * Changes made through the {@link IndexWriter} mark the searcher as stale, it
+ * is then reopened by the first search made after the refresh interval has
+ * elapsed, other searches keep using the previous searcher meanwhile.<br>
+ * Searchers must be given back with {@link #release(IndexSearcher)}, the
+ * underlying reader is closed once the last search using it is done.
+ * @version $Id$
+ */
+public class LuceneSearcherManager {
+	private static final Logger logger = Logger.getLogger(LuceneSearcherManager.class);
+
+	private final long _refreshInterval;
+
+	private final ReentrantLock _reopenLock = new ReentrantLock();
+
+	private IndexSearcher _current;
+
+	private volatile boolean _stale;
+
+	private volatile long _lastReopen;
+
+	private final AtomicLong _searches = new AtomicLong();
+
+	private final AtomicLong _searchTime = new AtomicLong();
+
+	private final AtomicLong _maxSearchTime = new AtomicLong();
+
+	private final AtomicLong _reopens = new AtomicLong();
+
+	private final AtomicLong _reopenTime = new AtomicLong();
+
+	/**
+	 * @param refreshInterval minimum time in milliseconds between two reopens
+	 * of the searcher.
+	 */
+	public LuceneSearcherManager(IndexWriter writer, long refreshInterval) throws IOException {
+		_refreshInterval = refreshInterval;
+		_current = new IndexSearcher(IndexReader.open(writer, true));
+		_lastReopen = System.currentTimeMillis();
+	}
+
+	/**
+	 * Tells the manager the index was changed.
+	 */
+	public void setStale() {
+		_stale = true;
+	}
+
+	/**
+	 * @return a searcher which may lag behind the index by up to the refresh
+	 * interval.
+	 */
+	public IndexSearcher acquire() throws IOException {
+		return acquire(false);
+	}
+
+	/**
+	 * @param fresh wait for a searcher that sees all the changes made so far.
+	 */
+	public IndexSearcher acquire(boolean fresh) throws IOException {
+		if (fresh) {
+			refresh();
+		} else if (_stale && System.currentTimeMillis() - _lastReopen >= _refreshInterval
+				&& _reopenLock.tryLock()) {
+			try {
+				reopen();
+			} finally {
+				_reopenLock.unlock();
+			}
+		}
+		synchronized (this) {
+			if (_current == null) {
+				throw new IOException("The index searcher was closed");
+			}
+			_current.getIndexReader().incRef();
+			return _current;
+		}
+	}
+
+	/**
+	 * Gives back a searcher obtained from {@link #acquire()}.
+	 */
+	public void release(IndexSearcher searcher) {
+		try {
+			searcher.getIndexReader().decRef();
+		} catch (IOException e) {
+			logger.error("IOException closing IndexReader obtained from the IndexWriter", e);
+		}
+	}
+
+	/**
+	 * Reopens the searcher now if the index changed, regardless of the
+	 * refresh interval.
+	 */
+	public void refresh() throws IOException {
+		_reopenLock.lock();
+		try {
+			reopen();
+		} finally {
+			_reopenLock.unlock();
+		}
+	}
+
+	/**
+	 * Must be called with the reopen lock held.
+	 */
+	private void reopen() throws IOException {
+		if (!_stale) {
+			return;
+		}
+		// changes made while reopening mark it stale again
+		_stale = false;
+		long start = System.currentTimeMillis();
+		IndexReader oldReader;
+		synchronized (this) {
+			if (_current == null) {
+				return;
+			}
+			oldReader = _current.getIndexReader();
+		}
+		IndexReader newReader;
+		try {
+			newReader = oldReader.reopen();
+		} catch (IOException e) {
+			_stale = true;
+			throw e;
+		}
+		if (newReader != oldReader) {
+			synchronized (this) {
+				_current = new IndexSearcher(newReader);
+			}
+			oldReader.decRef();
+		}
+		_lastReopen = System.currentTimeMillis();
+		_reopens.incrementAndGet();
+		_reopenTime.addAndGet(_lastReopen - start);
+	}
+
+	/**
+	 * Records how long a search took, from before acquiring the searcher until
+	 * the results were read.
+	 * @param start {@link System#nanoTime()} when the search started.
+	 */
+	public void searchDone(long start) {
+		long time = System.nanoTime() - start;
+		_searches.incrementAndGet();
+		_searchTime.addAndGet(time);
+		long max = _maxSearchTime.get();
+		while (time > max && !_maxSearchTime.compareAndSet(max, time)) {
+			max = _maxSearchTime.get();
+		}
+	}
+
+	public long getSearches() {
+		return _searches.get();
+	}
+
+	/**
+	 * @return the average search time in microseconds.
+	 */
+	public long getAverageSearchTime() {
+		long searches = _searches.get();
+		return searches == 0 ? 0 : _searchTime.get() / searches / 1000;
+	}
+
+	/**
+	 * @return the longest search time in microseconds.
+	 */
+	public long getMaxSearchTime() {
+		return _maxSearchTime.get() / 1000;
+	}
+
+	public long getReopens() {
+		return _reopens.get();
+	}
+
+	/**
+	 * @return the average reopen time in milliseconds.
+	 */
+	public long getAverageReopenTime() {
+		long reopens = _reopens.get();
+		return reopens == 0 ? 0 : _reopenTime.get() / reopens;
+	}
+
+	/**
+	 * Releases the current searcher, searches still running finish with it.
+	 */
+	public void close() {
+		IndexSearcher searcher;
+		synchronized (this) {
+			searcher = _current;
+			_current = null;
+		}
+		if (searcher != null) {
+			release(searcher);
+		}
+	}
+}
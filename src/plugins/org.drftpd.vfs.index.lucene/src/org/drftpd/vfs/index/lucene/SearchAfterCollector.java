@@ -0,0 +1,141 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs.index.lucene;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SortField;
+
+/**
+ * Passes on to another collector only the documents that sort after a given
+ * hit, which lets a search resume where its previous page ended.<br>
+ * The sort must end with a field unique to every document (the full path)
+ * so no two documents compare equal. Only STRING, LONG and INT fields are
+ * supported, the values are read from the FieldCache the sorting uses anyway.
+ * @version $Id$
+ */
+public class SearchAfterCollector extends Collector {
+	private Collector _delegate;
+
+	private SortField[] _fields;
+
+	private Comparable<?>[] _after;
+
+	private Object[] _values;
+
+	/**
+	 * @param after the sort values of the last hit returned so far, as found
+	 * in its FieldDoc, null to pass on every document.
+	 */
+	public SearchAfterCollector(Collector delegate, SortField[] fields, Comparable<?>[] after) {
+		for (SortField field : fields) {
+			int type = field.getType();
+			if (type != SortField.STRING && type != SortField.LONG && type != SortField.INT) {
+				throw new IllegalArgumentException("Unsupported sort field: " + field);
+			}
+		}
+		_delegate = delegate;
+		_fields = fields;
+		_after = after;
+	}
+
+	/**
+	 * @return the FieldCache values of each sort field for the segment.
+	 */
+	static Object[] loadValues(IndexReader reader, SortField[] fields) throws IOException {
+		Object[] values = new Object[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			String field = fields[i].getField();
+			switch (fields[i].getType()) {
+			case SortField.STRING:
+				values[i] = FieldCache.DEFAULT.getStringIndex(reader, field);
+				break;
+			case SortField.LONG:
+				values[i] = FieldCache.DEFAULT.getLongs(reader, field);
+				break;
+			default:
+				values[i] = FieldCache.DEFAULT.getInts(reader, field);
+			}
+		}
+		return values;
+	}
+
+	public void setScorer(Scorer scorer) throws IOException {
+		_delegate.setScorer(scorer);
+	}
+
+	public void collect(int doc) throws IOException {
+		if (_after != null && compareToAfter(doc) <= 0) {
+			return;
+		}
+		_delegate.collect(doc);
+	}
+
+	public void setNextReader(IndexReader reader, int docBase) throws IOException {
+		if (_after != null) {
+			_values = loadValues(reader, _fields);
+		}
+		_delegate.setNextReader(reader, docBase);
+	}
+
+	public boolean acceptsDocsOutOfOrder() {
+		return _delegate.acceptsDocsOutOfOrder();
+	}
+
+	private int compareToAfter(int doc) {
+		for (int i = 0; i < _fields.length; i++) {
+			int c;
+			switch (_fields[i].getType()) {
+			case SortField.STRING:
+				FieldCache.StringIndex index = (FieldCache.StringIndex) _values[i];
+				c = compareStrings(index.lookup[index.order[doc]], (String) _after[i]);
+				break;
+			case SortField.LONG:
+				long l = ((long[]) _values[i])[doc];
+				long afterLong = ((Long) _after[i]).longValue();
+				c = l < afterLong ? -1 : (l == afterLong ? 0 : 1);
+				break;
+			default:
+				int n = ((int[]) _values[i])[doc];
+				int afterInt = ((Integer) _after[i]).intValue();
+				c = n < afterInt ? -1 : (n == afterInt ? 0 : 1);
+			}
+			if (c != 0) {
+				return _fields[i].getReverse() ? -c : c;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Documents without the field sort first, like Lucene does.
+	 */
+	static int compareStrings(String s, String after) {
+		if (s == null) {
+			return after == null ? 0 : -1;
+		}
+		if (after == null) {
+			return 1;
+		}
+		return s.compareTo(after);
+	}
+}
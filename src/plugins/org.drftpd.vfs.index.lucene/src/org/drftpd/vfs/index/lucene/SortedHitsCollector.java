@@ -0,0 +1,134 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.vfs.index.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SortField;
+
+/**
+ * Collects every document matching a query and sorts them once the search
+ * is done, for searches without a limit that would otherwise need to count
+ * the hits first to size a TopFieldCollector.<br>
+ * Only STRING, LONG and INT fields are supported, the values are read from
+ * the same FieldCache a sorted search uses.
+ * @version $Id$
+ */
+public class SortedHitsCollector extends Collector {
+	private SortField[] _fields;
+
+	private ArrayList<Object[]> _segmentValues = new ArrayList<Object[]>();
+
+	private ArrayList<Integer> _docBases = new ArrayList<Integer>();
+
+	/**
+	 * Segment in the high bits, document of the segment in the low bits.
+	 */
+	private long[] _hits = new long[64];
+
+	private int _count = 0;
+
+	public SortedHitsCollector(SortField[] fields) {
+		for (SortField field : fields) {
+			int type = field.getType();
+			if (type != SortField.STRING && type != SortField.LONG && type != SortField.INT) {
+				throw new IllegalArgumentException("Unsupported sort field: " + field);
+			}
+		}
+		_fields = fields;
+	}
+
+	public void setScorer(Scorer scorer) {
+		// hits are not scored
+	}
+
+	public void collect(int doc) {
+		if (_count == _hits.length) {
+			_hits = Arrays.copyOf(_hits, _count * 2);
+		}
+		_hits[_count++] = ((long) (_segmentValues.size() - 1) << 32) | doc;
+	}
+
+	public void setNextReader(IndexReader reader, int docBase) throws IOException {
+		_segmentValues.add(SearchAfterCollector.loadValues(reader, _fields));
+		_docBases.add(docBase);
+	}
+
+	public boolean acceptsDocsOutOfOrder() {
+		return true;
+	}
+
+	/**
+	 * @return the documents collected, in sort order.
+	 */
+	public int[] getDocs() {
+		Long[] hits = new Long[_count];
+		for (int i = 0; i < _count; i++) {
+			hits[i] = _hits[i];
+		}
+		Arrays.sort(hits, new Comparator<Long>() {
+			public int compare(Long hit1, Long hit2) {
+				return compareHits(hit1, hit2);
+			}
+		});
+		int[] docs = new int[_count];
+		for (int i = 0; i < _count; i++) {
+			long hit = hits[i];
+			docs[i] = _docBases.get((int) (hit >>> 32)) + (int) hit;
+		}
+		return docs;
+	}
+
+	private int compareHits(long hit1, long hit2) {
+		Object[] values1 = _segmentValues.get((int) (hit1 >>> 32));
+		Object[] values2 = _segmentValues.get((int) (hit2 >>> 32));
+		int doc1 = (int) hit1;
+		int doc2 = (int) hit2;
+		for (int i = 0; i < _fields.length; i++) {
+			int c;
+			switch (_fields[i].getType()) {
+			case SortField.STRING:
+				FieldCache.StringIndex index1 = (FieldCache.StringIndex) values1[i];
+				FieldCache.StringIndex index2 = (FieldCache.StringIndex) values2[i];
+				c = SearchAfterCollector.compareStrings(index1.lookup[index1.order[doc1]],
+						index2.lookup[index2.order[doc2]]);
+				break;
+			case SortField.LONG:
+				long l1 = ((long[]) values1[i])[doc1];
+				long l2 = ((long[]) values2[i])[doc2];
+				c = l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+				break;
+			default:
+				int n1 = ((int[]) values1[i])[doc1];
+				int n2 = ((int[]) values2[i])[doc2];
+				c = n1 < n2 ? -1 : (n1 == n2 ? 0 : 1);
+			}
+			if (c != 0) {
+				return _fields[i].getReverse() ? -c : c;
+			}
+		}
+		return 0;
+	}
+}
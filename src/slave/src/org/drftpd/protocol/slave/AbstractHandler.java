@@ -51,4 +51,11 @@ public abstract class AbstractHandler {
 	public void sendResponse(AsyncResponse ar) {
 		getSlaveObject().sendResponse(ar);
 	}
+
+	/**
+	 * {@link Slave.sendResponse(AsyncResponse ar, int priority)}
+	 */
+	public void sendResponse(AsyncResponse ar, int priority) {
+		getSlaveObject().sendResponse(ar, priority);
+	}
 }
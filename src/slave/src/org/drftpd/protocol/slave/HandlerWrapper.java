@@ -26,10 +26,12 @@ import java.lang.reflect.Method;
 public class HandlerWrapper {
 	private AbstractHandler _ah;
 	private Method _method;
+	private String _lane;
 	
-	public HandlerWrapper(AbstractHandler ah, Method method) {
+	public HandlerWrapper(AbstractHandler ah, Method method, String lane) {
 		_ah = ah;
 		_method = method;
+		_lane = lane;
 	}
 	
 	public Method getMethod() {
@@ -39,4 +41,11 @@ public class HandlerWrapper {
 	public AbstractHandler getAsyncHandler() {
 		return _ah;
 	}
+
+	/**
+	 * @return the {@link org.drftpd.slave.SlaveCommandExecutor} lane the handler runs in.
+	 */
+	public String getLane() {
+		return _lane;
+	}
 }
@@ -29,11 +29,14 @@ import org.apache.log4j.Logger;
 import org.drftpd.protocol.HandshakeWrapper;
 import org.drftpd.protocol.ProtocolException;
 import org.drftpd.slave.Slave;
+import org.drftpd.slave.SlaveCommandExecutor;
 import org.drftpd.slave.async.AsyncCommandArgument;
+import org.drftpd.slave.async.AsyncMessageCodec;
 import org.drftpd.slave.async.AsyncResponse;
 import org.drftpd.slave.async.AsyncResponseException;
 import org.drftpd.util.CommonPluginUtils;
 import org.drftpd.util.PluginObjectContainer;
+import org.java.plugin.registry.Extension.Parameter;
 
 /**
  * SlaveProtocolCentral handles the load of all connected Handlers.<br>
@@ -73,6 +76,7 @@ public class SlaveProtocolCentral {
 	public void handshakeWithMaster() {
 		HandshakeWrapper hw = new HandshakeWrapper();
 		hw.setPluginStatus(true);
+		hw.setWireVersion(AsyncMessageCodec.VERSION);
 		
 		try {
 			// reading the plugin list from the socket
@@ -104,6 +108,22 @@ public class SlaveProtocolCentral {
 		
 		try {
 			getSlaveObject().getOutputStream().writeObject(hw);
+			if (!hw.pluginStatus()) {
+				return;
+			}
+			getSlaveObject().getOutputStream().flush();
+
+			// the master answers with the wire format to use, older masters
+			// just start sending commands
+			Object o = getSlaveObject().getInputStream().readObject();
+			if (o instanceof Integer) {
+				logger.debug("Using wire format version " + o);
+				getSlaveObject().setWireVersion((Integer) o);
+			} else {
+				getSlaveObject().setPendingCommand((AsyncCommandArgument) o);
+			}
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException(e);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -127,7 +147,9 @@ public class SlaveProtocolCentral {
 				if (!protocols.contains(protocolName)) {
 					protocols.add(protocolName);
 				}
-				handlers.put(name, new HandlerWrapper(container.getPluginObject(), container.getPluginMethod()));
+				Parameter laneParam = container.getPluginExtension().getParameter("Lane");
+				String lane = laneParam == null ? SlaveCommandExecutor.IO : laneParam.valueAsString();
+				handlers.put(name, new HandlerWrapper(container.getPluginObject(), container.getPluginMethod(), lane));
 			}
 		} catch (IllegalArgumentException e) {
 			logger.error("Failed to load plugins for slave extension point 'Handler', possibly the slave"
@@ -148,7 +170,8 @@ public class SlaveProtocolCentral {
 		for (Entry<String, HandlerWrapper> entry : _handlersMap.entrySet()) {
 			HandlerWrapper hw = entry.getValue();
 			logger.debug("Handler for: " + entry.getKey()+ " -> " 
-					+ hw.getAsyncHandler().getClass().getCanonicalName()+"."+hw.getMethod().getName());
+					+ hw.getAsyncHandler().getClass().getCanonicalName()+"."+hw.getMethod().getName()
+					+ " (" + hw.getLane() + " lane)");
 		}
 	}
 	
@@ -156,6 +179,15 @@ public class SlaveProtocolCentral {
 		return _slave;
 	}
 	
+	/**
+	 * @return the lane the command has to run in, commands without a handler
+	 * are answered right away and use the control lane.
+	 */
+	public String getLane(AsyncCommandArgument ac) {
+		HandlerWrapper wrapper = _handlersMap.get(ac.getName());
+		return wrapper == null ? SlaveCommandExecutor.CONTROL : wrapper.getLane();
+	}
+
 	public AsyncResponse handleCommand(AsyncCommandArgument ac) {
 		HandlerWrapper wrapper = _handlersMap.get(ac.getName());
 
@@ -0,0 +1,80 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Passes the written data to the {@link UploadAnalysis analyses} of the
+ * upload on its way to the file.<br>
+ * An analysis failing is dropped, it never fails the upload.
+ * @version $Id$
+ */
+public class AnalyzingOutputStream extends FilterOutputStream {
+	private static final Logger logger = Logger.getLogger(AnalyzingOutputStream.class);
+
+	private List<UploadAnalysis> _analyses;
+
+	private long _length;
+
+	public AnalyzingOutputStream(OutputStream out, List<UploadAnalysis> analyses) {
+		super(out);
+		_analyses = analyses;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		_length += len;
+		for (Iterator<UploadAnalysis> iter = _analyses.iterator(); iter.hasNext();) {
+			UploadAnalysis analysis = iter.next();
+			try {
+				analysis.update(b, off, len);
+			} catch (RuntimeException e) {
+				logger.warn("Dropping failed upload analysis " + analysis.getClass().getName(), e);
+				iter.remove();
+				analysis.close();
+			}
+		}
+	}
+
+	/**
+	 * @return the analyses still running.
+	 */
+	public List<UploadAnalysis> getAnalyses() {
+		return _analyses;
+	}
+
+	/**
+	 * @return the number of bytes written so far.
+	 */
+	public long getLength() {
+		return _length;
+	}
+}
@@ -0,0 +1,319 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Remembers the CRC32 of the files of a {@link Root} so they don't have to
+ * be read again every time the master asks for a checksum.<br>
+ * An entry is only used while the size and last modified time of the file
+ * still match the ones it was computed for.<br>
+ * Changes are appended to a log file which is compacted when the cache is
+ * loaded.
+ * @version $Id$
+ */
+public class ChecksumCache {
+	private static final Logger logger = Logger.getLogger(ChecksumCache.class);
+
+	private static final int MAGIC = 0x44524353; // "DRCS"
+
+	private static final int VERSION = 1;
+
+	private static final byte PUT = 1;
+
+	private static final byte REMOVE = 2;
+
+	private static final byte RENAME = 3;
+
+	private static class Entry {
+		private final long _size;
+
+		private final long _lastModified;
+
+		private final int _checksum;
+
+		private Entry(long size, long lastModified, int checksum) {
+			_size = size;
+			_lastModified = lastModified;
+			_checksum = checksum;
+		}
+	}
+
+	private final File _storeFile;
+
+	private TreeMap<String, Entry> _entries = new TreeMap<String, Entry>();
+
+	private DataOutputStream _out;
+
+	private int _records;
+
+	public ChecksumCache(File storeFile) throws IOException {
+		_storeFile = storeFile;
+		load();
+		if (_records > _entries.size() * 2 + 1000) {
+			compact();
+		}
+		_out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(_storeFile, true)));
+		if (_storeFile.length() == 0) {
+			_out.writeInt(MAGIC);
+			_out.writeInt(VERSION);
+			_out.flush();
+		}
+	}
+
+	private void load() throws IOException {
+		if (!_storeFile.exists()) {
+			return;
+		}
+		long position = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(_storeFile), 65536));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				logger.warn(_storeFile + " is not a checksum cache this version can read, starting over");
+				in.close();
+				_storeFile.delete();
+				return;
+			}
+			position = 8;
+			while (true) {
+				try {
+					position += readRecord(in);
+				} catch (EOFException e) {
+					break;
+				}
+				_records++;
+			}
+		} catch (EOFException e) {
+			// empty or truncated header
+		} finally {
+			in.close();
+		}
+		if (position < _storeFile.length()) {
+			logger.warn("Dropping " + (_storeFile.length() - position)
+					+ " bytes of incomplete records at the end of " + _storeFile);
+			RandomAccessFile raf = new RandomAccessFile(_storeFile, "rw");
+			try {
+				raf.setLength(position);
+			} finally {
+				raf.close();
+			}
+		}
+		logger.info("Loaded " + _entries.size() + " checksums from " + _storeFile);
+	}
+
+	/**
+	 * Reads a record and applies it to the entries.
+	 * @return the number of bytes the record took.
+	 */
+	private long readRecord(DataInputStream in) throws IOException {
+		byte op = in.readByte();
+		String path = in.readUTF();
+		long length = 1 + utfLength(path);
+		switch (op) {
+		case PUT:
+			long size = in.readLong();
+			long lastModified = in.readLong();
+			int checksum = in.readInt();
+			_entries.put(path, new Entry(size, lastModified, checksum));
+			return length + 20;
+		case REMOVE:
+			removeEntries(path);
+			return length;
+		case RENAME:
+			String to = in.readUTF();
+			renameEntries(path, to);
+			return length + utfLength(to);
+		default:
+			throw new EOFException();
+		}
+	}
+
+	private static int utfLength(String s) {
+		int length = 2;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x0001 && c <= 0x007F) {
+				length++;
+			} else if (c > 0x07FF) {
+				length += 3;
+			} else {
+				length += 2;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Rewrites the log with only the live entries.
+	 */
+	private void compact() throws IOException {
+		File tmp = new File(_storeFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			for (Map.Entry<String, Entry> entry : _entries.entrySet()) {
+				writePut(out, entry.getKey(), entry.getValue());
+			}
+		} finally {
+			out.close();
+		}
+		if (!_storeFile.delete() || !tmp.renameTo(_storeFile)) {
+			throw new IOException("Unable to replace " + _storeFile + " with " + tmp);
+		}
+		logger.info("Compacted " + _storeFile + " from " + _records + " to "
+				+ _entries.size() + " records");
+		_records = _entries.size();
+	}
+
+	private static void writePut(DataOutputStream out, String path, Entry entry)
+			throws IOException {
+		out.writeByte(PUT);
+		out.writeUTF(path);
+		out.writeLong(entry._size);
+		out.writeLong(entry._lastModified);
+		out.writeInt(entry._checksum);
+	}
+
+	/**
+	 * @return the cached checksum of the file, null if it isn't known or the
+	 * file changed since it was computed.
+	 */
+	public synchronized Long getChecksum(String path, long size, long lastModified) {
+		Entry entry = _entries.get(path);
+		if (entry == null || entry._size != size || entry._lastModified != lastModified) {
+			return null;
+		}
+		return Long.valueOf(entry._checksum & 0xFFFFFFFFL);
+	}
+
+	public synchronized void putChecksum(String path, long size, long lastModified, long checksum) {
+		Entry entry = new Entry(size, lastModified, (int) checksum);
+		_entries.put(path, entry);
+		try {
+			writePut(_out, path, entry);
+			_out.flush();
+			_records++;
+		} catch (IOException e) {
+			logger.error("Unable to write to " + _storeFile, e);
+		}
+	}
+
+	/**
+	 * Forgets the path and everything underneath it.
+	 */
+	public synchronized void remove(String path) {
+		if (!removeEntries(path)) {
+			return;
+		}
+		try {
+			_out.writeByte(REMOVE);
+			_out.writeUTF(path);
+			_out.flush();
+			_records++;
+		} catch (IOException e) {
+			logger.error("Unable to write to " + _storeFile, e);
+		}
+	}
+
+	/**
+	 * Moves the entries of the path and everything underneath it, renaming
+	 * keeps the last modified time of the files so their checksums stay valid.
+	 */
+	public synchronized void rename(String from, String to) {
+		if (!renameEntries(from, to)) {
+			return;
+		}
+		try {
+			_out.writeByte(RENAME);
+			_out.writeUTF(from);
+			_out.writeUTF(to);
+			_out.flush();
+			_records++;
+		} catch (IOException e) {
+			logger.error("Unable to write to " + _storeFile, e);
+		}
+	}
+
+	/**
+	 * @return the entries underneath the given directory.
+	 */
+	private SortedMap<String, Entry> getChildren(String path) {
+		// '0' is the character following '/'
+		return _entries.subMap(path + "/", path + "0");
+	}
+
+	private boolean removeEntries(String path) {
+		boolean removed = _entries.remove(path) != null;
+		SortedMap<String, Entry> children = getChildren(path);
+		if (!children.isEmpty()) {
+			children.clear();
+			removed = true;
+		}
+		return removed;
+	}
+
+	private boolean renameEntries(String from, String to) {
+		boolean renamed = false;
+		Entry entry = _entries.remove(from);
+		if (entry != null) {
+			_entries.put(to, entry);
+			renamed = true;
+		}
+		SortedMap<String, Entry> children = getChildren(from);
+		if (!children.isEmpty()) {
+			TreeMap<String, Entry> moved = new TreeMap<String, Entry>(children);
+			children.clear();
+			for (Map.Entry<String, Entry> child : moved.entrySet()) {
+				_entries.put(to + child.getKey().substring(from.length()), child.getValue());
+			}
+			renamed = true;
+		}
+		return renamed;
+	}
+
+	public synchronized int size() {
+		return _entries.size();
+	}
+
+	public synchronized void close() {
+		try {
+			_out.close();
+		} catch (IOException e) {
+			logger.error("Unable to close " + _storeFile, e);
+		}
+	}
+}
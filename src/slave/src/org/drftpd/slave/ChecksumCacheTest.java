@@ -0,0 +1,98 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class ChecksumCacheTest extends TestCase {
+
+	private File _file;
+
+	private ChecksumCache _cache;
+
+	protected void setUp() throws Exception {
+		_file = File.createTempFile("drftpd", ".crc");
+		_file.delete();
+		_cache = new ChecksumCache(_file);
+	}
+
+	protected void tearDown() {
+		_cache.close();
+		_file.delete();
+	}
+
+	private void reopen() throws Exception {
+		_cache.close();
+		_cache = new ChecksumCache(_file);
+	}
+
+	public void testGetChecksum() throws Exception {
+		_cache.putChecksum("/dir/file", 100L, 1000L, 0xFFFFFFFFL);
+		assertEquals(Long.valueOf(0xFFFFFFFFL), _cache.getChecksum("/dir/file", 100L, 1000L));
+		assertNull(_cache.getChecksum("/dir/file", 101L, 1000L));
+		assertNull(_cache.getChecksum("/dir/file", 100L, 1001L));
+		reopen();
+		assertEquals(Long.valueOf(0xFFFFFFFFL), _cache.getChecksum("/dir/file", 100L, 1000L));
+	}
+
+	public void testRemoveAndRename() throws Exception {
+		_cache.putChecksum("/dir/a", 1L, 1L, 1L);
+		_cache.putChecksum("/dir/sub/b", 2L, 2L, 2L);
+		_cache.putChecksum("/dir2/c", 3L, 3L, 3L);
+		_cache.rename("/dir", "/moved");
+		assertNull(_cache.getChecksum("/dir/a", 1L, 1L));
+		assertEquals(Long.valueOf(2L), _cache.getChecksum("/moved/sub/b", 2L, 2L));
+		_cache.remove("/moved/sub");
+		reopen();
+		assertEquals(Long.valueOf(1L), _cache.getChecksum("/moved/a", 1L, 1L));
+		assertNull(_cache.getChecksum("/moved/sub/b", 2L, 2L));
+		assertEquals(Long.valueOf(3L), _cache.getChecksum("/dir2/c", 3L, 3L));
+		assertEquals(2, _cache.size());
+	}
+
+	public void testCompaction() throws Exception {
+		for (int i = 0; i < 3000; i++) {
+			_cache.putChecksum("/file", i, i, i);
+		}
+		long size = _file.length();
+		reopen();
+		assertTrue(_file.length() < size);
+		assertEquals(Long.valueOf(2999L), _cache.getChecksum("/file", 2999L, 2999L));
+	}
+
+	public void testTruncatedRecordIsDropped() throws Exception {
+		_cache.putChecksum("/a", 1L, 1L, 1L);
+		_cache.putChecksum("/b", 2L, 2L, 2L);
+		_cache.close();
+		RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+		raf.setLength(raf.length() - 3);
+		raf.close();
+		_cache = new ChecksumCache(_file);
+		assertEquals(Long.valueOf(1L), _cache.getChecksum("/a", 1L, 1L));
+		assertNull(_cache.getChecksum("/b", 2L, 2L));
+		_cache.putChecksum("/c", 3L, 3L, 3L);
+		reopen();
+		assertEquals(Long.valueOf(3L), _cache.getChecksum("/c", 3L, 3L));
+	}
+}
@@ -29,6 +29,18 @@ public class Root {
 	private PhysicalFile _rootFile;
 
 	private long _lastModified;
+
+	private ChecksumCache _checksumCache;
+
+	private volatile long _diskSpaceAvailable;
+
+	private volatile long _diskSpaceChecked = 0L;
+
+	/**
+	 * How long the value returned by {@link #getCachedDiskSpaceAvailable()}
+	 * is used before the filesystem is asked again.
+	 */
+	private static final long DISKSPACE_REFRESH = 5000L;
 	
 	private static final String separator = "/";
 
@@ -58,13 +70,40 @@ public class Root {
 	}
 
 	public long getDiskSpaceAvailable() {
-		return getFile().getUsableSpace();
+		long diskSpaceAvailable = getFile().getUsableSpace();
+		_diskSpaceAvailable = diskSpaceAvailable;
+		_diskSpaceChecked = System.currentTimeMillis();
+		return diskSpaceAvailable;
+	}
+
+	/**
+	 * @return the free space of this root as last seen, the filesystem is
+	 * only queried when that value is older than a few seconds. Meant for
+	 * callers running on every upload such as the disk selection filters.
+	 */
+	public long getCachedDiskSpaceAvailable() {
+		if (System.currentTimeMillis() - _diskSpaceChecked > DISKSPACE_REFRESH) {
+			return getDiskSpaceAvailable();
+		}
+		return _diskSpaceAvailable;
 	}
 
 	public long getDiskSpaceCapacity() {
 		return getFile().getTotalSpace();
 	}
 
+	/**
+	 * @return the checksums known for the files of this root, null if the
+	 * cache is disabled.
+	 */
+	public ChecksumCache getChecksumCache() {
+		return _checksumCache;
+	}
+
+	public void setChecksumCache(ChecksumCache checksumCache) {
+		_checksumCache = checksumCache;
+	}
+
 	public PhysicalFile getFile(String path) {
 		return new PhysicalFile(getPath() + separator + path);
 	}
@@ -80,6 +119,10 @@ public class Root {
 		Root r = (Root) arg0;
 		return r.getPath().equals(getPath());
 	}
+
+	public int hashCode() {
+		return getPath().hashCode();
+	}
 	
 	
 }
@@ -50,6 +50,7 @@ public class RootCollection {
 	private ArrayList<Root> _roots = null;
 	private Slave _slave = null;
 	private ThreadPoolExecutor _pool;
+	private RootIndex _index;
 
 	public RootCollection(Slave slave, Collection<Root> roots) throws IOException {
 		/** sanity checks * */
@@ -63,6 +64,14 @@ public class RootCollection {
 					new ThreadPoolExecutor.CallerRunsPolicy());
 			_pool.allowCoreThreadTimeOut(true);
 		}
+		if (_slave.rootIndex()) {
+			if (_roots.size() > RootIndex.MAX_ROOTS) {
+				logger.warn("The root index supports at most " + RootIndex.MAX_ROOTS
+						+ " roots, every root will be searched on each lookup");
+			} else {
+				_index = new RootIndex();
+			}
+		}
 	}
 
 	/**
@@ -72,10 +81,15 @@ public class RootCollection {
 	 */
 	public TreeSet<String> getLocalInodes(String path) {
 		TreeSet<String> files = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
-		for (Root root : _roots) {
-			String[] fileArray = root.getFile(path).list();
+		long mask = 0L;
+		for (int i = 0; i < _roots.size(); i++) {
+			String[] fileArray = _roots.get(i).getFile(path).list();
 			if (fileArray == null) continue;
 			files.addAll(Arrays.asList(fileArray));
+			mask |= 1L << i;
+		}
+		if (_index != null) {
+			_index.add(path, mask);
 		}
 		return files;
 	}
@@ -104,8 +118,10 @@ public class RootCollection {
 			}
 		}
 		long lastModified = Long.MIN_VALUE;
+		long mask = 0L;
 		for (int i = 0; i < _roots.size(); i++) {
 			if (rootFiles[i] != null) {
+				mask |= 1L << i;
 				for (int j = 0; j < rootFiles[i].length; j++) {
 					if (!files.containsKey(rootFiles[i][j].getName())) {
 						files.put(rootFiles[i][j].getName(), rootFiles[i][j]);
@@ -118,6 +134,9 @@ public class RootCollection {
 				}
 			}
 		}
+		if (_index != null) {
+			_index.add(path, mask);
+		}
 		return new RootPathContents(lastModified, files);
 	}
 
@@ -161,6 +180,14 @@ public class RootCollection {
 	 * @throws IOException
 	 */
 	public File getARootFileDir(String dir) throws IOException {
+		return getARootDir(dir).getFile(dir);
+	}
+
+	/**
+	 * Picks the root a new file of <code>dir</code> is written to and makes
+	 * sure the directory exists on it.
+	 */
+	public Root getARootDir(String dir) throws IOException {
 		Root bestRoot = _slave.getDiskSelection().getBestRoot(dir);
 
 		// to avoid this error SlaveSelectionManager MUST work
@@ -172,8 +199,9 @@ public class RootCollection {
 
 		PhysicalFile file = bestRoot.getFile(dir);
 		file.mkdirs2();
+		directoryCreated(dir, bestRoot);
 
-		return file;
+		return bestRoot;
 	}
 
 	// Get root which has most of the tree structure that we have.
@@ -194,16 +222,21 @@ public class RootCollection {
 	public List<Root> getMultipleRootsForFile(String path)
 			throws FileNotFoundException {
 		ArrayList<Root> roots = new ArrayList<Root>();
+		long mask = getCandidates(path);
 
-		for (Root r : _roots) {
-			if (r.getFile(path).exists()) {
-				roots.add(r);
+		for (int i = 0; i < _roots.size(); i++) {
+			Root root = _roots.get(i);
+			if ((mask & (1L << i)) != 0L && root.getFile(path).exists()) {
+				roots.add(root);
 			}
 		}
-		for (Root root : _roots) {
 
-			if (root.getFile(path).exists()) {
-				roots.add(root);
+		if (roots.size() == 0) {
+			long found = probeOthers(path, mask);
+			for (int i = 0; i < _roots.size(); i++) {
+				if ((found & (1L << i)) != 0L) {
+					roots.add(_roots.get(i));
+				}
 			}
 		}
 
@@ -216,15 +249,113 @@ public class RootCollection {
 	}
 
 	public Root getRootForFile(String path) throws FileNotFoundException {
-		for (Root root : _roots) {
+		long mask = getCandidates(path);
+		for (int i = 0; i < _roots.size(); i++) {
+			if ((mask & (1L << i)) == 0L) {
+				continue;
+			}
+			Root root = _roots.get(i);
 			File file = new File(root.getPath() + PhysicalFile.separatorChar + path);
 			if (file.exists()) {
 				return root;
 			}
 		}
+		long found = probeOthers(path, mask);
+		if (found != 0L) {
+			return _roots.get(Long.numberOfTrailingZeros(found));
+		}
 		throw new FileNotFoundException(path + " wasn't found in any root");
 	}
 
+	/**
+	 * Looks for the path on the roots the index left out, in case a directory
+	 * was made behind its back or a disk was mounted late, and indexes what
+	 * is found.
+	 * @return the mask of those roots holding the path.
+	 */
+	private long probeOthers(String path, long mask) {
+		long found = 0L;
+		for (int i = 0; i < _roots.size(); i++) {
+			if ((mask & (1L << i)) != 0L) {
+				continue;
+			}
+			PhysicalFile file = _roots.get(i).getFile(path);
+			if (file.exists()) {
+				found |= 1L << i;
+				String normalized = RootIndex.normalize(path);
+				_index.add(file.isDirectory() ? normalized : RootIndex.getParent(normalized), 1L << i);
+			}
+		}
+		if (found != 0L) {
+			logger.debug("Root index was missing " + path + ", found on roots " + Long.toBinaryString(found));
+		}
+		return found;
+	}
+
+	/**
+	 * @return the mask of roots that may hold the path. These are the roots
+	 * holding the path itself if it is a known directory, else the roots
+	 * holding its parent directory, which is looked up on every root and
+	 * indexed when it isn't known yet.
+	 */
+	private long getCandidates(String path) {
+		if (_index == null) {
+			return -1L;
+		}
+		long mask = _index.getRoots(path);
+		if (mask != 0L) {
+			return mask;
+		}
+		String parent = RootIndex.getParent(RootIndex.normalize(path));
+		if (parent == null) {
+			return -1L;
+		}
+		mask = _index.getRoots(parent);
+		if (mask == 0L) {
+			for (int i = 0; i < _roots.size(); i++) {
+				if (_roots.get(i).getFile(parent).isDirectory()) {
+					mask |= 1L << i;
+				}
+			}
+			_index.add(parent, mask);
+		}
+		return mask;
+	}
+
+	/**
+	 * Records a directory created on the root, along with its parents.
+	 */
+	public void directoryCreated(String path, Root root) {
+		if (_index != null) {
+			_index.add(path, 1L << _roots.indexOf(root));
+		}
+	}
+
+	/**
+	 * Records a directory, and everything underneath it, deleted from the root.
+	 */
+	public void directoryDeleted(String path, Root root) {
+		if (_index != null) {
+			_index.remove(path, _roots.indexOf(root));
+		}
+	}
+
+	/**
+	 * Records a directory moved on the root.
+	 */
+	public void directoryRenamed(String from, String to, Root root) {
+		if (_index != null) {
+			_index.rename(from, to, _roots.indexOf(root));
+		}
+	}
+
+	/**
+	 * @return the number of directories in the root index, -1 if it is disabled.
+	 */
+	public int getIndexSize() {
+		return _index == null ? -1 : _index.size();
+	}
+
 	public long getTotalDiskSpaceAvailable() {
 		long totalDiskSpaceAvailable = 0;
 
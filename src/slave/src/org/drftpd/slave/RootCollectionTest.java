@@ -0,0 +1,102 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class RootCollectionTest extends TestCase {
+
+	private File _dir;
+
+	private Root _root0;
+
+	private Root _root1;
+
+	private RootCollection _roots;
+
+	protected void setUp() throws IOException {
+		_dir = File.createTempFile("roots", "");
+		_dir.delete();
+		_root0 = new Root(new File(_dir, "root0").getPath());
+		_root1 = new Root(new File(_dir, "root1").getPath());
+		Slave slave = new Slave() {
+			public boolean rootIndex() {
+				return true;
+			}
+		};
+		_roots = new RootCollection(slave, Arrays.asList(_root0, _root1));
+	}
+
+	protected void tearDown() {
+		delete(_dir);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static void create(Root root, String path) throws IOException {
+		File file = root.getFile(path);
+		file.getParentFile().mkdirs();
+		file.createNewFile();
+	}
+
+	public void testMissingRootBitIsProbed() throws IOException {
+		_root0.getFile("/MP3/release").mkdirs();
+		_root1.getFile("/MP3/release").mkdirs();
+		// only root0 is indexed for the directory
+		_roots.directoryCreated("/MP3/release", _root0);
+		create(_root1, "/MP3/release/file.r00");
+
+		assertSame(_root1, _roots.getRootForFile("/MP3/release/file.r00"));
+		assertEquals(Arrays.asList(_root1), _roots.getMultipleRootsForFile("/MP3/release/file.r00"));
+		// the hit was indexed, both roots are now candidates for the directory
+		assertEquals(Arrays.asList(_root0, _root1), _roots.getMultipleRootsForFile("/MP3/release"));
+
+		try {
+			_roots.getRootForFile("/MP3/release/file.r01");
+			fail();
+		} catch (FileNotFoundException e) {
+			// on no root at all
+		}
+	}
+
+	public void testUnindexedDirectoryIsProbed() throws IOException {
+		_roots.directoryCreated("/MP3", _root0);
+		_root1.getFile("/MP3/late").mkdirs();
+		create(_root1, "/MP3/late/file.r00");
+		assertEquals(new ArrayList<Root>(Arrays.asList(_root1)),
+				_roots.getMultipleRootsForFile("/MP3/late"));
+		assertSame(_root1, _roots.getRootForFile("/MP3/late/file.r00"));
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Remembers which roots hold each directory, so looking up a file only has
+ * to check the roots holding its parent instead of probing every root.<br>
+ * Roots are identified by their position in the {@link RootCollection} and
+ * stored as a bit mask, hence at most {@link #MAX_ROOTS} roots are supported.
+ * The masks only ever grow when a directory is found or created, bits are
+ * cleared by deletes and renames made through the slave. A mask may thus
+ * name a root that lost the directory behind our back, callers still check
+ * the candidates on disk.
+ * @version $Id$
+ */
+public class RootIndex {
+
+	public static final int MAX_ROOTS = 64;
+
+	private final ConcurrentSkipListMap<String, Long> _dirs = new ConcurrentSkipListMap<String, Long>();
+
+	/**
+	 * @return the mask of roots known to hold the directory, 0 if unknown.
+	 */
+	public long getRoots(String dir) {
+		Long mask = _dirs.get(normalize(dir));
+		return mask == null ? 0L : mask.longValue();
+	}
+
+	/**
+	 * Records that the roots in the mask hold the directory, along with all
+	 * of its parents.
+	 */
+	public synchronized void add(String dir, long mask) {
+		if (mask == 0L) {
+			return;
+		}
+		for (String path = normalize(dir); path != null; path = getParent(path)) {
+			Long old = _dirs.get(path);
+			if (old != null && (old.longValue() & mask) == mask) {
+				// parents were recorded along with it
+				break;
+			}
+			_dirs.put(path, old == null ? mask : old.longValue() | mask);
+		}
+	}
+
+	/**
+	 * Records that the root no longer holds the directory, nor anything
+	 * underneath it.
+	 */
+	public synchronized void remove(String dir, int root) {
+		long bit = 1L << root;
+		for (Map.Entry<String, Long> entry : getTree(normalize(dir)).entrySet()) {
+			long mask = entry.getValue().longValue() & ~bit;
+			if (mask == 0L) {
+				_dirs.remove(entry.getKey());
+			} else {
+				_dirs.put(entry.getKey(), mask);
+			}
+		}
+	}
+
+	/**
+	 * Moves the directory tree of the root from one path to another.
+	 */
+	public synchronized void rename(String from, String to, int root) {
+		long bit = 1L << root;
+		from = normalize(from);
+		to = normalize(to);
+		ArrayList<String> moved = new ArrayList<String>();
+		for (Map.Entry<String, Long> entry : getTree(from).entrySet()) {
+			if ((entry.getValue().longValue() & bit) != 0L) {
+				moved.add(entry.getKey());
+			}
+		}
+		remove(from, root);
+		for (String path : moved) {
+			add(to + path.substring(from.length()), bit);
+		}
+	}
+
+	public int size() {
+		return _dirs.size();
+	}
+
+	/**
+	 * @return the directory and every directory underneath it.
+	 */
+	private Map<String, Long> getTree(String dir) {
+		TreeMap<String, Long> tree = new TreeMap<String, Long>();
+		Long mask = _dirs.get(dir);
+		if (mask != null) {
+			tree.put(dir, mask);
+		}
+		// '0' sorts right after '/', this covers every path starting with dir + "/"
+		String prefix = dir.equals("/") ? "" : dir;
+		tree.putAll(_dirs.subMap(prefix + "/", false, prefix + "0", false));
+		return tree;
+	}
+
+	/**
+	 * @return the parent directory, null for "/".
+	 */
+	static String getParent(String path) {
+		if (path.equals("/")) {
+			return null;
+		}
+		int index = path.lastIndexOf('/');
+		return index <= 0 ? "/" : path.substring(0, index);
+	}
+
+	/**
+	 * @return the path starting with a single "/", without duplicate or
+	 * trailing separators.
+	 */
+	static String normalize(String path) {
+		if (path.indexOf("//") == -1 && path.startsWith("/")
+				&& (path.length() == 1 || !path.endsWith("/"))) {
+			return path;
+		}
+		StringBuilder sb = new StringBuilder(path.length() + 1);
+		for (int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (c == '/' && sb.length() > 0 && sb.charAt(sb.length() - 1) == '/') {
+				continue;
+			}
+			if (sb.length() == 0 && c != '/') {
+				sb.append('/');
+			}
+			sb.append(c);
+		}
+		if (sb.length() == 0) {
+			return "/";
+		}
+		if (sb.length() > 1 && sb.charAt(sb.length() - 1) == '/') {
+			sb.setLength(sb.length() - 1);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import junit.framework.TestCase;
+
+/**
+ * @version $Id$
+ */
+public class RootIndexTest extends TestCase {
+
+	private RootIndex _index;
+
+	protected void setUp() {
+		_index = new RootIndex();
+	}
+
+	public void testNormalize() {
+		assertEquals("/", RootIndex.normalize(""));
+		assertEquals("/", RootIndex.normalize("/"));
+		assertEquals("/a/b", RootIndex.normalize("//a//b/"));
+		assertEquals("/a", RootIndex.normalize("a"));
+		assertEquals("/a", RootIndex.getParent("/a/b"));
+		assertEquals("/", RootIndex.getParent("/a"));
+		assertNull(RootIndex.getParent("/"));
+	}
+
+	public void testAddRecordsParents() {
+		_index.add("/MP3/release/CD1", 1L);
+		_index.add("//MP3/release", 4L);
+		assertEquals(1L, _index.getRoots("/MP3/release/CD1"));
+		assertEquals(5L, _index.getRoots("/MP3/release"));
+		assertEquals(5L, _index.getRoots("/MP3"));
+		assertEquals(5L, _index.getRoots("/"));
+		assertEquals(0L, _index.getRoots("/MP3/other"));
+	}
+
+	public void testRemoveClearsTree() {
+		_index.add("/MP3/release/CD1", 3L);
+		_index.add("/MP3/release.other", 1L);
+		_index.remove("/MP3/release", 0);
+		assertEquals(2L, _index.getRoots("/MP3/release"));
+		assertEquals(2L, _index.getRoots("/MP3/release/CD1"));
+		assertEquals(1L, _index.getRoots("/MP3/release.other"));
+		_index.remove("/MP3/release", 1);
+		assertEquals(0L, _index.getRoots("/MP3/release/CD1"));
+		assertEquals(3L, _index.getRoots("/MP3"));
+		assertEquals(3, _index.size());
+	}
+
+	public void testRename() {
+		_index.add("/MP3/release/CD1", 3L);
+		_index.rename("/MP3/release", "/ARCHIVE/release", 0);
+		assertEquals(1L, _index.getRoots("/ARCHIVE/release/CD1"));
+		assertEquals(1L, _index.getRoots("/ARCHIVE"));
+		assertEquals(2L, _index.getRoots("/MP3/release/CD1"));
+	}
+}
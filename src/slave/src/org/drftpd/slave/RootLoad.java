@@ -0,0 +1,68 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+/**
+ * Snapshot of the transfers currently using a {@link Root}, built from the
+ * slave's transfer map by {@link Slave#getRootLoads()}.
+ * 
+ * @version $Id$
+ */
+public class RootLoad {
+	private int _reads = 0;
+
+	private int _writes = 0;
+
+	private long _xferSpeed = 0L;
+
+	protected void addTransfer(Transfer transfer) {
+		if (transfer.isSendingUploading()) {
+			_reads++;
+		} else {
+			// uploads count as writes from the moment their root is chosen
+			_writes++;
+		}
+		_xferSpeed += transfer.getXferSpeed();
+	}
+
+	/**
+	 * @return the number of downloads reading from the root.
+	 */
+	public int getReads() {
+		return _reads;
+	}
+
+	/**
+	 * @return the number of uploads writing to the root.
+	 */
+	public int getWrites() {
+		return _writes;
+	}
+
+	/**
+	 * @return the combined speed of the transfers on the root in bytes/s.
+	 */
+	public long getXferSpeed() {
+		return _xferSpeed;
+	}
+
+	public String toString() {
+		return "[reads=" + _reads + ",writes=" + _writes + ",speed="
+				+ _xferSpeed + "]";
+	}
+}
@@ -34,8 +34,11 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
 
@@ -51,11 +54,14 @@ import org.drftpd.exceptions.SSLUnavailableException;
 import org.drftpd.io.PermissionDeniedException;
 import org.drftpd.io.PhysicalFile;
 import org.drftpd.master.QueuedOperation;
+import org.drftpd.protocol.PrioritizedObjectWriter;
 import org.drftpd.protocol.slave.SlaveProtocolCentral;
 import org.drftpd.slave.async.AsyncCommandArgument;
+import org.drftpd.slave.async.AsyncMessageCodec;
 import org.drftpd.slave.async.AsyncResponse;
 import org.drftpd.slave.async.AsyncResponseDiskStatus;
 import org.drftpd.slave.async.AsyncResponseException;
+import org.drftpd.slave.async.AsyncResponseRemerge;
 import org.drftpd.slave.async.AsyncResponseSiteBotMessage;
 import org.drftpd.slave.async.AsyncResponseTransferStatus;
 import org.drftpd.slave.diskselection.DiskSelectionInterface;
@@ -97,10 +103,26 @@ public class Slave {
 
 	private ObjectOutputStream _sout;
 
+	private PrioritizedObjectWriter _responseWriter;
+
+	private AsyncMessageCodec _commandCodec;
+
+	private int _wireVersion;
+
+	private AsyncCommandArgument _pendingCommand;
+
+	private SlaveCommandExecutor _commandExecutor;
+
 	private HashMap<TransferIndex, Transfer> _transfers;
 
 	private boolean _uploadChecksums;
 
+	private final List<UploadAnalyzer> _uploadAnalyzers = new CopyOnWriteArrayList<UploadAnalyzer>();
+
+	private UploadAnalysisCache _analysisCache = null;
+
+	private boolean _zeroCopy;
+
 	private PortRange _portRange;
 
 	private Set<QueuedOperation> _renameQueue = null;
@@ -120,6 +142,8 @@ public class Slave {
 	private boolean _ignoreCRCRemerge;
 
 	private boolean _concurrentRootIteration;
+
+	private boolean _rootIndex;
 	
 	private String _bindIP = null;
 	
@@ -240,9 +264,18 @@ public class Slave {
 		_uploadChecksums = p.getProperty("enableuploadchecksums", "true").equals("true");
 		_downloadChecksums = p.getProperty("enabledownloadchecksums", "true").equals("true");
 		_bufferSize = Integer.parseInt(p.getProperty("bufferSize", "0"));
+		_zeroCopy = p.getProperty("enablezerocopy", "true").equals("true");
 
 		_concurrentRootIteration = p.getProperty("concurrent.root.iteration", "false").equalsIgnoreCase("true");
+		_rootIndex = p.getProperty("enablerootindex", "true").equals("true");
 		_roots = getDefaultRootBasket(p);
+		if (p.getProperty("enablechecksumcache", "true").equals("true")) {
+			loadChecksumCaches(p.getProperty("checksumcache.dir", "checksums"));
+		}
+		if (p.getProperty("enableuploadanalysis", "true").equals("true")) {
+			_analysisCache = new UploadAnalysisCache(Integer.parseInt(
+					p.getProperty("uploadanalysis.cache.size", "1000")));
+		}
 		loadDiskSelection(p);
 
 		_transfers = new HashMap<TransferIndex, Transfer>();
@@ -255,6 +288,8 @@ public class Slave {
 			_portRange = new PortRange(_bufferSize);
 		}
 
+		_commandExecutor = new SlaveCommandExecutor(this, p);
+
 		_ignorePartialRemerge = p.getProperty("ignore.partialremerge", "false").equalsIgnoreCase("true");
 		_threadedRemerge = p.getProperty("threadedremerge", "false").equalsIgnoreCase("true");
 		_ignoreCRCRemerge = p.getProperty("ignore.crcremerge", "false").equalsIgnoreCase("true");
@@ -302,6 +337,7 @@ public class Slave {
 
 		Slave s = new Slave(p);
 		s.getProtocolCentral().handshakeWithMaster();
+		s.startResponseWriter();
 		
 		if (isWin32) {
 			s.startFileLockThread();
@@ -382,21 +418,56 @@ public class Slave {
 		}
 	}
 
+	/**
+	 * Opens the checksum cache of every root, the cache files are named after
+	 * the path of their root.
+	 */
+	private void loadChecksumCaches(String dir) throws IOException {
+		new File(dir).mkdirs();
+		for (Root root : _roots.getRootList()) {
+			String name = root.getPath().replaceAll("[^A-Za-z0-9.-]", "_");
+			root.setChecksumCache(new ChecksumCache(new File(dir, name + ".crc")));
+		}
+	}
+
 	public long checkSum(String path) throws IOException {
+		return checkSum(path, false);
+	}
+
+	/**
+	 * @param force read the file even if its checksum is cached.
+	 * @return the CRC32 of the file.
+	 */
+	public long checkSum(String path, boolean force) throws IOException {
+		Root root = _roots.getRootForFile(path);
+		PhysicalFile file = root.getFile(path);
+		ChecksumCache cache = root.getChecksumCache();
+		long size = file.length();
+		long lastModified = file.lastModified();
+		if (cache != null && !force) {
+			Long checksum = cache.getChecksum(path, size, lastModified);
+			if (checksum != null) {
+				logger.debug("Checksum of " + path + " found in cache");
+				return checksum;
+			}
+		}
 		logger.debug("Checksumming: " + path);
 
 		CheckedInputStream in = null;
 
 		try {
 			CRC32 crc32 = new CRC32();
-			in = new CheckedInputStream(new FileInputStream(_roots
-					.getFile(path)), crc32);
+			in = new CheckedInputStream(new FileInputStream(file), crc32);
 
-			byte[] buf = new byte[4096];
+			byte[] buf = new byte[65536];
 
 			while (in.read(buf) != -1) {
 			}
 
+			if (cache != null && file.length() == size
+					&& file.lastModified() == lastModified) {
+				cache.putChecksum(path, size, lastModified, crc32.getValue());
+			}
 			return crc32.getValue();
 		} finally {
 			if (in != null) {
@@ -404,6 +475,115 @@ public class Slave {
 			}
 		}
 	}
+
+	/**
+	 * @return the cached checksum of the file, null if it is unknown or
+	 * outdated.
+	 */
+	public Long getCachedChecksum(String path) {
+		try {
+			Root root = _roots.getRootForFile(path);
+			if (root.getChecksumCache() == null) {
+				return null;
+			}
+			PhysicalFile file = root.getFile(path);
+			return root.getChecksumCache().getChecksum(path, file.length(),
+					file.lastModified());
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the checksum of a file that was just written or read in full.
+	 */
+	public void cacheChecksum(String path, long checksum) {
+		try {
+			Root root = _roots.getRootForFile(path);
+			if (root.getChecksumCache() == null) {
+				return;
+			}
+			PhysicalFile file = root.getFile(path);
+			root.getChecksumCache().putChecksum(path, file.length(),
+					file.lastModified(), checksum);
+		} catch (FileNotFoundException e) {
+			// deleted in the meantime
+		}
+	}
+
+	/**
+	 * Drops the cached checksums of the path, and everything underneath it,
+	 * from the given root.
+	 */
+	private void uncacheChecksums(Root root, String path) {
+		if (root.getChecksumCache() != null) {
+			root.getChecksumCache().remove(path);
+		}
+		if (_analysisCache != null) {
+			_analysisCache.remove(path);
+		}
+	}
+
+	public void addUploadAnalyzer(UploadAnalyzer analyzer) {
+		_uploadAnalyzers.add(analyzer);
+	}
+
+	/**
+	 * @return the analyses to run on the upload of the path, empty if upload
+	 * analysis is disabled.
+	 */
+	public List<UploadAnalysis> startUploadAnalyses(String path) {
+		ArrayList<UploadAnalysis> analyses = new ArrayList<UploadAnalysis>();
+		if (_analysisCache == null) {
+			return analyses;
+		}
+		for (UploadAnalyzer analyzer : _uploadAnalyzers) {
+			UploadAnalysis analysis = analyzer.startAnalysis(path);
+			if (analysis != null) {
+				analyses.add(analysis);
+			}
+		}
+		return analyses;
+	}
+
+	/**
+	 * Stores the results of the analyses of a file that was just uploaded.
+	 */
+	public void cacheUploadAnalyses(String path, List<UploadAnalysis> analyses) {
+		try {
+			PhysicalFile file = _roots.getFile(path);
+			ArrayList<Object> results = new ArrayList<Object>();
+			for (UploadAnalysis analysis : analyses) {
+				try {
+					Object result = analysis.getResult(file.length());
+					if (result != null) {
+						results.add(result);
+					}
+				} catch (RuntimeException e) {
+					logger.warn("Upload analysis " + analysis.getClass().getName() + " failed on " + path, e);
+				}
+			}
+			_analysisCache.put(path, file.length(), file.lastModified(), results);
+		} catch (FileNotFoundException e) {
+			// deleted in the meantime
+		}
+	}
+
+	/**
+	 * @return the result of the given type computed while the file was
+	 * uploaded, null if it is unknown or outdated.
+	 */
+	public <T> T getUploadAnalysis(String path, Class<T> type) {
+		if (_analysisCache == null) {
+			return null;
+		}
+		try {
+			PhysicalFile file = _roots.getFile(path);
+			return _analysisCache.get(path, file.length(), file.lastModified(), type);
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
 	/*
 	public long remergeCheckSum(String path) throws IOException {
 		if (ignoreCRCRemerge()) {
@@ -451,12 +631,14 @@ public class Slave {
 				continue;
 				// should never occur
 			}
+			uncacheChecksums(root, path);
 
 			if (file.isDirectory()) {
 				if (!file.deleteRecursive()) {
 					throw new PermissionDeniedException("delete failed on "
 							+ path);
 				}
+				_roots.directoryDeleted(path, root);
 				if (path.matches(".*ARCHIVE.*") && slavename.startsWith("a")) {
 					logger.info("MASTER SENT DELETE (SKIPPING): " + path);
 					sendResponse(new AsyncResponseSiteBotMessage("master sent delete (SKIPPING): " + path));
@@ -467,6 +649,7 @@ public class Slave {
 				
 			} else if (file.isFile()) {
 				File dir = new PhysicalFile(file.getParentFile());
+				String dirPath = RootIndex.getParent(RootIndex.normalize(path));
 				
 				if (path.matches(".*ARCHIVE.*") && !file.toString().matches("\\.collision\\.") && slavename.startsWith("a")) {
 					logger.info("MASTER SENT DELETE (SKIPPING): " + path);
@@ -489,7 +672,13 @@ public class Slave {
 
 					java.io.File tmpFile = dir.getParentFile();
 
-					dir.delete();
+					if (!dir.delete()) {
+						// still there, the root keeps it and its parents
+						logger.warn("rmdir failed: " + dir.getPath());
+						break;
+					}
+					_roots.directoryDeleted(dirPath, root);
+					dirPath = RootIndex.getParent(dirPath);
 					logger.info("Dir empty, rmdir: " + dir.getPath());
 
 					if (tmpFile == null) {
@@ -522,15 +711,18 @@ public class Slave {
 				continue;
 				// should never occur
 			}
+			uncacheChecksums(root, path);
 
 			if (file.isDirectory()) {
 				if (!file.deleteRecursive()) {
 					throw new PermissionDeniedException("delete failed on " + path);
 				}
+				_roots.directoryDeleted(path, root);
 				logger.info("ARCHIVEMANAGER DELETE: " + path);
 			
 			} else if (file.isFile()) {
 				File dir = new PhysicalFile(file.getParentFile());
+				String dirPath = RootIndex.getParent(RootIndex.normalize(path));
 				
 				logger.info("ARCHIVEMANAGER DELETE: " + path);
 				
@@ -546,7 +738,13 @@ public class Slave {
 
 					java.io.File tmpFile = dir.getParentFile();
 
-					dir.delete();
+					if (!dir.delete()) {
+						// still there, the root keeps it and its parents
+						logger.warn("rmdir failed: " + dir.getPath());
+						break;
+					}
+					_roots.directoryDeleted(dirPath, root);
+					dirPath = RootIndex.getParent(dirPath);
 					logger.info("rmdir: " + dir.getPath());
 
 					if (tmpFile == null) {
@@ -586,6 +784,10 @@ public class Slave {
 		return _uploadChecksums;
 	}
 
+	public boolean getZeroCopy() {
+		return _zeroCopy;
+	}
+
 	private AsyncResponse handleCommand(AsyncCommandArgument ac) {
 		return _central.handleCommand(ac);
 	}
@@ -596,7 +798,14 @@ public class Slave {
 			AsyncCommandArgument ac = null;
 
 			try {
-				ac = (AsyncCommandArgument) _sin.readObject();
+				if (_pendingCommand != null) {
+					ac = _pendingCommand;
+					_pendingCommand = null;
+				} else if (_commandCodec != null) {
+					ac = (AsyncCommandArgument) _commandCodec.read(_sin);
+				} else {
+					ac = (AsyncCommandArgument) _sin.readObject();
+				}
 
 				if (ac == null) {
 					continue;
@@ -634,9 +843,12 @@ public class Slave {
 					}
 				}
 			}
-			Thread t = new Thread(new AsyncCommandHandler(ac));
-			t.setName("AsyncCommandHandler - " + ac.getClass());
-			t.start();
+			try {
+				_commandExecutor.execute(_central.getLane(ac), new AsyncCommandHandler(ac));
+			} catch (RejectedExecutionException e) {
+				// refused right away so the master doesn't wait for a timeout
+				sendResponse(new AsyncResponseException(ac.getIndex(), e));
+			}
 		}
 	}
 
@@ -667,17 +879,18 @@ public class Slave {
 	}
 
 	public void rename(String from, String toDirPath, String toName) throws IOException {
-		for (Iterator<Root> iter = _roots.iterator(); iter.hasNext();) {
-			Root root = iter.next();
-
+		List<Root> roots;
+		try {
+			roots = _roots.getMultipleRootsForFile(from);
+		} catch (FileNotFoundException e) {
+			return;
+		}
+		for (Root root : roots) {
 			File fromfile = root.getFile(from);
 
-			if (!fromfile.exists()) {
-				continue;
-			}
-
 			File toDir = root.getFile(toDirPath);
 			toDir.mkdirs();
+			_roots.directoryCreated(toDirPath, root);
 
 			File tofile = new File(toDir.getPath() + File.separator + toName);
 
@@ -690,20 +903,97 @@ public class Slave {
 			if (!fromfile.renameTo(tofile)) {
 				throw new PermissionDeniedException("renameTo(" + fromfile + ", " + tofile + ") failed");
 			}
+			_roots.directoryRenamed(from, toDirPath + "/" + toName, root);
+			if (root.getChecksumCache() != null) {
+				root.getChecksumCache().rename(from, toDirPath + "/" + toName);
+			}
+			if (_analysisCache != null) {
+				_analysisCache.remove(from);
+			}
+		}
+	}
+
+	/**
+	 * Hands the stream over to a writer thread once the handshake is done,
+	 * replies to commands are then sent ahead of queued remerge data.
+	 */
+	public void startResponseWriter() {
+		final AsyncMessageCodec codec = _wireVersion > 0 ? new AsyncMessageCodec() : null;
+		_responseWriter = new PrioritizedObjectWriter(_sout, "ResponseWriter", 256) {
+			protected void writeMessage(ObjectOutputStream out, Object message) throws IOException {
+				if (codec == null) {
+					out.writeObject(message);
+				} else {
+					codec.write(out, message);
+				}
+			}
+
+			protected void writeFailed(IOException e) {
+				logger.error("Lost connection to the master while sending a response", e);
+				try {
+					// unblock listenForCommands()
+					_s.close();
+				} catch (IOException e1) {
+				}
+			}
+		};
+		_responseWriter.start();
+	}
+
+	/**
+	 * Sets the wire format agreed on during the handshake.
+	 * @param wireVersion {@link AsyncMessageCodec} version, 0 for java serialization.
+	 */
+	public void setWireVersion(int wireVersion) {
+		_wireVersion = wireVersion;
+		_commandCodec = wireVersion > 0 ? new AsyncMessageCodec() : null;
+	}
+
+	/**
+	 * Hands a command read during the handshake over to {@link #listenForCommands()}.
+	 */
+	public void setPendingCommand(AsyncCommandArgument command) {
+		_pendingCommand = command;
+	}
+
+	private int getResponsePriority(AsyncResponse response) {
+		if (response instanceof AsyncResponseRemerge) {
+			return PrioritizedObjectWriter.PRIORITY_BULK;
 		}
+		if (response instanceof AsyncResponseTransferStatus
+				|| response instanceof AsyncResponseDiskStatus
+				|| response instanceof AsyncResponseSiteBotMessage) {
+			return PrioritizedObjectWriter.PRIORITY_NORMAL;
+		}
+		// a reply the master is waiting for
+		return PrioritizedObjectWriter.PRIORITY_CONTROL;
 	}
 
-	public synchronized void sendResponse(AsyncResponse response) {
+	public void sendResponse(AsyncResponse response) {
 		if (response == null) {
 			// handler doesn't return anything or it sends reply on it's own
 			// (threaded for example)
 			return;
 		}
+		sendResponse(response, getResponsePriority(response));
+	}
 
+	/**
+	 * Sends a response on the given lane of the response writer, messages of
+	 * the same priority are written in the order they were sent.
+	 * @param priority one of the {@link PrioritizedObjectWriter} priorities.
+	 */
+	public void sendResponse(AsyncResponse response, int priority) {
 		try {
-			_sout.writeObject(response);
-			_sout.flush();
-			_sout.reset();
+			if (_responseWriter != null) {
+				_responseWriter.write(response, priority);
+			} else {
+				synchronized (this) {
+					_sout.writeObject(response);
+					_sout.flush();
+					_sout.reset();
+				}
+			}
 			if (!(response instanceof AsyncResponseTransferStatus)) {
 				logger.debug("Slave wrote response - " + response);
 			}
@@ -741,6 +1031,28 @@ public class Slave {
 		return _sslProtocols;
 	}
 	
+	/**
+	 * @return the load of every root that has unfinished transfers on it.
+	 */
+	public HashMap<Root, RootLoad> getRootLoads() {
+		HashMap<Root, RootLoad> loads = new HashMap<Root, RootLoad>();
+		synchronized (_transfers) {
+			for (Transfer transfer : _transfers.values()) {
+				Root root = transfer.getRoot();
+				if (root == null || transfer.isFinished()) {
+					continue;
+				}
+				RootLoad load = loads.get(root);
+				if (load == null) {
+					load = new RootLoad();
+					loads.put(root, load);
+				}
+				load.addTransfer(transfer);
+			}
+		}
+		return loads;
+	}
+
 	public HashMap<TransferIndex, Transfer> getTransferMap() {
 		synchronized (_transfers) {
 			return new HashMap<TransferIndex, Transfer>(_transfers);
@@ -787,6 +1099,10 @@ public class Slave {
 		return _concurrentRootIteration;
 	}
 
+	public boolean rootIndex() {
+		return _rootIndex;
+	}
+
 	public boolean ignoreCRCRemerge() {
 		return _ignoreCRCRemerge;
 	}
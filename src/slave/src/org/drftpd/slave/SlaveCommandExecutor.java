@@ -0,0 +1,175 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.drftpd.slave.async.AsyncResponseSlaveLoad;
+
+/**
+ * Runs the commands received from the master on bounded thread pools, one
+ * per lane, so a burst of disk bound commands cannot delay pings or transfer
+ * setup and cannot spawn an unbounded number of threads.<br>
+ * Each lane is configured in slave.conf with lane.&lt;name&gt;.threads and
+ * lane.&lt;name&gt;.queue, the latter being the number of queued commands
+ * above which the lane is reported as saturated to the master.<br>
+ * The transfer lane never queues, a transfer arriving while all its threads
+ * are busy is refused right away instead of waiting until the master gives up.
+ * @version $Id$
+ */
+public class SlaveCommandExecutor {
+
+	private static final Logger logger = Logger.getLogger(SlaveCommandExecutor.class);
+
+	/**
+	 * Short commands a user or the master is waiting on: pings, transfer setup, remerge throttling.
+	 */
+	public static final String CONTROL = "control";
+
+	/**
+	 * Commands lasting as long as the transfer they run.
+	 */
+	public static final String TRANSFER = "transfer";
+
+	/**
+	 * Disk bound commands: checksums, deletes and the plugin handlers.
+	 */
+	public static final String IO = "io";
+
+	/**
+	 * Remerges, which walk every root and may run for minutes.
+	 */
+	public static final String REMERGE = "remerge";
+
+	private final Slave _slave;
+
+	private final LinkedHashMap<String, Lane> _lanes = new LinkedHashMap<String, Lane>();
+
+	public SlaveCommandExecutor(Slave slave, Properties cfg) {
+		_slave = slave;
+		addLane(cfg, CONTROL, 4, 64, true);
+		addLane(cfg, TRANSFER, 100, 0, false);
+		addLane(cfg, IO, 4, 32, true);
+		addLane(cfg, REMERGE, 1, 4, true);
+	}
+
+	private void addLane(Properties cfg, String name, int threads, int queue, boolean queueing) {
+		threads = Integer.parseInt(cfg.getProperty("lane." + name + ".threads", Integer.toString(threads)));
+		if (queueing) {
+			queue = Integer.parseInt(cfg.getProperty("lane." + name + ".queue", Integer.toString(queue)));
+		}
+		_lanes.put(name, new Lane(name, Math.max(1, threads), Math.max(1, queue), queueing));
+		logger.debug("Command lane " + name + " uses " + threads + " threads");
+	}
+
+	/**
+	 * Runs the command in the given lane, unknown lanes use the {@link #IO} lane.
+	 * @throws RejectedExecutionException if the lane doesn't queue commands
+	 * and all its threads are busy.
+	 */
+	public void execute(String lane, Runnable command) {
+		Lane l = _lanes.get(lane);
+		if (l == null) {
+			l = _lanes.get(IO);
+		}
+		try {
+			l.execute(command);
+		} catch (RejectedExecutionException e) {
+			if (l._saturated.compareAndSet(false, true)) {
+				logger.warn("Command lane " + l._name + " is full, refusing commands");
+				reportLoad();
+			}
+			throw new RejectedExecutionException("All " + l.getMaximumPoolSize()
+					+ " threads of the " + l._name + " lane are busy");
+		}
+		if (l.getQueue().size() >= l._saturationLimit && l._saturated.compareAndSet(false, true)) {
+			logger.warn("Command lane " + l._name + " is saturated with " + l.getQueue().size() + " queued commands");
+			reportLoad();
+		}
+	}
+
+	/**
+	 * @return the current load of every lane.
+	 */
+	public AsyncResponseSlaveLoad getLoad() {
+		String[] lanes = new String[_lanes.size()];
+		int[] active = new int[lanes.length];
+		int[] queued = new int[lanes.length];
+		boolean[] saturated = new boolean[lanes.length];
+		int i = 0;
+		for (Map.Entry<String, Lane> entry : _lanes.entrySet()) {
+			Lane lane = entry.getValue();
+			lanes[i] = entry.getKey();
+			active[i] = lane.getActiveCount();
+			queued[i] = lane.getQueue().size();
+			saturated[i] = lane._saturated.get();
+			i++;
+		}
+		return new AsyncResponseSlaveLoad(lanes, active, queued, saturated);
+	}
+
+	private void reportLoad() {
+		try {
+			_slave.sendResponse(getLoad());
+		} catch (RuntimeException e) {
+			logger.debug("Unable to report the slave load", e);
+		}
+	}
+
+	private class Lane extends ThreadPoolExecutor {
+		private final String _name;
+
+		private final int _saturationLimit;
+
+		private final AtomicBoolean _saturated = new AtomicBoolean();
+
+		private Lane(final String name, int threads, int saturationLimit, boolean queueing) {
+			super(threads, threads, 60L, TimeUnit.SECONDS, queueing ? new LinkedBlockingQueue<Runnable>()
+					: new SynchronousQueue<Runnable>(),
+					new ThreadFactory() {
+						private AtomicInteger _count = new AtomicInteger();
+
+						public Thread newThread(Runnable r) {
+							return new Thread(r, "AsyncCommandHandler - " + name + " - " + _count.incrementAndGet());
+						}
+					});
+			allowCoreThreadTimeOut(true);
+			_name = name;
+			_saturationLimit = saturationLimit;
+		}
+
+		@Override
+		protected void afterExecute(Runnable r, Throwable t) {
+			if (getQueue().isEmpty() && _saturated.compareAndSet(true, false)) {
+				logger.info("Command lane " + _name + " caught up");
+				reportLoad();
+			}
+		}
+	}
+}
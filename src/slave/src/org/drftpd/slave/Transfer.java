@@ -26,6 +26,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
 import java.util.zip.CheckedOutputStream;
@@ -36,7 +40,6 @@ import org.drftpd.exceptions.FileExistsException;
 import org.drftpd.exceptions.ObjectNotFoundException;
 import org.drftpd.exceptions.TransferDeniedException;
 import org.drftpd.io.AddAsciiOutputStream;
-import org.drftpd.io.PhysicalFile;
 import org.drftpd.slave.async.AsyncResponseDiskStatus;
 import org.drftpd.slave.async.AsyncResponseTransferStatus;
 import org.drftpd.util.HostMask;
@@ -50,11 +53,15 @@ public class Transfer {
 
 	private CRC32 _checksum = null;
 
+	private Long _cachedChecksum = null;
+
 	private Connection _conn;
 
 	private char _direction;
 
 	private long _finished = 0;
+
+	private volatile Root _root = null;
 	
 	private ThrottledInputStream _int;
 
@@ -88,6 +95,12 @@ public class Transfer {
 	
 	private long _maxSpeed = 0L;
 
+	private long _lastStatus = 0L;
+
+	private long _lastSpeedCheck = 0L;
+
+	private boolean _firstSpeedCheck = true;
+
 	/**
 	 * Start undefined transfer.
 	 */
@@ -149,6 +162,9 @@ public class Transfer {
 	}
 
 	public long getChecksum() {
+		if (_cachedChecksum != null) {
+			return _cachedChecksum;
+		}
 		if (_checksum == null) {
 			return 0;
 		}
@@ -239,6 +255,14 @@ public class Transfer {
 		_maxSpeed = maxSpeed;
 	}
 
+	/**
+	 * @return the root this transfer reads from or writes to, null until it
+	 * is known.
+	 */
+	public Root getRoot() {
+		return _root;
+	}
+
 	public boolean isReceivingUploading() {
 		return _direction == Transfer.TRANSFER_RECEIVING_UPLOAD;
 	}
@@ -256,12 +280,18 @@ public class Transfer {
 					+ separator + filename + " exists");
 		} catch (FileNotFoundException ex) {
 		}
-		String root = _slave.getRoots().getARootFileDir(dirname).getPath();
+		_root = _slave.getRoots().getARootDir(dirname);
+		String root = _root.getFile(dirname).getPath();
 
+		List<UploadAnalysis> analyses = null;
 		try {
 			_out = new FileOutputStream(new File(root + separator
 					+ filename));
 
+			analyses = _slave.startUploadAnalyses(_pathForUpload);
+			if (!analyses.isEmpty()) {
+				_out = new AnalyzingOutputStream(_out, analyses);
+			}
 			if (_slave.getUploadChecksums()) {
 				_checksum = new CRC32();
 				_out = new CheckedOutputStream(_out, _checksum);
@@ -278,6 +308,14 @@ public class Transfer {
 			}
 
 			transfer(null);
+			// closed first so the cached last modified time is final
+			_out.close();
+			if (_checksum != null) {
+				_slave.cacheChecksum(_pathForUpload, _checksum.getValue());
+			}
+			if (!analyses.isEmpty()) {
+				_slave.cacheUploadAnalyses(_pathForUpload, analyses);
+			}
 			_slave.sendResponse(new AsyncResponseDiskStatus(_slave
 					.getDiskStatus()));
 			return getTransferStatus();
@@ -300,22 +338,21 @@ public class Transfer {
 				} catch (IOException e) {
 				}
 			}
+			if (analyses != null) {
+				for (UploadAnalysis analysis : analyses) {
+					analysis.close();
+				}
+			}
 		}
 	}
 
 	public TransferStatus sendFile(String path, char type, long resumePosition, String inetAddress)
 			throws IOException, TransferDeniedException {
 		try {
+			_root = _slave.getRoots().getRootForFile(path);
+			FileInputStream file = new FileInputStream(_root.getFile(path));
+			_in = file;
 
-			_in = new FileInputStream(new PhysicalFile(_slave.getRoots()
-					.getFile(path)));
-
-			if (_slave.getDownloadChecksums()) {
-				_checksum = new CRC32();
-				_in = new CheckedInputStream(_in, _checksum);
-			}
-
-			_in.skip(resumePosition);
 			accept(_slave.getCipherSuites(), _slave.getSSLProtocols(), _slave.getBufferSize());
 
 			if (!checkMasks(inetAddress, _sock.getInetAddress())) {
@@ -327,10 +364,31 @@ public class Transfer {
 				_direction = Transfer.TRANSFER_SENDING_DOWNLOAD;
 			}
 
+			Transfer associatedUpload;
 			try {
-				transfer(getUploadForPath(path));
+				associatedUpload = getUploadForPath(path);
 			} catch (ObjectNotFoundException e) {
-				transfer(null);
+				associatedUpload = null;
+			}
+			boolean complete = resumePosition == 0 && associatedUpload == null;
+			if (_slave.getDownloadChecksums()) {
+				// a complete download of a known file doesn't need checksumming
+				_cachedChecksum = complete ? _slave.getCachedChecksum(path) : null;
+				if (_cachedChecksum == null) {
+					_checksum = new CRC32();
+				}
+			}
+			if (canTransferChannel()) {
+				transferChannel(file.getChannel(), resumePosition, associatedUpload);
+			} else {
+				if (_checksum != null) {
+					_in = new CheckedInputStream(_in, _checksum);
+				}
+				_in.skip(resumePosition);
+				transfer(associatedUpload);
+			}
+			if (complete && _checksum != null) {
+				_slave.cacheChecksum(path, _checksum.getValue());
 			}
 			return getTransferStatus();
 		} finally {
@@ -395,13 +453,10 @@ public class Transfer {
 
 			byte[] buff = new byte[Math.max(_slave.getBufferSize(), 65535)];
 			int count;
-			long currentTime = System.currentTimeMillis();
+			_lastStatus = System.currentTimeMillis();
 			//max speed buffer
 			_int = new ThrottledInputStream(_in,_maxSpeed);
 			
-			boolean first = true;
-			long lastCheck = 0;
-			
 			try {
 				while (true) {
 					if (_abortReason != null) {
@@ -422,28 +477,7 @@ public class Transfer {
 						continue; // waiting for upload to catch up
 					}
 					// count != -1
-					if ((System.currentTimeMillis() - currentTime) >= 1000) {
-						TransferStatus ts = getTransferStatus();
-						if (ts.isFinished()) {
-							throw new TransferFailedException("Transfer was aborted - " + _abortReason,ts);
-						}
-						_slave.sendResponse(new AsyncResponseTransferStatus(ts));
-						currentTime = System.currentTimeMillis();
-					}
-					
-					// Min Speed Check
-					if (_minSpeed > 0) {
-						lastCheck = (lastCheck == 0 ? System.currentTimeMillis() : lastCheck);
-						long delay = System.currentTimeMillis() - lastCheck;
-
-						if (first ? delay >= 20000 : delay >= 10000) {
-							first = false;
-							if (getXferSpeed() < _minSpeed) {
-								throw new TransferSlowException("Transfer was aborted - '" + String.valueOf(getXferSpeed() + "' is < '" + _minSpeed + "'"), getTransferStatus());
-							}
-						}
-					}
-					
+					updateProgress();
 					_transfered += count;
 					_out.write(buff, 0, count);
 				}
@@ -463,6 +497,116 @@ public class Transfer {
 		}
 	}
 	
+	/**
+	 * @return true if the data can be sent straight from the file to the
+	 * socket, which requires a plain socket and no conversion or throttling
+	 * of the data.
+	 */
+	private boolean canTransferChannel() {
+		return _slave.getZeroCopy() && _mode != 'A' && _maxSpeed <= 0
+				&& _sock.getChannel() != null;
+	}
+
+	/**
+	 * Sends the file using {@link FileChannel#transferTo}, letting the kernel
+	 * copy the data from the page cache to the socket.<br>
+	 * If checksums are enabled the sent range is read back to update the CRC,
+	 * the data is then most likely still in the page cache.
+	 */
+	private void transferChannel(FileChannel file, long position,
+			Transfer associatedUpload) throws IOException {
+		try {
+			_started = System.currentTimeMillis();
+			_lastStatus = _started;
+			SocketChannel sock = _sock.getChannel();
+			int chunk = Math.max(_slave.getBufferSize(), 65535);
+			byte[] buff = _checksum == null ? null : new byte[chunk];
+			long count;
+
+			try {
+				while (true) {
+					if (_abortReason != null) {
+						throw new TransferFailedException("Transfer was aborted - " + _abortReason, getTransferStatus());
+					}
+					count = file.transferTo(position, chunk, sock);
+					if (count == 0 && position >= file.size()) {
+						if (associatedUpload == null) {
+							break; // done transferring
+						}
+						if (associatedUpload.getTransferStatus().isFinished()) {
+							break; // done transferring
+						}
+						try {
+							Thread.sleep(500);
+						} catch (InterruptedException e) {
+						}
+						continue; // waiting for upload to catch up
+					}
+					if (buff != null) {
+						updateChecksum(file, position, count, buff);
+					}
+					updateProgress();
+					_transfered += count;
+					position += count;
+				}
+			} catch (IOException e) {
+				if (e instanceof TransferFailedException || e instanceof TransferSlowException) {
+					throw e;
+				}
+				throw new TransferFailedException(e, getTransferStatus());
+			}
+		} finally {
+			_finished = System.currentTimeMillis();
+			_slave.removeTransfer(this); // transfers are added in setting up
+											// the transfer,
+											// issueListenToSlave()/issueConnectToSlave()
+		}
+	}
+
+	private void updateChecksum(FileChannel file, long position, long count,
+			byte[] buff) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(buff);
+		while (count > 0) {
+			buffer.clear();
+			buffer.limit((int) Math.min(count, buff.length));
+			int read = file.read(buffer, position);
+			if (read == -1) {
+				throw new IOException("File was truncated while being sent");
+			}
+			_checksum.update(buff, 0, read);
+			position += read;
+			count -= read;
+		}
+	}
+
+	/**
+	 * Sends a status update to the master every second and aborts the
+	 * transfer if it is slower than the minimum speed.
+	 */
+	private void updateProgress() throws IOException {
+		if ((System.currentTimeMillis() - _lastStatus) >= 1000) {
+			TransferStatus ts = getTransferStatus();
+			if (ts.isFinished()) {
+				throw new TransferFailedException("Transfer was aborted - " + _abortReason,ts);
+			}
+			_slave.sendResponse(new AsyncResponseTransferStatus(ts));
+			_lastStatus = System.currentTimeMillis();
+		}
+		
+		// Min Speed Check
+		if (_minSpeed > 0) {
+			_lastSpeedCheck = (_lastSpeedCheck == 0 ? System.currentTimeMillis() : _lastSpeedCheck);
+			long delay = System.currentTimeMillis() - _lastSpeedCheck;
+
+			if (_firstSpeedCheck ? delay >= 20000 : delay >= 10000) {
+				_firstSpeedCheck = false;
+				if (getXferSpeed() < _minSpeed) {
+					throw new TransferSlowException("Transfer was aborted - '" + String.valueOf(getXferSpeed() + "' is < '" + _minSpeed + "'"), getTransferStatus());
+				}
+			}
+		}
+	}
+
 	private boolean checkMasks(String maskString, InetAddress connectedAddress) {
 		HostMask mask = new HostMask(maskString);
 		
@@ -0,0 +1,44 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+/**
+ * Analysis of a single upload, fed with the data in the order it is written.
+ * @version $Id$
+ */
+public interface UploadAnalysis {
+
+	/**
+	 * Called for every block written to the file.
+	 */
+	public void update(byte[] buff, int offset, int length);
+
+	/**
+	 * Called once the upload completed and the file is closed.
+	 * @param length the size of the uploaded file.
+	 * @return the result to cache for the file, null if the data didn't allow
+	 * a result, the file is then read again when the result is asked for.
+	 */
+	public Object getResult(long length);
+
+	/**
+	 * Called once the upload is over, whether it completed or not, to free
+	 * what the analysis holds.
+	 */
+	public void close();
+}
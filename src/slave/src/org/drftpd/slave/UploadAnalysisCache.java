@@ -0,0 +1,109 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the results of the {@link UploadAnalysis analyses} of recent uploads
+ * in memory until the master asks for them.<br>
+ * Like the {@link ChecksumCache} an entry is only used while the size and
+ * last modified time of the file still match the ones it was made for, the
+ * least recently used entries are dropped once the cache is full.
+ * @version $Id$
+ */
+public class UploadAnalysisCache {
+
+	private static class CachedResults {
+		private final long _size;
+
+		private final long _lastModified;
+
+		private final Map<Class<?>, Object> _results;
+
+		private CachedResults(long size, long lastModified, Map<Class<?>, Object> results) {
+			_size = size;
+			_lastModified = lastModified;
+			_results = results;
+		}
+	}
+
+	private final LinkedHashMap<String, CachedResults> _entries;
+
+	public UploadAnalysisCache(final int maxEntries) {
+		_entries = new LinkedHashMap<String, CachedResults>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResults> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Stores the results of an upload, keyed by their class.
+	 */
+	public synchronized void put(String path, long size, long lastModified, Iterable<?> results) {
+		HashMap<Class<?>, Object> map = new HashMap<Class<?>, Object>();
+		for (Object result : results) {
+			map.put(result.getClass(), result);
+		}
+		if (map.isEmpty()) {
+			_entries.remove(path);
+		} else {
+			_entries.put(path, new CachedResults(size, lastModified, map));
+		}
+	}
+
+	/**
+	 * @return the result of the given type for the file, null if there is none
+	 * or the file has changed since.
+	 */
+	public synchronized <T> T get(String path, long size, long lastModified, Class<T> type) {
+		CachedResults entry = _entries.get(path);
+		if (entry == null) {
+			return null;
+		}
+		if (entry._size != size || entry._lastModified != lastModified) {
+			_entries.remove(path);
+			return null;
+		}
+		return type.cast(entry._results.get(type));
+	}
+
+	/**
+	 * Drops the entries of the path and of everything underneath it.
+	 */
+	public synchronized void remove(String path) {
+		_entries.remove(path);
+		String prefix = path.endsWith("/") ? path : path + "/";
+		for (Iterator<String> iter = _entries.keySet().iterator(); iter.hasNext();) {
+			if (iter.next().startsWith(prefix)) {
+				iter.remove();
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return _entries.size();
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave;
+
+/**
+ * Creates the analyses run on the data of uploads while it is written to
+ * disk, so the results are known without reading the file again.<br>
+ * Analyzers are registered on the {@link Slave} by the plugins answering
+ * the matching requests of the master, usually from the constructor of
+ * their handler.
+ * @version $Id$
+ */
+public interface UploadAnalyzer {
+
+	/**
+	 * @param path the path of the file being uploaded.
+	 * @return the analysis of this upload, null if the file is of no interest
+	 * to this analyzer.
+	 */
+	public UploadAnalysis startAnalysis(String path);
+}
@@ -0,0 +1,515 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave.async;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.drftpd.slave.ConnectInfo;
+import org.drftpd.slave.DiskStatus;
+import org.drftpd.slave.LightRemoteInode;
+import org.drftpd.slave.TransferIndex;
+import org.drftpd.slave.TransferStatus;
+
+/**
+ * Compact binary encoding of the core master/slave messages.<br>
+ * Every core message is written as a frame made of a type byte, the payload
+ * length and the payload itself, all as block data of the object stream.
+ * Messages the codec does not know, subclasses defined by plugins for instance,
+ * are written with a single type byte followed by the serialized object, so
+ * both can be mixed on the same stream.<br>
+ * The codec is only used once both sides agreed on {@link #VERSION} during the
+ * handshake. Instances keep their buffers between messages and are not thread
+ * safe, use one per stream direction.
+ * @version $Id$
+ */
+public class AsyncMessageCodec {
+
+	private static final Logger logger = Logger.getLogger(AsyncMessageCodec.class);
+
+	/**
+	 * Version of the wire format, bumped whenever an existing frame changes.
+	 * New frame types can be added without a bump, unknown frames are skipped.
+	 */
+	public static final int VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte SERIALIZED = 0;
+
+	private static final byte COMMAND_ARGUMENT = 1;
+
+	private static final byte COMMAND = 2;
+
+	private static final byte RESPONSE = 10;
+
+	private static final byte CHECKSUM = 11;
+
+	private static final byte DISK_STATUS = 12;
+
+	private static final byte MAX_PATH = 13;
+
+	private static final byte REMERGE = 14;
+
+	private static final byte SSL_CHECK = 15;
+
+	private static final byte SITEBOT_MESSAGE = 16;
+
+	private static final byte TRANSFER = 17;
+
+	private static final byte TRANSFER_STATUS = 18;
+
+	private static final byte SLAVE_LOAD = 19;
+
+	private byte[] _buffer = new byte[1024];
+
+	private int _size;
+
+	private byte[] _frame = new byte[1024];
+
+	private int _position;
+
+	private int _limit;
+
+	/**
+	 * Writes the message to the stream, does not flush it.
+	 */
+	public void write(ObjectOutputStream out, Object message) throws IOException {
+		_size = 0;
+		byte type = encode(message);
+		if (type == SERIALIZED) {
+			out.writeByte(SERIALIZED);
+			out.writeObject(message);
+			return;
+		}
+		out.writeByte(type);
+		out.writeInt(_size);
+		out.write(_buffer, 0, _size);
+	}
+
+	/**
+	 * Reads the next message from the stream.
+	 * @return the message, or null if it was of an unknown type and was skipped.
+	 */
+	public Object read(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		byte type = in.readByte();
+		if (type == SERIALIZED) {
+			return in.readObject();
+		}
+		_limit = in.readInt();
+		if (_limit < 0) {
+			throw new IOException("Corrupt frame length " + _limit);
+		}
+		if (_frame.length < _limit) {
+			_frame = new byte[Math.max(_limit, _frame.length * 2)];
+		}
+		in.readFully(_frame, 0, _limit);
+		_position = 0;
+		return decode(type);
+	}
+
+	/**
+	 * Encodes the message into the buffer.
+	 * @return the frame type, {@link #SERIALIZED} if the codec does not handle
+	 * the message and nothing was encoded.
+	 */
+	private byte encode(Object message) throws IOException {
+		Class<?> clazz = message.getClass();
+		if (clazz == AsyncCommand.class) {
+			AsyncCommand command = (AsyncCommand) message;
+			writeString(command.getIndex());
+			writeString(command.getName());
+			return COMMAND;
+		}
+		if (clazz == AsyncCommandArgument.class) {
+			AsyncCommandArgument command = (AsyncCommandArgument) message;
+			writeString(command.getIndex());
+			writeString(command.getName());
+			String[] args = command.getArgsArray();
+			if (args == null) {
+				writeInt(-1);
+			} else {
+				writeInt(args.length);
+				for (String arg : args) {
+					writeString(arg);
+				}
+			}
+			return COMMAND_ARGUMENT;
+		}
+		if (clazz == AsyncResponse.class) {
+			writeString(((AsyncResponse) message).getIndex());
+			return RESPONSE;
+		}
+		if (clazz == AsyncResponseChecksum.class) {
+			AsyncResponseChecksum response = (AsyncResponseChecksum) message;
+			writeString(response.getIndex());
+			writeLong(response.getChecksum());
+			return CHECKSUM;
+		}
+		if (clazz == AsyncResponseDiskStatus.class) {
+			DiskStatus status = ((AsyncResponseDiskStatus) message).getDiskStatus();
+			writeLong(status.getBytesAvailable());
+			writeLong(status.getBytesCapacity());
+			return DISK_STATUS;
+		}
+		if (clazz == AsyncResponseMaxPath.class) {
+			AsyncResponseMaxPath response = (AsyncResponseMaxPath) message;
+			writeString(response.getIndex());
+			writeInt(response.getMaxPath());
+			return MAX_PATH;
+		}
+		if (clazz == AsyncResponseRemerge.class) {
+			encodeRemerge((AsyncResponseRemerge) message);
+			return REMERGE;
+		}
+		if (clazz == AsyncResponseSSLCheck.class) {
+			AsyncResponseSSLCheck response = (AsyncResponseSSLCheck) message;
+			writeString(response.getIndex());
+			writeBoolean(response.isSSLReady());
+			return SSL_CHECK;
+		}
+		if (clazz == AsyncResponseSiteBotMessage.class) {
+			writeString(((AsyncResponseSiteBotMessage) message).getMessage());
+			return SITEBOT_MESSAGE;
+		}
+		if (clazz == AsyncResponseTransfer.class) {
+			AsyncResponseTransfer response = (AsyncResponseTransfer) message;
+			ConnectInfo ci = response.getConnectInfo();
+			if (!isEncodable(ci.getTransferStatus())) {
+				return SERIALIZED;
+			}
+			writeString(response.getIndex());
+			writeInt(ci.getPort());
+			writeTransferIndex(ci.getTransferIndex());
+			writeTransferStatus(ci.getTransferStatus());
+			return TRANSFER;
+		}
+		if (clazz == AsyncResponseTransferStatus.class) {
+			TransferStatus status = ((AsyncResponseTransferStatus) message).getTransferStatus();
+			if (status == null || !isEncodable(status)) {
+				return SERIALIZED;
+			}
+			writeTransferStatus(status);
+			return TRANSFER_STATUS;
+		}
+		if (clazz == AsyncResponseSlaveLoad.class) {
+			AsyncResponseSlaveLoad load = (AsyncResponseSlaveLoad) message;
+			String[] lanes = load.getLanes();
+			writeInt(lanes.length);
+			for (int i = 0; i < lanes.length; i++) {
+				writeString(lanes[i]);
+				writeInt(load.getActive()[i]);
+				writeInt(load.getQueued()[i]);
+				writeBoolean(load.getSaturated()[i]);
+			}
+			return SLAVE_LOAD;
+		}
+		return SERIALIZED;
+	}
+
+	private Object decode(byte type) throws IOException {
+		switch (type) {
+		case COMMAND:
+			return new AsyncCommand(readString(), readString());
+		case COMMAND_ARGUMENT: {
+			String index = readString();
+			String name = readString();
+			int count = readInt();
+			String[] args = null;
+			if (count >= 0) {
+				args = new String[count];
+				for (int i = 0; i < count; i++) {
+					args[i] = readString();
+				}
+			}
+			return new AsyncCommandArgument(index, name, args);
+		}
+		case RESPONSE:
+			return new AsyncResponse(readString());
+		case CHECKSUM:
+			return new AsyncResponseChecksum(readString(), readLong());
+		case DISK_STATUS:
+			return new AsyncResponseDiskStatus(new DiskStatus(readLong(), readLong()));
+		case MAX_PATH:
+			return new AsyncResponseMaxPath(readString(), readInt());
+		case REMERGE:
+			return decodeRemerge();
+		case SSL_CHECK:
+			return new AsyncResponseSSLCheck(readString(), readBoolean());
+		case SITEBOT_MESSAGE:
+			return new AsyncResponseSiteBotMessage(readString());
+		case TRANSFER: {
+			String index = readString();
+			int port = readInt();
+			TransferIndex transferIndex = readTransferIndex();
+			return new AsyncResponseTransfer(index, new ConnectInfo(port, transferIndex, readTransferStatus()));
+		}
+		case TRANSFER_STATUS:
+			return new AsyncResponseTransferStatus(readTransferStatus());
+		case SLAVE_LOAD: {
+			int count = readInt();
+			if (count < 0) {
+				throw new IOException("Corrupt lane count " + count);
+			}
+			String[] lanes = new String[count];
+			int[] active = new int[count];
+			int[] queued = new int[count];
+			boolean[] saturated = new boolean[count];
+			for (int i = 0; i < count; i++) {
+				lanes[i] = readString();
+				active[i] = readInt();
+				queued[i] = readInt();
+				saturated[i] = readBoolean();
+			}
+			return new AsyncResponseSlaveLoad(lanes, active, queued, saturated);
+		}
+		default:
+			logger.warn("Skipping a message of unknown type " + type + ", the other side runs a newer version");
+			return null;
+		}
+	}
+
+	/**
+	 * Directory listings repeat the same few owners over and over, they are
+	 * written once per message and referenced by position afterwards.
+	 */
+	private void encodeRemerge(AsyncResponseRemerge remerge) throws IOException {
+		writeString(remerge.getPath());
+		writeLong(remerge.getLastModified());
+		List<LightRemoteInode> files = remerge.getFiles();
+		writeInt(files.size());
+		HashMap<String, Integer> owners = new HashMap<String, Integer>();
+		String previous = "";
+		for (LightRemoteInode file : files) {
+			previous = writeName(previous, file.getName());
+			writeBoolean(file.isDirectory());
+			writeLong(file.lastModified());
+			writeLong(file.length());
+			writeOwner(owners, file.getUsername());
+			writeOwner(owners, file.getGroup());
+		}
+	}
+
+	private AsyncResponseRemerge decodeRemerge() throws IOException {
+		String path = readString();
+		long lastModified = readLong();
+		int count = readInt();
+		ArrayList<LightRemoteInode> files = new ArrayList<LightRemoteInode>(count);
+		ArrayList<String> owners = new ArrayList<String>();
+		String name = "";
+		for (int i = 0; i < count; i++) {
+			name = readName(name);
+			boolean isDir = readBoolean();
+			long fileModified = readLong();
+			long length = readLong();
+			String username = readOwner(owners);
+			String group = readOwner(owners);
+			files.add(new LightRemoteInode(name, username, group, isDir, fileModified, length));
+		}
+		return new AsyncResponseRemerge(path, files, lastModified);
+	}
+
+	private void writeOwner(HashMap<String, Integer> owners, String owner) throws IOException {
+		Integer position = owners.get(owner);
+		if (position != null) {
+			writeInt(position);
+			return;
+		}
+		owners.put(owner, owners.size());
+		writeInt(-1);
+		writeString(owner);
+	}
+
+	private String readOwner(ArrayList<String> owners) throws IOException {
+		int position = readInt();
+		if (position >= 0) {
+			if (position >= owners.size()) {
+				throw new IOException("Corrupt owner reference " + position);
+			}
+			return owners.get(position);
+		}
+		String owner = readString();
+		owners.add(owner);
+		return owner;
+	}
+
+	/**
+	 * A status carrying an exception keeps the whole message serialized.
+	 */
+	private boolean isEncodable(TransferStatus status) {
+		return status == null || status.getThrowable() == null;
+	}
+
+	private void writeTransferIndex(TransferIndex transferIndex) throws IOException {
+		writeBoolean(transferIndex != null);
+		if (transferIndex != null) {
+			writeInt(transferIndex.getIndex());
+		}
+	}
+
+	private TransferIndex readTransferIndex() throws IOException {
+		return readBoolean() ? new TransferIndex(readInt()) : null;
+	}
+
+	private void writeTransferStatus(TransferStatus status) throws IOException {
+		writeBoolean(status != null);
+		if (status != null) {
+			writeLong(status.getElapsed());
+			writeLong(status.getTransfered());
+			writeLong(status.getChecksum());
+			writeBoolean(status.isFinished());
+			writeTransferIndex(status.getTransferIndex());
+		}
+	}
+
+	private TransferStatus readTransferStatus() throws IOException {
+		if (!readBoolean()) {
+			return null;
+		}
+		long elapsed = readLong();
+		long transfered = readLong();
+		long checksum = readLong();
+		boolean finished = readBoolean();
+		return new TransferStatus(elapsed, transfered, checksum, finished, readTransferIndex());
+	}
+
+	/**
+	 * Sorted listings share long prefixes, a name is written as the length of
+	 * the prefix it shares with the previous one and the rest of it.
+	 * @return the name
+	 */
+	private String writeName(String previous, String name) throws IOException {
+		int max = Math.min(previous.length(), name.length());
+		int shared = 0;
+		while (shared < max && previous.charAt(shared) == name.charAt(shared)) {
+			shared++;
+		}
+		if (shared > 0 && Character.isHighSurrogate(name.charAt(shared - 1))) {
+			// keep the surrogate pair in one piece, a half of it doesn't encode
+			shared--;
+		}
+		writeInt(shared);
+		writeString(name.substring(shared));
+		return name;
+	}
+
+	private String readName(String previous) throws IOException {
+		int shared = readInt();
+		if (shared < 0 || shared > previous.length()) {
+			throw new IOException("Corrupt name prefix " + shared);
+		}
+		String rest = readString();
+		return shared == 0 ? rest : previous.substring(0, shared).concat(rest);
+	}
+
+	private void ensureCapacity(int bytes) {
+		if (_buffer.length - _size < bytes) {
+			byte[] buffer = new byte[Math.max(_size + bytes, _buffer.length * 2)];
+			System.arraycopy(_buffer, 0, buffer, 0, _size);
+			_buffer = buffer;
+		}
+	}
+
+	private void writeBoolean(boolean value) {
+		ensureCapacity(1);
+		_buffer[_size++] = (byte) (value ? 1 : 0);
+	}
+
+	private void writeInt(int value) {
+		ensureCapacity(4);
+		_buffer[_size++] = (byte) (value >>> 24);
+		_buffer[_size++] = (byte) (value >>> 16);
+		_buffer[_size++] = (byte) (value >>> 8);
+		_buffer[_size++] = (byte) value;
+	}
+
+	private void writeLong(long value) {
+		writeInt((int) (value >>> 32));
+		writeInt((int) value);
+	}
+
+	private void writeString(String value) {
+		if (value == null) {
+			writeInt(-1);
+			return;
+		}
+		int length = value.length();
+		ensureCapacity(4 + length);
+		int start = _size;
+		_size += 4;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80) {
+				// not plain ascii, let the charset deal with it
+				_size = start;
+				byte[] bytes = value.getBytes(UTF8);
+				writeInt(bytes.length);
+				ensureCapacity(bytes.length);
+				System.arraycopy(bytes, 0, _buffer, _size, bytes.length);
+				_size += bytes.length;
+				return;
+			}
+			_buffer[_size++] = (byte) c;
+		}
+		_buffer[start] = (byte) (length >>> 24);
+		_buffer[start + 1] = (byte) (length >>> 16);
+		_buffer[start + 2] = (byte) (length >>> 8);
+		_buffer[start + 3] = (byte) length;
+	}
+
+	private void require(int bytes) throws IOException {
+		if (_limit - _position < bytes) {
+			throw new EOFException("Frame ended prematurely");
+		}
+	}
+
+	private String readString() throws IOException {
+		int length = readInt();
+		if (length < 0) {
+			return null;
+		}
+		require(length);
+		String value = new String(_frame, _position, length, UTF8);
+		_position += length;
+		return value;
+	}
+
+	private boolean readBoolean() throws IOException {
+		require(1);
+		return _frame[_position++] != 0;
+	}
+
+	private int readInt() throws IOException {
+		require(4);
+		int value = ((_frame[_position] & 0xff) << 24) | ((_frame[_position + 1] & 0xff) << 16)
+				| ((_frame[_position + 2] & 0xff) << 8) | (_frame[_position + 3] & 0xff);
+		_position += 4;
+		return value;
+	}
+
+	private long readLong() throws IOException {
+		return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+	}
+}
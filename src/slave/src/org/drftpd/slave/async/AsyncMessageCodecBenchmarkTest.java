@@ -0,0 +1,139 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave.async;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+import org.drftpd.slave.LightRemoteInode;
+import org.drftpd.slave.TransferIndex;
+import org.drftpd.slave.TransferStatus;
+
+/**
+ * Compares java serialization, as used before the binary wire format, with
+ * the {@link AsyncMessageCodec} on remerge and transfer status messages.<br>
+ * The sizes and timings of each round are logged, raise DIRECTORIES and
+ * FILES for a workload the size of a real remerge.
+ * @version $Id$
+ */
+public class AsyncMessageCodecBenchmarkTest extends TestCase {
+	private static final Logger logger = Logger.getLogger(AsyncMessageCodecBenchmarkTest.class);
+
+	private static final int DIRECTORIES = 200;
+
+	private static final int FILES = 50;
+
+	private static final int ROUNDS = 3;
+
+	private static List<Object> createMessages() {
+		List<Object> messages = new ArrayList<Object>();
+		TransferIndex transferIndex = new TransferIndex(1);
+		for (int d = 0; d < DIRECTORIES; d++) {
+			List<LightRemoteInode> inodes = new ArrayList<LightRemoteInode>();
+			for (int f = 0; f < FILES; f++) {
+				inodes.add(new LightRemoteInode("Some.Release.Name-GRP.r" + f, "user" + (f % 3), "group",
+						false, 1262304000000L + f, 50000000L));
+			}
+			messages.add(new AsyncResponseRemerge("/section/Some.Release.Name-GRP." + d, inodes, 1262304000000L));
+			messages.add(new AsyncResponseTransferStatus(new TransferStatus(d * 1000L, d * 1000000L, 0L, false, transferIndex)));
+		}
+		return messages;
+	}
+
+	private static byte[] writeSerialized(List<Object> messages) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		for (Object message : messages) {
+			out.writeObject(message);
+			out.flush();
+			out.reset();
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static List<Object> readSerialized(byte[] data, int count) throws Exception {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+		List<Object> messages = new ArrayList<Object>(count);
+		for (int i = 0; i < count; i++) {
+			messages.add(in.readObject());
+		}
+		return messages;
+	}
+
+	private static byte[] writeBinary(List<Object> messages) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		AsyncMessageCodec codec = new AsyncMessageCodec();
+		for (Object message : messages) {
+			codec.write(out, message);
+			out.flush();
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static List<Object> readBinary(byte[] data, int count) throws Exception {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+		AsyncMessageCodec codec = new AsyncMessageCodec();
+		List<Object> messages = new ArrayList<Object>(count);
+		for (int i = 0; i < count; i++) {
+			messages.add(codec.read(in));
+		}
+		return messages;
+	}
+
+	public void testCompareWithSerialization() throws Exception {
+		List<Object> messages = createMessages();
+		logger.info(messages.size() + " messages, " + DIRECTORIES * FILES + " files");
+
+		for (int round = 1; round <= ROUNDS; round++) {
+			long start = System.nanoTime();
+			byte[] serialized = writeSerialized(messages);
+			long serializedWrite = System.nanoTime() - start;
+			start = System.nanoTime();
+			List<Object> fromSerialized = readSerialized(serialized, messages.size());
+			long serializedRead = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			byte[] binary = writeBinary(messages);
+			long binaryWrite = System.nanoTime() - start;
+			start = System.nanoTime();
+			List<Object> fromBinary = readBinary(binary, messages.size());
+			long binaryRead = System.nanoTime() - start;
+
+			logger.info("round " + round
+					+ ": serialized " + serialized.length + " bytes, write " + serializedWrite / 1000000
+					+ "ms, read " + serializedRead / 1000000 + "ms"
+					+ " | binary " + binary.length + " bytes, write " + binaryWrite / 1000000
+					+ "ms, read " + binaryRead / 1000000 + "ms");
+
+			assertEquals(messages.size(), fromSerialized.size());
+			assertEquals(messages.size(), fromBinary.size());
+			assertTrue(binary.length < serialized.length);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave.async;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.drftpd.slave.ConnectInfo;
+import org.drftpd.slave.DiskStatus;
+import org.drftpd.slave.LightRemoteInode;
+import org.drftpd.slave.TransferIndex;
+import org.drftpd.slave.TransferStatus;
+
+/**
+ * @version $Id$
+ */
+public class AsyncMessageCodecTest extends TestCase {
+
+	private List<Object> roundTrip(Object... messages) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		AsyncMessageCodec encoder = new AsyncMessageCodec();
+		for (Object message : messages) {
+			encoder.write(out, message);
+		}
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		AsyncMessageCodec decoder = new AsyncMessageCodec();
+		List<Object> result = new ArrayList<Object>();
+		for (int i = 0; i < messages.length; i++) {
+			result.add(decoder.read(in));
+		}
+		return result;
+	}
+
+	public void testCommands() throws Exception {
+		List<Object> result = roundTrip(new AsyncCommand("0a", "ping"),
+				new AsyncCommandArgument("0b", "rename", new String[] { "/a", "/b", "cé" }));
+		AsyncCommand command = (AsyncCommand) result.get(0);
+		assertEquals("0a", command.getIndex());
+		assertEquals("ping", command.getName());
+		AsyncCommandArgument argument = (AsyncCommandArgument) result.get(1);
+		assertEquals(AsyncCommandArgument.class, argument.getClass());
+		assertEquals(Arrays.asList("/a", "/b", "cé"), Arrays.asList(argument.getArgsArray()));
+	}
+
+	public void testRemerge() throws Exception {
+		List<LightRemoteInode> files = new ArrayList<LightRemoteInode>();
+		files.add(new LightRemoteInode("dir", "user", "group", true, 1000L, 0L));
+		files.add(new LightRemoteInode("file.rar", "user", "group", false, 2000L, 15000000L));
+		files.add(new LightRemoteInode("file.nfo", "other", "group", false, 3000L, 512L));
+		AsyncResponseRemerge remerge = (AsyncResponseRemerge) roundTrip(
+				new AsyncResponseRemerge("/some/path", files, 4000L)).get(0);
+		assertEquals("/some/path", remerge.getPath());
+		assertEquals(4000L, remerge.getLastModified());
+		assertEquals(3, remerge.getFiles().size());
+		for (int i = 0; i < files.size(); i++) {
+			LightRemoteInode expected = files.get(i);
+			LightRemoteInode actual = remerge.getFiles().get(i);
+			assertEquals(expected.getName(), actual.getName());
+			assertEquals(expected.isDirectory(), actual.isDirectory());
+			assertEquals(expected.lastModified(), actual.lastModified());
+			assertEquals(expected.length(), actual.length());
+			assertEquals(expected.getUsername(), actual.getUsername());
+			assertEquals(expected.getGroup(), actual.getGroup());
+		}
+	}
+
+	public void testNamesSharingHalfASurrogatePair() throws Exception {
+		List<LightRemoteInode> files = new ArrayList<LightRemoteInode>();
+		files.add(new LightRemoteInode("\uD83C\uDFB5.mp3", "user", "group", false, 1000L, 1L));
+		files.add(new LightRemoteInode("\uD83C\uDFB6.mp3", "user", "group", false, 1000L, 1L));
+		AsyncResponseRemerge remerge = (AsyncResponseRemerge) roundTrip(
+				new AsyncResponseRemerge("/some/path", files, 4000L)).get(0);
+		assertEquals("\uD83C\uDFB5.mp3", remerge.getFiles().get(0).getName());
+		assertEquals("\uD83C\uDFB6.mp3", remerge.getFiles().get(1).getName());
+	}
+
+	public void testStatusMessages() throws Exception {
+		TransferIndex index = new TransferIndex(42);
+		List<Object> result = roundTrip(new AsyncResponseDiskStatus(new DiskStatus(10L, 20L)),
+				new AsyncResponseTransferStatus(new TransferStatus(100L, 2000L, 12345L, false, index)),
+				new AsyncResponseTransfer("0c", new ConnectInfo(1234, index, null)),
+				new AsyncResponseChecksum("0d", 0xCAFEBABEL));
+		DiskStatus status = ((AsyncResponseDiskStatus) result.get(0)).getDiskStatus();
+		assertEquals(10L, status.getBytesAvailable());
+		assertEquals(20L, status.getBytesCapacity());
+		TransferStatus ts = ((AsyncResponseTransferStatus) result.get(1)).getTransferStatus();
+		assertEquals(2000L, ts.getTransfered());
+		assertEquals(12345L, ts.getChecksum());
+		assertEquals(index, ts.getTransferIndex());
+		ConnectInfo ci = ((AsyncResponseTransfer) result.get(2)).getConnectInfo();
+		assertEquals(1234, ci.getPort());
+		assertEquals(index, ci.getTransferIndex());
+		assertNull(ci.getTransferStatus());
+		assertEquals(0xCAFEBABEL, ((AsyncResponseChecksum) result.get(3)).getChecksum());
+	}
+
+	public void testFallbackToSerialization() throws Exception {
+		TransferIndex index = new TransferIndex(7);
+		List<Object> result = roundTrip(new AsyncResponseException("0e", new Exception("failed")),
+				new AsyncResponseTransferStatus(new TransferStatus(index, new Exception("aborted"))),
+				new AsyncResponseMaxPath("0f", 255));
+		assertEquals("failed", ((AsyncResponseException) result.get(0)).getThrowable().getMessage());
+		assertEquals("aborted", ((AsyncResponseTransferStatus) result.get(1))
+				.getTransferStatus().getThrowable().getMessage());
+		assertEquals(255, ((AsyncResponseMaxPath) result.get(2)).getMaxPath());
+	}
+}
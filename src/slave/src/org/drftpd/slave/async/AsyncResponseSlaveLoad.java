@@ -0,0 +1,110 @@
+/*
+ * This file is part of DrFTPD, Distributed FTP Daemon.
+ *
+ * DrFTPD is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * DrFTPD is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with DrFTPD; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.drftpd.slave.async;
+
+import java.util.Arrays;
+
+/**
+ * Sent by the slave whenever one of its command lanes becomes saturated or
+ * catches up again, so the master can stop piling work onto it.
+ * @version $Id$
+ */
+@SuppressWarnings("serial")
+public class AsyncResponseSlaveLoad extends AsyncResponse {
+	private String[] _lanes;
+
+	private int[] _active;
+
+	private int[] _queued;
+
+	private boolean[] _saturated;
+
+	public AsyncResponseSlaveLoad(String[] lanes, int[] active, int[] queued, boolean[] saturated) {
+		super("SlaveLoad");
+		_lanes = lanes;
+		_active = active;
+		_queued = queued;
+		_saturated = saturated;
+	}
+
+	public String[] getLanes() {
+		return _lanes;
+	}
+
+	private int getPosition(String lane) {
+		for (int i = 0; i < _lanes.length; i++) {
+			if (_lanes[i].equals(lane)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of commands being processed in the lane.
+	 */
+	public int getActive(String lane) {
+		int i = getPosition(lane);
+		return i == -1 ? 0 : _active[i];
+	}
+
+	/**
+	 * @return the number of commands waiting for a thread in the lane.
+	 */
+	public int getQueued(String lane) {
+		int i = getPosition(lane);
+		return i == -1 ? 0 : _queued[i];
+	}
+
+	/**
+	 * @return true if the lane has more work queued than the slave is willing to buffer.
+	 */
+	public boolean isSaturated(String lane) {
+		int i = getPosition(lane);
+		return i != -1 && _saturated[i];
+	}
+
+	/**
+	 * @return true if any lane is saturated.
+	 */
+	public boolean isSaturated() {
+		for (boolean saturated : _saturated) {
+			if (saturated) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	int[] getActive() {
+		return _active;
+	}
+
+	int[] getQueued() {
+		return _queued;
+	}
+
+	boolean[] getSaturated() {
+		return _saturated;
+	}
+
+	public String toString() {
+		return getClass().getName() + "[lanes=" + Arrays.toString(_lanes) + ",active=" + Arrays.toString(_active)
+				+ ",queued=" + Arrays.toString(_queued) + ",saturated=" + Arrays.toString(_saturated) + "]";
+	}
+}